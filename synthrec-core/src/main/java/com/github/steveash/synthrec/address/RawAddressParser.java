@@ -18,6 +18,9 @@
 
 package com.github.steveash.synthrec.address;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Takes a raw string and parses the address and assigns tags to it
  * @author Steve Ash
@@ -25,4 +28,25 @@ package com.github.steveash.synthrec.address;
 public interface RawAddressParser {
 
     Address parse(String rawAddress);
+
+    /**
+     * Parses a batch of addresses at once; parsers that can amortize work across a batch should override this
+     * and supportsBatch()
+     * @param rawAddresses
+     * @return the parsed addresses in the same order as the raw addresses
+     */
+    default List<Address> parseBatch(List<String> rawAddresses) {
+        List<Address> results = new ArrayList<>(rawAddresses.size());
+        for (String rawAddress : rawAddresses) {
+            results.add(parse(rawAddress));
+        }
+        return results;
+    }
+
+    /**
+     * @return true if parseBatch is cheaper than calling parse for each address; otherwise callers just call parse
+     */
+    default boolean supportsBatch() {
+        return false;
+    }
 }
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.canonical;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Sets;
+
+/**
+ * The shared string interner (see Normalizers.interner()) whose retention is configurable, since a strong interner
+ * keeps every value of every record it ever saw alive for the life of the JVM.  See InternStrategy for the options.
+ *
+ * Record values are interned through internField() which only interns the values of fields that turn out to be low
+ * cardinality: the first fieldSampleSize values of each field are watched and if more than fieldMaxCardinality of
+ * them are distinct then that field's values are passed through as is from then on.  Interning high cardinality
+ * fields like addresses and phones saves almost nothing and just churns (or grows) the interner. Raw fields, normal
+ * fields, and features are decided separately (see ValueKind) even when they have the same name.
+ *
+ * Input pipeline runs open a scope for the length of the run; the field decisions are reset when a scope opens on
+ * an idle interner. For the SCOPED strategy the interned values are dropped when the last open scope closes and
+ * nothing is interned while no scope is open (values are passed through as is) so that work outside of a pipeline
+ * run (i.e. generating) doesn't grow it.
+ *
+ * Thread safe
+ * @author Steve Ash
+ */
+public class ConfigurableInterner implements Interner<String> {
+
+    /**
+     * What kind of record value is being interned; each kind has its own field decisions
+     */
+    public enum ValueKind {
+        FIELD,
+        NORMAL,
+        FEATURE
+    }
+
+    private static final Interner<String> PASS_THROUGH = sample -> sample;
+
+    private static final int DEFAULT_MAX_SIZE = 1_000_000;
+    private static final int DEFAULT_FIELD_MAX_CARDINALITY = 10_000;
+    private static final int DEFAULT_FIELD_SAMPLE_SIZE = 100_000;
+
+    private volatile InternStrategy strategy = InternStrategy.STRONG;
+    private volatile int maxSize = DEFAULT_MAX_SIZE;
+    private volatile int fieldMaxCardinality = DEFAULT_FIELD_MAX_CARDINALITY;
+    private volatile int fieldSampleSize = DEFAULT_FIELD_SAMPLE_SIZE;
+    private volatile Interner<String> delegate = Interners.newStrongInterner();
+    // field name -> gate for each ValueKind (by ordinal)
+    private volatile ConcurrentHashMap<String, FieldGate>[] gates = makeGates();
+    private int openScopes = 0;
+
+    /**
+     * Changes how values are held from now on; anything interned before this is released by the interner
+     * @param strategy
+     * @param maxSize only used by the BOUNDED strategy
+     */
+    public synchronized void configure(InternStrategy strategy, int maxSize) {
+        checkArgument(maxSize > 0, "max size must be positive", maxSize);
+        this.strategy = checkNotNull(strategy);
+        this.maxSize = maxSize;
+        this.delegate = makeDelegate();
+    }
+
+    /**
+     * @param maxCardinality fields with more distinct values than this (in the sample) aren't interned; zero
+     * interns every field
+     * @param sampleSize the number of values of each field to watch before deciding it is low cardinality
+     */
+    public synchronized void configureFields(int maxCardinality, int sampleSize) {
+        checkArgument(maxCardinality >= 0, "max cardinality cannot be negative", maxCardinality);
+        checkArgument(sampleSize > 0, "sample size must be positive", sampleSize);
+        this.fieldMaxCardinality = maxCardinality;
+        this.fieldSampleSize = sampleSize;
+        this.gates = makeGates();
+    }
+
+    public InternStrategy getStrategy() {
+        return strategy;
+    }
+
+    @Override
+    public String intern(String sample) {
+        return delegate.intern(sample);
+    }
+
+    /**
+     * Interns the value only if the field (of this kind) has so far proven to be low cardinality
+     * @param kind
+     * @param field
+     * @param value
+     * @return
+     */
+    public String internField(ValueKind kind, String field, String value) {
+        if (fieldMaxCardinality <= 0) {
+            return intern(value);
+        }
+        FieldGate gate = gates[kind.ordinal()].computeIfAbsent(field, k -> new FieldGate());
+        if (gate.shouldIntern(value, fieldMaxCardinality, fieldSampleSize)) {
+            return intern(value);
+        }
+        return value;
+    }
+
+    /**
+     * Opens a scope for one input pipeline run; close it when the run is finished
+     * @return
+     */
+    public synchronized Scope openScope() {
+        if (openScopes == 0) {
+            // start the run fresh: the fields of this input might not look like the last one
+            this.gates = makeGates();
+        }
+        openScopes += 1;
+        if (openScopes == 1 && strategy == InternStrategy.SCOPED) {
+            this.delegate = makeDelegate();
+        }
+        return new Scope();
+    }
+
+    private synchronized void closeScope() {
+        checkState(openScopes > 0, "no scope is open");
+        openScopes -= 1;
+        if (openScopes == 0 && strategy == InternStrategy.SCOPED) {
+            this.delegate = makeDelegate();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentHashMap<String, FieldGate>[] makeGates() {
+        ConcurrentHashMap<String, FieldGate>[] result = new ConcurrentHashMap[ValueKind.values().length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new ConcurrentHashMap<>();
+        }
+        return result;
+    }
+
+    // only called holding the lock
+    private Interner<String> makeDelegate() {
+        switch (strategy) {
+            case STRONG:
+                return Interners.newStrongInterner();
+            case WEAK:
+                return Interners.newWeakInterner();
+            case BOUNDED:
+                return new MapInterner(CacheBuilder.newBuilder()
+                        .maximumSize(maxSize)
+                        .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+                        .<String, String>build()
+                        .asMap());
+            case SCOPED:
+                return openScopes > 0 ? new MapInterner(new ConcurrentHashMap<>()) : PASS_THROUGH;
+            default:
+                throw new IllegalArgumentException("unknown strategy " + strategy);
+        }
+    }
+
+    /**
+     * A pipeline run's hold on the interner; closing it more than once is a no-op
+     */
+    public class Scope implements AutoCloseable {
+
+        private boolean closed = false;
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                closeScope();
+            }
+        }
+    }
+
+    private static class MapInterner implements Interner<String> {
+
+        private final ConcurrentMap<String, String> values;
+
+        private MapInterner(ConcurrentMap<String, String> values) {this.values = values;}
+
+        @Override
+        public String intern(String sample) {
+            String prev = values.putIfAbsent(sample, sample);
+            return prev != null ? prev : sample;
+        }
+    }
+
+    // decides whether a field is low cardinality from its first values; only locks until it has decided
+    private static class FieldGate {
+
+        private volatile Boolean decision = null;
+        private Set<String> distinct = Sets.newHashSet();
+        private int seen = 0;
+
+        boolean shouldIntern(String value, int maxCardinality, int sampleSize) {
+            Boolean result = decision;
+            if (result != null) {
+                return result;
+            }
+            synchronized (this) {
+                if (decision != null) {
+                    return decision;
+                }
+                distinct.add(value);
+                seen += 1;
+                if (distinct.size() > maxCardinality) {
+                    decide(false);
+                    return false;
+                }
+                if (seen >= sampleSize) {
+                    decide(true);
+                }
+                return true;
+            }
+        }
+
+        private void decide(boolean intern) {
+            this.distinct = null;
+            this.decision = intern;
+        }
+    }
+}
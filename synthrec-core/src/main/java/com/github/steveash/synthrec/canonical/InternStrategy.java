@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.canonical;
+
+/**
+ * How the shared string interner holds on to the canonical instances
+ * @see ConfigurableInterner
+ * @author Steve Ash
+ */
+public enum InternStrategy {
+    STRONG,     // kept forever; fine for short runs or small inputs
+    WEAK,       // collected once nothing else references them
+    BOUNDED,    // the most recently used maxSize values are kept
+    SCOPED      // kept until the input pipeline run that interned them finishes; not interned outside of a run
+}
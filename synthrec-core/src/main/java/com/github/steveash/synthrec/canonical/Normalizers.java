@@ -18,10 +18,9 @@
 
 package com.github.steveash.synthrec.canonical;
 
+import com.github.steveash.synthrec.canonical.ConfigurableInterner.ValueKind;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Functions;
-import com.google.common.collect.Interner;
-import com.google.common.collect.Interners;
 
 /**
  * Constructor methods for common situations; most normalizers are written XtoY where X is the expected state of the
@@ -30,7 +29,7 @@ import com.google.common.collect.Interners;
  */
 public class Normalizers {
 
-    private static final Interner<String> strings = Interners.newStrongInterner();
+    private static final ConfigurableInterner strings = new ConfigurableInterner();
 
     public static StringNormalizer rawToStandard() {
         return GeneralNormalizer.INSTANCE;
@@ -44,10 +43,18 @@ public class Normalizers {
         return strings::intern;
     }
 
-    public static Interner<String> interner() {
+    public static ConfigurableInterner interner() {
         return strings;
     }
 
+    /**
+     * Interns a record value of the given field (of the given kind) if that field is low cardinality
+     * @see ConfigurableInterner#internField(ValueKind, String, String)
+     */
+    public static String internField(ValueKind kind, String field, String value) {
+        return strings.internField(kind, field, value);
+    }
+
     public static StringNormalizer onlyDigits() {
         return CharMatcher.digit()::retainFrom;
     }
@@ -19,6 +19,7 @@
 package com.github.steveash.synthrec.collect;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.common.base.Function;
 import com.google.common.base.Supplier;
@@ -42,6 +43,15 @@ public class LazyMap<K,V> extends ForwardingMap<K,V> {
         return new LazyMap<>(map, valueFactory);
     }
 
+    /**
+     * A lazy map that is safe to read from many threads; each missing value is created exactly once (other
+     * threads asking for the same key wait for it) and values that are present are read without locking
+     */
+    public static <K,V> LazyMap<K,V> makeConcurrent(Function<K,V> valueFactory) {
+        Map<K,V> map = new ConcurrentHashMap<>();
+        return new LazyMap<>(map, valueFactory);
+    }
+
     private final Map<K,V> delegate;
     private final Function<K,V> factory;
 
@@ -54,8 +64,7 @@ public class LazyMap<K,V> extends ForwardingMap<K,V> {
     public V get(Object key) {
         V value = super.get(key);
         if (value == null) {
-            value = factory.apply((K)key);
-            delegate.put((K)key, value);
+            value = delegate.computeIfAbsent((K) key, factory::apply);
         }
         return value;
     }
@@ -18,15 +18,20 @@
 
 package com.github.steveash.synthrec.collect;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.Iterator;
 
+import com.github.steveash.synthrec.data.BinaryValues;
 import com.github.steveash.synthrec.stat.MutableMultinomial;
 import com.google.common.collect.Iterators;
 
 import it.unimi.dsi.fastutil.ints.Int2DoubleMap.Entry;
 import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
 import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
@@ -67,10 +72,35 @@ public class VocabCounter<T> implements Serializable {
         addByIndex(vocab.putIfAbsent(value), countToAdd);
     }
 
+    /**
+     * Adds all of the counts from the other counter into this one; if the other counter shares our vocabulary then
+     * this just sums by index, otherwise each index is resolved to its value (through any tombstones) and added by
+     * value
+     * @param other
+     */
+    public void addAll(VocabCounter<T> other) {
+        ObjectIterator<Entry> iter = other.counts.int2DoubleEntrySet().fastIterator();
+        while (iter.hasNext()) {
+            Entry next = iter.next();
+            if (other.vocab == this.vocab) {
+                addByIndex(next.getIntKey(), next.getDoubleValue());
+            } else {
+                addByValue(other.vocab.getForIndex(next.getIntKey()), next.getDoubleValue());
+            }
+        }
+    }
+
     public double countByIndex(int valueIndex) {
         return counts.get(valueIndex);
     }
 
+    /**
+     * @return iterator over the vocab indexes that have counts in this counter
+     */
+    public IntIterator indexIterator() {
+        return counts.keySet().iterator();
+    }
+
     public int entryCount() {
         return counts.size();
     }
@@ -96,12 +126,41 @@ public class VocabCounter<T> implements Serializable {
         ObjectIterator<Entry> iter = counts.int2DoubleEntrySet().fastIterator();
         while (iter.hasNext()) {
             Entry next = iter.next();
+            // indexes that were merged by reducing or deidentifying resolve to the same value so sum them
             T value = vocab.getForIndex(next.getIntKey());
-            multi.set(value, next.getDoubleValue());
+            multi.add(value, next.getDoubleValue());
         }
         return multi;
     }
 
+    /**
+     * Writes the counts as two primitive arrays (vocab indexes and counts); the vocab itself is written separately
+     * @param out
+     * @throws IOException
+     */
+    public void writeBinary(DataOutput out) throws IOException {
+        int[] indexes = counts.keySet().toIntArray();
+        double[] values = new double[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            values[i] = counts.get(indexes[i]);
+        }
+        BinaryValues.writeInts(out, indexes);
+        BinaryValues.writeDoubles(out, values);
+    }
+
+    /**
+     * Adds the counts written by writeBinary() into this counter
+     * @param in
+     * @throws IOException
+     */
+    public void readBinary(DataInput in) throws IOException {
+        int[] indexes = BinaryValues.readInts(in);
+        double[] values = BinaryValues.readDoubles(in);
+        for (int i = 0; i < indexes.length; i++) {
+            addByIndex(indexes[i], values[i]);
+        }
+    }
+
     public void printTo(PrintWriter pw) {
         convertToMultinomial().printTo(pw);
     }
@@ -15,25 +15,34 @@
  * You should have received a copy of the GNU General Public License
  * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package com.github.steveash.synthrec.collect;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Objects;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 
-import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
 
+import com.github.steveash.synthrec.data.BinaryValues;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 
 /**
@@ -48,54 +57,118 @@ import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
  * the old index, you will get the value pointed to by the new index.  Since part of the point of a
  * vocabulary is to kind of immutably map things we have to always be able to answer even old queries
  * backwards compatibly
+ * - reads never lock: value -> index is a concurrent hash map and index -> value is an array behind a volatile
+ * reference; tombstones are kept in the array itself. Writers serialize on the write lock (which callers can also
+ * hold to make a few calls atomic) and every slot write (append or update) re-publishes the array reference so
+ * readers on other threads see it
+ * - once profiling is done you can freeze() the vocab which swaps in a compact immutable form (primitive map and
+ * a trimmed array) for generation; mutating a frozen vocab throws
+ * - values that were reduced (see reduceIndexValue) remember their original value in memory so that counts
+ * appended in the same run find the original's index and the reduction can be decided again with the new count.
+ * The originals are raw identifying values so they are never serialized or written in the binary format and
+ * should be dropped with clearOriginals() as soon as they aren't needed
  * @author Steve Ash
  */
-@NotThreadSafe
+@ThreadSafe
 public class Vocabulary<T> implements Iterable<T>, Serializable {
 
     private static final long serialVersionUID = -3522063725938515747L;
 
-    private final Int2IntOpenHashMap tombstones = new Int2IntOpenHashMap();
-    // id -> value, can contain nulls for redirects
-    private final ArrayList<T> indexToValue = Lists.newArrayList();
-    // value -> id, best representation of the real live vocab data (i.e. for size() which might differ from index2val)
-    private final Object2IntOpenHashMap<T> valueToIndex = new Object2IntOpenHashMap<T>();
+    // this is the serialized form of the original (locking) implementation so existing count dags still load
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("tombstones", Int2IntOpenHashMap.class),
+            new ObjectStreamField("indexToValue", ArrayList.class),
+            new ObjectStreamField("valueToIndex", Object2IntOpenHashMap.class),
+            new ObjectStreamField("frozen", boolean.class)
+    };
 
-    {
-        // dont store stuff at zero
-        indexToValue.add(null);
-    }
+    private static final int INITIAL_CAPACITY = 16;
+
+    // slot tags in the binary format
+    private static final byte SLOT_EMPTY = 0;
+    private static final byte SLOT_REDIRECT = 1;
+    private static final byte SLOT_VALUE = 2;
 
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // either Live or Frozen; readers read this once per call and then never lock
+    private transient volatile State<T> state;
+    // only writers take the write lock; the read lock is never needed but kept for callers that want it
+    private transient ReadWriteLock lock;
+    // the original value of every index that was reduced and its reverse, and for each index the other indexes
+    // whose reduction merged into it; only in memory (see clearOriginals) and only used holding the write lock
+    private transient Int2ObjectOpenHashMap<T> indexToOriginal;
+    private transient Object2IntOpenHashMap<T> originalToIndex;
+    private transient Int2ObjectOpenHashMap<IntArrayList> reducedInto;
 
     public Vocabulary() {
+        this.state = new Live<>(INITIAL_CAPACITY);
+        this.lock = new ReentrantReadWriteLock();
+        this.indexToOriginal = new Int2ObjectOpenHashMap<>();
+        this.originalToIndex = new Object2IntOpenHashMap<>();
+        this.reducedInto = new Int2ObjectOpenHashMap<>();
     }
 
     public Vocabulary(Vocabulary<T> copyFrom) {
-        indexToValue.clear();
-        valueToIndex.clear();
-        indexToValue.addAll(copyFrom.indexToValue);
-        valueToIndex.putAll(copyFrom.valueToIndex);
-        tombstones.putAll(copyFrom.tombstones);
+        this.lock = new ReentrantReadWriteLock();
+        copyFrom.lock.writeLock().lock();
+        try {
+            this.indexToOriginal = new Int2ObjectOpenHashMap<>(copyFrom.indexToOriginal);
+            this.originalToIndex = new Object2IntOpenHashMap<>(copyFrom.originalToIndex);
+            this.reducedInto = new Int2ObjectOpenHashMap<>(copyFrom.reducedInto.size());
+            for (Int2ObjectOpenHashMap.Entry<IntArrayList> entry : copyFrom.reducedInto.int2ObjectEntrySet()) {
+                reducedInto.put(entry.getIntKey(), new IntArrayList(entry.getValue()));
+            }
+            State<T> source = copyFrom.state;
+            int limit = source.limit();
+            Live<T> live = new Live<>(Math.max(INITIAL_CAPACITY, limit));
+            for (int i = 1; i < limit; i++) {
+                live.append(source.slot(i));
+            }
+            for (int i = 1; i < limit; i++) {
+                Object maybe = source.slot(i);
+                if (maybe != null && !(maybe instanceof Redirect)) {
+                    live.valueToIndex.put((T) maybe, i);
+                }
+            }
+            this.state = live;
+        } finally {
+            copyFrom.lock.writeLock().unlock();
+        }
     }
 
     /**
-     * NOTE You can't iterate over this concurrently and mutate it -- the lock isn't held while you iterate
-     * and the iterator isn't concurrent or safe
+     * NOTE the iterator is weakly consistent: it sees all of the values added before it was created and might
+     * or might not see concurrent updates
      * @return
      */
     @Override
     public Iterator<T> iterator() {
-        lock.readLock().lock();
-        try {
-            if (valueToIndex.isEmpty()) {
-                return Collections.emptyIterator();
+        State<T> current = this.state;
+        int limit = current.limit();
+        return new Iterator<T>() {
+            private int next = advance(1);
+
+            private int advance(int from) {
+                while (from < limit && !isValue(current.slot(from))) {
+                    from += 1;
+                }
+                return from;
             }
-            // first element is a null placeholder
-            return Iterators.filter(indexToValue.subList(1, indexToValue.size()).iterator(), Objects::nonNull);
-        } finally {
-            lock.readLock().unlock();
-        }
+
+            @Override
+            public boolean hasNext() {
+                return next < limit;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Object value = current.slot(next);
+                next = advance(next + 1);
+                return (T) value;
+            }
+        };
     }
 
     /**
@@ -105,15 +178,8 @@ public class Vocabulary<T> implements Iterable<T>, Serializable {
      * @return
      */
     public T getForIndexNoResolve(int index) {
-        lock.readLock().lock();
-        try {
-            if (index <= 0 || index > (indexToValue.size() - 1)) {
-                throw new IllegalArgumentException("No index exists " + index);
-            }
-            return indexToValue.get(index);
-        } finally {
-            lock.readLock().unlock();
-        }
+        Object maybe = checkedSlot(this.state, index);
+        return isValue(maybe) ? (T) maybe : null;
     }
 
     /**
@@ -122,41 +188,42 @@ public class Vocabulary<T> implements Iterable<T>, Serializable {
      * @return the value or null if it has been removed and not redirected (not sure if thats possible in current code)
      */
     public T getForIndex(int index) {
-        lock.readLock().lock();
-        try {
-            if (index <= 0 || index > (indexToValue.size() - 1)) {
-                throw new IllegalArgumentException("No index exists " + index);
-            }
-            T maybe = indexToValue.get(index);
-            if (maybe == null) {
-                int maybeRedirect = tombstones.get(index);
-                if (maybeRedirect != 0) {
-                    return getForIndex(maybeRedirect);
-                }
-            }
-            return maybe;
-        } finally {
-            lock.readLock().unlock();
+        State<T> current = this.state;
+        Object maybe = checkedSlot(current, index);
+        while (maybe instanceof Redirect) {
+            maybe = checkedSlot(current, ((Redirect) maybe).target);
         }
+        return (T) maybe;
     }
 
     /**
      * if this value is absent then this adds it and returns the resulting index for that item; otherwise it just
-     * returns the index for the existing value mapping
+     * returns the index for the existing value mapping. A value that was reduced away returns its original index
+     * (which now resolves to the reduced value) so that more counts of it go to the same place
      * @param value
      * @return
      */
     public int putIfAbsent(T value) {
+        Preconditions.checkNotNull(value, "cant insert null in vocab");
+        int existing = this.state.indexOf(value);
+        if (existing > 0) {
+            return existing;
+        }
         lock.writeLock().lock();
         try {
-            Preconditions.checkNotNull(value, "cant insert null in vocab");
-            if (valueToIndex.containsKey(value)) {
-                return valueToIndex.getInt(value);
+            Live<T> live = live();
+            existing = live.indexOf(value);
+            if (existing > 0) {
+                return existing;
+            }
+            int original = originalToIndex.getInt(value);
+            if (original > 0) {
+                return original;
             }
             Preconditions.checkArgument(value instanceof Serializable, "not serializable", value.getClass(), value);
-            indexToValue.add(value);
-            int newId = indexToValue.size() - 1;
-            valueToIndex.put(value, newId);
+            // publish the value in the array before the mapping so anyone that finds the index can read it
+            int newId = live.append(value);
+            live.valueToIndex.put(value, newId);
             return newId;
         } finally {
             lock.writeLock().unlock();
@@ -164,12 +231,7 @@ public class Vocabulary<T> implements Iterable<T>, Serializable {
     }
 
     public int nextIndex() {
-        lock.readLock().lock();
-        try {
-            return indexToValue.size();
-        } finally {
-            lock.readLock().unlock();
-        }
+        return this.state.limit();
     }
 
     /**
@@ -179,17 +241,11 @@ public class Vocabulary<T> implements Iterable<T>, Serializable {
      * @return
      */
     public int getIndexFor(T value) {
-        lock.readLock().lock();
-        ;
-        try {
-            int idx = valueToIndex.getInt(value);
-            if (idx <= 0) {
-                throw new IllegalArgumentException("No mapping exists for value " + value);
-            }
-            return idx;
-        } finally {
-            lock.readLock().unlock();
+        int idx = this.state.indexOf(value);
+        if (idx <= 0) {
+            throw new IllegalArgumentException("No mapping exists for value " + value);
         }
+        return idx;
     }
 
     /**
@@ -198,16 +254,11 @@ public class Vocabulary<T> implements Iterable<T>, Serializable {
      * @return
      */
     public int tryGetIndexFor(T value) {
-        lock.readLock().lock();
-        try {
-            int idx = valueToIndex.getInt(value);
-            if (idx <= 0) {
-                return -1;
-            }
-            return idx;
-        } finally {
-            lock.readLock().unlock();
+        int idx = this.state.indexOf(value);
+        if (idx <= 0) {
+            return -1;
         }
+        return idx;
     }
 
     /**
@@ -225,23 +276,23 @@ public class Vocabulary<T> implements Iterable<T>, Serializable {
                     newValue.getClass(),
                     newValue
             );
-            if (valueToIndex.containsKey(newValue)) {
+            Live<T> live = live();
+            Object oldValue = checkedSlot(live, index);
+            int targetId = live.indexOf(newValue);
+            if (targetId > 0) {
                 // this is a remapping that will merge into another cell, so we will have a tombstone
-                T oldValue = indexToValue.get(index);
-                Preconditions.checkNotNull(oldValue, "cant update a retired/tombstoned index", index);
-                int targetId = valueToIndex.getInt(newValue);
+                Preconditions.checkArgument(isValue(oldValue), "cant update a retired/tombstoned index", index);
                 if (targetId == index) {
                     return index;
                 }
-                tombstones.put(index, targetId);
-                indexToValue.set(index, null); // we're tombstoning it
-                valueToIndex.removeInt(oldValue);
+                live.set(index, new Redirect(targetId));
+                live.valueToIndex.remove(oldValue);
                 return targetId;
             } else {
-                T oldValue = indexToValue.set(index, newValue);
-                Preconditions.checkState(oldValue != null, "somehow a null value is in here");
-                valueToIndex.removeInt(oldValue);
-                valueToIndex.put(newValue, index);
+                Preconditions.checkState(isValue(oldValue), "somehow a null value is in here");
+                live.set(index, newValue);
+                live.valueToIndex.put(newValue, index);
+                live.valueToIndex.remove(oldValue);
                 return index;
             }
         } finally {
@@ -249,67 +300,427 @@ public class Vocabulary<T> implements Iterable<T>, Serializable {
         }
     }
 
-    public boolean contains(T value) {
-        lock.readLock().lock();
+    /**
+     * Like updateIndexValue but for reducing (i.e. replacing an identifier with its pattern): the index's current
+     * value is remembered as its original so that the reduction can be decided again (or undone) later
+     * @param index
+     * @param reduced
+     * @return the index that this index now resolves to
+     * @see #getOriginalForIndex(int)
+     * @see #restoreOriginal(int)
+     */
+    public int reduceIndexValue(int index, T reduced) {
+        lock.writeLock().lock();
         try {
-            return valueToIndex.containsKey(value);
+            Object original = checkedSlot(live(), index);
+            Preconditions.checkArgument(isValue(original), "can only reduce an index with a value", index);
+            if (original.equals(reduced)) {
+                return index;
+            }
+            int result = updateIndexValue(index, reduced);
+            indexToOriginal.put(index, (T) original);
+            originalToIndex.put((T) original, index);
+            if (result != index) {
+                reducedInto.computeIfAbsent(result, k -> new IntArrayList()).add(index);
+            }
+            return result;
         } finally {
-            lock.readLock().unlock();
+            lock.writeLock().unlock();
         }
     }
 
-    public int size() {
-        lock.readLock().lock();
+    /**
+     * @param index
+     * @return the value this index had before it was reduced or null if it wasn't reduced
+     */
+    @Nullable
+    public T getOriginalForIndex(int index) {
+        lock.writeLock().lock();
         try {
-            return valueToIndex.size();
+            return indexToOriginal.get(index);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Undoes reduceIndexValue so that the index resolves to its original value again. If the reduced value was
+     * stored in this index (it was new when reduced) then it moves to a new index and everything that was reduced
+     * into it follows
+     * @param index
+     */
+    public void restoreOriginal(int index) {
+        lock.writeLock().lock();
+        try {
+            Live<T> live = live();
+            T original = indexToOriginal.remove(index);
+            Preconditions.checkArgument(original != null, "index was never reduced", index);
+            originalToIndex.removeInt(original);
+            Object current = checkedSlot(live, index);
+            if (isValue(current)) {
+                int moved = live.append(current);
+                live.valueToIndex.put((T) current, moved);
+                IntArrayList followers = reducedInto.remove(index);
+                if (followers != null) {
+                    for (int i = 0; i < followers.size(); i++) {
+                        live.set(followers.getInt(i), new Redirect(moved));
+                    }
+                    reducedInto.put(moved, followers);
+                }
+            } else if (current instanceof Redirect) {
+                IntArrayList siblings = reducedInto.get(((Redirect) current).target);
+                if (siblings != null) {
+                    siblings.rem(index);
+                }
+            }
+            int existing = live.indexOf(original);
+            if (existing > 0) {
+                live.set(index, new Redirect(existing));
+            } else {
+                live.set(index, original);
+                live.valueToIndex.put(original, index);
+            }
         } finally {
-            lock.readLock().unlock();
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forgets the original values of everything that was reduced so that the raw values don't outlive the run that
+     * needed them; after this reductions are permanent
+     */
+    public void clearOriginals() {
+        lock.writeLock().lock();
+        try {
+            indexToOriginal.clear();
+            originalToIndex.clear();
+            reducedInto.clear();
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
+    public boolean contains(T value) {
+        return this.state.indexOf(value) > 0;
+    }
+
+    public int size() {
+        return this.state.size();
+    }
+
+    /**
+     * Writers hold the write lock; callers can hold it to make a sequence of calls atomic with respect to other
+     * writers. Reads never take the lock
+     * @return
+     */
     public ReadWriteLock getLock() {
         return lock;
     }
 
+    /**
+     * Swaps in the compact immutable form of this vocab; any later mutation throws. Reads that are in flight
+     * are fine, they finish against the live form
+     */
+    public void freeze() {
+        lock.writeLock().lock();
+        try {
+            if (isFrozen()) {
+                return;
+            }
+            this.state = new Frozen<>(this.state);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isFrozen() {
+        return this.state instanceof Frozen;
+    }
+
     public void printTo(Consumer<String> logSink) {
-        lock.readLock().lock();
+        State<T> current = this.state;
+        logSink.accept("Vocab{size=" + current.size());
+        for (int i = 1; i < current.limit(); i++) {
+            Object maybe = current.slot(i);
+            if (isValue(maybe)) {
+                logSink.accept("  " + i + "->" + maybe);
+            }
+        }
+        logSink.accept("}");
+    }
+
+    public boolean equalTo(Vocabulary<T> other) {
+        // equality is only based on the live set -- not the datastructures.  Semantically if you have
+        // a vocab that had some redirects -- and after the redirects it is equivalent to another with
+        // no redirects, then they are still semantically representing ids to the same set with the
+        // same numbers so should be equalTo()
+        State<T> mine = this.state;
+        State<T> theirs = other.state;
+        if (mine.size() != theirs.size()) {
+            return false;
+        }
+        for (int i = 1; i < mine.limit(); i++) {
+            Object maybe = mine.slot(i);
+            if (isValue(maybe) && theirs.indexOf(maybe) != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "Vocabulary{size=" + size() + "}";
+    }
+
+    private Live<T> live() {
+        State<T> current = this.state;
+        Preconditions.checkState(current instanceof Live, "cant modify a frozen vocabulary");
+        return (Live<T>) current;
+    }
+
+    private static Object checkedSlot(State<?> state, int index) {
+        if (index <= 0 || index >= state.limit()) {
+            throw new IllegalArgumentException("No index exists " + index);
+        }
+        return state.slot(index);
+    }
+
+    private static boolean isValue(Object slot) {
+        return slot != null && !(slot instanceof Redirect);
+    }
+
+    /**
+     * Writes the vocab in the binary model format: the slot limit, the frozen flag, and then every slot as a tag
+     * and its value (or redirect target) so that indexes, tombstones, and removed slots all survive the round trip.
+     * The originals of reduced values are never written
+     * @param out
+     * @throws IOException
+     * @see #readBinary(DataInput)
+     */
+    public void writeBinary(DataOutput out) throws IOException {
+        lock.writeLock().lock();
         try {
-            logSink.accept("Vocab{size=" + size());
-            for (int i = 1; i < indexToValue.size(); i++) {
-                T maybe = indexToValue.get(i);
-                if (maybe != null) {
-                    logSink.accept("  " + i + "->" + maybe);
+            State<T> current = this.state;
+            int limit = current.limit();
+            out.writeInt(limit);
+            out.writeBoolean(current instanceof Frozen);
+            for (int i = 1; i < limit; i++) {
+                Object maybe = current.slot(i);
+                if (maybe == null) {
+                    out.writeByte(SLOT_EMPTY);
+                } else if (maybe instanceof Redirect) {
+                    out.writeByte(SLOT_REDIRECT);
+                    out.writeInt(((Redirect) maybe).target);
+                } else {
+                    out.writeByte(SLOT_VALUE);
+                    BinaryValues.writeValue(out, maybe);
                 }
             }
-            logSink.accept("}");
         } finally {
-            lock.readLock().unlock();
+            lock.writeLock().unlock();
         }
     }
 
-    public boolean equalTo(Vocabulary<T> other) {
-        lock.readLock().lock();
+    public static <T> Vocabulary<T> readBinary(DataInput in) throws IOException {
+        int limit = in.readInt();
+        boolean frozen = in.readBoolean();
+        Live<T> live = new Live<>(Math.max(INITIAL_CAPACITY, limit));
+        Vocabulary<T> vocab = new Vocabulary<>();
+        for (int i = 1; i < limit; i++) {
+            byte tag = in.readByte();
+            if (tag == SLOT_EMPTY) {
+                live.append(null);
+            } else if (tag == SLOT_REDIRECT) {
+                live.append(new Redirect(in.readInt()));
+            } else if (tag == SLOT_VALUE) {
+                Object value = BinaryValues.readValue(in);
+                live.append(value);
+                live.valueToIndex.put((T) value, i);
+            } else {
+                throw new IOException("unknown vocab slot tag " + tag);
+            }
+        }
+        vocab.state = frozen ? new Frozen<>(live) : live;
+        return vocab;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        lock.writeLock().lock();
         try {
-            other.lock.readLock().lock();
-            try {
-                // equality is only based on the live set -- not the datastructures.  Semantically if you have
-                // a vocab that had some redirects -- and after the redirects it is equivalent to another with
-                // no redirects, then they are still semantically representing ids to the same set with the
-                // same numbers so should be equalTo()
-                if (this.valueToIndex.size() != other.valueToIndex.size()) {
-                    return false;
+            State<T> current = this.state;
+            int limit = current.limit();
+            Int2IntOpenHashMap tombstones = new Int2IntOpenHashMap();
+            ArrayList<Object> indexToValue = Lists.newArrayListWithCapacity(limit);
+            Object2IntOpenHashMap<Object> valueToIndex = new Object2IntOpenHashMap<>(current.size());
+            indexToValue.add(null);
+            for (int i = 1; i < limit; i++) {
+                Object maybe = current.slot(i);
+                if (maybe instanceof Redirect) {
+                    tombstones.put(i, ((Redirect) maybe).target);
+                    indexToValue.add(null);
+                } else {
+                    indexToValue.add(maybe);
+                    if (maybe != null) {
+                        valueToIndex.put(maybe, i);
+                    }
                 }
-                return valueToIndex.equals(other.valueToIndex);
-            } finally {
-                other.lock.readLock().unlock();
             }
+            ObjectOutputStream.PutField fields = out.putFields();
+            fields.put("tombstones", tombstones);
+            fields.put("indexToValue", indexToValue);
+            fields.put("valueToIndex", valueToIndex);
+            fields.put("frozen", current instanceof Frozen);
+            out.writeFields();
         } finally {
-            lock.readLock().unlock();
+            lock.writeLock().unlock();
         }
     }
 
-    @Override
-    public String toString() {
-        return "Vocabulary{size=" + size() + "}";
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        Int2IntOpenHashMap tombstones = (Int2IntOpenHashMap) fields.get("tombstones", null);
+        ArrayList<T> indexToValue = (ArrayList<T>) fields.get("indexToValue", null);
+        Object2IntOpenHashMap<T> valueToIndex = (Object2IntOpenHashMap<T>) fields.get("valueToIndex", null);
+        Live<T> live = new Live<>(Math.max(INITIAL_CAPACITY, indexToValue.size()));
+        for (int i = 1; i < indexToValue.size(); i++) {
+            int redirect = tombstones.get(i);
+            live.append(redirect != 0 ? new Redirect(redirect) : indexToValue.get(i));
+        }
+        for (Object2IntOpenHashMap.Entry<T> entry : valueToIndex.object2IntEntrySet()) {
+            live.valueToIndex.put(entry.getKey(), entry.getIntValue());
+        }
+        this.lock = new ReentrantReadWriteLock();
+        this.indexToOriginal = new Int2ObjectOpenHashMap<>();
+        this.originalToIndex = new Object2IntOpenHashMap<>();
+        this.reducedInto = new Int2ObjectOpenHashMap<>();
+        this.state = live;
+        if (fields.get("frozen", false)) {
+            this.state = new Frozen<>(live);
+        }
+    }
+
+    // marks an index that was merged into another index by updateIndexValue
+    private static final class Redirect implements Serializable {
+
+        private static final long serialVersionUID = 8830318003251475531L;
+
+        private final int target;
+
+        private Redirect(int target) {this.target = target;}
+    }
+
+    private abstract static class State<T> {
+        // 0 if the value isn't in the vocab
+        abstract int indexOf(Object value);
+
+        // one past the last assigned index
+        abstract int limit();
+
+        // the value, Redirect, or null at the index; caller checks that index < limit() first
+        abstract Object slot(int index);
+
+        // number of live values
+        abstract int size();
+    }
+
+    private static final class Live<T> extends State<T> {
+
+        private final ConcurrentHashMap<T, Integer> valueToIndex = new ConcurrentHashMap<>();
+        // replaced by a bigger copy when full. Writers store into the array and then write this reference (even
+        // when it's the same array); readers read the reference first so every slot write happens-before any read
+        // that follows it. The reference is always written before limit so reading limit first is safe too
+        private volatile Object[] indexToValue;
+        private volatile int limit = 1;
+
+        private Live(int capacity) {
+            this.indexToValue = new Object[capacity];
+        }
+
+        @Override
+        int indexOf(Object value) {
+            if (value == null) {
+                return 0;
+            }
+            Integer maybe = valueToIndex.get(value);
+            return maybe == null ? 0 : maybe;
+        }
+
+        @Override
+        int limit() {
+            return limit;
+        }
+
+        @Override
+        Object slot(int index) {
+            return indexToValue[index];
+        }
+
+        @Override
+        int size() {
+            return valueToIndex.size();
+        }
+
+        // only called holding the write lock
+        int append(Object value) {
+            int index = limit;
+            Object[] array = indexToValue;
+            if (index == array.length) {
+                array = Arrays.copyOf(array, array.length * 2);
+            }
+            array[index] = value;
+            indexToValue = array; // publish
+            limit = index + 1;
+            return index;
+        }
+
+        // only called holding the write lock; used by reducing/deidentifying to retarget an existing index
+        void set(int index, Object value) {
+            Object[] array = indexToValue;
+            array[index] = value;
+            indexToValue = array; // publish
+        }
+    }
+
+    private static final class Frozen<T> extends State<T> {
+
+        private final Object2IntOpenHashMap<Object> valueToIndex;
+        private final Object[] indexToValue;
+        private final int size;
+
+        private Frozen(State<T> from) {
+            int limit = from.limit();
+            this.indexToValue = new Object[limit];
+            this.valueToIndex = new Object2IntOpenHashMap<>(from.size());
+            for (int i = 1; i < limit; i++) {
+                Object maybe = from.slot(i);
+                indexToValue[i] = maybe;
+                if (isValue(maybe)) {
+                    valueToIndex.put(maybe, i);
+                }
+            }
+            this.valueToIndex.trim();
+            this.size = valueToIndex.size();
+        }
+
+        @Override
+        int indexOf(Object value) {
+            return valueToIndex.getInt(value);
+        }
+
+        @Override
+        int limit() {
+            return indexToValue.length;
+        }
+
+        @Override
+        Object slot(int index) {
+            return indexToValue[index];
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
     }
 }
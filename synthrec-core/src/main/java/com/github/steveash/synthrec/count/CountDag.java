@@ -20,6 +20,8 @@ package com.github.steveash.synthrec.count;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
@@ -41,6 +43,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import com.carrotsearch.hppc.IntOpenHashSet;
 import com.github.steveash.synthrec.collect.VocabCounter;
 import com.github.steveash.synthrec.collect.Vocabulary;
+import com.github.steveash.synthrec.data.BinaryValues;
 import com.github.steveash.synthrec.domain.AssignmentInstance;
 import com.github.steveash.synthrec.domain.MissingPolicy;
 import com.github.steveash.synthrec.stat.MutableMultinomial;
@@ -69,8 +72,8 @@ public class CountDag implements Serializable {
     private static final long serialVersionUID = -3931635880943282125L;
 
     // distrib -> vocab registry for all distributions
-    private DistribVocabRegistry vocabRegistry = new DistribVocabRegistry();
-    private transient VocabHydrater vocabHydrater = new VocabHydrater(vocabRegistry);
+    private DistribVocabRegistry vocabRegistry;
+    private transient VocabHydrater vocabHydrater;
     // factors for each variable
     private Map<String, CountFactor> factorNameMap = Maps.newHashMap();
     // list of the groups that we count
@@ -91,9 +94,24 @@ public class CountDag implements Serializable {
 
     private MissingPolicy missingPolicy = MissingPolicy.SKIP_WHOLE_RECORD;
 
+    // if true then new count factors keep their conditional counts in a FlatCountTable
+    private boolean flatCountStorage = false;
+
+    // true if only some of the factor groups were loaded; see CountDagCodec
+    private boolean isPartial = false;
+
+    public CountDag() {
+        this(new DistribVocabRegistry());
+    }
+
+    private CountDag(DistribVocabRegistry vocabRegistry) {
+        this.vocabRegistry = vocabRegistry;
+        this.vocabHydrater = new VocabHydrater(vocabRegistry);
+    }
+
     public CountFactor newFactor(String name) {
         throwIfFrozen();
-        CountFactor cf = new CountFactor(name);
+        CountFactor cf = new CountFactor(name, flatCountStorage);
         CountFactor prev = factorNameMap.put(name, cf);
         if (prev != null) {
             throw new IllegalArgumentException("already have a factor named " + name);
@@ -102,12 +120,58 @@ public class CountDag implements Serializable {
         return cf;
     }
 
+    /**
+     * Keep the conditional counts of the factors in a single flat open addressed table per factor instead of a
+     * hash map of multinomials per parent; much smaller for factors with lots of parents. Must be set before any
+     * factors are created
+     * @param flatCountStorage
+     */
+    public void setFlatCountStorage(boolean flatCountStorage) {
+        throwIfFrozen();
+        Preconditions.checkState(factorNameMap.isEmpty(), "must set the count storage before creating factors");
+        this.flatCountStorage = flatCountStorage;
+    }
+
+    /**
+     * Compacts the flat count tables (if using them) to their smaller, read-optimized form once counting is done;
+     * counting more afterwards is allowed but has to rebuild the tables. Flat counts can't be read until this is
+     * called (reads never compact on their own) so whoever finishes counting or merging must call it
+     */
+    public synchronized void compactCounts() {
+        throwIfNotFrozen();
+        for (FactorGroup group : factorGroups.values()) {
+            group.countingFactor.compact();
+        }
+    }
+
+    /**
+     * Freezes all of the vocabularies once the counts are final (i.e. before generating); frozen vocabs are
+     * smaller and can't be mutated so this must be after any reduction or deidentification
+     */
+    public void freezeVocabs() {
+        throwIfNotFrozen();
+        vocabRegistry.freezeVocabs();
+    }
+
+    /**
+     * Forgets the raw values that reduction replaced; they are only kept in memory so that counts appended to this
+     * profile in the same run can decide the reductions again and are never written with the dag
+     */
+    public void clearReducedOriginals() {
+        vocabRegistry.clearReducedOriginals();
+    }
+
     public CountFactor getFactor(String name) {
         return checkNotNull(factorNameMap.get(name), "asking for a factor that doesn't exist ", name);
     }
 
     public FactorGroup getFactorGroup(String name) {
-        return checkNotNull(factorGroups.get(name), "asking for a factor group that doesn't exist", name);
+        FactorGroup group = factorGroups.get(name);
+        if (group == null) {
+            throw new IllegalArgumentException("asking for a factor group that doesn't exist: " + name +
+                    (isPartial ? " (this dag was only partially loaded with " + factorGroups.keySet() + ")" : ""));
+        }
+        return group;
     }
 
     public FactorStats getFactorStats(String name) {
@@ -162,7 +226,7 @@ public class CountDag implements Serializable {
         }
         ImmutableList<String> nonParents = ImmutableList.copyOf(assignKeys);
         assignKeys.addAll(allParents);
-        CountFactor groupFactor = new CountFactor(cliqueName);
+        CountFactor groupFactor = new CountFactor(cliqueName, flatCountStorage);
         FactorGroup newGroup = new FactorGroup(cliqueName, groupFactor, ImmutableList.copyOf(allParents),
                 nonParents, assignKeys
         );
@@ -356,6 +420,7 @@ public class CountDag implements Serializable {
 
     public synchronized CountAssignment add(CountAssignment assignment) {
         throwIfNotFrozen();
+        throwIfPartial();
         updateStats(assignment);
         for (FactorGroup factorGroup : factorGroups.values()) {
             Set<String> subsetKeys = factorGroup.getAssignmentKeys();
@@ -397,6 +462,116 @@ public class CountDag implements Serializable {
         return assignment;
     }
 
+    /**
+     * Creates an empty shard of this frozen dag that has the same structure and shares the vocab registry but has
+     * its own private count factors and factor stats; a single thread can count into the shard without contending
+     * with anyone else and then the shard is merged back into this dag with mergeFrom(). Also useful to count a
+     * delta (i.e. new records to append to an existing profile) separately to know what the delta changed
+     * @return
+     * @see ShardedCountDag
+     */
+    public CountDag newShard() {
+        throwIfNotFrozen();
+        throwIfPartial();
+        CountDag shard = new CountDag(vocabRegistry);
+        for (String name : factorNameMap.keySet()) {
+            shard.factorNameMap.put(name, new CountFactor(name, factorNameMap.get(name).isFlatStorage()));
+            shard.factorStatsMap.put(name, new FactorStats(name, vocabRegistry));
+        }
+        for (FactorGroup group : factorGroups.values()) {
+            // independently counted groups count directly into the factor; joint groups have their own factor
+            CountFactor shardFactor;
+            if (group.countingFactor == factorNameMap.get(group.name)) {
+                shardFactor = shard.factorNameMap.get(group.name);
+            } else {
+                shardFactor = new CountFactor(group.countingFactor.getName(),
+                        group.countingFactor.isFlatStorage()
+                );
+            }
+            shard.factorGroups.put(group.name, shard.new FactorGroup(group.name,
+                    shardFactor,
+                    group.factorParentsName,
+                    group.factorNonParentsName,
+                    group.assignmentKeys
+            ));
+        }
+        shard.parents.putAll(parents);
+        shard.sensitiveFactorNames.addAll(sensitiveFactorNames);
+        shard.sensitiveFactorSubFieldNames.addAll(sensitiveFactorSubFieldNames);
+        shard.reduceFactors.addAll(reduceFactors);
+        shard.missingPolicy = missingPolicy;
+        shard.flatCountStorage = flatCountStorage;
+        shard.isFrozen = true;
+        return shard;
+    }
+
+    /**
+     * Adds all of the counts and stats from the given shard (created by newShard()) into this dag
+     * @param shard
+     */
+    synchronized void mergeShard(CountDag shard) {
+        throwIfNotFrozen();
+        Preconditions.checkArgument(shard.vocabRegistry == this.vocabRegistry, "can only merge shards of this dag");
+        for (FactorGroup group : factorGroups.values()) {
+            group.countingFactor.addAll(shard.getFactorGroup(group.name).countingFactor);
+        }
+        for (Entry<String, FactorStats> entry : factorStatsMap.entrySet()) {
+            entry.getValue().addAll(shard.getFactorStats(entry.getKey()));
+        }
+    }
+
+    /**
+     * Adds all of the counts and stats from another count dag that has the same structure (same factors, parents,
+     * and factor groups) but was counted independently (i.e. over a disjoint partition of the input). The other
+     * dag has its own vocab registry so all of its assignments are re-keyed into this dag's vocabularies. Call
+     * compactCounts() when done merging
+     * @param other
+     * @see CountDagMerger
+     */
+    public synchronized void mergeFrom(CountDag other) {
+        throwIfNotFrozen();
+        throwIfPartial();
+        Preconditions.checkArgument(!other.isPartial, "cant merge in a partially loaded dag");
+        Preconditions.checkArgument(other.isFrozen, "can only merge in a frozen dag");
+        if (other.vocabRegistry == this.vocabRegistry) {
+            mergeShard(other);
+            return;
+        }
+        checkSameStructure(other);
+        VocabRemapper remapper = new VocabRemapper(other.vocabRegistry, this.vocabRegistry);
+        for (FactorGroup group : factorGroups.values()) {
+            group.countingFactor.addAll(other.getFactorGroup(group.name).countingFactor, remapper);
+        }
+        for (Entry<String, FactorStats> entry : factorStatsMap.entrySet()) {
+            entry.getValue().addAll(other.getFactorStats(entry.getKey()));
+        }
+        sensitiveFactorNames.addAll(other.sensitiveFactorNames);
+        sensitiveFactorSubFieldNames.addAll(other.sensitiveFactorSubFieldNames);
+        reduceFactors.addAll(other.reduceFactors);
+    }
+
+    private void checkSameStructure(CountDag other) {
+        if (!factorNameMap.keySet().equals(other.factorNameMap.keySet())) {
+            throw new IllegalArgumentException("cant merge count dags with different factors " +
+                    factorNameMap.keySet() + " vs " + other.factorNameMap.keySet());
+        }
+        if (!parents.equals(other.parents)) {
+            throw new IllegalArgumentException("cant merge count dags with different parents " + parents + " vs " +
+                    other.parents);
+        }
+        if (!factorGroups.keySet().equals(other.factorGroups.keySet())) {
+            throw new IllegalArgumentException("cant merge count dags with different factor groups " +
+                    factorGroups.keySet() + " vs " + other.factorGroups.keySet());
+        }
+        for (FactorGroup group : factorGroups.values()) {
+            FactorGroup otherGroup = other.factorGroups.get(group.name);
+            if (!group.factorParentsName.equals(otherGroup.factorParentsName) ||
+                    !group.factorNonParentsName.equals(otherGroup.factorNonParentsName)) {
+                throw new IllegalArgumentException("cant merge count dags with different factor group " + group.name);
+            }
+        }
+    }
+
     private void updateStats(CountAssignment assignment) {
         for (Entry<String, FactorStats> entry : factorStatsMap.entrySet()) {
             Object maybeVal = assignment.valueFor(entry.getKey());
@@ -418,10 +593,188 @@ public class CountDag implements Serializable {
         factorGroups.values().forEach(g -> g.printTo(pw));
     }
 
+    /**
+     * Writes this dag in the binary model format (see CountDagCodec for the framing). The small structure (factors,
+     * parents, factor groups, and markers) is first so that a reader knows what it needs before the big parts;
+     * then the vocab registry and then each factor with its stats followed by the joint groups' own factors. Each
+     * vocab and factor is a skippable block so a partial read only parses what its groups reference
+     * @param out
+     * @throws IOException
+     */
+    synchronized void writeBinary(DataOutput out) throws IOException {
+        Preconditions.checkState(!isPartial, "cant write a partially loaded dag");
+        out.writeBoolean(isFrozen);
+        BinaryValues.writeString(out, missingPolicy.name());
+        out.writeBoolean(flatCountStorage);
+        List<String> names = ImmutableList.copyOf(factorNameMap.keySet());
+        BinaryValues.writeStrings(out, names);
+        for (String name : names) {
+            BinaryValues.writeStrings(out, parents.get(name));
+        }
+        List<FactorGroup> groups = ImmutableList.copyOf(factorGroups.values());
+        out.writeInt(groups.size());
+        for (FactorGroup group : groups) {
+            BinaryValues.writeString(out, group.name);
+            out.writeBoolean(group.ownsFactor());
+            BinaryValues.writeStrings(out, group.factorParentsName);
+            BinaryValues.writeStrings(out, group.factorNonParentsName);
+            BinaryValues.writeStrings(out, group.assignmentKeys);
+        }
+        BinaryValues.writeStrings(out, sensitiveFactorNames);
+        out.writeInt(sensitiveFactorSubFieldNames.size());
+        for (Pair<String, String> pair : sensitiveFactorSubFieldNames) {
+            BinaryValues.writeString(out, pair.getLeft());
+            BinaryValues.writeString(out, pair.getRight());
+        }
+        BinaryValues.writeStrings(out, reduceFactors);
+
+        vocabRegistry.writeBinary(out);
+        for (String name : names) {
+            FramedBlocks.write(out, blockOut -> {
+                factorNameMap.get(name).writeBinary(blockOut);
+                factorStatsMap.get(name).writeBinary(blockOut);
+            });
+        }
+        for (FactorGroup group : groups) {
+            if (group.ownsFactor()) {
+                FramedBlocks.write(out, group.countingFactor::writeBinary);
+            }
+        }
+    }
+
+    /**
+     * Reads a dag written by writeBinary()
+     * @param in
+     * @param groupNames if non-null then only these factor groups are read, along with the factors, stats, and
+     * vocabs that they reference; everything else is skipped and the resulting dag is partial (it can't be
+     * counted into, merged, or written)
+     * @return
+     * @throws IOException
+     */
+    static CountDag readBinary(DataInput in, @Nullable Set<String> groupNames) throws IOException {
+        boolean frozen = in.readBoolean();
+        MissingPolicy policy = MissingPolicy.valueOf(BinaryValues.readString(in));
+        boolean flat = in.readBoolean();
+        List<String> names = BinaryValues.readStrings(in);
+        ArrayListMultimap<String, String> readParents = ArrayListMultimap.create();
+        for (String name : names) {
+            readParents.putAll(name, BinaryValues.readStrings(in));
+        }
+        int groupCount = in.readInt();
+        List<GroupHeader> groups = Lists.newArrayListWithCapacity(groupCount);
+        for (int i = 0; i < groupCount; i++) {
+            groups.add(new GroupHeader(BinaryValues.readString(in),
+                    in.readBoolean(),
+                    BinaryValues.readStrings(in),
+                    BinaryValues.readStrings(in),
+                    Sets.newLinkedHashSet(BinaryValues.readStrings(in))
+            ));
+        }
+
+        Set<String> includeFactors = Sets.newHashSet(names);
+        if (groupNames != null) {
+            includeFactors.clear();
+            Set<String> missing = Sets.newHashSet(groupNames);
+            for (GroupHeader group : groups) {
+                if (missing.remove(group.name)) {
+                    includeFactors.addAll(group.assignmentKeys);
+                }
+            }
+            Preconditions.checkArgument(missing.isEmpty(), "asking for factor groups that dont exist", missing);
+        }
+
+        List<String> sensitiveNames = BinaryValues.readStrings(in);
+        int sensitiveSubFieldCount = in.readInt();
+        List<Pair<String, String>> sensitiveSubFieldNames = Lists.newArrayListWithCapacity(sensitiveSubFieldCount);
+        for (int i = 0; i < sensitiveSubFieldCount; i++) {
+            String factorName = BinaryValues.readString(in);
+            sensitiveSubFieldNames.add(Pair.of(factorName, BinaryValues.readString(in)));
+        }
+        List<String> reduceNames = BinaryValues.readStrings(in);
+
+        CountDag dag = new CountDag(DistribVocabRegistry.readBinary(in, includeFactors::contains));
+        dag.missingPolicy = policy;
+        dag.flatCountStorage = flat;
+        dag.parents.putAll(readParents);
+        dag.sensitiveFactorNames.addAll(sensitiveNames);
+        dag.sensitiveFactorSubFieldNames.addAll(sensitiveSubFieldNames);
+        dag.reduceFactors.addAll(reduceNames);
+        for (String name : names) {
+            if (!includeFactors.contains(name)) {
+                FramedBlocks.skip(in);
+                continue;
+            }
+            FramedBlocks.read(in, blockIn -> {
+                CountFactor factor = CountFactor.readBinary(blockIn);
+                dag.factorNameMap.put(name, factor);
+                dag.factorStatsMap.put(name, FactorStats.readBinary(blockIn, name, dag.vocabRegistry));
+                return factor;
+            });
+        }
+        for (GroupHeader group : groups) {
+            boolean include = groupNames == null || groupNames.contains(group.name);
+            CountFactor factor = null;
+            if (group.ownsFactor) {
+                if (!include) {
+                    FramedBlocks.skip(in);
+                    continue;
+                }
+                factor = FramedBlocks.read(in, CountFactor::readBinary);
+            } else if (include) {
+                factor = checkNotNull(dag.factorNameMap.get(group.name), "no factor for group", group.name);
+            }
+            if (include) {
+                dag.factorGroups.put(group.name, dag.new FactorGroup(group.name,
+                        factor,
+                        group.parentsName,
+                        group.nonParentsName,
+                        group.assignmentKeys
+                ));
+            }
+        }
+        dag.isFrozen = frozen;
+        dag.isPartial = groupNames != null;
+        return dag;
+    }
+
+    /**
+     * @return true if this was read with only some of its factor groups
+     */
+    public boolean isPartial() {
+        return isPartial;
+    }
+
+    // the part of a factor group that is read before its counts
+    private static class GroupHeader {
+
+        private final String name;
+        private final boolean ownsFactor;
+        private final List<String> parentsName;
+        private final List<String> nonParentsName;
+        private final Set<String> assignmentKeys;
+
+        private GroupHeader(String name,
+                boolean ownsFactor,
+                List<String> parentsName,
+                List<String> nonParentsName,
+                Set<String> assignmentKeys
+        ) {
+            this.name = name;
+            this.ownsFactor = ownsFactor;
+            this.parentsName = parentsName;
+            this.nonParentsName = nonParentsName;
+            this.assignmentKeys = assignmentKeys;
+        }
+    }
+
     private void throwIfFrozen() {
         Preconditions.checkState(!isFrozen, "cannot mutate DAG once its frozen");
     }
 
+    private void throwIfPartial() {
+        Preconditions.checkState(!isPartial, "cant count into or merge a partially loaded dag");
+    }
+
     private void throwIfNotFrozen() {
         Preconditions.checkState(isFrozen, "cannot start counting until youve built the DAG and it is frozen");
     }
@@ -475,6 +828,11 @@ public class CountDag implements Serializable {
             return assignmentKeys;
         }
 
+        // joint groups count into their own factor; independent ones count into the factor of the same name
+        private boolean ownsFactor() {
+            return countingFactor != factorNameMap.get(name);
+        }
+
         public <T> MutableMultinomial<T> makeUnconditionalUnaryCopy() {
             Preconditions.checkState(factorParentsName.isEmpty(),
                     "cant make a conditional for a group thats not conditional"
@@ -487,21 +845,21 @@ public class CountDag implements Serializable {
             Preconditions.checkState(!factorParentsName.isEmpty(),
                     "cant make a conditional for a group thats not conditional"
             );
-            Map<DehydratedAssignment, MutableMultinomial<DehydratedAssignment>> input = countingFactor.conditional;
-            Map<AssignmentInstance, MutableMultinomial<T>> result = Maps.newHashMapWithExpectedSize(input.size());
+            Map<AssignmentInstance, MutableMultinomial<T>> result = Maps.newHashMapWithExpectedSize(
+                    countingFactor.conditionalParentCount());
             int targetCount = factorNonParentsName.size();
-            for (Entry<DehydratedAssignment, MutableMultinomial<DehydratedAssignment>> entry : input.entrySet()) {
-                AssignmentInstance instance = vocabHydrater.hydrate(entry.getKey());
+            countingFactor.forEachConditional((parent, dist) -> {
+                AssignmentInstance instance = vocabHydrater.hydrate(parent);
                 if (targetCount == 1) {
                     result.put(instance,
-                            (MutableMultinomial<T>) vocabHydrater.hydrateMultinomialToUnary(entry.getValue(), factorNonParentsName.get(0))
+                            (MutableMultinomial<T>) vocabHydrater.hydrateMultinomialToUnary(dist, factorNonParentsName.get(0))
                     );
                 } else {
                     result.put(instance,
-                            (MutableMultinomial<T>) vocabHydrater.hydrateMultinomialToList(entry.getValue(), factorNonParentsName)
+                            (MutableMultinomial<T>) vocabHydrater.hydrateMultinomialToList(dist, factorNonParentsName)
                     );
                 }
-            }
+            });
             return result;
         }
 
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.count;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.steveash.synthrec.data.ReadWrite;
+import com.google.common.base.Stopwatch;
+import com.google.common.io.Files;
+
+/**
+ * Reads and writes count dags in a purpose built binary format instead of java serialization. The format is:
+ * a magic number and format version, the dag body (see CountDag.writeBinary: vocabs as tagged, length prefixed
+ * string blocks and counts as primitive arrays), and then a CRC32 of everything before it. Both reading and
+ * writing stream straight through a gzip stream so nothing is buffered beyond the dag itself.
+ *
+ * Count dags that were written with java serialization (before this format) are still loaded by load(); they are
+ * detected by the missing magic number.
+ *
+ * The format is laid out so that a dag can be partially read: only the requested factor groups and the factors,
+ * stats, and vocabs that they reference are materialized. The rest is still decompressed (and checksummed) but
+ * skipped over without being parsed, so a partial load needs a fraction of the heap and time of a full one
+ * @author Steve Ash
+ */
+public class CountDagCodec {
+    private static final Logger log = LoggerFactory.getLogger(CountDagCodec.class);
+
+    static final int MAGIC = 0x53524344; // SRCD
+    static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Writes the dag to the given stream; the stream is not closed
+     * @param dag
+     * @param output
+     * @throws IOException
+     */
+    public static void write(CountDag dag, OutputStream output) throws IOException {
+        CheckedOutputStream checked = new CheckedOutputStream(output, new CRC32());
+        DataOutputStream out = new DataOutputStream(checked);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        dag.writeBinary(out);
+        out.flush();
+        // the checksum isn't part of what it checks so write it around the checked stream
+        new DataOutputStream(output).writeLong(checked.getChecksum().getValue());
+        output.flush();
+    }
+
+    /**
+     * Reads a dag written by write() from the given stream; the stream is not closed
+     * @param input
+     * @return
+     * @throws IOException if this isn't a count dag, is an unsupported version, or fails its checksum
+     */
+    public static CountDag read(InputStream input) throws IOException {
+        return read(input, null);
+    }
+
+    /**
+     * Reads only the given factor groups of a dag written by write() from the given stream; the stream is not
+     * closed
+     * @param input
+     * @param groupNames the factor groups to read or null to read all of them
+     * @return
+     * @throws IOException if this isn't a count dag, is an unsupported version, or fails its checksum
+     * @throws IllegalArgumentException if asking for a group that doesn't exist
+     * @see CountDag#isPartial()
+     */
+    public static CountDag read(InputStream input, @Nullable Set<String> groupNames) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(input, new CRC32());
+        DataInputStream in = new DataInputStream(checked);
+        int magic = in.readInt();
+        if (magic != MAGIC) {
+            throw new IOException("not a binary count dag; bad magic number " + Integer.toHexString(magic));
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported count dag format version " + version + " can only read " + VERSION);
+        }
+        CountDag dag = CountDag.readBinary(in, groupNames);
+        long expected = checked.getChecksum().getValue();
+        long actual = new DataInputStream(input).readLong();
+        if (expected != actual) {
+            throw new IOException("count dag failed checksum; file is corrupt or truncated");
+        }
+        return dag;
+    }
+
+    /**
+     * Writes the dag gzipped in the binary format to the given file
+     * @param dag
+     * @param outputFile
+     */
+    public static void writeFile(CountDag dag, File outputFile) {
+        Stopwatch watch = Stopwatch.createStarted();
+        try (OutputStream output = new BufferedOutputStream(new GZIPOutputStream(
+                Files.asByteSink(outputFile).openStream(), BUFFER_SIZE), BUFFER_SIZE)) {
+            write(dag, output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("Wrote count dag to {} in {}", outputFile, watch);
+    }
+
+    /**
+     * Loads the gzipped count dag from the resource (file or classpath); reads either the binary format or
+     * the older java serialized format
+     * @param resourceName
+     * @return
+     */
+    public static CountDag load(String resourceName) {
+        return load(resourceName, null);
+    }
+
+    /**
+     * Loads only the given factor groups of the gzipped count dag from the resource (file or classpath); java
+     * serialized dags can't be partially read so they are loaded completely
+     * @param resourceName
+     * @param groupNames the factor groups to load or null to load all of them
+     * @return
+     */
+    public static CountDag load(String resourceName, @Nullable Set<String> groupNames) {
+        Stopwatch watch = Stopwatch.createStarted();
+        try (BufferedInputStream input = new BufferedInputStream(new GZIPInputStream(
+                ReadWrite.findByteResource(resourceName).openStream(), BUFFER_SIZE), BUFFER_SIZE)) {
+            CountDag dag;
+            if (isBinary(input)) {
+                dag = read(input, groupNames);
+            } else {
+                log.info("Count dag {} is java serialized; re-write it to load it faster", resourceName);
+                try (ObjectInputStream ois = new ObjectInputStream(input)) {
+                    dag = (CountDag) ois.readObject();
+                }
+            }
+            log.info("Loaded count dag from {} in {}", resourceName, watch);
+            return dag;
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean isBinary(BufferedInputStream input) throws IOException {
+        input.mark(Integer.BYTES);
+        try {
+            return new DataInputStream(input).readInt() == MAGIC;
+        } finally {
+            input.reset();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.count;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+
+/**
+ * Merges count dags that were profiled independently over disjoint partitions of the input (i.e. on different
+ * machines) into a single count dag. The first dag is the base that everything else is merged into, so its
+ * vocab indexes are preserved and every other dag is re-keyed into its vocabularies.
+ *
+ * Note that reducing factors (and deidentification) should happen once on the merged result and not on the
+ * partitions since the reducers make decisions based on the counts
+ * @author Steve Ash
+ */
+public class CountDagMerger {
+    private static final Logger log = LoggerFactory.getLogger(CountDagMerger.class);
+
+    /**
+     * Merges all of the dags into the first one in the list and returns it
+     * @param dags
+     * @return
+     */
+    public static CountDag merge(List<CountDag> dags) {
+        return merge(dags.iterator());
+    }
+
+    /**
+     * Loads each of the gzipped count dags one at a time and merges them into the first; only
+     * the merged result and the one being merged are ever in memory
+     * @param countDagFiles
+     * @return
+     */
+    public static CountDag mergeFiles(List<String> countDagFiles) {
+        return merge(Iterators.transform(countDagFiles.iterator(), file -> {
+            log.info("Reading countdag partition from " + file);
+            return CountDagCodec.load(file);
+        }));
+    }
+
+    private static CountDag merge(Iterator<CountDag> dags) {
+        Preconditions.checkArgument(dags.hasNext(), "need at least one count dag to merge");
+        CountDag result = dags.next();
+        int count = 1;
+        while (dags.hasNext()) {
+            result.mergeFrom(dags.next());
+            count += 1;
+        }
+        // merging thaws any flat count tables so compact them once at the end
+        result.compactCounts();
+        log.info("Merged {} count dags", count);
+        return result;
+    }
+}
@@ -18,17 +18,26 @@
 
 package com.github.steveash.synthrec.count;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.function.BiConsumer;
 
+import javax.annotation.Nullable;
+
+import com.github.steveash.synthrec.data.BinaryValues;
 import com.github.steveash.synthrec.stat.MutableMultinomial;
 import com.google.common.collect.Maps;
 
 import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
 /**
  * A factor in a DAG of factors that needs to be counted; note that we don't know anything about parents here
+ * The conditional counts are either kept as a map of parent -> multinomial or (with flat storage) in a single
+ * FlatCountTable which is much smaller when there are many parents with only a few children each
  * @author Steve Ash
  */
 public class CountFactor implements Serializable {
@@ -38,9 +47,20 @@ public class CountFactor implements Serializable {
     private final String name;
     final MutableMultinomial<DehydratedAssignment> unconditional = new MutableMultinomial<>(-1);
     final Map<DehydratedAssignment, MutableMultinomial<DehydratedAssignment>> conditional = Maps.newHashMap();
+    // if non-null then the conditional counts are kept here instead of in conditional
+    @Nullable private final FlatCountTable flatConditional;
 
     public CountFactor(String name) {
+        this(name, false);
+    }
+
+    public CountFactor(String name, boolean flatStorage) {
         this.name = name;
+        this.flatConditional = flatStorage ? new FlatCountTable() : null;
+    }
+
+    public boolean isFlatStorage() {
+        return flatConditional != null;
     }
 
     public String getName() {
@@ -57,6 +77,8 @@ public class CountFactor implements Serializable {
     ) {
         if (parentOrNull == null) {
             unconditional.add(instance, amountToAdd);
+        } else if (flatConditional != null) {
+            flatConditional.add(parentOrNull, instance, amountToAdd);
         } else {
             MutableMultinomial<DehydratedAssignment> maybe = conditional.get(parentOrNull);
             if (maybe == null) {
@@ -67,16 +89,183 @@ public class CountFactor implements Serializable {
         }
     }
 
+    /**
+     * Adds all of the counts from the other factor into this one; both must be keyed by the same vocab registry
+     * @param other
+     */
+    public void addAll(CountFactor other) {
+        unconditional.addMultinomial(other.unconditional);
+        if (other.flatConditional != null) {
+            // the other might be a shard that is still in its counting form so dont go through forEachConditional
+            other.flatConditional.forEachEntry((parent, child, count) -> add(child, parent, count));
+            return;
+        }
+        other.conditional.forEach((parent, dist) -> {
+            if (flatConditional != null) {
+                addAllFlat(dist, parent);
+                return;
+            }
+            MutableMultinomial<DehydratedAssignment> maybe = conditional.get(parent);
+            if (maybe == null) {
+                maybe = new MutableMultinomial<>(-1);
+                conditional.put(parent, maybe);
+            }
+            maybe.addMultinomial(dist);
+        });
+    }
+
+    private void addAllFlat(MutableMultinomial<DehydratedAssignment> source, DehydratedAssignment parent) {
+        ObjectIterator<Object2DoubleMap.Entry<DehydratedAssignment>> iter = source.entries().fastIterator();
+        while (iter.hasNext()) {
+            Object2DoubleMap.Entry<DehydratedAssignment> entry = iter.next();
+            flatConditional.add(parent, entry.getKey(), entry.getDoubleValue());
+        }
+    }
+
+    /**
+     * Adds all of the counts from the other factor which was counted with a different vocab registry; each
+     * of the other factor's assignments is re-keyed into this factor's registry with the remapper
+     * @param other
+     * @param remapper
+     */
+    void addAll(CountFactor other, VocabRemapper remapper) {
+        addAllRemapped(other.unconditional, null, remapper);
+        if (other.flatConditional != null) {
+            other.flatConditional.forEachEntry((parent, child, count) ->
+                    add(remapper.remap(child), remapper.remap(parent), count)
+            );
+            return;
+        }
+        other.conditional.forEach((parent, dist) -> addAllRemapped(dist, remapper.remap(parent), remapper));
+    }
+
+    private void addAllRemapped(MutableMultinomial<DehydratedAssignment> source,
+            DehydratedAssignment parentOrNull,
+            VocabRemapper remapper
+    ) {
+        ObjectIterator<Object2DoubleMap.Entry<DehydratedAssignment>> iter = source.entries().fastIterator();
+        while (iter.hasNext()) {
+            Object2DoubleMap.Entry<DehydratedAssignment> entry = iter.next();
+            add(remapper.remap(entry.getKey()), parentOrNull, entry.getDoubleValue());
+        }
+    }
+
+    /**
+     * Calls the consumer with each parent and the multinomial of child counts for that parent; for flat storage
+     * the multinomials are built on the fly so callers must not expect changes to them to be reflected here, and
+     * the factor must have been compacted when counting finished (see CountDag.compactCounts)
+     * @param consumer
+     */
+    public void forEachConditional(BiConsumer<DehydratedAssignment, MutableMultinomial<DehydratedAssignment>> consumer) {
+        if (flatConditional != null) {
+            flatConditional.forEachParent(consumer);
+        } else {
+            conditional.forEach(consumer);
+        }
+    }
+
+    public boolean hasConditional() {
+        return flatConditional != null ? !flatConditional.isEmpty() : !conditional.isEmpty();
+    }
+
+    public int conditionalParentCount() {
+        return flatConditional != null ? flatConditional.parentCount() : conditional.size();
+    }
+
+    /**
+     * @return true if this factor's conditional counts can be read (i.e. flat storage has been compacted)
+     */
+    public boolean isCompacted() {
+        return flatConditional == null || flatConditional.isCompacted();
+    }
+
+    /**
+     * Compacts the flat count storage (if this factor uses it) once counting is done; no-op otherwise. Readers
+     * never compact on their own so this must happen before the counts are read
+     */
+    public void compact() {
+        if (flatConditional != null) {
+            flatConditional.compact();
+        }
+    }
+
+    /**
+     * Writes the factor in the binary model format: the unconditional counts and then either the flat table or
+     * each parent with its counts; counts are written as an array of assignments and a parallel array of doubles
+     * @param out
+     * @throws IOException
+     */
+    void writeBinary(DataOutput out) throws IOException {
+        BinaryValues.writeString(out, name);
+        out.writeBoolean(isFlatStorage());
+        writeCounts(out, unconditional);
+        if (flatConditional != null) {
+            flatConditional.writeBinary(out);
+            return;
+        }
+        out.writeInt(conditional.size());
+        for (Map.Entry<DehydratedAssignment, MutableMultinomial<DehydratedAssignment>> entry : conditional.entrySet()) {
+            DehydratedAssignment.writeBinary(out, entry.getKey());
+            writeCounts(out, entry.getValue());
+        }
+    }
+
+    static CountFactor readBinary(DataInput in) throws IOException {
+        String name = BinaryValues.readString(in);
+        CountFactor factor = new CountFactor(name, in.readBoolean());
+        readCounts(in, factor.unconditional);
+        if (factor.flatConditional != null) {
+            factor.flatConditional.readBinary(in);
+            return factor;
+        }
+        int parentCount = in.readInt();
+        for (int i = 0; i < parentCount; i++) {
+            DehydratedAssignment parent = DehydratedAssignment.readBinary(in);
+            MutableMultinomial<DehydratedAssignment> dist = new MutableMultinomial<>(-1);
+            readCounts(in, dist);
+            factor.conditional.put(parent, dist);
+        }
+        return factor;
+    }
+
+    private static void writeCounts(DataOutput out, MutableMultinomial<DehydratedAssignment> dist)
+            throws IOException {
+        double[] counts = new double[dist.size()];
+        out.writeInt(counts.length);
+        int i = 0;
+        ObjectIterator<Object2DoubleMap.Entry<DehydratedAssignment>> iter = dist.entries().fastIterator();
+        while (iter.hasNext()) {
+            Object2DoubleMap.Entry<DehydratedAssignment> entry = iter.next();
+            DehydratedAssignment.writeBinary(out, entry.getKey());
+            counts[i++] = entry.getDoubleValue();
+        }
+        BinaryValues.writeDoubles(out, counts);
+    }
+
+    private static void readCounts(DataInput in, MutableMultinomial<DehydratedAssignment> sink) throws IOException {
+        DehydratedAssignment[] assigns = new DehydratedAssignment[in.readInt()];
+        for (int i = 0; i < assigns.length; i++) {
+            assigns[i] = DehydratedAssignment.readBinary(in);
+        }
+        double[] counts = BinaryValues.readDoubles(in);
+        if (counts.length != assigns.length) {
+            throw new IOException("corrupt counts for factor; got " + counts.length + " expected " + assigns.length);
+        }
+        for (int i = 0; i < assigns.length; i++) {
+            sink.add(assigns[i], counts[i]);
+        }
+    }
+
     public MutableMultinomial<DehydratedAssignment> makeJoint() {
-        if (conditional.isEmpty()) {
+        if (!hasConditional()) {
             return unconditional;
         }
         MutableMultinomial<DehydratedAssignment> joint = new MutableMultinomial<>(-1);
-        for (Entry<DehydratedAssignment, MutableMultinomial<DehydratedAssignment>> entry : conditional.entrySet()) {
-            for (Object2DoubleMap.Entry<DehydratedAssignment> entry2 : entry.getValue().entries()) {
-                joint.add(DehydratedAssignment.merge(entry.getKey(), entry2.getKey()), entry2.getDoubleValue());
+        forEachConditional((parent, dist) -> {
+            for (Object2DoubleMap.Entry<DehydratedAssignment> entry : dist.entries()) {
+                joint.add(DehydratedAssignment.merge(parent, entry.getKey()), entry.getDoubleValue());
             }
-        }
+        });
         return joint;
     }
 }
@@ -18,12 +18,16 @@
 
 package com.github.steveash.synthrec.count;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 
 import javax.annotation.Nullable;
 
 import com.google.common.base.Preconditions;
 
+import it.unimi.dsi.fastutil.HashCommon;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import it.unimi.dsi.fastutil.shorts.Short2IntArrayMap;
 import it.unimi.dsi.fastutil.shorts.Short2IntMap;
@@ -41,12 +45,22 @@ import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
  * (which isnt a legal value) that means that the placeholder value in the sketch is all there is; if its != 0 then
  * its a literal value
  *
+ * Most assignments that we count are tiny (a value and its one or two parents) so assignments with at most
+ * MAX_PACKED flat fields and no hierarch fields are packed into primitive longs of (distribCode << 32 | vocabIndex)
+ * ordered by distribCode instead of holding on to maps; equals/hashCode are then just long compares. The packed
+ * form is canonical (i.e. a small assignment is always packed) so use make() to create them
+ *
  * @author Steve Ash
  */
 public class DehydratedAssignment implements Serializable {
 
     private static final long serialVersionUID = 529879683700478587L;
 
+    /**
+     * the most flat fields that an assignment can have and still be packed into longs
+     */
+    public static final int MAX_PACKED = 2;
+
     /**
      * Creates a new map instance for the countAssignmentInstance size -- this encapsulates the policy of
      * what size results in what underlying map implementation (only different ones so still no megamorphic
@@ -61,10 +75,80 @@ public class DehydratedAssignment implements Serializable {
         return new Short2IntOpenHashMap(size);
     }
 
+    /**
+     * Creates the dehydrated assignment from the flat and hierarch assignments; small assignments are packed
+     * @param flatAssigns
+     * @param hierarchAssigns
+     * @return
+     */
+    public static DehydratedAssignment make(Short2IntMap flatAssigns,
+            @Nullable Short2ObjectMap<Short2IntArrayMap> hierarchAssigns
+    ) {
+        if (!isPackable(flatAssigns.size(), hierarchAssigns)) {
+            return new DehydratedAssignment(flatAssigns, hierarchAssigns);
+        }
+        long packed0 = 0;
+        long packed1 = 0;
+        int i = 0;
+        ObjectIterator<Entry> iter = flatAssigns.short2IntEntrySet().iterator();
+        while (iter.hasNext()) {
+            Entry next = iter.next();
+            long packed = pack(next.getShortKey(), next.getIntValue());
+            if (i == 0) {
+                packed0 = packed;
+            } else {
+                packed1 = packed;
+            }
+            i += 1;
+        }
+        return makePacked(i, packed0, packed1);
+    }
+
+    /**
+     * Creates a packed assignment from the packed fields (in any order); see pack()
+     * @param size the number of fields that are packed (0 to MAX_PACKED)
+     * @param packed0 the first packed field (ignored if size is 0)
+     * @param packed1 the second packed field (ignored if size is less than 2)
+     * @return
+     */
+    static DehydratedAssignment makePacked(int size, long packed0, long packed1) {
+        Preconditions.checkArgument(size >= 0 && size <= MAX_PACKED, "cant pack this many fields", size);
+        if (size < 2) {
+            packed1 = 0;
+            if (size < 1) {
+                packed0 = 0;
+            }
+        } else if (packed1 < packed0) {
+            // the code is in the high bits so ordering by the packed value orders by code
+            long temp = packed0;
+            packed0 = packed1;
+            packed1 = temp;
+        }
+        return new DehydratedAssignment(size, packed0, packed1);
+    }
+
+    static long pack(short distribCode, int valueIndex) {
+        return ((long) distribCode << 32) | (valueIndex & 0xFFFFFFFFL);
+    }
+
+    private static boolean isPackable(int flatSize, @Nullable Short2ObjectMap<Short2IntArrayMap> hierarchAssigns) {
+        return flatSize <= MAX_PACKED && (hierarchAssigns == null || hierarchAssigns.isEmpty());
+    }
+
     public static DehydratedAssignment merge(DehydratedAssignment a, DehydratedAssignment b) {
-        Short2IntMap flat = createMap(a.flatAssigns.size() + b.flatAssigns.size());
-        putAll(a.flatAssigns, flat);
-        putAll(b.flatAssigns, flat);
+        if (a.isEmpty()) {
+            return b;
+        }
+        if (b.isEmpty()) {
+            return a;
+        }
+        if (a.isPacked() && b.isPacked() && a.packedSize + b.packedSize <= MAX_PACKED) {
+            // both have exactly one field
+            return makePacked(2, a.packed0, b.packed0);
+        }
+        Short2IntMap flat = createMap(a.size() + b.size());
+        putAll(a.getFlatAssigns(), flat);
+        putAll(b.getFlatAssigns(), flat);
         Short2ObjectMap<Short2IntArrayMap> hierarch = null;
         int hcount = 0;
         if (a.hierarchAssigns != null) {
@@ -82,7 +166,7 @@ public class DehydratedAssignment implements Serializable {
         if (b.hierarchAssigns != null) {
             putAllh(b.hierarchAssigns, hierarch);
         }
-        return new DehydratedAssignment(flat, hierarch);
+        return make(flat, hierarch);
     }
 
     private static void putAllh(Short2ObjectMap<Short2IntArrayMap> source,
@@ -104,13 +188,95 @@ public class DehydratedAssignment implements Serializable {
         }
     }
 
-    private final Short2IntMap flatAssigns;
+    /**
+     * Writes the assignment in the binary model format: packed assignments are just their size and longs; map
+     * assignments are their (code, index) pairs and then each hierarch distrib's sub field pairs in sketch order
+     * @param out
+     * @param assign
+     * @throws IOException
+     */
+    static void writeBinary(DataOutput out, DehydratedAssignment assign) throws IOException {
+        if (assign.isPacked()) {
+            out.writeByte(assign.packedSize);
+            if (assign.packedSize > 0) {
+                out.writeLong(assign.packed0);
+            }
+            if (assign.packedSize > 1) {
+                out.writeLong(assign.packed1);
+            }
+            return;
+        }
+        out.writeByte(-1);
+        writePairs(out, assign.flatAssigns);
+        if (assign.hierarchAssigns == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(assign.hierarchAssigns.size());
+        ObjectIterator<Short2ObjectMap.Entry<Short2IntArrayMap>> iter = assign.hierarchAssigns.short2ObjectEntrySet()
+                .iterator();
+        while (iter.hasNext()) {
+            Short2ObjectMap.Entry<Short2IntArrayMap> entry = iter.next();
+            out.writeShort(entry.getShortKey());
+            writePairs(out, entry.getValue());
+        }
+    }
+
+    static DehydratedAssignment readBinary(DataInput in) throws IOException {
+        byte packedSize = in.readByte();
+        if (packedSize >= 0) {
+            long packed0 = packedSize > 0 ? in.readLong() : 0;
+            long packed1 = packedSize > 1 ? in.readLong() : 0;
+            return makePacked(packedSize, packed0, packed1);
+        }
+        int flatSize = in.readInt();
+        Short2IntMap flat = createMap(flatSize);
+        readPairs(in, flatSize, flat);
+        int hierarchSize = in.readInt();
+        Short2ObjectMap<Short2IntArrayMap> hierarch = null;
+        if (hierarchSize >= 0) {
+            hierarch = new Short2ObjectArrayMap<>(hierarchSize);
+            for (int i = 0; i < hierarchSize; i++) {
+                short code = in.readShort();
+                int subSize = in.readInt();
+                Short2IntArrayMap vals = new Short2IntArrayMap(subSize);
+                readPairs(in, subSize, vals);
+                hierarch.put(code, vals);
+            }
+        }
+        return make(flat, hierarch);
+    }
+
+    private static void writePairs(DataOutput out, Short2IntMap pairs) throws IOException {
+        out.writeInt(pairs.size());
+        ObjectIterator<Entry> iter = pairs.short2IntEntrySet().iterator();
+        while (iter.hasNext()) {
+            Entry next = iter.next();
+            out.writeShort(next.getShortKey());
+            out.writeInt(next.getIntValue());
+        }
+    }
+
+    private static void readPairs(DataInput in, int size, Short2IntMap sink) throws IOException {
+        for (int i = 0; i < size; i++) {
+            sink.put(in.readShort(), in.readInt());
+        }
+    }
+
+    // null when this assignment is packed
+    @Nullable private final Short2IntMap flatAssigns;
     @Nullable private final Short2ObjectMap<Short2IntArrayMap> hierarchAssigns;
+    private final int packedSize;
+    private final long packed0;
+    private final long packed1;
     private final int cachedHash;
 
-    public DehydratedAssignment(Short2IntMap flatAssigns, @Nullable Short2ObjectMap<Short2IntArrayMap> hierarchAssigns) {
+    private DehydratedAssignment(Short2IntMap flatAssigns, @Nullable Short2ObjectMap<Short2IntArrayMap> hierarchAssigns) {
         this.flatAssigns = flatAssigns;
         this.hierarchAssigns = hierarchAssigns;
+        this.packedSize = 0;
+        this.packed0 = 0;
+        this.packed1 = 0;
         int hash = 17 * 37 + flatAssigns.hashCode();
         if (hierarchAssigns != null) {
             hash = hash * 37 + hierarchAssigns.hashCode();
@@ -118,7 +284,19 @@ public class DehydratedAssignment implements Serializable {
         this.cachedHash = hash;
     }
 
+    private DehydratedAssignment(int packedSize, long packed0, long packed1) {
+        this.flatAssigns = null;
+        this.hierarchAssigns = null;
+        this.packedSize = packedSize;
+        this.packed0 = packed0;
+        this.packed1 = packed1;
+        this.cachedHash = Long.hashCode(HashCommon.murmurHash3(packed0 * 31 + packed1)) * 37 + packedSize;
+    }
+
     public boolean isEmpty() {
+        if (isPacked()) {
+            return packedSize == 0;
+        }
         if (hierarchAssigns != null && !hierarchAssigns.isEmpty()) {
             return false;
         }
@@ -126,10 +304,54 @@ public class DehydratedAssignment implements Serializable {
     }
 
     public int size() {
+        if (isPacked()) {
+            return packedSize;
+        }
         return flatAssigns.size() + (hierarchAssigns != null ? hierarchAssigns.size() : 0);
     }
 
+    public boolean isPacked() {
+        return flatAssigns == null;
+    }
+
+    /**
+     * @param i which packed field from 0 to size() - 1
+     * @return the distrib code of the i-th packed field; only valid if isPacked()
+     */
+    public short packedCode(int i) {
+        return (short) (packedField(i) >>> 32);
+    }
+
+    /**
+     * @param i which packed field from 0 to size() - 1
+     * @return the vocab index of the i-th packed field; only valid if isPacked()
+     */
+    public int packedIndex(int i) {
+        return (int) packedField(i);
+    }
+
+    /**
+     * @param i which packed field from 0 to size() - 1
+     * @return the i-th packed field as made by pack(); only valid if isPacked()
+     */
+    long packedField(int i) {
+        Preconditions.checkState(isPacked(), "not a packed assignment");
+        Preconditions.checkElementIndex(i, packedSize);
+        return (i == 0 ? packed0 : packed1);
+    }
+
+    /**
+     * @return the flat assigns; note that for packed assignments this creates a new map each time so prefer the
+     * packed accessors if you care
+     */
     public Short2IntMap getFlatAssigns() {
+        if (isPacked()) {
+            Short2IntArrayMap map = new Short2IntArrayMap(packedSize);
+            for (int i = 0; i < packedSize; i++) {
+                map.put(packedCode(i), packedIndex(i));
+            }
+            return map;
+        }
         return flatAssigns;
     }
 
@@ -146,6 +368,11 @@ public class DehydratedAssignment implements Serializable {
         DehydratedAssignment that = (DehydratedAssignment) o;
 
         if (cachedHash != that.cachedHash) return false;
+        // the packed form is canonical so a packed assignment never equals a map one
+        if (isPacked() != that.isPacked()) return false;
+        if (isPacked()) {
+            return packedSize == that.packedSize && packed0 == that.packed0 && packed1 == that.packed1;
+        }
         if (!flatAssigns.equals(that.flatAssigns)) return false;
         return hierarchAssigns != null ? hierarchAssigns.equals(that.hierarchAssigns) : that.hierarchAssigns == null;
     }
@@ -155,10 +382,19 @@ public class DehydratedAssignment implements Serializable {
         return cachedHash;
     }
 
+    // snapshots from before we packed have small assignments in map form; canonicalize them so they are equal to
+    // the packed ones
+    private Object readResolve() {
+        if (flatAssigns != null && isPackable(flatAssigns.size(), hierarchAssigns)) {
+            return make(flatAssigns, hierarchAssigns);
+        }
+        return this;
+    }
+
     @Override
     public String toString() {
         return "DehydratedAssignment{" +
-                "flatAssigns=" + flatAssigns +
+                "flatAssigns=" + getFlatAssigns() +
                 ", hierarchAssigns=" + hierarchAssigns +
                 '}';
     }
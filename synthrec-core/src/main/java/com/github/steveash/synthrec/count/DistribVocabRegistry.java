@@ -20,11 +20,16 @@ package com.github.steveash.synthrec.count;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Map.Entry;
+import java.util.function.Predicate;
 
 import com.github.steveash.synthrec.collect.Vocabulary;
+import com.github.steveash.synthrec.data.BinaryValues;
 import com.google.common.collect.Lists;
 import com.google.common.primitives.Shorts;
 
@@ -37,6 +42,8 @@ import it.unimi.dsi.fastutil.shorts.Short2ObjectOpenHashMap;
  *  Manages mappings of distributionName to codes (shorts) up to 64k of these allowed
  *  Each distribution code -> Vocab
  *  For hierarchical distributions it manages the mapping from (distributionName,subField) -> Vocab
+ *  Code resolution is synchronized as the registry is shared by all of the shards of a count dag that are
+ *  counting in parallel; the vocabs themselves are safe for concurrent use (and lock free to read)
  * @author Steve Ash
  */
 public class DistribVocabRegistry implements Serializable {
@@ -86,7 +93,7 @@ public class DistribVocabRegistry implements Serializable {
         return vocab.getForIndex(valueIndex);
     }
 
-    public short resolveDistribSubFieldCode(String distribName, String subField) {
+    public synchronized short resolveDistribSubFieldCode(String distribName, String subField) {
         Object2ShortOpenHashMap<String> maybeFieldToCode = distribNameToFieldToCode.get(distribName);
         if (maybeFieldToCode == null) {
             maybeFieldToCode = new Object2ShortOpenHashMap<>();
@@ -101,15 +108,15 @@ public class DistribVocabRegistry implements Serializable {
         return code;
     }
 
-    public String resolveNameForCode(short code) {
+    public synchronized String resolveNameForCode(short code) {
         return checkNotNull(codeToName.get(code), "no name for code", code);
     }
 
-    public Vocabulary<Object> resolveVocab(short code) {
+    public synchronized Vocabulary<Object> resolveVocab(short code) {
         return checkNotNull(codeToVocab.get(code), "no vocab for ", code);
     }
 
-    public short resolveDistribCode(String distribName) {
+    public synchronized short resolveDistribCode(String distribName) {
         short code = distribNameToCode.getShort(distribName);
         if (code != 0) {
             return code;
@@ -127,7 +134,84 @@ public class DistribVocabRegistry implements Serializable {
         return toAdd;
     }
 
-    public String toBigString() {
+    /**
+     * Freezes all of the vocabs into their compact, immutable form; after this no new values can be added
+     */
+    public synchronized void freezeVocabs() {
+        for (int i = 1; i < codeToVocab.size(); i++) {
+            codeToVocab.get(i).freeze();
+        }
+    }
+
+    /**
+     * Forgets the original values of everything that was reduced in all of the vocabs
+     * @see Vocabulary#clearOriginals()
+     */
+    public synchronized void clearReducedOriginals() {
+        for (int i = 1; i < codeToVocab.size(); i++) {
+            codeToVocab.get(i).clearOriginals();
+        }
+    }
+
+    /**
+     * Writes every code in order with its name (and owning distrib name if its a sub field code) followed by
+     * its vocab in a skippable block; reading re-allocates the codes in the same order so they come back identical
+     * @param out
+     * @throws IOException
+     */
+    synchronized void writeBinary(DataOutput out) throws IOException {
+        Short2ObjectOpenHashMap<String> subFieldCodeToDistrib = new Short2ObjectOpenHashMap<>();
+        for (Entry<String, Object2ShortOpenHashMap<String>> entry : distribNameToFieldToCode.entrySet()) {
+            for (short subFieldCode : entry.getValue().values()) {
+                subFieldCodeToDistrib.put(subFieldCode, entry.getKey());
+            }
+        }
+        out.writeShort(nextDistribCode);
+        for (short code = 1; code < nextDistribCode; code++) {
+            String distribName = subFieldCodeToDistrib.get(code);
+            out.writeBoolean(distribName != null);
+            if (distribName != null) {
+                BinaryValues.writeString(out, distribName);
+            }
+            BinaryValues.writeString(out, codeToName.get(code));
+            FramedBlocks.write(out, codeToVocab.get(code)::writeBinary);
+        }
+    }
+
+    /**
+     * Reads the registry written by writeBinary()
+     * @param in
+     * @param includeDistrib which distribs (by name; for sub fields by their owning distrib's name) to read the
+     * vocabs for; the rest are skipped and left empty but keep their codes
+     * @return
+     * @throws IOException
+     */
+    static DistribVocabRegistry readBinary(DataInput in, Predicate<String> includeDistrib) throws IOException {
+        DistribVocabRegistry registry = new DistribVocabRegistry();
+        short nextCode = in.readShort();
+        for (short code = 1; code < nextCode; code++) {
+            short allocated;
+            String distribName;
+            if (in.readBoolean()) {
+                distribName = BinaryValues.readString(in);
+                allocated = registry.resolveDistribSubFieldCode(distribName, BinaryValues.readString(in));
+            } else {
+                distribName = BinaryValues.readString(in);
+                allocated = registry.resolveDistribCode(distribName);
+            }
+            if (allocated != code) {
+                throw new IOException("corrupt vocab registry; expected code " + code + " but got " + allocated);
+            }
+            if (includeDistrib.test(distribName)) {
+                registry.codeToVocab.set(code, FramedBlocks.read(in, Vocabulary::readBinary));
+            } else {
+                FramedBlocks.skip(in);
+            }
+        }
+        return registry;
+    }
+
+    public synchronized String toBigString() {
         StringBuilder sb = new StringBuilder();
         for (Entry<String, Short> entry : distribNameToCode.entrySet()) {
             String distribName = entry.getKey();
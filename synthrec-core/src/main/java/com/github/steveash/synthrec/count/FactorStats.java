@@ -18,22 +18,33 @@
 
 package com.github.steveash.synthrec.count;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
+import org.apache.commons.math3.stat.descriptive.AggregateSummaryStatistics;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummaryValues;
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 
 import com.github.steveash.synthrec.collect.VocabCounter;
+import com.github.steveash.synthrec.data.BinaryValues;
 import com.github.steveash.synthrec.domain.FieldSketch;
 import com.github.steveash.synthrec.domain.MissingPolicy;
 import com.github.steveash.synthrec.domain.Multivalue;
 import com.github.steveash.synthrec.stat.Multinomial;
 import com.github.steveash.synthrec.stat.MutableMultinomial;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
@@ -60,7 +71,9 @@ public class FactorStats implements Serializable {
 
     private boolean sawNumber = false;
     //    private boolean sawString = false;
-    private final SummaryStatistics numberStats = new SummaryStatistics();
+    private SummaryStatistics numberStats = new SummaryStatistics();
+    // SummaryStatistics can't be merged, so when we fold in other stats we keep the aggregate summary here
+    @Nullable private StatisticalSummary mergedNumberStats = null;
 
     // for this factor's vocab (when flat) we record the counts by vocabIndex
     private final VocabCounter<Object> valueDist;
@@ -156,6 +169,112 @@ public class FactorStats implements Serializable {
         }
     }
 
+    /**
+     * Adds all of the stats from the other factor stats (for the same factor) into this one. The other stats
+     * can be from a different vocab registry (i.e. a different count dag) in which case values are re-indexed
+     * into this registry's vocabularies
+     * @param other
+     */
+    public void addAll(FactorStats other) {
+        Preconditions.checkArgument(factorName.equals(other.factorName), "cant merge stats of different factors",
+                factorName, other.factorName
+        );
+        presentCount += other.presentCount;
+        missingCount += other.missingCount;
+        groundedCount += other.groundedCount;
+        sketchCount += other.sketchCount;
+        distribCount += other.distribCount;
+
+        if (other.sawNumber) {
+            sawNumber = true;
+            mergedNumberStats = aggregate(this.mergedNumberStats, this.numberStats,
+                    other.mergedNumberStats, other.numberStats
+            );
+            numberStats = new SummaryStatistics();
+        }
+        valueDist.addAll(other.valueDist);
+        for (String subField : other.subFieldNames) {
+            this.subFieldNames.add(subField);
+            resolveCounter(subField).addAll(other.getSubFieldVocab(subField));
+        }
+    }
+
+    private static StatisticalSummary aggregate(StatisticalSummary... summaries) {
+        List<StatisticalSummary> nonEmpty = Lists.newArrayListWithCapacity(summaries.length);
+        for (StatisticalSummary summary : summaries) {
+            // aggregating an empty summary poisons the variance with NaN
+            if (summary != null && summary.getN() > 0) {
+                nonEmpty.add(summary);
+            }
+        }
+        return AggregateSummaryStatistics.aggregate(nonEmpty);
+    }
+
+    /**
+     * Writes the stats in the binary model format; the number stats are written as their aggregate summary since
+     * SummaryStatistics can't be restored, so the read stats keep them as the merged summary
+     * @param out
+     * @throws IOException
+     */
+    void writeBinary(DataOutput out) throws IOException {
+        out.writeInt(presentCount);
+        out.writeInt(missingCount);
+        out.writeInt(groundedCount);
+        out.writeInt(sketchCount);
+        out.writeInt(distribCount);
+        out.writeBoolean(sawNumber);
+        if (sawNumber) {
+            StatisticalSummary summary = numberSummary();
+            out.writeLong(summary.getN());
+            out.writeDouble(summary.getMean());
+            out.writeDouble(summary.getVariance());
+            out.writeDouble(summary.getMax());
+            out.writeDouble(summary.getMin());
+            out.writeDouble(summary.getSum());
+        }
+        valueDist.writeBinary(out);
+        out.writeInt(subFieldNames.size());
+        for (String subField : subFieldNames) {
+            BinaryValues.writeString(out, subField);
+            resolveCounter(subField).writeBinary(out);
+        }
+    }
+
+    static FactorStats readBinary(DataInput in, String factorName, DistribVocabRegistry vocabRegistry)
+            throws IOException {
+        FactorStats stats = new FactorStats(factorName, vocabRegistry);
+        stats.presentCount = in.readInt();
+        stats.missingCount = in.readInt();
+        stats.groundedCount = in.readInt();
+        stats.sketchCount = in.readInt();
+        stats.distribCount = in.readInt();
+        stats.sawNumber = in.readBoolean();
+        if (stats.sawNumber) {
+            long n = in.readLong();
+            double mean = in.readDouble();
+            double variance = in.readDouble();
+            double max = in.readDouble();
+            double min = in.readDouble();
+            double sum = in.readDouble();
+            stats.mergedNumberStats = new StatisticalSummaryValues(mean, variance, n, max, min, sum);
+        }
+        stats.valueDist.readBinary(in);
+        int subFieldCount = in.readInt();
+        for (int i = 0; i < subFieldCount; i++) {
+            String subField = BinaryValues.readString(in);
+            stats.subFieldNames.add(subField);
+            stats.resolveCounter(subField).readBinary(in);
+        }
+        return stats;
+    }
+
+    private StatisticalSummary numberSummary() {
+        if (mergedNumberStats == null) {
+            return numberStats;
+        }
+        return aggregate(mergedNumberStats, numberStats);
+    }
+
     private VocabCounter<Object> resolveCounter(String subField) {
         short subFieldCode = vocabRegistry.resolveDistribSubFieldCode(factorName, subField);
         VocabCounter<Object> vocab = subFieldCodeToCounter.get(subFieldCode);
@@ -186,7 +305,7 @@ public class FactorStats implements Serializable {
         ));
         if (sawNumber) {
             pw.println("  > Number stats:");
-            pw.println(numberStats.toString());
+            pw.println(numberSummary().toString());
         }
 //        if (sawString) {
 //            pw.println("  > String stats:");
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.count;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+import javax.annotation.Nullable;
+
+import com.github.steveash.synthrec.data.BinaryValues;
+import com.github.steveash.synthrec.stat.MutableMultinomial;
+import com.google.common.base.Preconditions;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+/**
+ * Conditional counts P(child | parent) stored in one primitive open addressed table keyed by (parentId, childId)
+ * instead of a map of parent -> multinomial. Parents and children are interned to dense int ids once per table;
+ * packed assignments (the common case) are held as their primitive fields so no parent or child carries its own
+ * object or (mostly empty) hash table.
+ *
+ * Once counting is done the owner must compact() the table (see CountDag.compactCounts): the keys are sorted by
+ * parent and the counts are laid out in parallel arrays with a parent -> [start, end) range index; the hash table
+ * is dropped. Reading the conditionals requires the compacted form; reads never compact on their own since they
+ * might be on many threads. Adding again after that rebuilds the hash table from the compacted arrays (i.e.
+ * appending to a loaded count dag)
+ *
+ * Not thread safe for counting; the owning CountFactor is only ever counted by one thread at a time. The compacted
+ * form is never mutated by readers so it can be read concurrently
+ * @author Steve Ash
+ */
+class FlatCountTable implements Serializable {
+
+    private static final long serialVersionUID = -5206745418924536770L;
+
+    /**
+     * Receives each (parent, child, count) entry of the table
+     */
+    interface EntryConsumer {
+        void accept(DehydratedAssignment parent, DehydratedAssignment child, double count);
+    }
+
+    private final AssignmentPool parents;
+    private final AssignmentPool children;
+
+    // (parentId << 32 | childId) -> count; null when compacted
+    @Nullable private Long2DoubleOpenHashMap counts;
+
+    // compacted form; entries for parent p are [parentStart[p], parentStart[p + 1]); null when not compacted
+    @Nullable private int[] parentStart;
+    @Nullable private int[] entryChild;
+    @Nullable private double[] entryCount;
+
+    FlatCountTable() {
+        this.parents = new AssignmentPool();
+        this.children = new AssignmentPool();
+        this.counts = new Long2DoubleOpenHashMap();
+    }
+
+    private FlatCountTable(AssignmentPool parents,
+            AssignmentPool children,
+            int[] parentStart,
+            int[] entryChild,
+            double[] entryCount
+    ) {
+        this.parents = parents;
+        this.children = children;
+        this.counts = null;
+        this.parentStart = parentStart;
+        this.entryChild = entryChild;
+        this.entryCount = entryCount;
+    }
+
+    void add(DehydratedAssignment parent, DehydratedAssignment child, double amount) {
+        thaw();
+        int parentId = parents.intern(parent);
+        int childId = children.intern(child);
+        counts.addTo(key(parentId, childId), amount);
+    }
+
+    boolean isEmpty() {
+        return parents.size() == 0;
+    }
+
+    boolean isCompacted() {
+        return counts == null;
+    }
+
+    int parentCount() {
+        return parents.size();
+    }
+
+    int entryCount() {
+        return isCompacted() ? entryChild.length : counts.size();
+    }
+
+    /**
+     * Calls the consumer once per parent with a new multinomial of its children's counts; the table must already
+     * be compacted
+     * @param consumer
+     */
+    void forEachParent(BiConsumer<DehydratedAssignment, MutableMultinomial<DehydratedAssignment>> consumer) {
+        Preconditions.checkState(isCompacted(),
+                "the flat count table must be compacted (see CountDag.compactCounts) before reading it");
+        for (int p = 0; p < parents.size(); p++) {
+            int start = parentStart[p];
+            int end = parentStart[p + 1];
+            MutableMultinomial<DehydratedAssignment> dist = MutableMultinomial.createUnknownMax(end - start);
+            for (int i = start; i < end; i++) {
+                dist.add(children.get(entryChild[i]), entryCount[i]);
+            }
+            consumer.accept(parents.get(p), dist);
+        }
+    }
+
+    /**
+     * Calls the consumer with every entry in whichever form the table is in; doesn't change the table. This is
+     * for merging counts where the other table might still be counting
+     * @param consumer
+     */
+    void forEachEntry(EntryConsumer consumer) {
+        if (isCompacted()) {
+            for (int p = 0; p < parents.size(); p++) {
+                DehydratedAssignment parent = parents.get(p);
+                for (int i = parentStart[p]; i < parentStart[p + 1]; i++) {
+                    consumer.accept(parent, children.get(entryChild[i]), entryCount[i]);
+                }
+            }
+            return;
+        }
+        ObjectIterator<Long2DoubleMap.Entry> iter = counts.long2DoubleEntrySet().fastIterator();
+        while (iter.hasNext()) {
+            Long2DoubleMap.Entry entry = iter.next();
+            long key = entry.getLongKey();
+            consumer.accept(parents.get(parentOf(key)), children.get(childOf(key)), entry.getDoubleValue());
+        }
+    }
+
+    /**
+     * Sorts the entries by parent and builds the parent -> range index, dropping the hash table; call once when
+     * counting is done and before anyone reads the table
+     */
+    void compact() {
+        if (isCompacted()) {
+            return;
+        }
+        FlatCountTable compacted = compactedView();
+        this.parentStart = compacted.parentStart;
+        this.entryChild = compacted.entryChild;
+        this.entryCount = compacted.entryCount;
+        this.counts = null;
+        parents.trim();
+        children.trim();
+    }
+
+    // the compacted form of this table (sharing the interned assignments) without changing this one
+    private FlatCountTable compactedView() {
+        if (isCompacted()) {
+            return this;
+        }
+        long[] keys = counts.keySet().toLongArray();
+        Arrays.sort(keys);
+        int[] start = new int[parents.size() + 1];
+        int[] child = new int[keys.length];
+        double[] count = new double[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            child[i] = childOf(keys[i]);
+            count[i] = counts.get(keys[i]);
+            start[parentOf(keys[i]) + 1] += 1;
+        }
+        for (int p = 0; p < parents.size(); p++) {
+            start[p + 1] += start[p];
+        }
+        return new FlatCountTable(parents, children, start, child, count);
+    }
+
+    /**
+     * Writes the compacted form: the parent and child assignments and then the range index and entries as
+     * primitive arrays; if the table isn't compacted yet then the compacted form is built just for the write
+     * @param out
+     * @throws IOException
+     */
+    void writeBinary(DataOutput out) throws IOException {
+        FlatCountTable compacted = compactedView();
+        compacted.parents.writeBinary(out);
+        compacted.children.writeBinary(out);
+        BinaryValues.writeInts(out, compacted.parentStart);
+        BinaryValues.writeInts(out, compacted.entryChild);
+        BinaryValues.writeDoubles(out, compacted.entryCount);
+    }
+
+    /**
+     * Reads the table written by writeBinary() into this (empty) table; it is left in its compacted form
+     * @param in
+     * @throws IOException
+     */
+    void readBinary(DataInput in) throws IOException {
+        Preconditions.checkState(isEmpty(), "can only read into an empty table");
+        parents.readBinary(in);
+        children.readBinary(in);
+        this.parentStart = BinaryValues.readInts(in);
+        this.entryChild = BinaryValues.readInts(in);
+        this.entryCount = BinaryValues.readDoubles(in);
+        if (parentStart.length != parents.size() + 1 || entryChild.length != entryCount.length) {
+            throw new IOException("corrupt flat count table");
+        }
+        this.counts = null;
+    }
+
+    private void thaw() {
+        if (!isCompacted()) {
+            return;
+        }
+        Long2DoubleOpenHashMap rebuilt = new Long2DoubleOpenHashMap(entryChild.length);
+        for (int p = 0; p < parents.size(); p++) {
+            for (int i = parentStart[p]; i < parentStart[p + 1]; i++) {
+                rebuilt.put(key(p, entryChild[i]), entryCount[i]);
+            }
+        }
+        this.counts = rebuilt;
+        this.parentStart = null;
+        this.entryChild = null;
+        this.entryCount = null;
+    }
+
+    private static long key(int parentId, int childId) {
+        return (((long) parentId) << 32) | (childId & 0xFFFFFFFFL);
+    }
+
+    private static int parentOf(long key) {
+        return (int) (key >>> 32);
+    }
+
+    private static int childOf(long key) {
+        return (int) key;
+    }
+
+    // the compacted arrays are much smaller than the hash table so always serialize that form
+    private Object writeReplace() {
+        return compactedView();
+    }
+
+    /**
+     * Interns assignments to dense int ids. Packed assignments are kept as their primitive fields in parallel
+     * arrays with an open addressed (linear probing) index of slot -> id over them; only the unpacked (i.e.
+     * hierarchical or wide) assignments are kept as objects. The assignment objects are made again on get()
+     */
+    static final class AssignmentPool implements Serializable {
+
+        private static final long serialVersionUID = 4417283046551120934L;
+
+        private static final byte UNPACKED = -1;
+
+        // id -> packed size (or UNPACKED) and packed fields (zero if not used)
+        private final ByteArrayList sizes = new ByteArrayList();
+        private final LongArrayList fields0 = new LongArrayList();
+        private final LongArrayList fields1 = new LongArrayList();
+        // slot -> packed id + 1 (0 for an empty slot); length is a power of two and at most half full
+        private int[] slots = new int[16];
+        private int packedCount = 0;
+
+        private final Int2ObjectOpenHashMap<DehydratedAssignment> unpacked = new Int2ObjectOpenHashMap<>();
+        private final Object2IntOpenHashMap<DehydratedAssignment> unpackedIds = new Object2IntOpenHashMap<>();
+
+        AssignmentPool() {
+            unpackedIds.defaultReturnValue(-1);
+        }
+
+        int size() {
+            return sizes.size();
+        }
+
+        int intern(DehydratedAssignment assign) {
+            if (!assign.isPacked()) {
+                int id = unpackedIds.getInt(assign);
+                if (id < 0) {
+                    id = append(UNPACKED, 0, 0);
+                    unpacked.put(id, assign);
+                    unpackedIds.put(assign, id);
+                }
+                return id;
+            }
+            int size = assign.size();
+            long field0 = (size > 0 ? assign.packedField(0) : 0);
+            long field1 = (size > 1 ? assign.packedField(1) : 0);
+            int mask = slots.length - 1;
+            int slot = hash(size, field0, field1) & mask;
+            while (slots[slot] != 0) {
+                int id = slots[slot] - 1;
+                if (sizes.getByte(id) == size && fields0.getLong(id) == field0 && fields1.getLong(id) == field1) {
+                    return id;
+                }
+                slot = (slot + 1) & mask;
+            }
+            int id = append((byte) size, field0, field1);
+            slots[slot] = id + 1;
+            packedCount += 1;
+            if (packedCount * 2 > slots.length) {
+                rehash(slots.length * 2);
+            }
+            return id;
+        }
+
+        DehydratedAssignment get(int id) {
+            byte size = sizes.getByte(id);
+            if (size == UNPACKED) {
+                return unpacked.get(id);
+            }
+            return DehydratedAssignment.makePacked(size, fields0.getLong(id), fields1.getLong(id));
+        }
+
+        void trim() {
+            sizes.trim();
+            fields0.trim();
+            fields1.trim();
+        }
+
+        void writeBinary(DataOutput out) throws IOException {
+            out.writeInt(size());
+            for (int i = 0; i < size(); i++) {
+                DehydratedAssignment.writeBinary(out, get(i));
+            }
+        }
+
+        void readBinary(DataInput in) throws IOException {
+            int size = in.readInt();
+            sizes.ensureCapacity(size);
+            fields0.ensureCapacity(size);
+            fields1.ensureCapacity(size);
+            for (int i = 0; i < size; i++) {
+                intern(DehydratedAssignment.readBinary(in));
+            }
+            if (size() != size) {
+                throw new IOException("corrupt flat count table; duplicate assignments");
+            }
+        }
+
+        private int append(byte size, long field0, long field1) {
+            int id = sizes.size();
+            sizes.add(size);
+            fields0.add(field0);
+            fields1.add(field1);
+            return id;
+        }
+
+        private void rehash(int capacity) {
+            int[] rebuilt = new int[capacity];
+            int mask = capacity - 1;
+            for (int id = 0; id < sizes.size(); id++) {
+                byte size = sizes.getByte(id);
+                if (size == UNPACKED) {
+                    continue;
+                }
+                int slot = hash(size, fields0.getLong(id), fields1.getLong(id)) & mask;
+                while (rebuilt[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                rebuilt[slot] = id + 1;
+            }
+            this.slots = rebuilt;
+        }
+
+        private static int hash(int size, long field0, long field1) {
+            return (int) HashCommon.murmurHash3((field0 * 31 + field1) * 31 + size);
+        }
+    }
+}
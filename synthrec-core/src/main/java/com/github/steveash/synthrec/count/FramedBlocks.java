@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.count;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Sections of the binary count dag format that a reader can skip without parsing them (i.e. the vocabs and counts
+ * of factor groups that a partial load doesn't want). A block is written as a sequence of length prefixed frames
+ * ended by an empty frame, so the writer never has to buffer more than one frame to know the length and the
+ * reader can skip a block by just reading the frame lengths
+ * @author Steve Ash
+ */
+class FramedBlocks {
+
+    private static final int FRAME_SIZE = 64 * 1024;
+
+    interface BlockWriter {
+        void writeTo(DataOutput out) throws IOException;
+    }
+
+    interface BlockReader<T> {
+        T readFrom(DataInput in) throws IOException;
+    }
+
+    static void write(DataOutput out, BlockWriter body) throws IOException {
+        FrameOutputStream frames = new FrameOutputStream(out);
+        DataOutputStream blockOut = new DataOutputStream(frames);
+        body.writeTo(blockOut);
+        blockOut.flush();
+        frames.finish();
+    }
+
+    static <T> T read(DataInput in, BlockReader<T> body) throws IOException {
+        // the frame stream ends at the end of the block so buffering it can't read past the block
+        BufferedInputStream buffered = new BufferedInputStream(new FrameInputStream(in), FRAME_SIZE);
+        T result = body.readFrom(new DataInputStream(buffered));
+        if (buffered.read() >= 0) {
+            throw new IOException("block wasn't completely read; the format is corrupt");
+        }
+        return result;
+    }
+
+    static void skip(DataInput in) throws IOException {
+        int length;
+        while ((length = in.readInt()) > 0) {
+            if (in.skipBytes(length) != length) {
+                throw new EOFException("block was truncated");
+            }
+        }
+    }
+
+    private static class FrameOutputStream extends OutputStream {
+
+        private final DataOutput out;
+        private final byte[] frame = new byte[FRAME_SIZE];
+        private int used = 0;
+
+        private FrameOutputStream(DataOutput out) {this.out = out;}
+
+        @Override
+        public void write(int b) throws IOException {
+            if (used == frame.length) {
+                writeFrame();
+            }
+            frame[used++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (used == frame.length) {
+                    writeFrame();
+                }
+                int toCopy = Math.min(len, frame.length - used);
+                System.arraycopy(b, off, frame, used, toCopy);
+                used += toCopy;
+                off += toCopy;
+                len -= toCopy;
+            }
+        }
+
+        private void writeFrame() throws IOException {
+            if (used > 0) {
+                out.writeInt(used);
+                out.write(frame, 0, used);
+                used = 0;
+            }
+        }
+
+        void finish() throws IOException {
+            writeFrame();
+            out.writeInt(0);
+        }
+    }
+
+    private static class FrameInputStream extends InputStream {
+
+        private final DataInput in;
+        private int remaining = 0;
+        private boolean done = false;
+
+        private FrameInputStream(DataInput in) {this.in = in;}
+
+        // true if there are bytes left in the block
+        private boolean advance() throws IOException {
+            while (remaining == 0 && !done) {
+                int length = in.readInt();
+                if (length < 0) {
+                    throw new IOException("corrupt frame length " + length);
+                }
+                remaining = length;
+                done = length == 0;
+            }
+            return remaining > 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!advance()) {
+                return -1;
+            }
+            remaining -= 1;
+            return in.readUnsignedByte();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!advance()) {
+                return -1;
+            }
+            int toRead = Math.min(len, remaining);
+            in.readFully(b, off, toRead);
+            remaining -= toRead;
+            return toRead;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.count;
+
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Counts into a frozen CountDag from many threads without contending on the dag's monitor. Each thread that calls
+ * add() gets its own private shard of the dag (own count factors and factor stats but the same shared vocab
+ * registry) and when counting is done mergeShards() folds every shard back into the target dag. Which records land
+ * in which shard (and the order that new values get codes in the shared vocabs) depends on thread scheduling, so the
+ * merged counts always add up to the same totals but the order of entries within the target's factors can differ
+ * from run to run
+ * @author Steve Ash
+ */
+public class ShardedCountDag {
+
+    private final CountDag target;
+    private final List<ShardRef> shards = Lists.newArrayList();
+    private final ThreadLocal<ShardRef> localShard = ThreadLocal.withInitial(this::makeShard);
+    private boolean isMerged = false;
+
+    public ShardedCountDag(CountDag target) {
+        this.target = target;
+    }
+
+    public CountAssignment add(CountAssignment assignment) {
+        ShardRef ref = localShard.get();
+        Preconditions.checkState(ref.shard != null, "cant add to the sharded dag after its been merged");
+        return ref.shard.add(assignment);
+    }
+
+    /**
+     * Merges all of the shards into the target dag; no more counts can be added after this; must be called after
+     * all of the counting threads are finished
+     * @return the target dag that now includes all of the shard counts
+     */
+    public synchronized CountDag mergeShards() {
+        Preconditions.checkState(!isMerged, "already merged the shards");
+        isMerged = true;
+        for (ShardRef ref : shards) {
+            target.mergeShard(ref.shard);
+            // the thread local on the pool threads might outlive us so drop the reference to the big counts
+            ref.shard = null;
+        }
+        shards.clear();
+        return target;
+    }
+
+    public synchronized int shardCount() {
+        return shards.size();
+    }
+
+    private synchronized ShardRef makeShard() {
+        Preconditions.checkState(!isMerged, "cant add to the sharded dag after its been merged");
+        ShardRef ref = new ShardRef(target.newShard());
+        shards.add(ref);
+        return ref;
+    }
+
+    private static class ShardRef {
+        private CountDag shard;
+
+        private ShardRef(CountDag shard) {this.shard = shard;}
+    }
+}
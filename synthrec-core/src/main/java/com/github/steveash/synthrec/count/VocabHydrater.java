@@ -21,6 +21,8 @@ package com.github.steveash.synthrec.count;
 import java.util.List;
 import java.util.Map.Entry;
 
+import javax.annotation.concurrent.NotThreadSafe;
+
 import com.github.steveash.synthrec.collect.Vocabulary;
 import com.github.steveash.synthrec.domain.AssignmentInstance;
 import com.github.steveash.synthrec.domain.FieldSketch;
@@ -31,32 +33,50 @@ import com.google.common.collect.ImmutableMap.Builder;
 import com.google.common.collect.Lists;
 
 import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ShortOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import it.unimi.dsi.fastutil.shorts.Short2IntArrayMap;
 import it.unimi.dsi.fastutil.shorts.Short2IntMap;
 import it.unimi.dsi.fastutil.shorts.Short2ObjectArrayMap;
 import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectOpenHashMap;
 
 /**
  * Hydrator that knows how to dehydrate a CountAssignmentInstance given a DistribRegistry
  *
  * Also note that during the counting process -- it's dehydration that actually populated the underlying vocabularies
+ *
+ * The hydrater memoizes the registry's codes and vocabs that it uses during dehydration so that counting shards
+ * don't hit the (shared, synchronized) registry for every value; thus dehydrate() is not thread safe and each
+ * counting shard gets its own hydrater
  * @author Steve Ash
  */
+@NotThreadSafe
 public class VocabHydrater {
 
     private final DistribVocabRegistry registry;
+    private final Object2ShortOpenHashMap<String> distribCodes = new Object2ShortOpenHashMap<>();
+    private final Object2ObjectOpenHashMap<String, Object2ShortOpenHashMap<String>> subFieldCodes =
+            new Object2ObjectOpenHashMap<>();
+    private final Short2ObjectOpenHashMap<Vocabulary<Object>> codeToVocab = new Short2ObjectOpenHashMap<>();
 
     public VocabHydrater(DistribVocabRegistry registry) {
         this.registry = registry;
     }
 
     public DehydratedAssignment dehydrate(AssignmentInstance instance) {
+        if (instance.size() <= DehydratedAssignment.MAX_PACKED) {
+            DehydratedAssignment maybe = dehydratePacked(instance);
+            if (maybe != null) {
+                return maybe;
+            }
+        }
         Short2IntMap flatVals = DehydratedAssignment.createMap(instance.size());
         Short2ObjectMap<Short2IntArrayMap> hierarchVals = null;
         for (Entry<String, Object> entry : instance.getAssignment().entrySet()) {
 
-            short code = registry.resolveDistribCode(entry.getKey());
+            short code = distribCode(entry.getKey());
             Object value = entry.getValue();
 
             if (value instanceof Multinomial) {
@@ -71,18 +91,40 @@ public class VocabHydrater {
 
             } else {
 
-                int index = registry.resolveValueIndexFor(entry.getKey(), entry.getValue());
+                int index = vocab(code).putIfAbsent(value);
                 flatVals.put(code, index);
             }
         }
-        return new DehydratedAssignment(flatVals, hierarchVals);
+        return DehydratedAssignment.make(flatVals, hierarchVals);
+    }
+
+    // packs small flat assignments directly without building the intermediate map; null if it has sketches
+    private DehydratedAssignment dehydratePacked(AssignmentInstance instance) {
+        long packed0 = 0;
+        long packed1 = 0;
+        int i = 0;
+        for (Entry<String, Object> entry : instance.getAssignment().entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof FieldSketch || value instanceof Multinomial) {
+                return null; // let the general path deal with it
+            }
+            short code = distribCode(entry.getKey());
+            long packed = DehydratedAssignment.pack(code, vocab(code).putIfAbsent(value));
+            if (i == 0) {
+                packed0 = packed;
+            } else {
+                packed1 = packed;
+            }
+            i += 1;
+        }
+        return DehydratedAssignment.makePacked(i, packed0, packed1);
     }
 
     private Short2IntArrayMap dehydrateHierarch(String distribName, FieldSketch sketch) {
         Short2IntArrayMap map = new Short2IntArrayMap(sketch.size());
         for (int i = 0; i < sketch.size(); i++) {
-            short subFieldCode = registry.resolveDistribSubFieldCode(distribName, sketch.getSketchField(i));
-            Vocabulary<Object> vocab = registry.resolveVocab(subFieldCode);
+            short subFieldCode = subFieldCode(distribName, sketch.getSketchField(i));
+            Vocabulary<Object> vocab = vocab(subFieldCode);
             // always put it so that we record the full literal distribution
             int valueIndex = vocab.putIfAbsent(sketch.getLiteralField(i));
             int valueToUse = 0;
@@ -94,6 +136,38 @@ public class VocabHydrater {
         return map;
     }
 
+    private short distribCode(String distribName) {
+        short code = distribCodes.getShort(distribName);
+        if (code == 0) {
+            code = registry.resolveDistribCode(distribName);
+            distribCodes.put(distribName, code);
+        }
+        return code;
+    }
+
+    private short subFieldCode(String distribName, String subField) {
+        Object2ShortOpenHashMap<String> fieldToCode = subFieldCodes.get(distribName);
+        if (fieldToCode == null) {
+            fieldToCode = new Object2ShortOpenHashMap<>();
+            subFieldCodes.put(distribName, fieldToCode);
+        }
+        short code = fieldToCode.getShort(subField);
+        if (code == 0) {
+            code = registry.resolveDistribSubFieldCode(distribName, subField);
+            fieldToCode.put(subField, code);
+        }
+        return code;
+    }
+
+    private Vocabulary<Object> vocab(short code) {
+        Vocabulary<Object> vocab = codeToVocab.get(code);
+        if (vocab == null) {
+            vocab = registry.resolveVocab(code);
+            codeToVocab.put(code, vocab);
+        }
+        return vocab;
+    }
+
     public MutableMultinomial<List<Object>> hydrateMultinomialToList(Multinomial<DehydratedAssignment> input, List<String> outputList) {
         MutableMultinomial<List<Object>> output = new MutableMultinomial<>(-1);
         ObjectIterator<Object2DoubleMap.Entry<DehydratedAssignment>> iter = input.entries().fastIterator();
@@ -122,6 +196,14 @@ public class VocabHydrater {
 
     public AssignmentInstance hydrate(DehydratedAssignment assignment) {
         Builder<String, Object> builder = ImmutableMap.builder();
+        if (assignment.isPacked()) {
+            for (int i = 0; i < assignment.size(); i++) {
+                short code = assignment.packedCode(i);
+                String name = registry.resolveNameForCode(code);
+                builder.put(name, registry.resolveValueForIndex(code, assignment.packedIndex(i)));
+            }
+            return AssignmentInstance.make(builder.build());
+        }
         for (Short2IntMap.Entry entry : assignment.getFlatAssigns().short2IntEntrySet()) {
             short code = entry.getShortKey();
             String name = registry.resolveNameForCode(code);
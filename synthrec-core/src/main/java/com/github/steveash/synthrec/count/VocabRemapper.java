@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.count;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import it.unimi.dsi.fastutil.shorts.Short2IntArrayMap;
+import it.unimi.dsi.fastutil.shorts.Short2IntMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectArrayMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.shorts.Short2ShortOpenHashMap;
+
+/**
+ * Re-keys dehydrated assignments from one vocab registry into another (i.e. when merging count dags that were
+ * built independently). Distrib codes are matched up by name and value indexes by value; source indexes are
+ * resolved through any tombstones so reduced/deidentified vocabs remap to their current values. All of the
+ * translations are memoized so each distinct (code, index) only hits the vocabs once
+ * @author Steve Ash
+ */
+class VocabRemapper {
+
+    private final DistribVocabRegistry source;
+    private final DistribVocabRegistry target;
+    // source distrib or subfield code -> target code
+    private final Short2ShortOpenHashMap codeMap = new Short2ShortOpenHashMap();
+    // source code -> (source value index -> target value index)
+    private final Short2ObjectOpenHashMap<Int2IntOpenHashMap> indexMap = new Short2ObjectOpenHashMap<>();
+
+    VocabRemapper(DistribVocabRegistry source, DistribVocabRegistry target) {
+        this.source = source;
+        this.target = target;
+    }
+
+    DehydratedAssignment remap(DehydratedAssignment assign) {
+        if (assign.isPacked()) {
+            long packed0 = 0;
+            long packed1 = 0;
+            for (int i = 0; i < assign.size(); i++) {
+                short sourceCode = assign.packedCode(i);
+                short targetCode = distribCode(sourceCode);
+                long packed = DehydratedAssignment.pack(targetCode,
+                        valueIndex(sourceCode, targetCode, assign.packedIndex(i))
+                );
+                if (i == 0) {
+                    packed0 = packed;
+                } else {
+                    packed1 = packed;
+                }
+            }
+            return DehydratedAssignment.makePacked(assign.size(), packed0, packed1);
+        }
+        Short2IntMap flat = DehydratedAssignment.createMap(assign.getFlatAssigns().size());
+        ObjectIterator<Short2IntMap.Entry> iter = assign.getFlatAssigns().short2IntEntrySet().iterator();
+        while (iter.hasNext()) {
+            Short2IntMap.Entry entry = iter.next();
+            short targetCode = distribCode(entry.getShortKey());
+            flat.put(targetCode, valueIndex(entry.getShortKey(), targetCode, entry.getIntValue()));
+        }
+        Short2ObjectMap<Short2IntArrayMap> hierarch = null;
+        if (assign.getHierarchAssigns() != null) {
+            hierarch = new Short2ObjectArrayMap<>(assign.getHierarchAssigns().size());
+            for (Short2ObjectMap.Entry<Short2IntArrayMap> entry : assign.getHierarchAssigns().short2ObjectEntrySet()) {
+                short distribCode = entry.getShortKey();
+                String distribName = source.resolveNameForCode(distribCode);
+                hierarch.put(distribCode(distribCode), remapSketch(distribName, entry.getValue()));
+            }
+        }
+        return DehydratedAssignment.make(flat, hierarch);
+    }
+
+    private Short2IntArrayMap remapSketch(String distribName, Short2IntArrayMap vals) {
+        Short2IntArrayMap result = new Short2IntArrayMap(vals.size());
+        // array maps iterate in insert order which is the sketch order so we need to preserve it
+        ObjectIterator<Short2IntMap.Entry> iter = vals.short2IntEntrySet().fastIterator();
+        while (iter.hasNext()) {
+            Short2IntMap.Entry entry = iter.next();
+            short subFieldCode = entry.getShortKey();
+            short targetCode = subFieldCode(distribName, subFieldCode);
+            int valueIndex = entry.getIntValue();
+            // zero is the placeholder marker and not a real index
+            result.put(targetCode, valueIndex == 0 ? 0 : valueIndex(subFieldCode, targetCode, valueIndex));
+        }
+        return result;
+    }
+
+    private short distribCode(short sourceCode) {
+        short code = codeMap.get(sourceCode);
+        if (code == 0) {
+            code = target.resolveDistribCode(source.resolveNameForCode(sourceCode));
+            codeMap.put(sourceCode, code);
+        }
+        return code;
+    }
+
+    private short subFieldCode(String distribName, short sourceCode) {
+        short code = codeMap.get(sourceCode);
+        if (code == 0) {
+            code = target.resolveDistribSubFieldCode(distribName, source.resolveNameForCode(sourceCode));
+            codeMap.put(sourceCode, code);
+        }
+        return code;
+    }
+
+    private int valueIndex(short sourceCode, short targetCode, int sourceIndex) {
+        Int2IntOpenHashMap indexes = indexMap.get(sourceCode);
+        if (indexes == null) {
+            indexes = new Int2IntOpenHashMap();
+            indexMap.put(sourceCode, indexes);
+        }
+        int index = indexes.get(sourceIndex);
+        if (index == 0) {
+            Object value = checkNotNull(source.resolveVocab(sourceCode).getForIndex(sourceIndex),
+                    "no value for index", sourceIndex
+            );
+            index = target.resolveVocab(targetCode).putIfAbsent(value);
+            indexes.put(sourceIndex, index);
+        }
+        return index;
+    }
+}
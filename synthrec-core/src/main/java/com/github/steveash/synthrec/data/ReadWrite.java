@@ -25,6 +25,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.List;
 import java.util.function.Function;
@@ -32,6 +33,8 @@ import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+import javax.annotation.Nullable;
+
 import org.apache.commons.lang3.StringUtils;
 
 import com.github.steveash.synthrec.data.CsvTable.Row;
@@ -148,6 +151,35 @@ public class ReadWrite {
         }
     }
 
+    /**
+     * Finds the resource the same way as findResource() but only if it is a file on the local file system (i.e.
+     * so that it can be memory mapped or read at random)
+     * @param resourceName
+     * @return the file or null if the resource is only on the classpath inside of a jar
+     */
+    @Nullable
+    public static File findLocalFile(String resourceName) {
+        try {
+            return DataFiles.load(resourceName);
+        } catch (MissingResourceException e) {
+            File file = new File(resourceName);
+            if (file.exists()) {
+                return file;
+            }
+            try {
+                URL classpathResource = Resources.getResource(resourceName);
+                if ("file".equals(classpathResource.getProtocol())) {
+                    return new File(classpathResource.toURI());
+                }
+                return null;
+            } catch (IllegalArgumentException | URISyntaxException e1) {
+                throw new MissingResourceException("Tried to find " + resourceName +
+                        " using data files and classpath; cannot find it", e1
+                );
+            }
+        }
+    }
+
     public static ByteSource findByteResource(String resourceName) {
         try {
             URL classpathResource = Resources.getResource(resourceName);
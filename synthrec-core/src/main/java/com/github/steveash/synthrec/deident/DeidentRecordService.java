@@ -62,6 +62,8 @@ public class DeidentRecordService {
     }
 
     public void deident(CountDag input, @Nullable String deidentOut) throws IOException {
+        // the raw values behind reduced ones are only needed to append to the profile which is done by now
+        input.clearReducedOriginals();
 
         input.allSensitiveDistribs().forEach(dist -> {
 
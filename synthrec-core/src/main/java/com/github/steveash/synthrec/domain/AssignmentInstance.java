@@ -18,10 +18,13 @@
 
 package com.github.steveash.synthrec.domain;
 
+import java.io.Serializable;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 import com.github.steveash.synthrec.Constants;
 import com.github.steveash.synthrec.util.MoreCollections;
 import com.google.common.base.Joiner;
@@ -32,9 +35,14 @@ import com.google.common.collect.ImmutableMap.Builder;
 /**
  * One particular -- fixed -- instance of a particular assignment of categorical random variables.  If you have any
  * uncertainty then you construct the appropriate CountAssignment with those assignments and enumerate the instances
+ * <p>
+ * Serializable so that compiled samplers keyed by assignments can be written into a model; the assigned values
+ * need to be serializable too (they are strings and enums in practice)
  * @author Steve Ash
  */
-public class AssignmentInstance implements AssignmentProvider {
+public class AssignmentInstance implements AssignmentProvider, Serializable {
+
+    private static final long serialVersionUID = -6218841203542706337L;
 
     public static final AssignmentInstance EMPTY_ASSIGNMENT = new AssignmentInstance(ImmutableMap.of());
     private static final MapJoiner MAP_JOINER = Joiner.on(',').withKeyValueSeparator('=');
@@ -78,7 +86,8 @@ public class AssignmentInstance implements AssignmentProvider {
         return new AssignmentInstance(assign);
     }
 
-    private final int cachedHash;
+    // enum hash codes differ between jvms so this is recomputed when read back
+    private final transient int cachedHash;
     private final ImmutableMap<String, Object> assign;
 
     private AssignmentInstance(Map<String, Object> assign) {
@@ -86,6 +95,10 @@ public class AssignmentInstance implements AssignmentProvider {
         this.cachedHash = this.assign.hashCode();
     }
 
+    private Object readResolve() {
+        return make(assign);
+    }
+
     public AssignmentInstance subset(Set<String> keysToSelect) {
         if (assign.keySet().equals(keysToSelect)) {
             return this;
@@ -116,6 +129,12 @@ public class AssignmentInstance implements AssignmentProvider {
         return assign;
     }
 
+    @Override
+    @Nullable
+    public Object tryGet(String key) {
+        return assign.get(key);
+    }
+
     public Object get(String key, Object defaultValue) {
         return assign.getOrDefault(key, defaultValue);
     }
@@ -20,6 +20,10 @@ package com.github.steveash.synthrec.domain;
 
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableSet;
+
 /**
  * Something that is able to provide assignments for a set of keys
  * @author Steve Ash
@@ -27,4 +31,14 @@ import java.util.Set;
 public interface AssignmentProvider {
 
     AssignmentInstance subset(Set<String> keysToSelect);
+
+    /**
+     * @param key
+     * @return the value assigned to the single key or null if there isn't one; implementations should override
+     * this so single lookups don't have to build a subset
+     */
+    @Nullable
+    default Object tryGet(String key) {
+        return subset(ImmutableSet.of(key)).get(key, null);
+    }
 }
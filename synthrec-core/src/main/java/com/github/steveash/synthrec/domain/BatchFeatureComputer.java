@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.domain;
+
+import java.util.List;
+
+/**
+ * A feature computer that can emit its features for a micro-batch of records at once (i.e. because the parser
+ * behind it can parse a batch cheaper than one at a time). The FeatureService only uses the batch path when
+ * supportsBatch() is true; otherwise it calls emitFeatures per record like any other computer
+ * @author Steve Ash
+ */
+public interface BatchFeatureComputer extends FeatureComputer {
+
+    /**
+     * emits the same feature values into each record as calling emitFeatures(rec, rec) on each of them would
+     * @param records
+     */
+    void emitFeaturesBatch(List<Record> records);
+
+    /**
+     * @return true if emitFeaturesBatch is cheaper than emitting one record at a time
+     */
+    boolean supportsBatch();
+}
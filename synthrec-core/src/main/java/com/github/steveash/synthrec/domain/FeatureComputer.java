@@ -75,6 +75,8 @@ public interface FeatureComputer {
         private final String key;
         // the value of the feature is an instance of this class
         private final Class<T> featureClass;
+        // slot in the shared feature schema; resolved on first use (racing threads resolve the same value)
+        private int slot = -1;
 
         public FeatureKey(String key, Class<T> featureClass) {
             this.key = checkNotNull(key);
@@ -85,6 +87,15 @@ public interface FeatureComputer {
             return key;
         }
 
+        int slot() {
+            int result = slot;
+            if (result < 0) {
+                result = Record.featureSchema().slotFor(key);
+                this.slot = result;
+            }
+            return result;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
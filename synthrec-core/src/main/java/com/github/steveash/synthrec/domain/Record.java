@@ -18,81 +18,149 @@
 
 package com.github.steveash.synthrec.domain;
 
-import static javafx.scene.input.KeyCode.T;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
-import java.util.Collections;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
 
 import javax.annotation.Nullable;
 
+import com.github.steveash.synthrec.canonical.ConfigurableInterner.ValueKind;
 import com.github.steveash.synthrec.canonical.Normalizers;
 import com.github.steveash.synthrec.domain.FeatureComputer.FeatureKey;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Maps;
 
 /**
  * Represents a single representation of a demographic record; allows for extensible mapping
  * as well as caching for features and calculated normal values (phonetic values, etc.)
+ *
+ * Values are held in plain arrays indexed by slots from the shared field and feature schemas instead of per
+ * record hash maps; the slots for the mapped headers and feature keys are assigned once and every record after
+ * that is just a few small arrays. A record is only ever worked on by one pipeline thread at a time so it is
+ * not thread safe (and doesn't pay for locking)
  * @author Steve Ash
  */
 public class Record implements ReadableRecord, WriteableRecord {
 
+    private static final RecordSchema FIELD_SCHEMA = new RecordSchema();
+    private static final RecordSchema FEATURE_SCHEMA = new RecordSchema();
+
     private final int recordId;
-    private final Map<String, String> fields = Collections.synchronizedMap(Maps.newHashMap());
-    private final Map<String, String> normalFields = Collections.synchronizedMap(Maps.newHashMap());
-    private final Map<String, Object> features = Collections.synchronizedMap(Maps.newHashMap());
+    // raw and normal values are indexed by field schema slot; features by feature schema slot
+    private String[] fields;
+    private String[] normalFields;
+    private Object[] features;
+
+    public Record(int recordId) {
+        this.recordId = recordId;
+        this.fields = new String[FIELD_SCHEMA.size()];
+        this.normalFields = new String[fields.length];
+        this.features = new Object[FEATURE_SCHEMA.size()];
+    }
+
+    /**
+     * @return the slots shared by every record for the raw and normal field values
+     */
+    public static RecordSchema fieldSchema() {
+        return FIELD_SCHEMA;
+    }
+
+    /**
+     * @return the slots shared by every record for the feature values
+     */
+    public static RecordSchema featureSchema() {
+        return FEATURE_SCHEMA;
+    }
 
-    public Record(int recordId) {this.recordId = recordId;}
+    public int getRecordId() {
+        return recordId;
+    }
 
     public void setInitialValue(String header, String value) {
         if (isNotBlank(value)) {
-            fields.put(Normalizers.interner().intern(header), Normalizers.interner().intern(value));
+            int slot = FIELD_SCHEMA.slotFor(header);
+            this.fields = ensureSlot(fields, slot, FIELD_SCHEMA);
+            fields[slot] = Normalizers.internField(ValueKind.FIELD, header, value);
         }
     }
 
     @Override
     public String getField(String header, String defaultValue) {
-        return fields.getOrDefault(header, defaultValue);
+        return valueAt(fields, FIELD_SCHEMA.slotIfPresent(header), defaultValue);
     }
 
     @Override
     public void setNormal(String header, @Nullable String value) {
         if (value != null) {
-            normalFields.put(Normalizers.interner().intern(header), Normalizers.interner().intern(value));
+            int slot = FIELD_SCHEMA.slotFor(header);
+            this.normalFields = ensureSlot(normalFields, slot, FIELD_SCHEMA);
+            normalFields[slot] = Normalizers.internField(ValueKind.NORMAL, header, value);
         }
     }
 
     @Override
     public String getNormal(String header, String defaultValue) {
-        return normalFields.getOrDefault(header, defaultValue);
+        return valueAt(normalFields, FIELD_SCHEMA.slotIfPresent(header), defaultValue);
     }
 
+    /**
+     * @return a read only view of the raw field values that were set
+     */
     @Override
     public Map<String,String> fields() {
-        return fields;
+        return new FieldsView();
+    }
+
+    /**
+     * Calls the consumer with each normal field value that was set
+     * @param consumer
+     */
+    public void forEachNormal(BiConsumer<String, String> consumer) {
+        forEachSet(normalFields, FIELD_SCHEMA, consumer);
+    }
+
+    /**
+     * Calls the consumer with each feature value that was set (not including any uncalculated thunks)
+     * @param consumer
+     */
+    public void forEachFeature(BiConsumer<String, Object> consumer) {
+        for (int i = 0; i < features.length; i++) {
+            Object value = features[i];
+            if (value != null && !(value instanceof FeatureThunk)) {
+                consumer.accept(FEATURE_SCHEMA.keyFor(i), value);
+            }
+        }
+    }
+
+    private static void forEachSet(String[] values, RecordSchema schema, BiConsumer<String, String> consumer) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                consumer.accept(schema.keyFor(i), values[i]);
+            }
+        }
     }
 
     @Override
     public <T> T getFeature(FeatureKey<T> featureKey, T defaultValue) {
-        String key = featureKey.getKey();
-        return getFeatureByKey(key, defaultValue);
+        return getFeatureBySlot(featureKey.slot(), defaultValue);
     }
 
     public <T> T getFeatureByKey(String key, T defaultValue) {
-        Object result = features.getOrDefault(key, defaultValue);
-        if (result instanceof FeatureThunk) {
-            // dont race since the thunk is mutating
-            synchronized (this) {
-                result = features.getOrDefault(key, defaultValue);
+        return getFeatureBySlot(FEATURE_SCHEMA.slotIfPresent(key), defaultValue);
+    }
 
-                if (!(result instanceof FeatureThunk)) {
-                    return (T) result;
-                }
-                ((FeatureThunk) result).calculate(this);
-            }
-            result = features.getOrDefault(key, defaultValue);
+    private <T> T getFeatureBySlot(int slot, T defaultValue) {
+        Object result = valueAt(features, slot, defaultValue);
+        if (result instanceof FeatureThunk) {
+            ((FeatureThunk) result).calculate(this);
+            result = valueAt(features, slot, defaultValue);
         }
         return (T) result;
     }
@@ -106,10 +174,91 @@ public class Record implements ReadableRecord, WriteableRecord {
             if (isBlank((CharSequence) featureValue)) {
                 return;
             }
-            featureValue = (T) Normalizers.interner().intern(featureValue.toString());
+            featureValue = (T) Normalizers.internField(ValueKind.FEATURE, featureKey.getKey(),
+                    featureValue.toString());
         }
-        Object prevValue = features.put(featureKey.getKey(), featureValue);
+        int slot = featureKey.slot();
+        this.features = ensureSlot(features, slot, FEATURE_SCHEMA);
+        Object prevValue = features[slot];
         Preconditions.checkState(prevValue == null, "cant re-associate a feature value for the same key");
+        features[slot] = featureValue;
+    }
+
+    private static <T> T valueAt(Object[] values, int slot, T defaultValue) {
+        if (slot < 0 || slot >= values.length) {
+            return defaultValue;
+        }
+        Object value = values[slot];
+        return value != null ? (T) value : defaultValue;
+    }
+
+    // records created before a key was first seen need to grow; grow to the whole schema so it only happens once
+    private static <T> T[] ensureSlot(T[] values, int slot, RecordSchema schema) {
+        if (slot < values.length) {
+            return values;
+        }
+        return Arrays.copyOf(values, Math.max(slot + 1, schema.size()));
+    }
+
+    private class FieldsView extends AbstractMap<String, String> {
+
+        @Override
+        public String get(Object key) {
+            return key instanceof String ? getField((String) key, null) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new FieldsIterator();
+                }
+
+                @Override
+                public int size() {
+                    int count = 0;
+                    for (String field : fields) {
+                        if (field != null) {
+                            count += 1;
+                        }
+                    }
+                    return count;
+                }
+            };
+        }
+    }
+
+    private class FieldsIterator implements Iterator<Map.Entry<String, String>> {
+
+        private int next = advance(0);
+
+        private int advance(int from) {
+            while (from < fields.length && fields[from] == null) {
+                from += 1;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < fields.length;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int slot = next;
+            this.next = advance(slot + 1);
+            return new AbstractMap.SimpleImmutableEntry<>(FIELD_SCHEMA.keyFor(slot), fields[slot]);
+        }
     }
 
     @Override
@@ -131,7 +280,7 @@ public class Record implements ReadableRecord, WriteableRecord {
     public String toString() {
         return "Record{" +
                 "recordId=" + recordId +
-                ", fields=" + fields +
+                ", fields=" + fields() +
                 '}';
     }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.domain;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.steveash.synthrec.canonical.Normalizers;
+
+/**
+ * Assigns each key (field header or feature key) a fixed slot index that Records use to index into plain arrays
+ * instead of holding their own hash maps. Slots are assigned the first time a key is seen and never change, so the
+ * layout is resolved once for the whole run and every record after that just indexes into its arrays. Keys are
+ * append only; there are only ever a few dozen of them (the mapped headers and the feature keys)
+ *
+ * Thread safe; lookups of known keys don't lock
+ * @author Steve Ash
+ */
+public class RecordSchema {
+
+    private final ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<>();
+    private volatile String[] keys = new String[0];
+
+    /**
+     * @param key
+     * @return the slot for this key, assigning the next one if it hasn't been seen before
+     */
+    public int slotFor(String key) {
+        Integer slot = slots.get(key);
+        if (slot != null) {
+            return slot;
+        }
+        return assign(key);
+    }
+
+    /**
+     * @param key
+     * @return the slot for the key or -1 if it has never been assigned (so no record can have a value for it)
+     */
+    public int slotIfPresent(String key) {
+        Integer slot = slots.get(key);
+        return slot != null ? slot : -1;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public String keyFor(int slot) {
+        return keys[slot];
+    }
+
+    private synchronized int assign(String key) {
+        checkNotNull(key, "keys cannot be null");
+        Integer slot = slots.get(key);
+        if (slot != null) {
+            return slot;
+        }
+        int newSlot = keys.length;
+        String[] next = Arrays.copyOf(keys, newSlot + 1);
+        next[newSlot] = Normalizers.interner().intern(key);
+        // publish the key before the slot so anyone that finds the slot can also resolve its key
+        this.keys = next;
+        slots.put(next[newSlot], newSlot);
+        return newSlot;
+    }
+}
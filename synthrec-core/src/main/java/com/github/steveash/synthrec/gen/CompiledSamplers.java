@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.gen;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Holds the expensive to build samplers (smoothed and prior blended distributions, sampling tables) that the gen
+ * node providers create, so that they can be compiled once into a model and then loaded from it instead of
+ * being rebuilt on every generation run. Providers ask for their samplers by a key that is unique to what they
+ * are building (usually the factor name); the cheap parts of the gen nodes are still built every time.
+ *
+ * One instance is made for each gen dag that is built and passed explicitly to every GenNodeProvider
+ * @author Steve Ash
+ * @see GenNodeProvider
+ */
+public class CompiledSamplers {
+    private static final Logger log = LoggerFactory.getLogger(CompiledSamplers.class);
+
+    /**
+     * @return samplers that just build everything (generating straight from a count dag)
+     */
+    public static CompiledSamplers none() {
+        return new CompiledSamplers(ImmutableMap.of(), false);
+    }
+
+    /**
+     * @return samplers that build everything and remember what they built so it can be compiled into a model;
+     * providers must build every distribution up front (see isCompiling)
+     */
+    public static CompiledSamplers forCompiling() {
+        return new CompiledSamplers(ImmutableMap.of(), true);
+    }
+
+    /**
+     * @param samplers the samplers that were compiled into a model
+     * @return samplers that use the loaded ones instead of building them
+     */
+    public static CompiledSamplers loadedFrom(Map<String, ?> samplers) {
+        return new CompiledSamplers(ImmutableMap.copyOf(samplers), false);
+    }
+
+    private final ImmutableMap<String, Object> loaded;
+    private final boolean compiling;
+    private final Map<String, Object> built = Maps.newLinkedHashMap();
+
+    private CompiledSamplers(ImmutableMap<String, Object> loaded, boolean compiling) {
+        this.loaded = loaded;
+        this.compiling = compiling;
+    }
+
+    /**
+     * @return true if what is built is going to be compiled into a model; anything that a sampler would build
+     * lazily while generating (i.e. a LazyMap of distributions) has to be built now instead since only what
+     * exists at compile time is kept in the model
+     */
+    public boolean isCompiling() {
+        return compiling;
+    }
+
+    /**
+     * @param key unique name of the sampler being built
+     * @param builder builds the sampler if it wasn't loaded from a compiled model
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getOrBuild(String key, Supplier<T> builder) {
+        Object existing = loaded.get(key);
+        if (existing != null) {
+            log.info("Using compiled samplers for " + key);
+            return (T) existing;
+        }
+        T result = builder.get();
+        if (compiling) {
+            built.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return everything that was built that can be serialized into a model; anything else (i.e. samplers that
+     * hold onto spring services) is left out and will just be built again when the model is loaded
+     */
+    public Map<String, Object> getSerializableBuilt() {
+        Map<String, Object> result = Maps.newLinkedHashMap();
+        for (Entry<String, Object> entry : built.entrySet()) {
+            if (isSerializable(entry.getValue()) && canWrite(entry.getKey(), entry.getValue())) {
+                result.put(entry.getKey(), entry.getValue());
+            } else {
+                log.info("Samplers for " + entry.getKey() + " can't be compiled; they will be built when generating");
+            }
+        }
+        return result;
+    }
+
+    // a sampler that is serializable by type can still hold onto something that isn't so write it out to find
+    // out before it is put in the model
+    private static boolean canWrite(String key, Object value) {
+        try (ObjectOutputStream out = new ObjectOutputStream(ByteStreams.nullOutputStream())) {
+            out.writeObject(value);
+            return true;
+        } catch (IOException e) {
+            log.warn("Samplers for " + key + " are serializable by type but can't be written: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Decided from the types alone: maps and collections (which is how providers group their samplers) are
+     * serializable if they and everything in them are, anything else if its class is. This is only a quick
+     * check; getSerializableBuilt also writes each one out to be sure
+     * @param value
+     * @return
+     */
+    static boolean isSerializable(@Nullable Object value) {
+        if (value == null) {
+            return true;
+        }
+        if (!(value instanceof Serializable)) {
+            return false;
+        }
+        if (value instanceof Map) {
+            for (Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!isSerializable(entry.getKey()) || !isSerializable(entry.getValue())) {
+                    return false;
+                }
+            }
+        } else if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) {
+                if (!isSerializable(item)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
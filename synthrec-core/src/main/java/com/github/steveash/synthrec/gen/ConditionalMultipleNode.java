@@ -21,6 +21,8 @@ package com.github.steveash.synthrec.gen;
 import java.util.List;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 import org.apache.commons.math3.random.RandomGenerator;
 
 import com.github.steveash.synthrec.stat.ConditionalSampler;
@@ -33,6 +35,7 @@ import com.google.common.collect.ImmutableSet;
 public class ConditionalMultipleNode implements GenNode {
 
     private final Set<String> outputKeys;
+    @Nullable private int[] assignSlots;
     private final List<String> assignNames;
     private final Set<String> parent;
     private final ConditionalSampler<?> conditional;
@@ -51,12 +54,24 @@ public class ConditionalMultipleNode implements GenNode {
     public boolean sample(RandomGenerator rand, GenAssignment assignment, GenContext context) {
         List<Object> sampledVal = (List<Object>) conditional.sample(rand, assignment);
         Preconditions.checkState(sampledVal.size() == assignNames.size(), "mismatched assign names vs value");
-        for (int i = 0; i < assignNames.size(); i++) {
-            assignment.put(assignNames.get(i), sampledVal.get(i));
+        if (assignSlots != null && assignment instanceof SlotGenAssignment) {
+            SlotGenAssignment slotAssign = (SlotGenAssignment) assignment;
+            for (int i = 0; i < assignSlots.length; i++) {
+                slotAssign.putSlot(assignSlots[i], sampledVal.get(i));
+            }
+        } else {
+            for (int i = 0; i < assignNames.size(); i++) {
+                assignment.put(assignNames.get(i), sampledVal.get(i));
+            }
         }
         return true;
     }
 
+    @Override
+    public void compile(GenSlots slots) {
+        this.assignSlots = slots.requireSlots(assignNames);
+    }
+
     @Override
     public Set<String> inputKeys() {
         return parent;
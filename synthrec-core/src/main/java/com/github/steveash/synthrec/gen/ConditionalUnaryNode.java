@@ -22,7 +22,6 @@ import java.util.Set;
 
 import org.apache.commons.math3.random.RandomGenerator;
 
-import com.github.steveash.synthrec.domain.AssignmentInstance;
 import com.github.steveash.synthrec.stat.ConditionalSampler;
 import com.google.common.collect.ImmutableSet;
 
@@ -35,6 +34,7 @@ public class ConditionalUnaryNode implements GenNode {
     private final String assignName;
     private final Set<String> parent;
     private final ConditionalSampler<?> conditional;
+    private int assignSlot = GenSlots.NO_SLOT;
 
     public ConditionalUnaryNode(String assignName,
             Set<String> parent,
@@ -48,10 +48,19 @@ public class ConditionalUnaryNode implements GenNode {
     @Override
     public boolean sample(RandomGenerator rand, GenAssignment assignment, GenContext context) {
         Object sample = conditional.sample(rand, assignment);
-        assignment.put(assignName, sample);
+        if (assignSlot != GenSlots.NO_SLOT && assignment instanceof SlotGenAssignment) {
+            ((SlotGenAssignment) assignment).putSlot(assignSlot, sample);
+        } else {
+            assignment.put(assignName, sample);
+        }
         return true;
     }
 
+    @Override
+    public void compile(GenSlots slots) {
+        this.assignSlot = slots.requireSlot(assignName);
+    }
+
     @Override
     public Set<String> inputKeys() {
         return parent;
@@ -18,7 +18,7 @@
 
 package com.github.steveash.synthrec.gen;
 
-import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.common.base.Supplier;
 import com.google.common.collect.Maps;
@@ -26,6 +26,8 @@ import com.google.common.collect.Maps;
 /**
  * Context shared by the entire generation process; this is where genreators can store info about
  * what they've already produced in order to do thing like ensure uniqueness
+ * This is shared by all of the generation worker threads so the values that you put in here (i.e. from the
+ * ContextKey default factory) must be thread safe
  * @author Steve Ash
  */
 public class GenContext {
@@ -40,10 +42,28 @@ public class GenContext {
         }
     }
 
-    private final Map<String, Object> context = Maps.newHashMap();
+    private final ConcurrentMap<String, Object> context = Maps.newConcurrentMap();
     private final int recordCountToCreate;
+    // if true then every record must be a function of only its own random stream; generators can't make choices
+    // based on what other records (possibly on other threads/machines) produced
+    private final boolean reproducible;
 
-    public GenContext(int recordCountToCreate) {this.recordCountToCreate = recordCountToCreate;}
+    public GenContext(int recordCountToCreate) {
+        this(recordCountToCreate, false);
+    }
+
+    public GenContext(int recordCountToCreate, boolean reproducible) {
+        this.recordCountToCreate = recordCountToCreate;
+        this.reproducible = reproducible;
+    }
+
+    public boolean isReproducible() {
+        return reproducible;
+    }
+
+    public int getRecordCountToCreate() {
+        return recordCountToCreate;
+    }
 
     public <T> T get(ContextKey<T> key) {
         return (T) context.computeIfAbsent(key.key, k -> key.defaultValueFactory.get());
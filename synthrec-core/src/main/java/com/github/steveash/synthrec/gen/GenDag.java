@@ -29,6 +29,7 @@ import org.slf4j.LoggerFactory;
 import com.github.steveash.synthrec.sampling.GraphAlgs;
 import com.github.steveash.synthrec.stat.RandUtil;
 import com.github.steveash.synthrec.stat.ThreadLocalRandomGenerator;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 import com.google.common.graph.GraphBuilder;
@@ -46,6 +47,9 @@ public class GenDag {
 
     private final ImmutableList<List<GenNode>> dagRoots;
     private final MutableGraph<GenNode> dag;
+    private final GenSlots slots;
+    // the output slots of each root chain (parallel to dagRoots) that need clearing when a chain is retried
+    private final int[][] chainOutputSlots;
     private final int maxAttemptsToSample;
     private static final ThreadLocalRandomGenerator rand = RandUtil.threadLocalRand();
 
@@ -54,9 +58,34 @@ public class GenDag {
         this.maxAttemptsToSample = maxAttemptsToSample;
         this.dagRoots = ImmutableList.copyOf(GraphAlgs.topologicalRoots(dag));
         throwIfInvalid();
+        this.slots = compile(genPhases);
+        this.chainOutputSlots = new int[dagRoots.size()][];
+        for (int i = 0; i < dagRoots.size(); i++) {
+            Set<String> outputs = Sets.newLinkedHashSet();
+            for (GenNode node : dagRoots.get(i)) {
+                outputs.addAll(node.outputKeys());
+            }
+            chainOutputSlots[i] = slots.requireSlots(outputs);
+        }
+    }
+
+    private static GenSlots compile(Collection<GenNode> genPhases) {
+        Set<String> keys = Sets.newLinkedHashSet();
+        for (GenNode node : genPhases) {
+            keys.addAll(node.outputKeys());
+        }
+        for (GenNode node : genPhases) {
+            keys.addAll(node.inputKeys());
+        }
+        GenSlots slots = new GenSlots(keys);
+        for (GenNode node : genPhases) {
+            node.compile(slots);
+        }
+        return slots;
     }
 
     private void throwIfInvalid() {
+        Set<String> allOutputs = Sets.newHashSet();
         for (List<GenNode> chain : dagRoots) {
             Set<String> satisfied = Sets.newHashSet();
             for (GenNode node : chain) {
@@ -67,23 +96,67 @@ public class GenDag {
                 }
                 satisfied.addAll(node.outputKeys());
             }
+            for (String output : satisfied) {
+                if (!allOutputs.add(output)) {
+                    throw new IllegalStateException("The gen dag has more than one node that outputs " + output +
+                            "; the second one is in the chain " + GenNode.chainToString(chain));
+                }
+            }
         }
     }
 
+    /**
+     * @return a new assignment laid out for this dag; pass it to generate() to reuse it for many records
+     */
+    public SlotGenAssignment newAssignment() {
+        return new SlotGenAssignment(slots);
+    }
+
     public GenAssignment generate(GenContext context) {
-        RandomGenerator localRand = rand.getThreadGenerator();
-        MutableGenAssignment assign = new MutableGenAssignment();
-        for (List<GenNode> rootChain : dagRoots) {
-            GenAssignment partial = generateForChain(localRand, rootChain, context);
-            OverridingGenAssignment.flattenTo(partial, assign);
+        return generate(context, rand.getThreadGenerator());
+    }
+
+    /**
+     * Generates one record drawing all of the randomness from the given generator; with a RecordRandom positioned
+     * at the record's index this makes the record reproducible
+     * @param context
+     * @param localRand must be confined to the calling thread
+     * @return
+     */
+    public GenAssignment generate(GenContext context, RandomGenerator localRand) {
+        return generate(context, localRand, newAssignment());
+    }
+
+    /**
+     * Generates one record into the given workspace, which is reset first; so the returned assignment is only
+     * valid until the workspace is used to generate the next record
+     * @param context
+     * @param localRand must be confined to the calling thread
+     * @param workspace from newAssignment(); must be confined to the calling thread
+     * @return the workspace
+     */
+    public SlotGenAssignment generate(GenContext context, RandomGenerator localRand, SlotGenAssignment workspace) {
+        Preconditions.checkArgument(workspace.getSlots() == slots, "workspace wasnt created by this gen dag");
+        workspace.reset();
+        for (int i = 0; i < dagRoots.size(); i++) {
+            generateForChain(localRand, i, context, workspace);
         }
-        return assign;
+        return workspace;
     }
 
-    private GenAssignment generateForChain(RandomGenerator localRand, List<GenNode> rootChain, GenContext context) {
+    private void generateForChain(RandomGenerator localRand,
+            int chainIndex,
+            GenContext context,
+            SlotGenAssignment assignment
+    ) {
+        List<GenNode> rootChain = dagRoots.get(chainIndex);
+        // chains are disjoint so a retry only has to clear what this chain wrote
+        int overflowMark = assignment.overflowMark();
         outer:
         for (int i = 0; i < maxAttemptsToSample; i++) {
-            MutableGenAssignment assignment = new MutableGenAssignment();
+            if (i > 0) {
+                assignment.rollback(chainOutputSlots[chainIndex], overflowMark);
+            }
             for (GenNode node : rootChain) {
                 try {
                     if (!node.sample(localRand, assignment, context)) {
@@ -102,7 +175,7 @@ public class GenDag {
                                     "given assignment: " + assignment, e);
                 }
             }
-            return assignment;
+            return;
         }
         // i know this seems like it should be a TooManyRejects but this is the thing that owns that policy
         // and so this is a real failure at this point
@@ -60,4 +60,13 @@ public interface GenNode {
      * @return the keys that this node will output into the assignment
      */
     Set<String> outputKeys();
+
+    /**
+     * Called once when the GenDag is built so that the node can resolve the slots of its input and output keys
+     * up front; nodes that do this can then read/write a SlotGenAssignment by slot instead of by key
+     * @param slots
+     */
+    default void compile(GenSlots slots) {
+        // most nodes dont need to do anything
+    }
 }
@@ -35,9 +35,10 @@ public interface GenNodeProvider {
      * Construct a GenNode instance for the given name using the supplied CountDag profiling information
      * @param name node to generate for
      * @param countDag the count dag instance
+     * @param samplers where the expensive samplers come from (or are recorded to when compiling a model)
      * @return
      */
-    GenNode makeFor(String name, CountDag countDag);
+    GenNode makeFor(String name, CountDag countDag, CompiledSamplers samplers);
 
     /**
      * The set of names that this factory can provide for; note that any names returned by all providers
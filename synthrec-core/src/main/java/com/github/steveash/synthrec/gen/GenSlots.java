@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.steveash.synthrec.gen;
+
+import java.util.Collection;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * The compiled layout of a gen assignment: every key that any node in the GenDag reads or writes gets a dense int
+ * slot so that assignments can be flat arrays and nodes can resolve their keys once when the dag is built instead
+ * of on every sample
+ * @author Steve Ash
+ * @see SlotGenAssignment
+ */
+public class GenSlots {
+
+    public static final int NO_SLOT = -1;
+
+    private final Object2IntOpenHashMap<String> keyToSlot;
+    private final ImmutableList<String> slotToKey;
+
+    public GenSlots(Collection<String> keys) {
+        this.slotToKey = ImmutableList.copyOf(keys);
+        this.keyToSlot = new Object2IntOpenHashMap<>(keys.size());
+        keyToSlot.defaultReturnValue(NO_SLOT);
+        for (int i = 0; i < slotToKey.size(); i++) {
+            int prev = keyToSlot.put(slotToKey.get(i), i);
+            Preconditions.checkArgument(prev == NO_SLOT, "duplicate slot key", slotToKey.get(i));
+        }
+    }
+
+    /**
+     * @param key
+     * @return the slot for the key or NO_SLOT if this key wasn't declared by any node
+     */
+    public int slotOf(String key) {
+        return keyToSlot.getInt(key);
+    }
+
+    /**
+     * @param key
+     * @return the slot for the given key; throws if the key doesn't have a slot
+     */
+    public int requireSlot(String key) {
+        int slot = keyToSlot.getInt(key);
+        Preconditions.checkArgument(slot != NO_SLOT, "no slot for key", key);
+        return slot;
+    }
+
+    public int[] requireSlots(Collection<String> keys) {
+        int[] result = new int[keys.size()];
+        int i = 0;
+        for (String key : keys) {
+            result[i++] = requireSlot(key);
+        }
+        return result;
+    }
+
+    public String keyFor(int slot) {
+        return slotToKey.get(slot);
+    }
+
+    public int size() {
+        return slotToKey.size();
+    }
+}
@@ -21,6 +21,8 @@ package com.github.steveash.synthrec.gen;
 import java.util.List;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 import org.apache.commons.math3.random.RandomGenerator;
 
 import com.github.steveash.synthrec.stat.SamplingTable;
@@ -33,6 +35,7 @@ import com.google.common.collect.ImmutableSet;
 public class MultipleNode implements GenNode {
 
     private final Set<String> outputKeys;
+    @Nullable private int[] assignSlots;
     private final List<String> assignName;
     private final SamplingTable<List<Object>> unconditional;
 
@@ -49,12 +52,24 @@ public class MultipleNode implements GenNode {
         List<Object> sampledVal = unconditional.sampleWeighted(rand);
         Preconditions.checkNotNull(sampledVal);
         Preconditions.checkState(sampledVal.size() == assignName.size(), "mistmatch assign name vs sampled");
-        for (int i = 0; i < assignName.size(); i++) {
-            assignment.put(assignName.get(i), sampledVal.get(i));
+        if (assignSlots != null && assignment instanceof SlotGenAssignment) {
+            SlotGenAssignment slotAssign = (SlotGenAssignment) assignment;
+            for (int i = 0; i < assignSlots.length; i++) {
+                slotAssign.putSlot(assignSlots[i], sampledVal.get(i));
+            }
+        } else {
+            for (int i = 0; i < assignName.size(); i++) {
+                assignment.put(assignName.get(i), sampledVal.get(i));
+            }
         }
         return true;
     }
 
+    @Override
+    public void compile(GenSlots slots) {
+        this.assignSlots = slots.requireSlots(assignName);
+    }
+
     @Override
     public Set<String> outputKeys() {
         return outputKeys;
@@ -44,6 +44,10 @@ public class RecordWriter implements AutoCloseable {
     private final CharMatcher delimMatcher;
 
     public RecordWriter(ImmutableList<OutputField> fields, char delim, CharSink sink) {
+        this(fields, delim, sink, true);
+    }
+
+    public RecordWriter(ImmutableList<OutputField> fields, char delim, CharSink sink, boolean writeHeader) {
         this.fields = fields;
         this.delim = Character.toString(delim);
         this.escapedDelim = " ";
@@ -52,10 +56,12 @@ public class RecordWriter implements AutoCloseable {
             try {
                 PrintWriter writer = new PrintWriter(sink.openBufferedStream());
                 writer = closer.register(writer);
-                writer.println(fields.stream()
-                        .map(OutputField::getHeader)
-                        .map(this::escape)
-                        .collect(Collectors.joining(this.delim)));
+                if (writeHeader) {
+                    writer.println(fields.stream()
+                            .map(OutputField::getHeader)
+                            .map(this::escape)
+                            .collect(Collectors.joining(this.delim)));
+                }
 
                 return writer;
             } catch (IOException e) {
@@ -73,11 +79,25 @@ public class RecordWriter implements AutoCloseable {
     }
 
     public void write(GenAssignment assignment) {
-        PrintWriter pw = this.pw.get();
-        pw.println(fields.stream()
+        writeRendered(render(assignment));
+    }
+
+    /**
+     * Formats the assignment as an output line without writing it; safe to call from many threads so that
+     * generation workers can do the formatting and just hand lines to writeRendered in order
+     * @param assignment
+     * @return
+     */
+    public String render(GenAssignment assignment) {
+        return fields.stream()
                 .map( fld -> fld.render(assignment))
                 .map(this::escape)
-                .collect(Collectors.joining(this.delim)));
+                .collect(Collectors.joining(this.delim));
+    }
+
+    public void writeRendered(String line) {
+        PrintWriter pw = this.pw.get();
+        pw.println(line);
     }
 
     @Override
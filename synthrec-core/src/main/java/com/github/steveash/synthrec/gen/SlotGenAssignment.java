@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.steveash.synthrec.gen;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.github.steveash.synthrec.domain.AssignmentInstance;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Array backed gen assignment laid out by GenSlots; GenDag keeps one of these per worker and resets it between
+ * records instead of allocating new maps for every record and every rejected attempt. Nodes that resolved their
+ * slots when the dag was compiled can use getSlot/putSlot directly; everything else still works by key. Keys
+ * that weren't declared by any node (shouldn't happen but nodes are free to put extra things) go in an
+ * overflow map
+ * @author Steve Ash
+ */
+public class SlotGenAssignment implements GenAssignment {
+
+    private final GenSlots slots;
+    private final Object[] values;
+    // overflow keys in the order they were put so that a failed attempt can be rolled back to a mark
+    @Nullable private Map<String, Object> overflow;
+    @Nullable private List<String> overflowOrder;
+
+    public SlotGenAssignment(GenSlots slots) {
+        this.slots = slots;
+        this.values = new Object[slots.size()];
+    }
+
+    public GenSlots getSlots() {
+        return slots;
+    }
+
+    @Nullable
+    public Object getSlot(int slot) {
+        return values[slot];
+    }
+
+    public void putSlot(int slot, Object value) {
+        Preconditions.checkState(values[slot] == null, "cant put the same value into the same instance twice",
+                slots.keyFor(slot)
+        );
+        values[slot] = checkNotNull(value, "cant put null value", slots.keyFor(slot));
+    }
+
+    @Override
+    public void put(String key, Object value) {
+        int slot = slots.slotOf(key);
+        if (slot != GenSlots.NO_SLOT) {
+            putSlot(slot, value);
+            return;
+        }
+        if (overflow == null) {
+            overflow = Maps.newHashMap();
+            overflowOrder = Lists.newArrayList();
+        }
+        Object prevValue = overflow.put(key, value);
+        Preconditions.checkState(prevValue == null, "cant put the same value into the same instance twice", key);
+        overflowOrder.add(key);
+    }
+
+    @Override
+    public Object get(String key) {
+        return checkNotNull(tryGet(key), "no value for key ", key);
+    }
+
+    @Override
+    @Nullable
+    public Object tryGet(String key) {
+        int slot = slots.slotOf(key);
+        if (slot != GenSlots.NO_SLOT) {
+            return values[slot];
+        }
+        return overflow != null ? overflow.get(key) : null;
+    }
+
+    @Override
+    public AssignmentInstance subset(Set<String> keysToGet) {
+        if (keysToGet.isEmpty()) {
+            return AssignmentInstance.EMPTY_ASSIGNMENT;
+        }
+        Map<String, Object> subset = Maps.newHashMapWithExpectedSize(keysToGet.size());
+        for (String key : keysToGet) {
+            subset.put(key, get(key));
+        }
+        return AssignmentInstance.make(subset);
+    }
+
+    @Override
+    public void visitAll(AssignmentVisitor visitor) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                visitor.onEntry(slots.keyFor(i), values[i]);
+            }
+        }
+        if (overflow != null) {
+            for (String key : overflowOrder) {
+                visitor.onEntry(key, overflow.get(key));
+            }
+        }
+    }
+
+    /**
+     * @return a mark of the overflow values to pass to rollback()
+     */
+    int overflowMark() {
+        return overflowOrder != null ? overflowOrder.size() : 0;
+    }
+
+    /**
+     * Clears the given slots and any overflow values put after the mark (i.e. a rejected attempt at a chain)
+     * @param slotsToClear
+     * @param overflowMark
+     */
+    void rollback(int[] slotsToClear, int overflowMark) {
+        for (int slot : slotsToClear) {
+            values[slot] = null;
+        }
+        if (overflowOrder != null) {
+            while (overflowOrder.size() > overflowMark) {
+                overflow.remove(overflowOrder.remove(overflowOrder.size() - 1));
+            }
+        }
+    }
+
+    /**
+     * Clears everything so this can be reused for the next record
+     */
+    public void reset() {
+        Arrays.fill(values, null);
+        if (overflow != null) {
+            overflow.clear();
+            overflowOrder.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("GenAssignment{values={");
+        visitAll((key, value) -> sb.append(key).append('=').append(value).append(", "));
+        return sb.append("}}").toString();
+    }
+}
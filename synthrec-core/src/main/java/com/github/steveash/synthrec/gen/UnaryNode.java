@@ -33,6 +33,7 @@ public class UnaryNode implements GenNode {
 
     private final String assignName;
     private final SamplingTable<?> unconditional;
+    private int assignSlot = GenSlots.NO_SLOT;
 
     public UnaryNode(String assignName,
             SamplingTable<?> unconditional
@@ -45,10 +46,19 @@ public class UnaryNode implements GenNode {
     public boolean sample(RandomGenerator rand, GenAssignment assignment, GenContext context) {
         Object sampledVal = unconditional.sampleWeighted(rand);
         Preconditions.checkNotNull(sampledVal);
-        assignment.put(assignName, sampledVal);
+        if (assignSlot != GenSlots.NO_SLOT && assignment instanceof SlotGenAssignment) {
+            ((SlotGenAssignment) assignment).putSlot(assignSlot, sampledVal);
+        } else {
+            assignment.put(assignName, sampledVal);
+        }
         return true;
     }
 
+    @Override
+    public void compile(GenSlots slots) {
+        this.assignSlot = slots.requireSlot(assignName);
+    }
+
     @Override
     public Set<String> outputKeys() {
         return ImmutableSet.of(assignName);
@@ -18,6 +18,7 @@
 
 package com.github.steveash.synthrec.name;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -34,4 +35,25 @@ public interface NameTagger {
      * @return
      */
     PersonalName parse(List<InputField> fields);
+
+    /**
+     * Parses a batch of names at once; taggers that can amortize work across a batch (tokenizer state, dictionary
+     * lookups, model inference) should override this and supportsBatch()
+     * @param batch each element is the input segments of one name
+     * @return the parsed names in the same order as the batch
+     */
+    default List<PersonalName> parseBatch(List<List<InputField>> batch) {
+        List<PersonalName> results = new ArrayList<>(batch.size());
+        for (List<InputField> fields : batch) {
+            results.add(parse(fields));
+        }
+        return results;
+    }
+
+    /**
+     * @return true if parseBatch is cheaper than calling parse for each name; otherwise callers just call parse
+     */
+    default boolean supportsBatch() {
+        return false;
+    }
 }
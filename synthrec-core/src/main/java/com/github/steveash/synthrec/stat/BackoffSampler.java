@@ -18,25 +18,61 @@
 
 package com.github.steveash.synthrec.stat;
 
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
 
 import org.apache.commons.math3.random.RandomGenerator;
 
 import com.github.steveash.synthrec.domain.AssignmentInstance;
 import com.github.steveash.synthrec.domain.AssignmentProvider;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 
 /**
  * When you to sample from a conditional distribution, but you still need to backoff to a
  * unconditinoal distribution
+ * <p>
+ * Lookups don't build a subset AssignmentInstance per draw: each parent value is given a small int id and the ids
+ * are packed into a long that keys the conditional samplers. The index is built from the conditional map up front.
+ * When a draw sees a parent combination that isn't in it yet (i.e. the conditional map is a LazyMap that creates
+ * samplers on demand) the answer goes into a concurrent pending map and the pending combinations are published in
+ * a batch by copying the index once the misses since the last copy reach a quarter of its size; so the copies are
+ * amortized over the misses and draws never lock or allocate once the index is warm
+ * <p>
+ * Serializes a snapshot of the conditional samplers that exist at the time (a lazy map's factory isn't kept) so
+ * any combination that was never built will just backoff after it is read back; owners that compile samplers into
+ * a model have to build every combination they can draw first (see CompiledSamplers#isCompiling)
  * @author Steve Ash
  */
-public class BackoffSampler<T> implements ConditionalSampler<T> {
+public class BackoffSampler<T> implements ConditionalSampler<T>, Serializable {
+
+    private static final long serialVersionUID = 4416280513962349108L;
 
-    private Map<AssignmentInstance, ? extends Sampler<T>> conditional;
-    private ConditionalSampler<T> backoff;
+    private final Map<AssignmentInstance, ? extends Sampler<T>> conditional;
+    private final ConditionalSampler<T> backoff;
     private final Set<String> parents;
+    // fixed order of the parents in the packed key
+    private final ImmutableList<String> parentOrder;
+    private final int bitsPerParent;
+    private transient volatile Index<T> index;
+    // combinations looked up since the last publication (or that can't be packed) with VoidSampler for no sampler
+    private transient ConcurrentHashMap<AssignmentInstance, Sampler<T>> pending;
+    private transient AtomicInteger pendingAdded;
+    private transient AtomicInteger misses;
+    private transient ReentrantLock publishLock;
 
     public BackoffSampler(Map<AssignmentInstance, ? extends Sampler<T>> conditional,
             Sampler<T> backoff,
@@ -52,12 +88,18 @@ public class BackoffSampler<T> implements ConditionalSampler<T> {
         this.conditional = conditional;
         this.backoff = backoff;
         this.parents = parents;
+        this.parentOrder = ImmutableList.copyOf(parents);
+        this.bitsPerParent = parentOrder.isEmpty() ? 0 : Math.min(31, 63 / parentOrder.size());
+        this.index = buildIndex();
+        this.pending = new ConcurrentHashMap<>();
+        this.pendingAdded = new AtomicInteger();
+        this.misses = new AtomicInteger();
+        this.publishLock = new ReentrantLock();
     }
 
     @Override
     public T sample(RandomGenerator rand, AssignmentProvider currentAssigment) {
-        AssignmentInstance parentAssign = currentAssigment.subset(parents);
-        Sampler<T> dist = conditional.get(parentAssign);
+        Sampler<T> dist = lookup(currentAssigment);
         T sampledVal;
         if (dist != null && dist != VoidSampler.getInstance()) {
             sampledVal = dist.sample(rand);
@@ -66,4 +108,198 @@ public class BackoffSampler<T> implements ConditionalSampler<T> {
         }
         return Preconditions.checkNotNull(sampledVal, "cant sample null");
     }
+
+    @Nullable
+    private Sampler<T> lookup(AssignmentProvider currentAssigment) {
+        Index<T> current = this.index;
+        long key = current.keyFor(parentOrder, currentAssigment);
+        if (key >= 0) {
+            Sampler<T> dist = current.samplers.get(key);
+            if (dist != null) {
+                return dist;
+            }
+        }
+        return lookupSlow(currentAssigment);
+    }
+
+    // the parent combination isn't indexed yet so do it the old way and remember the answer (even if its that
+    // there is no conditional sampler for it) until the next publication
+    @Nullable
+    private Sampler<T> lookupSlow(AssignmentProvider currentAssigment) {
+        AssignmentInstance parentAssign = currentAssigment.subset(parents);
+        Sampler<T> dist = pending.get(parentAssign);
+        if (dist == null) {
+            dist = conditional.get(parentAssign);
+            if (dist == null) {
+                dist = VoidSampler.getInstance();
+            }
+            if (pending.putIfAbsent(parentAssign, dist) == null) {
+                pendingAdded.incrementAndGet();
+            }
+        }
+        if (misses.incrementAndGet() > (index.size() >> 2) && pendingAdded.get() > 0) {
+            tryPublish();
+        }
+        return dist != VoidSampler.getInstance() ? dist : null;
+    }
+
+    // copies the index with the pending combinations added; only one thread publishes at a time and the others
+    // just keep using the pending map instead of waiting for it
+    private void tryPublish() {
+        if (!publishLock.tryLock()) {
+            return;
+        }
+        try {
+            int added = pendingAdded.get();
+            if (added <= 0) {
+                return;
+            }
+            Index<T> next = index.copy();
+            for (Map.Entry<AssignmentInstance, Sampler<T>> entry : pending.entrySet()) {
+                if (next.canAdd(parentOrder, entry.getKey())) {
+                    next.add(parentOrder, entry.getKey(), entry.getValue());
+                    pending.remove(entry.getKey(), entry.getValue());
+                }
+            }
+            this.index = next;
+            // anything added while copying is counted towards the next publication
+            pendingAdded.addAndGet(-added);
+            misses.set(0);
+        } finally {
+            publishLock.unlock();
+        }
+    }
+
+    private Index<T> buildIndex() {
+        Index<T> result = new Index<>(parentOrder.size(), bitsPerParent,
+                new Long2ObjectOpenHashMap<>(conditional.size())
+        );
+        for (Map.Entry<AssignmentInstance, ? extends Sampler<T>> entry : conditional.entrySet()) {
+            if (entry.getKey().size() == parentOrder.size()) {
+                result.add(parentOrder, entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    private Object writeReplace() {
+        return new SerializedForm<>(new HashMap<AssignmentInstance, Sampler<T>>(conditional), backoff,
+                ImmutableSet.copyOf(parents)
+        );
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("expected the serialized form");
+    }
+
+    private static class SerializedForm<T> implements Serializable {
+        private static final long serialVersionUID = -2218394571960326617L;
+
+        private final HashMap<AssignmentInstance, Sampler<T>> conditional;
+        private final ConditionalSampler<T> backoff;
+        private final ImmutableSet<String> parents;
+
+        private SerializedForm(HashMap<AssignmentInstance, Sampler<T>> conditional,
+                ConditionalSampler<T> backoff,
+                ImmutableSet<String> parents
+        ) {
+            this.conditional = conditional;
+            this.backoff = backoff;
+            this.parents = parents;
+        }
+
+        private Object readResolve() {
+            return new BackoffSampler<>(conditional, backoff, parents);
+        }
+    }
+
+    private static class Index<T> {
+        // parent position -> (parent value -> id)
+        private final Object2IntOpenHashMap<Object>[] valueIds;
+        private final int bitsPerParent;
+        private final Long2ObjectOpenHashMap<Sampler<T>> samplers;
+
+        @SuppressWarnings("unchecked")
+        private Index(int parentCount, int bitsPerParent, Long2ObjectOpenHashMap<Sampler<T>> samplers) {
+            this.valueIds = new Object2IntOpenHashMap[parentCount];
+            for (int i = 0; i < parentCount; i++) {
+                valueIds[i] = new Object2IntOpenHashMap<>();
+                valueIds[i].defaultReturnValue(-1);
+            }
+            this.bitsPerParent = bitsPerParent;
+            this.samplers = samplers;
+        }
+
+        /**
+         * @return the packed key for the parent values in this assignment or -1 if any of them aren't indexed
+         */
+        private long keyFor(ImmutableList<String> parentOrder, AssignmentProvider assign) {
+            long key = 0;
+            for (int i = 0; i < valueIds.length; i++) {
+                Object value = assign.tryGet(parentOrder.get(i));
+                if (value == null) {
+                    return -1;
+                }
+                int id = valueIds[i].getInt(value);
+                if (id < 0) {
+                    return -1;
+                }
+                key = (key << bitsPerParent) | id;
+            }
+            return key;
+        }
+
+        private boolean canAdd(ImmutableList<String> parentOrder, AssignmentInstance parentAssign) {
+            for (int i = 0; i < valueIds.length; i++) {
+                Object value = parentAssign.get(parentOrder.get(i), null);
+                if (value == null) {
+                    return false;
+                }
+                if (!valueIds[i].containsKey(value) && valueIds[i].size() >= (1 << bitsPerParent)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return true if the combination was added; false if there are too many values of some parent to pack
+         * it in which case it just always takes the slow path
+         */
+        private boolean add(ImmutableList<String> parentOrder,
+                AssignmentInstance parentAssign,
+                Sampler<T> sampler
+        ) {
+            long key = 0;
+            for (int i = 0; i < valueIds.length; i++) {
+                Object value = parentAssign.get(parentOrder.get(i), null);
+                if (value == null) {
+                    return false;
+                }
+                int id = valueIds[i].getInt(value);
+                if (id < 0) {
+                    id = valueIds[i].size();
+                    if (id >= (1 << bitsPerParent)) {
+                        return false;
+                    }
+                    valueIds[i].put(value, id);
+                }
+                key = (key << bitsPerParent) | id;
+            }
+            samplers.put(key, sampler);
+            return true;
+        }
+
+        private int size() {
+            return samplers.size();
+        }
+
+        private Index<T> copy() {
+            Index<T> copy = new Index<>(valueIds.length, bitsPerParent, new Long2ObjectOpenHashMap<>(samplers));
+            for (int i = 0; i < valueIds.length; i++) {
+                copy.valueIds[i].putAll(valueIds[i]);
+            }
+            return copy;
+        }
+    }
 }
@@ -18,6 +18,8 @@
 
 package com.github.steveash.synthrec.stat;
 
+import java.io.Serializable;
+
 import org.apache.commons.math3.random.RandomGenerator;
 
 import com.google.common.collect.ImmutableList;
@@ -26,7 +28,9 @@ import com.google.common.collect.ImmutableList;
  * A sampler that randomly delegates to a set of other samplers
  * @author Steve Ash
  */
-public class CompositeSampler<T> implements Sampler<T> {
+public class CompositeSampler<T> implements Sampler<T>, Serializable {
+
+    private static final long serialVersionUID = 1922720763853618835L;
 
     private final ImmutableList<Sampler<T>> delegates;
 
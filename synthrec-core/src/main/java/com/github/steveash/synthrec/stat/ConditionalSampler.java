@@ -18,6 +18,8 @@
 
 package com.github.steveash.synthrec.stat;
 
+import java.io.Serializable;
+
 import org.apache.commons.math3.random.RandomGenerator;
 
 import com.github.steveash.synthrec.domain.AssignmentProvider;
@@ -31,7 +33,10 @@ public interface ConditionalSampler<T> extends ISampler<T> {
 
     T sample(RandomGenerator rand, AssignmentProvider assignment);
 
+    /**
+     * @return a conditional sampler that ignores the assignment; serializable if the given sampler is
+     */
     static <T> ConditionalSampler<T> adaptSampler(Sampler<T> unconditional) {
-        return (rand, assignment) -> unconditional.sample(rand);
+        return (ConditionalSampler<T> & Serializable) (rand, assignment) -> unconditional.sample(rand);
     }
 }
@@ -18,12 +18,16 @@
 
 package com.github.steveash.synthrec.stat;
 
+import java.io.Serializable;
+
 import org.apache.commons.math3.random.RandomGenerator;
 
 /**
  * @author Steve Ash
  */
-public class EmptySampler implements Sampler<String> {
+public class EmptySampler implements Sampler<String>, Serializable {
+
+    private static final long serialVersionUID = 3557673272574442822L;
 
     public static final EmptySampler INSTANCE = new EmptySampler();
 
@@ -31,4 +35,8 @@ public class EmptySampler implements Sampler<String> {
     public String sample(RandomGenerator rand) {
         return "";
     }
+
+    private Object readResolve() {
+        return INSTANCE;
+    }
 }
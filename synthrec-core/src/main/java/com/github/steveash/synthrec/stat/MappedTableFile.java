@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.stat;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+
+/**
+ * A read only file of sampling tables and their string values that is memory mapped when generating so that the
+ * bulk of a compiled model lives in the page cache (shared by every generator jvm on the host) instead of on each
+ * jvm's heap; loading is just mapping the file and the pages are faulted in as the tables are sampled.
+ *
+ * The compiled model is still written with java serialization but through objectOutput() which moves every
+ * sampling table of strings into this file and leaves a small reference in its place; reading the model through
+ * objectInput() turns the references into SamplingTable flyweights over the mapped file. The strings are a
+ * deduplicated pool (i.e. the vocabulary of the model) that the tables point into.
+ *
+ * The file is mapped in 1gb chunks (a single mapping is limited to 2gb) and no string or table crosses a chunk
+ * boundary, so every position is (chunk << 30 | offset). Tables are: the column count, then the alias table as
+ * primitive arrays (probabilities, aliases) and then the position of each column's string. Tables with non-string
+ * values or that are too big for a chunk just stay on the heap
+ * @author Steve Ash
+ */
+public class MappedTableFile {
+    private static final Logger log = LoggerFactory.getLogger(MappedTableFile.class);
+
+    private static final int MAGIC = 0x53524d54; // SRMT
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+    // the cache of recently decoded strings has 2^bits slots
+    private static final int DECODED_CACHE_BITS = 16;
+
+    public static Writer writer(File file) throws IOException {
+        return new Writer(file);
+    }
+
+    /**
+     * Maps the whole file read only; the file can be closed (or even deleted) after this as the mappings keep it
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static MappedTableFile open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            int chunkCount = (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+            MappedByteBuffer[] chunks = new MappedByteBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                long start = ((long) i) << CHUNK_BITS;
+                chunks[i] = channel.map(MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+            }
+            if (size < HEADER_SIZE || chunks[0].getInt(0) != MAGIC) {
+                throw new IOException("not a mapped table file " + file);
+            }
+            int version = chunks[0].getInt(4);
+            if (version != VERSION) {
+                throw new IOException("unsupported mapped table file version " + version + " can only read " +
+                        VERSION);
+            }
+            log.info("Mapped {} bytes of sampling tables from {}", size, file);
+            return new MappedTableFile(chunks);
+        }
+    }
+
+    private final ByteBuffer[] chunks;
+    // direct mapped by string position so the heap it takes is fixed no matter how big the vocabulary is; racing
+    // threads might both decode a string or replace each other's entry but entries are immutable so that's fine
+    private final Decoded[] decoded = new Decoded[1 << DECODED_CACHE_BITS];
+
+    private MappedTableFile(ByteBuffer[] chunks) {
+        this.chunks = chunks;
+    }
+
+    /**
+     * @param input the serialized object graph that was written with the Writer's objectOutput()
+     * @return an object input stream that resolves the mapped table references into flyweights over this file
+     * @throws IOException
+     */
+    public ObjectInputStream objectInput(InputStream input) throws IOException {
+        return new ObjectInputStream(input) {
+            {
+                enableResolveObject(true);
+            }
+
+            @Override
+            protected Object resolveObject(Object obj) throws IOException {
+                if (obj instanceof TableRef) {
+                    return SamplingTable.createMapped(table(((TableRef) obj).position));
+                }
+                return obj;
+            }
+        };
+    }
+
+    Table table(long position) {
+        ByteBuffer chunk = chunks[chunkOf(position)];
+        int offset = offsetOf(position);
+        return new Table(this, chunk, offset, chunk.getInt(offset));
+    }
+
+    /**
+     * @param position
+     * @return the string at the position; recently decoded strings are cached
+     */
+    String decodedString(long position) {
+        int slot = ((int) (position ^ (position >>> 32)) * 0x9E3779B9) >>> (32 - DECODED_CACHE_BITS);
+        Decoded entry = decoded[slot];
+        if (entry != null && entry.position == position) {
+            return entry.value;
+        }
+        String value = readString(position);
+        decoded[slot] = new Decoded(position, value);
+        return value;
+    }
+
+    String readString(long position) {
+        ByteBuffer chunk = chunks[chunkOf(position)];
+        int offset = offsetOf(position);
+        byte[] bytes = new byte[chunk.getInt(offset)];
+        // a duplicate has its own position so the bulk get is safe for concurrent readers of the shared buffer
+        ByteBuffer view = chunk.duplicate();
+        view.position(offset + 4);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int chunkOf(long position) {
+        return (int) (position >>> CHUNK_BITS);
+    }
+
+    private static int offsetOf(long position) {
+        return (int) (position & CHUNK_MASK);
+    }
+
+    /**
+     * Flyweight over one table in the mapped file; layout is [size][prob double * size][alias int * size]
+     * [value position long * size]. Column strings are decoded when sampled through the file's bounded cache of
+     * recently decoded strings so nothing here is sized by the table
+     */
+    static final class Table {
+
+        private final MappedTableFile file;
+        private final ByteBuffer chunk;
+        private final int probStart;
+        private final int aliasStart;
+        private final int valueStart;
+        private final int size;
+
+        private Table(MappedTableFile file, ByteBuffer chunk, int offset, int size) {
+            this.file = file;
+            this.chunk = chunk;
+            this.size = size;
+            this.probStart = offset + 4;
+            this.aliasStart = probStart + size * 8;
+            this.valueStart = aliasStart + size * 4;
+        }
+
+        int size() {
+            return size;
+        }
+
+        double prob(int column) {
+            return chunk.getDouble(probStart + column * 8);
+        }
+
+        int alias(int column) {
+            return chunk.getInt(aliasStart + column * 4);
+        }
+
+        String value(int column) {
+            return file.decodedString(chunk.getLong(valueStart + column * 8));
+        }
+    }
+
+    private static final class Decoded {
+
+        private final long position;
+        private final String value;
+
+        private Decoded(long position, String value) {
+            this.position = position;
+            this.value = value;
+        }
+    }
+
+    // what a sampling table is replaced with in the serialized object graph
+    private static final class TableRef implements Serializable {
+
+        private static final long serialVersionUID = 2846230513937727104L;
+
+        private final long position;
+
+        private TableRef(long position) {this.position = position;}
+    }
+
+    /**
+     * Appends tables and strings to a new mapped table file; not thread safe
+     */
+    public static class Writer implements Closeable {
+
+        private final DataOutputStream out;
+        private final Object2LongOpenHashMap<String> stringPositions = new Object2LongOpenHashMap<>();
+        private long position = 0;
+        private int tableCount = 0;
+
+        private Writer(File file) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+            stringPositions.defaultReturnValue(-1);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            position = HEADER_SIZE;
+        }
+
+        /**
+         * @param output where the serialized object graph goes
+         * @return an object output stream that writes every sampling table it can into this file instead
+         * @throws IOException
+         */
+        public ObjectOutputStream objectOutput(OutputStream output) throws IOException {
+            return new ObjectOutputStream(output) {
+                {
+                    enableReplaceObject(true);
+                }
+
+                @Override
+                protected Object replaceObject(Object obj) throws IOException {
+                    if (obj instanceof SamplingTable) {
+                        long tablePosition = add((SamplingTable<?>) obj);
+                        if (tablePosition >= 0) {
+                            return new TableRef(tablePosition);
+                        }
+                    }
+                    return obj;
+                }
+            };
+        }
+
+        /**
+         * Writes the table into the file
+         * @param table
+         * @return the position of the table or -1 if it can't be mapped (it has values that arent strings or
+         * is too big)
+         * @throws IOException
+         */
+        public long add(SamplingTable<?> table) throws IOException {
+            int size = table.size();
+            long tableBytes = 4L + size * 20L;
+            if (tableBytes > CHUNK_SIZE) {
+                return -1;
+            }
+            for (int i = 0; i < size; i++) {
+                if (!(table.valueAt(i) instanceof String)) {
+                    return -1;
+                }
+            }
+            long[] valuePositions = new long[size];
+            for (int i = 0; i < size; i++) {
+                valuePositions[i] = addString((String) table.valueAt(i));
+            }
+            long tablePosition = reserve(tableBytes);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeDouble(table.probAt(i));
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeInt(table.aliasAt(i));
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeLong(valuePositions[i]);
+            }
+            tableCount += 1;
+            return tablePosition;
+        }
+
+        private long addString(String value) throws IOException {
+            long existing = stringPositions.getLong(value);
+            if (existing >= 0) {
+                return existing;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            long stringPosition = reserve(4L + bytes.length);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            stringPositions.put(value, stringPosition);
+            return stringPosition;
+        }
+
+        // pads to the next chunk if this many bytes wont fit in the current one; returns the position to write at
+        private long reserve(long bytes) throws IOException {
+            long remaining = CHUNK_SIZE - (position & CHUNK_MASK);
+            if (bytes > remaining) {
+                for (long i = 0; i < remaining; i++) {
+                    out.writeByte(0);
+                }
+                position += remaining;
+            }
+            long start = position;
+            position += bytes;
+            return start;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+            log.info("Wrote {} sampling tables and {} strings ({} bytes) to the mapped table file",
+                    tableCount, stringPositions.size(), position);
+        }
+    }
+}
@@ -97,6 +97,8 @@ public class Multinomial<T> implements Serializable {
     private static final int LINELEN = 119;
     protected final Object2DoubleOpenHashMap<T> distrib;
     protected int maxEntries;
+    // immutable multinomials build an alias table on the first sample() and reuse it
+    @Nullable private transient volatile SamplingTable<T> samplingTable;
 
     // max entries can be negative in the mutable version if you dont know before how how many there are
     // so everything needs to be safe for that and for things that need it (like entropy) then just use NaNs?
@@ -199,6 +201,14 @@ public class Multinomial<T> implements Serializable {
         if (isEmpty()) {
             throw new IllegalStateException("cannot sample from empty multinomial");
         }
+        if (!isMutable()) {
+            SamplingTable<T> table = this.samplingTable;
+            if (table == null) {
+                table = SamplingTable.createFromMultinomial(this);
+                this.samplingTable = table;
+            }
+            return table.sample(rand);
+        }
         double sample = rand.nextDouble() * sum(); // might not be normalized so this way we can use the "cdf"
         double cdf = 0.0;
         T lastEntry = null;
@@ -212,6 +222,14 @@ public class Multinomial<T> implements Serializable {
         return checkNotNull(lastEntry, "was about to return a null sample", this);
     }
 
+    /**
+     * Mutable multinomials can't cache anything derived from their values (like the alias table for sampling)
+     * @return
+     */
+    protected boolean isMutable() {
+        return false;
+    }
+
     public int maxEntries() {
         return maxEntries;
     }
@@ -64,6 +64,11 @@ public class MutableMultinomial<T> extends Multinomial<T> implements Serializabl
         super(maxEntries, expectedCount);
     }
 
+    @Override
+    protected boolean isMutable() {
+        return true;
+    }
+
     public void set(T key, double val) {
         distrib.put(key, val);
     }
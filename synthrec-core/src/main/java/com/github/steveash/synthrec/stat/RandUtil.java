@@ -32,6 +32,14 @@ public class RandUtil {
         return LOCAL_WELL;
     }
 
+    /**
+     * A run seed for when the caller didn't ask for a specific one; log it so that the run can be reproduced
+     * @return
+     */
+    public static long newRunSeed() {
+        return LOCAL_WELL.nextLong();
+    }
+
     private static final String LETTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
 
     public static int nextIntIn(RandomGenerator rand, int minIncl, int maxExcl) {
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.steveash.synthrec.stat;
+
+import org.apache.commons.math3.random.BitsStreamGenerator;
+
+/**
+ * Counter based random generator for reproducible generation: the stream for a record is a pure function of
+ * (run seed, record index) so record N sees the same randoms no matter which thread (or machine) generates it.
+ * The stream itself is SplitMix64 which is cheap to reposition per record (unlike the Well generators that have
+ * a lot of state to reinitialize).
+ * Not thread safe; each worker should have its own instance and call resetTo() before each record
+ * @author Steve Ash
+ */
+public class RecordRandom extends BitsStreamGenerator {
+
+    private static final long serialVersionUID = -5061744263862779163L;
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final long runSeed;
+    private long state;
+
+    public RecordRandom(long runSeed) {
+        this.runSeed = runSeed;
+        resetTo(0);
+    }
+
+    public long getRunSeed() {
+        return runSeed;
+    }
+
+    /**
+     * Positions this generator at the start of the given record's stream
+     * @param recordIndex
+     */
+    public void resetTo(long recordIndex) {
+        // mix twice so that adjacent (seed, index) pairs don't start out on overlapping sequences
+        this.state = mix64(runSeed ^ mix64(recordIndex * GOLDEN_GAMMA));
+        clear();
+    }
+
+    @Override
+    public void setSeed(int seed) {
+        setSeed((long) seed);
+    }
+
+    @Override
+    public void setSeed(int[] seed) {
+        long folded = 0;
+        for (int s : seed) {
+            folded = mix64(folded ^ s);
+        }
+        setSeed(folded);
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        this.state = seed;
+        clear();
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix64(state);
+    }
+
+    // the SplitMix64 finalizer (variant 13 of Stafford's mixers)
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
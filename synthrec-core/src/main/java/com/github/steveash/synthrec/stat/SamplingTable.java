@@ -18,15 +18,14 @@
 
 package com.github.steveash.synthrec.stat;
 
-import java.util.Arrays;
+import java.io.Serializable;
 import java.util.Map;
-import java.util.Random;
+
+import javax.annotation.Nullable;
 
 import org.apache.commons.math3.random.RandomGenerator;
 
-import com.github.steveash.guavate.Guavate;
 import com.github.steveash.synthrec.domain.AssignmentInstance;
-import com.github.steveash.synthrec.util.MoreCollections;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
 import com.google.common.primitives.Doubles;
@@ -36,36 +35,21 @@ import it.unimi.dsi.fastutil.objects.Object2IntMap.Entry;
 
 /**
  * A class that represents a categorical frequency distribution to sample from
- * the values here are cumulative (negative log(prob)) (for precision)
+ * Uses Vose's alias method so that weighted samples are O(1) and use at most two random draws: one to pick a
+ * column uniformly and one to pick between the column's own value and its alias
+ *
+ * A table is either on the heap or (when loaded from a compiled model) a flyweight over a MappedTableFile in which
+ * case the columns are read out of the mapped file on each sample and the string values are decoded as they are
+ * sampled (through a small cache of recent ones)
  * @author Steve Ash
  */
-public class SamplingTable<T> implements Sampler<T> {
+public class SamplingTable<T> implements Sampler<T>, Serializable {
+
+    private static final long serialVersionUID = 1364377403485071887L;
 
     public static <T> SamplingTable<T> createFromNormalized(Multinomial<T> density) {
         Preconditions.checkArgument(density.isNormalized(), "must pass a normalized distribution", density);
-        int count = 0;
-        for (Object2DoubleMap.Entry<T> entry : density.entries()) {
-            if (entry.getDoubleValue() > 0) {
-                count += 1;
-            }
-        }
-        double cum = 0;
-        int i = 0;
-        Object[] values = new Object[count];
-        double[] cumLogProb = new double[count];
-        for (Object2DoubleMap.Entry<T> entry : density.entries()) {
-            double dv = entry.getDoubleValue();
-            if (dv > 0) {
-                values[i] = Preconditions.checkNotNull(entry.getKey(), "cant pass null values", density);
-                Preconditions.checkArgument(Doubles.isFinite(dv), "NaN/inf in density", density);
-                cum += dv;
-                double log = Math.log(cum);
-                Preconditions.checkArgument(Doubles.isFinite(log), "infinite log prob", density, cum);
-                cumLogProb[i] = log;
-                i += 1;
-            }
-        }
-        return new SamplingTable<T>(values, cumLogProb);
+        return createFromMultinomial(density);
     }
 
     public static <T> Map<AssignmentInstance, SamplingTable<T>> createConditionalFromMultinomial(Map<AssignmentInstance, ? extends Multinomial<T>> conditional) {
@@ -82,24 +66,19 @@ public class SamplingTable<T> implements Sampler<T> {
             }
         }
         Preconditions.checkState(sum > 0, "cant smaple from empty multinomial");
-        double totalCount = 0;
+        Preconditions.checkArgument(Doubles.isFinite(sum), "NaN/inf in density", density);
         int i = 0;
-        double logSum = Math.log(sum);
         Object[] values = new Object[count];
-        double[] cumLogProb = new double[count];
+        double[] weights = new double[count];
         for (Object2DoubleMap.Entry<T> entry : density.entries()) {
             double dv = entry.getDoubleValue();
             if (dv > 0) {
                 values[i] = Preconditions.checkNotNull(entry.getKey(), "cant pass null values", density);
-                Preconditions.checkArgument(Doubles.isFinite(dv), "NaN/inf in density", density);
-                totalCount += dv;
-                double logCum = Math.log(totalCount) - logSum;
-                Preconditions.checkArgument(Doubles.isFinite(logCum), "infinite log prob", density, logCum);
-                cumLogProb[i] = logCum;
+                weights[i] = dv;
                 i += 1;
             }
         }
-        return new SamplingTable<T>(values, cumLogProb);
+        return new SamplingTable<T>(values, weights, sum);
     }
 
     public static <T> SamplingTable<T> createFromCountEntries(Iterable<? extends Entry<T>> entries) {
@@ -110,47 +89,123 @@ public class SamplingTable<T> implements Sampler<T> {
             count += 1;
             sum += entry.getIntValue();
         }
-        long cum = 0;
         int i = 0;
         Object[] values = new Object[count];
-        double[] cumLogProb = new double[count];
-        double denom = Math.log(sum);
+        double[] weights = new double[count];
         for (Entry<T> entry : entries) {
             values[i] = Preconditions.checkNotNull(entry.getKey(), "cant pass null values", entries);
-            cum += entry.getIntValue();
-            cumLogProb[i] = Math.log(cum) - denom;
+            weights[i] = entry.getIntValue();
             i += 1;
         }
-        return new SamplingTable<T>(values, cumLogProb);
+        return new SamplingTable<T>(values, weights, sum);
     }
 
-    private final Object[] values;
-    private final double[] cumLogProb;
+    static <T> SamplingTable<T> createMapped(MappedTableFile.Table mapped) {
+        return new SamplingTable<>(mapped);
+    }
+
+    // these are null if the table is mapped
+    @Nullable private final Object[] values;
+    // probability of taking the column's own value instead of its alias
+    @Nullable private final double[] prob;
+    @Nullable private final int[] alias;
+    // non-null if this is a flyweight over a mapped file
+    @Nullable private final MappedTableFile.Table mapped;
+
+    private SamplingTable(Object[] values, double[] weights, double sum) {
+        Preconditions.checkArgument(values.length > 0, "cant sample from an empty table");
+        this.values = values;
+        this.prob = new double[values.length];
+        this.alias = new int[values.length];
+        this.mapped = null;
+        buildAliasTable(weights, sum);
+    }
 
-    // create from a normalized probability distribution
-    private SamplingTable(Object[] values, double[] cumLogProb) {
+    private SamplingTable(Object[] values, double[] prob, int[] alias) {
         this.values = values;
-        this.cumLogProb = cumLogProb;
+        this.prob = prob;
+        this.alias = alias;
+        this.mapped = null;
+    }
+
+    private SamplingTable(MappedTableFile.Table mapped) {
+        this.values = null;
+        this.prob = null;
+        this.alias = null;
+        this.mapped = mapped;
+    }
+
+    // Vose's method; weights is overwritten with the scaled probabilities
+    private void buildAliasTable(double[] weights, double sum) {
+        int n = weights.length;
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            weights[i] = weights[i] * n / sum;
+            if (weights[i] < 1.0) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            prob[less] = weights[less];
+            alias[less] = more;
+            weights[more] = (weights[more] + weights[less]) - 1.0;
+            if (weights[more] < 1.0) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        // whatever is left is 1.0 (modulo round off)
+        while (largeCount > 0) {
+            int more = large[--largeCount];
+            prob[more] = 1.0;
+            alias[more] = more;
+        }
+        while (smallCount > 0) {
+            int less = small[--smallCount];
+            prob[less] = 1.0;
+            alias[less] = less;
+        }
     }
 
     public T sampleUniform(RandomGenerator rand) {
-        return (T) values[rand.nextInt(values.length)];
+        return valueAt(rand.nextInt(size()));
     }
 
     public T sampleWeighted(RandomGenerator rand) {
-        double nextValue = Math.log(rand.nextDouble());
-        int found = Arrays.binarySearch(cumLogProb, nextValue);
-        if (found >= 0) {
-            // by magic we hit the exact value
-            return (T) values[found];
+        int column = rand.nextInt(size());
+        double p = probAt(column);
+        if (p >= 1.0 || rand.nextDouble() < p) {
+            return valueAt(column);
         }
-        // binary search returns (-insertPlace) - 1 so recover insert spot, thats our sample
-        int insert = -(found + 1);
-        Preconditions.checkState(insert >= 0 && insert <= values.length);
-        if (insert >= values.length) {
-            return (T) values[values.length - 1];
-        }
-        return (T) values[insert];
+        return valueAt(aliasAt(column));
+    }
+
+    public int size() {
+        return mapped != null ? mapped.size() : values.length;
+    }
+
+    boolean isMapped() {
+        return mapped != null;
+    }
+
+    T valueAt(int column) {
+        return (T) (mapped != null ? mapped.value(column) : values[column]);
+    }
+
+    double probAt(int column) {
+        return mapped != null ? mapped.prob(column) : prob[column];
+    }
+
+    int aliasAt(int column) {
+        return mapped != null ? mapped.alias(column) : alias[column];
     }
 
     /**
@@ -162,4 +217,21 @@ public class SamplingTable<T> implements Sampler<T> {
     public T sample(RandomGenerator rand) {
         return sampleWeighted(rand);
     }
+
+    // a mapped table is only valid while its file is mapped so it is written out as a heap table
+    private Object writeReplace() {
+        if (mapped == null) {
+            return this;
+        }
+        int size = size();
+        Object[] heapValues = new Object[size];
+        double[] heapProb = new double[size];
+        int[] heapAlias = new int[size];
+        for (int i = 0; i < size; i++) {
+            heapValues[i] = mapped.value(i);
+            heapProb[i] = mapped.prob(i);
+            heapAlias[i] = mapped.alias(i);
+        }
+        return new SamplingTable<T>(heapValues, heapProb, heapAlias);
+    }
 }
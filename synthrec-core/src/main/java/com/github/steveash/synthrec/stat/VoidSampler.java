@@ -18,6 +18,8 @@
 
 package com.github.steveash.synthrec.stat;
 
+import java.io.Serializable;
+
 import org.apache.commons.math3.random.RandomGenerator;
 
 /**
@@ -25,7 +27,9 @@ import org.apache.commons.math3.random.RandomGenerator;
  * there is no sampler
  * @author Steve Ash
  */
-public class VoidSampler<T> implements Sampler<T> {
+public class VoidSampler<T> implements Sampler<T>, Serializable {
+
+    private static final long serialVersionUID = -6801028981466366570L;
 
     private static final VoidSampler<?> INSTANCE = new VoidSampler<>();
 
@@ -41,4 +45,9 @@ public class VoidSampler<T> implements Sampler<T> {
     public T sample(RandomGenerator rand) {
         throw new IllegalStateException("cant call the void sampler, it means that there is no sampler");
     }
+
+    // callers compare against the instance
+    private Object readResolve() {
+        return INSTANCE;
+    }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.string;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Preconditions;
+
+/**
+ * Splits delimited lines into fields in one pass over the chars, but only records where each field starts; the
+ * field Strings are only created when the returned list is asked for them (and then cached). Mapping usually
+ * only looks at a handful of the columns in wide inputs so the rest are never materialized.
+ *
+ * Fields are trimmed of whitespace (like the Splitter this replaces). A field whose first non-whitespace char is a
+ * double quote is a quoted field: delimiters inside the quotes are literal and a doubled quote is an escaped quote.
+ * Quoted values can't span lines as the input is read line by line. Unbalanced quotes are tolerated by running
+ * the quoted value to the end of the line.
+ * @author Steve Ash
+ */
+public class DelimitedTokenizer {
+
+    private static final char QUOTE = '"';
+    private static final CharMatcher WHITESPACE = CharMatcher.whitespace();
+
+    private final String delim;
+
+    public DelimitedTokenizer(String delim) {
+        Preconditions.checkArgument(!delim.isEmpty(), "delimiter cannot be empty");
+        this.delim = delim;
+    }
+
+    /**
+     * @param line
+     * @return a lazy, immutable list of the fields in the line; an empty line is a single empty field
+     */
+    public List<String> tokenize(String line) {
+        int[] starts = new int[16];
+        int count = 0;
+        int len = line.length();
+        int dlen = delim.length();
+        char first = delim.charAt(0);
+        int i = 0;
+        starts[count++] = 0;
+        boolean atFieldStart = true;
+        while (i < len) {
+            char c = line.charAt(i);
+            if (atFieldStart && c == QUOTE) {
+                i = skipQuoted(line, i + 1);
+                atFieldStart = false;
+                continue;
+            }
+            if (c == first && (dlen == 1 || line.startsWith(delim, i))) {
+                i += dlen;
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = i;
+                atFieldStart = true;
+                continue;
+            }
+            if (atFieldStart && !WHITESPACE.matches(c)) {
+                atFieldStart = false;
+            }
+            i += 1;
+        }
+        return new Fields(line, starts, count, dlen);
+    }
+
+    // returns the index after the closing quote (or the end of the line if there isn't one)
+    private static int skipQuoted(String line, int from) {
+        int len = line.length();
+        int i = from;
+        while (i < len) {
+            if (line.charAt(i) == QUOTE) {
+                if (i + 1 < len && line.charAt(i + 1) == QUOTE) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i += 1;
+        }
+        return len;
+    }
+
+    private static String materialize(String line, int start, int end) {
+        while (start < end && WHITESPACE.matches(line.charAt(start))) {
+            start += 1;
+        }
+        while (end > start && WHITESPACE.matches(line.charAt(end - 1))) {
+            end -= 1;
+        }
+        if (start == end || line.charAt(start) != QUOTE) {
+            return line.substring(start, end);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        int i = start + 1;
+        while (i < end) {
+            char c = line.charAt(i);
+            if (c == QUOTE) {
+                if (i + 1 < end && line.charAt(i + 1) == QUOTE) {
+                    sb.append(QUOTE);
+                    i += 2;
+                    continue;
+                }
+                // closing quote; anything between it and the delimiter is kept as is
+                sb.append(line, i + 1, end);
+                break;
+            }
+            sb.append(c);
+            i += 1;
+        }
+        return sb.toString();
+    }
+
+    private static class Fields extends AbstractList<String> implements RandomAccess {
+
+        private final String line;
+        private final int[] starts;
+        private final int count;
+        private final int delimLength;
+        private final String[] values;
+
+        private Fields(String line, int[] starts, int count, int delimLength) {
+            this.line = line;
+            this.starts = starts;
+            this.count = count;
+            this.delimLength = delimLength;
+            this.values = new String[count];
+        }
+
+        @Override
+        public String get(int index) {
+            Preconditions.checkElementIndex(index, count);
+            String value = values[index];
+            if (value == null) {
+                int end = (index + 1 < count ? starts[index + 1] - delimLength : line.length());
+                value = materialize(line, starts[index], end);
+                values[index] = value;
+            }
+            return value;
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+}
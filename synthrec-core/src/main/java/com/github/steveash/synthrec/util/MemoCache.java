@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Function;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * A bounded, concurrent memo of an expensive pure function (normalizing, parsing) keyed by its raw input. Input
+ * values repeat heavily (the top given names, cities, states, etc.) so most calls are answered from the memo.
+ * Null results are memoized too. The cached values are shared by every caller so they must be immutable.
+ *
+ * A memo with a max size of zero is disabled and just calls through (but still counts the calls as misses)
+ *
+ * Thread safe
+ * @author Steve Ash
+ */
+public class MemoCache<K, V> {
+
+    // guava caches can't hold nulls
+    private static final Object NULL = new Object();
+
+    private final String name;
+    private final Cache<K, Object> cache;
+
+    public MemoCache(String name, long maxSize) {
+        checkArgument(maxSize >= 0, "max size cannot be negative", maxSize);
+        this.name = name;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param key
+     * @param compute called (outside of any lock) if the key isn't memoized
+     * @return the memoized or newly computed value
+     */
+    public V get(K key, Function<? super K, ? extends V> compute) {
+        Object value = cache.getIfPresent(key);
+        if (value == null) {
+            value = compute.apply(key);
+            cache.put(key, value != null ? value : NULL);
+        }
+        return value == NULL ? null : (V) value;
+    }
+
+    /**
+     * Looks up every key and computes all of the missing ones (each distinct key once) with a single call to
+     * computeBatch
+     * @param keys
+     * @param computeBatch given the missed keys returns their values in the same order
+     * @return the values in the same order as the keys
+     */
+    public List<V> getAll(List<K> keys, Function<? super List<K>, ? extends List<? extends V>> computeBatch) {
+        Object[] values = new Object[keys.size()];
+        LinkedHashMap<K, Integer> missed = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            values[i] = cache.getIfPresent(keys.get(i));
+            if (values[i] == null) {
+                missed.putIfAbsent(keys.get(i), missed.size());
+            }
+        }
+        if (!missed.isEmpty()) {
+            List<K> missedKeys = new ArrayList<>(missed.keySet());
+            List<? extends V> computed = computeBatch.apply(missedKeys);
+            checkArgument(computed.size() == missedKeys.size(), "batch returned the wrong number of values", name);
+            for (int i = 0; i < missedKeys.size(); i++) {
+                V value = computed.get(i);
+                cache.put(missedKeys.get(i), value != null ? value : NULL);
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                if (values[i] == null) {
+                    V value = computed.get(missed.get(keys.get(i)));
+                    values[i] = (value != null ? value : NULL);
+                }
+            }
+        }
+        List<V> results = new ArrayList<>(keys.size());
+        for (Object value : values) {
+            results.add(value == NULL ? null : (V) value);
+        }
+        return results;
+    }
+
+    /**
+     * @param compute
+     * @return the memoized version of compute
+     */
+    public Function<K, V> memoize(Function<? super K, ? extends V> compute) {
+        return key -> get(key, compute);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = stats();
+        return String.format("%s: %d entries, %.1f%% hit rate (%d hits, %d misses)",
+                name, size(), stats.hitRate() * 100.0, stats.hitCount(), stats.missCount());
+    }
+}
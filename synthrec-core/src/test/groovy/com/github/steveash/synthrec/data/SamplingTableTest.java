@@ -32,6 +32,7 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.steveash.synthrec.stat.Multinomial;
 import com.github.steveash.synthrec.stat.MutableMultinomial;
 import com.github.steveash.synthrec.stat.SamplingTable;
 
@@ -128,5 +129,29 @@ public class SamplingTableTest {
 
     }
 
+    @Test
+    public void shouldSampleImmutableMultinomial() throws Exception {
+        MutableMultinomial<String> input = new MutableMultinomial<>(4);
+        input.add("a", 125);
+        input.add("b", 64);
+        input.add("c", 32);
+        input.add("d", 1);
+        Multinomial<String> immutable = input.toImmutable();
+        MutableMultinomial<String> dens = new MutableMultinomial<>(4);
+        for (int i = 0; i < 10000; i++) {
+            dens.add(immutable.sample(rand), 1);
+        }
+        dens.normalize();
+        assertEquals(0, input.normalize().jensonShannonDivergence(dens), 0.0001);
+    }
+
+    @Test
+    public void shouldSampleSingleValue() throws Exception {
+        SamplingTable<String> single = SamplingTable.createFromCountEntries(Arrays.asList(make("a", 3)));
+        for (int i = 0; i < 100; i++) {
+            assertEquals("a", single.sampleWeighted(rand));
+        }
+    }
+
     private BasicEntry<String> make(String label, int val) {return new BasicEntry<>(label, val);}
 }
\ No newline at end of file
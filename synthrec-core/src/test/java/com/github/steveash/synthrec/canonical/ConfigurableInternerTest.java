@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.canonical;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.github.steveash.synthrec.canonical.ConfigurableInterner.Scope;
+import com.github.steveash.synthrec.canonical.ConfigurableInterner.ValueKind;
+
+/**
+ * @author Steve Ash
+ */
+public class ConfigurableInternerTest {
+
+    @Test
+    public void shouldOnlyInternLowCardinalityFields() throws Exception {
+        ConfigurableInterner interner = new ConfigurableInterner();
+        interner.configureFields(3, 100);
+        for (int i = 0; i < 10; i++) {
+            interner.internField(ValueKind.FIELD, "sex", "FM".substring(i % 2, i % 2 + 1));
+            interner.internField(ValueKind.FIELD, "ssn", "ssn" + i);
+        }
+        String male = new String("M");
+        assertSame(interner.intern("M"), interner.internField(ValueKind.FIELD, "sex", male));
+        String ssn = new String("ssn1");
+        assertSame(ssn, interner.internField(ValueKind.FIELD, "ssn", ssn));
+        // a feature with the same name as a field is decided on its own
+        String featureSsn = new String("ssn1");
+        assertSame(interner.intern("ssn1"), interner.internField(ValueKind.FEATURE, "ssn", featureSsn));
+    }
+
+    @Test
+    public void shouldDropScopedValuesWhenRunFinishes() throws Exception {
+        ConfigurableInterner interner = new ConfigurableInterner();
+        interner.configure(InternStrategy.SCOPED, 1);
+        Scope outer = interner.openScope();
+        String first = interner.intern(new String("steve"));
+        Scope inner = interner.openScope();
+        assertSame(first, interner.intern(new String("steve")));
+        inner.close();
+        inner.close();
+        // still one open scope
+        assertSame(first, interner.intern(new String("steve")));
+        outer.close();
+        assertNotSame(first, interner.intern(new String("steve")));
+    }
+
+    @Test
+    public void shouldPassThroughScopedWithoutScope() throws Exception {
+        ConfigurableInterner interner = new ConfigurableInterner();
+        interner.configure(InternStrategy.SCOPED, 1);
+        String first = new String("steve");
+        assertSame(first, interner.intern(first));
+        // nothing was held onto
+        String second = new String("steve");
+        assertSame(second, interner.intern(second));
+    }
+
+    @Test
+    public void shouldBoundValues() throws Exception {
+        ConfigurableInterner interner = new ConfigurableInterner();
+        interner.configure(InternStrategy.BOUNDED, 10);
+        String first = interner.intern(new String("v0"));
+        for (int i = 1; i < 1000; i++) {
+            interner.intern("v" + i);
+        }
+        assertNotSame(first, interner.intern(new String("v0")));
+    }
+}
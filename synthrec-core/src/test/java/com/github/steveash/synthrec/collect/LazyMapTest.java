@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.steveash.synthrec.collect;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+/**
+ * @author Steve Ash
+ */
+public class LazyMapTest {
+
+    @Test
+    public void shouldCreateEachValueOnceConcurrently() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        LazyMap<Integer, String> map = LazyMap.makeConcurrent(key -> {
+            created.incrementAndGet();
+            return "v" + key;
+        });
+        IntStream.range(0, 100_000).parallel().forEach(i -> assertEquals("v" + (i % 50), map.get(i % 50)));
+        assertEquals(50, created.get());
+        assertEquals(50, map.size());
+    }
+
+    @Test
+    public void shouldCreateMissing() throws Exception {
+        LazyMap<String, String> map = LazyMap.make(key -> key + "!");
+        map.put("a", "A");
+        assertEquals("A", map.get("a"));
+        assertEquals("b!", map.get("b"));
+        assertEquals(2, map.size());
+    }
+}
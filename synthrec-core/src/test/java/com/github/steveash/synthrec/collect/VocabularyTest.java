@@ -23,6 +23,13 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.stream.IntStream;
+
+import org.apache.commons.lang3.SerializationUtils;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -98,4 +105,109 @@ public class VocabularyTest {
         assertEquals("mary", vocab.getForIndex(index2));
         assertEquals("mary", vocab.getForIndex(index3));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldPutConcurrently() throws Exception {
+        IntStream.range(0, 10_000).parallel().forEach(i -> vocab.putIfAbsent("v" + (i % 5000)));
+        assertEquals(5000, vocab.size());
+        assertEquals(5001, vocab.nextIndex());
+        for (int i = 0; i < 5000; i++) {
+            String value = "v" + i;
+            assertEquals(value, vocab.getForIndex(vocab.getIndexFor(value)));
+        }
+    }
+
+    @Test(timeout = 15_000)
+    public void shouldSeeUpdatesFromOtherThreads() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            vocab.putIfAbsent("v" + i);
+        }
+        Thread reducer = new Thread(() -> {
+            for (int i = 1; i <= 1000; i++) {
+                vocab.updateIndexValue(i, "r" + i);
+            }
+        });
+        reducer.start();
+        // the reader spins until it sees every update the other thread made
+        for (int i = 1; i <= 1000; i++) {
+            while (!("r" + i).equals(vocab.getForIndex(i))) {
+                Thread.yield();
+            }
+        }
+        reducer.join();
+        assertEquals(1000, vocab.size());
+        assertEquals(1, vocab.getIndexFor("r1"));
+    }
+
+    @Test
+    public void shouldFreeze() throws Exception {
+        int index1 = vocab.putIfAbsent("steve");
+        int index2 = vocab.putIfAbsent("bob");
+        vocab.updateIndexValue(index1, "bob");
+        vocab.freeze();
+        assertTrue(vocab.isFrozen());
+        assertEquals("bob", vocab.getForIndex(index1));
+        assertEquals(index2, vocab.getIndexFor("bob"));
+        assertEquals(1, vocab.size());
+        assertEquals(index2, vocab.putIfAbsent("bob"));
+        try {
+            vocab.putIfAbsent("mary");
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void shouldRoundTripSerialization() throws Exception {
+        int index1 = vocab.putIfAbsent("steve");
+        int index2 = vocab.putIfAbsent("bob");
+        int index3 = vocab.putIfAbsent("mary");
+        vocab.updateIndexValue(index1, "bob");
+        Vocabulary<String> copy = SerializationUtils.roundtrip(vocab);
+        assertTrue(copy.equalTo(vocab));
+        assertEquals("bob", copy.getForIndex(index1));
+        assertEquals(null, copy.getForIndexNoResolve(index1));
+        assertEquals(index3, copy.getIndexFor("mary"));
+        assertEquals(index3 + 1, copy.putIfAbsent("zane"));
+        assertFalse(copy.contains("steve"));
+        assertEquals(index2, copy.getIndexFor("bob"));
+    }
+
+    @Test
+    public void shouldRestoreReducedOriginal() throws Exception {
+        int ab = vocab.putIfAbsent("ab");
+        int zz = vocab.putIfAbsent("zz");
+        // ab is reduced into a new value and then zz is merged into it
+        assertEquals(ab, vocab.reduceIndexValue(ab, "AA"));
+        assertEquals(ab, vocab.reduceIndexValue(zz, "AA"));
+        assertEquals("ab", vocab.getOriginalForIndex(ab));
+        assertEquals("zz", vocab.getOriginalForIndex(zz));
+        assertFalse(vocab.contains("ab"));
+        // more of the original goes to the same index
+        assertEquals(ab, vocab.putIfAbsent("ab"));
+
+        // the raw originals never leave memory
+        Vocabulary<String> copy = SerializationUtils.roundtrip(vocab);
+        assertEquals(null, copy.getOriginalForIndex(zz));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        vocab.writeBinary(new DataOutputStream(bytes));
+        Vocabulary<String> read = Vocabulary.readBinary(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(null, read.getOriginalForIndex(zz));
+        assertEquals(ab, read.getIndexFor("AA"));
+
+        vocab.restoreOriginal(ab);
+        assertEquals("ab", vocab.getForIndex(ab));
+        assertEquals(ab, vocab.getIndexFor("ab"));
+        assertEquals(null, vocab.getOriginalForIndex(ab));
+        // the reduced value moved and what was merged into it followed
+        int moved = vocab.getIndexFor("AA");
+        assertTrue(moved > zz);
+        assertEquals("AA", vocab.getForIndex(zz));
+
+        vocab.clearOriginals();
+        assertEquals(null, vocab.getOriginalForIndex(zz));
+        assertTrue(vocab.putIfAbsent("zz") > moved);
+    }
+}
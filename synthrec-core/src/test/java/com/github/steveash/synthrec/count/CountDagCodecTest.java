@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.count;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.github.steveash.synthrec.collect.Vocabulary;
+import com.github.steveash.synthrec.domain.AssignmentInstance;
+import com.github.steveash.synthrec.domain.FieldSketch;
+import com.github.steveash.synthrec.stat.MutableMultinomial;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+/**
+ * @author Steve Ash
+ */
+public class CountDagCodecTest {
+
+    @Test
+    public void shouldRoundtripDag() throws Exception {
+        assertRoundtrip(makeDag(false));
+    }
+
+    @Test
+    public void shouldRoundtripFlatStorage() throws Exception {
+        assertRoundtrip(makeDag(true));
+    }
+
+    @Test
+    public void shouldKeepVocabTombstones() throws Exception {
+        CountDag dag = makeDag(false);
+        Vocabulary<Object> vocab = dag.getFactorStats("A").getValueVocab().getVocab();
+        int oldIndex = vocab.getIndexFor("a1");
+        int newIndex = vocab.updateIndexValue(oldIndex, "a2");
+
+        CountDag read = CountDagCodec.read(new ByteArrayInputStream(write(dag)));
+        Vocabulary<Object> readVocab = read.getFactorStats("A").getValueVocab().getVocab();
+        assertEquals("a2", readVocab.getForIndex(oldIndex));
+        assertEquals(newIndex, readVocab.getIndexFor("a2"));
+        assertEquals(vocab.size(), readVocab.size());
+    }
+
+    @Test
+    public void shouldReadOnlyRequestedGroups() throws Exception {
+        CountDag dag = makeDag(false);
+        CountDag read = CountDagCodec.read(new ByteArrayInputStream(write(dag)), ImmutableSet.of("A", "BD"));
+        assertTrue(read.isPartial());
+        assertEquals(ImmutableSet.of("A", "B", "D"), read.factorNames());
+
+        MutableMultinomial<DehydratedAssignment> dagBD = dag.getFactorGroup("BD").getCountingFactor().makeJoint();
+        MutableMultinomial<DehydratedAssignment> readBD = read.getFactorGroup("BD").getCountingFactor().makeJoint();
+        assertEquals(dagBD.size(), readBD.size());
+        for (DehydratedAssignment key : dagBD.keySet()) {
+            assertEquals(dagBD.get(key), readBD.get(key), 0.0001);
+        }
+        MutableMultinomial<Object> readA = read.getFactorGroup("A").makeUnconditionalUnaryCopy();
+        assertEquals(7, readA.size());
+        try {
+            read.getFactorGroup("C");
+            fail("C shouldn't have been loaded");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("partially loaded"));
+        }
+        try {
+            read.add(makeFor(1));
+            fail("shouldn't be able to count into a partial dag");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailUnknownGroup() throws Exception {
+        CountDagCodec.read(new ByteArrayInputStream(write(makeDag(false))), ImmutableSet.of("A", "NOPE"));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldFailBadChecksum() throws Exception {
+        byte[] bytes = write(makeDag(false));
+        bytes[bytes.length - 1] ^= 0x01;
+        CountDagCodec.read(new ByteArrayInputStream(bytes));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldFailUnknownVersion() throws Exception {
+        byte[] bytes = write(makeDag(false));
+        bytes[7] = (byte) (CountDagCodec.VERSION + 1);
+        CountDagCodec.read(new ByteArrayInputStream(bytes));
+    }
+
+    private static void assertRoundtrip(CountDag dag) throws IOException {
+        assertReadSame(dag, CountDagCodec.read(new ByteArrayInputStream(write(dag))));
+    }
+
+    private static void assertReadSame(CountDag dag, CountDag read) {
+
+        MutableMultinomial<Object> dagA = dag.getFactorGroup("A").makeUnconditionalUnaryCopy();
+        MutableMultinomial<Object> readA = read.getFactorGroup("A").makeUnconditionalUnaryCopy();
+        assertEquals(dagA.size(), readA.size());
+        for (Object key : dagA.keySet()) {
+            assertEquals(dagA.get(key), readA.get(key), 0.0001);
+        }
+
+        Map<AssignmentInstance, MutableMultinomial<Object>> dagC = dag.getFactorGroup("C").makeConditionalCopy();
+        Map<AssignmentInstance, MutableMultinomial<Object>> readC = read.getFactorGroup("C").makeConditionalCopy();
+        assertEquals(dagC.keySet(), readC.keySet());
+        for (AssignmentInstance parent : dagC.keySet()) {
+            assertEquals(dagC.get(parent).size(), readC.get(parent).size());
+            assertEquals(dagC.get(parent).sum(), readC.get(parent).sum(), 0.0001);
+        }
+
+        MutableMultinomial<DehydratedAssignment> dagBD = dag.getFactorGroup("BD").getCountingFactor().makeJoint();
+        MutableMultinomial<DehydratedAssignment> readBD = read.getFactorGroup("BD").getCountingFactor().makeJoint();
+        assertEquals(dagBD.size(), readBD.size());
+        for (DehydratedAssignment key : dagBD.keySet()) {
+            // the vocab codes and indexes come back identical so the dehydrated assignments are interchangeable
+            assertEquals(dagBD.get(key), readBD.get(key), 0.0001);
+        }
+
+        assertEquals(dag.getFactorStats("C").getSubFieldVocab("LN").countByValue("ASH7"),
+                read.getFactorStats("C").getSubFieldVocab("LN").countByValue("ASH7"),
+                0.0001
+        );
+        assertEquals(dag.getFactorStats("D").getValueVocab().countByValue(3),
+                read.getFactorStats("D").getValueVocab().countByValue(3),
+                0.0001
+        );
+        assertEquals(dag.getFactorGroup("BD").getAssignmentKeys(), read.getFactorGroup("BD").getAssignmentKeys());
+        assertTrue(read.getReduceFactors().contains("B"));
+
+        // and it can keep counting after its read
+        read.add(makeFor(1));
+    }
+
+    private static byte[] write(CountDag dag) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CountDagCodec.write(dag, bytes);
+        return bytes.toByteArray();
+    }
+
+    private static CountDag makeDag(boolean flatStorage) {
+        CountDag dag = new CountDag();
+        dag.setFlatCountStorage(flatStorage);
+        CountFactor a = dag.newFactor("A");
+        CountFactor b = dag.newFactorWithParents("B", "A");
+        CountFactor c = dag.newFactorWithParents("C", "A");
+        CountFactor d = dag.newFactorWithParents("D", "A");
+        dag.countIndependant(a);
+        dag.countIndependant(c);
+        dag.countJoint("BD", b, d);
+        dag.markFactorReduced(b);
+        dag.markFactorSubFieldSensitive(c, "LN");
+        dag.freeze();
+        for (int i = 0; i < 1000; i++) {
+            dag.add(makeFor(i));
+        }
+        dag.compactCounts();
+        return dag;
+    }
+
+    private static CountAssignment makeFor(int i) {
+        HashMap<String, Object> values = Maps.newHashMap();
+        values.put("A", "a" + (i % 7));
+        values.put("B", "b" + (i % 3));
+        values.put("C", FieldSketch.builder()
+                .addPlaceholder("FN", "STEVE" + (i % 5))
+                .addLiteral("LN", "ASH" + (i % 11))
+                .build());
+        values.put("D", i % 13);
+        return CountAssignment.fromObserved(values);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.count;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.github.steveash.synthrec.domain.AssignmentInstance;
+import com.github.steveash.synthrec.domain.FieldSketch;
+import com.github.steveash.synthrec.stat.MutableMultinomial;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * @author Steve Ash
+ */
+public class CountDagMergerTest {
+
+    @Test
+    public void shouldMergePartitionsLikeOneDag() throws Exception {
+        CountDag all = makeDag();
+        CountDag part1 = makeDag();
+        CountDag part2 = makeDag();
+        // count the second partition in a different order so that the vocab indexes differ
+        for (int i = 0; i < 500; i++) {
+            all.add(makeFor(i));
+            part1.add(makeFor(i));
+        }
+        for (int i = 999; i >= 500; i--) {
+            all.add(makeFor(i));
+            part2.add(makeFor(i));
+        }
+        CountDag merged = CountDagMerger.merge(ImmutableList.of(part1, part2));
+
+        MutableMultinomial<Object> allA = all.getFactorGroup("A").makeUnconditionalUnaryCopy();
+        MutableMultinomial<Object> mergedA = merged.getFactorGroup("A").makeUnconditionalUnaryCopy();
+        assertEquals(allA.size(), mergedA.size());
+        for (Object key : allA.keySet()) {
+            assertEquals(allA.get(key), mergedA.get(key), 0.0001);
+        }
+
+        Map<AssignmentInstance, MutableMultinomial<Object>> allC = all.getFactorGroup("C").makeConditionalCopy();
+        Map<AssignmentInstance, MutableMultinomial<Object>> mergedC = merged.getFactorGroup("C").makeConditionalCopy();
+        assertEquals(allC.keySet(), mergedC.keySet());
+        for (AssignmentInstance parent : allC.keySet()) {
+            MutableMultinomial<Object> allDist = allC.get(parent);
+            MutableMultinomial<Object> mergedDist = mergedC.get(parent);
+            assertEquals(allDist.size(), mergedDist.size());
+            assertEquals(allDist.sum(), mergedDist.sum(), 0.0001);
+        }
+
+        assertEquals(all.getFactorStats("C").getSubFieldVocab("LN").countByValue("ASH7"),
+                merged.getFactorStats("C").getSubFieldVocab("LN").countByValue("ASH7"),
+                0.0001
+        );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailDifferentStructure() throws Exception {
+        CountDag other = new CountDag();
+        other.countIndependant(other.newFactor("A"));
+        other.freeze();
+        makeDag().mergeFrom(other);
+    }
+
+    private static CountDag makeDag() {
+        CountDag dag = new CountDag();
+        CountFactor a = dag.newFactor("A");
+        CountFactor b = dag.newFactorWithParents("B", "A");
+        CountFactor c = dag.newFactorWithParents("C", "A");
+        dag.countIndependant(a);
+        dag.countIndependant(b);
+        dag.countIndependant(c);
+        dag.freeze();
+        return dag;
+    }
+
+    private static CountAssignment makeFor(int i) {
+        HashMap<String, Object> values = Maps.newHashMap();
+        values.put("A", "a" + (i % 7));
+        values.put("B", "b" + (i % 3));
+        values.put("C", FieldSketch.builder()
+                .addPlaceholder("FN", "STEVE" + (i % 5))
+                .addLiteral("LN", "ASH" + (i % 11))
+                .build());
+        return CountAssignment.fromObserved(values);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.count;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.github.steveash.synthrec.domain.AssignmentInstance;
+import com.github.steveash.synthrec.stat.MutableMultinomial;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import it.unimi.dsi.fastutil.shorts.Short2IntOpenHashMap;
+
+/**
+ * @author Steve Ash
+ */
+public class FlatCountTableTest {
+
+    @Test
+    public void shouldMatchMapStorage() throws Exception {
+        CountDag mapDag = makeDag(false);
+        CountDag flatDag = makeDag(true);
+        assertTrue(flatDag.getFactor("B").isFlatStorage());
+        for (int i = 0; i < 1000; i++) {
+            mapDag.add(makeFor(i));
+            flatDag.add(makeFor(i));
+        }
+        flatDag.compactCounts();
+        assertSameConditional(mapDag, flatDag);
+
+        // counting more after compacting has to rebuild the table
+        for (int i = 1000; i < 1500; i++) {
+            mapDag.add(makeFor(i));
+            flatDag.add(makeFor(i));
+        }
+        assertFalse(flatDag.getFactor("B").isCompacted());
+        flatDag.compactCounts();
+        assertSameConditional(mapDag, flatDag);
+        assertEquals(mapDag.getFactor("B").makeJoint().sum(), flatDag.getFactor("B").makeJoint().sum(), 0.0001);
+    }
+
+    @Test
+    public void shouldCompactByParent() throws Exception {
+        FlatCountTable table = new FlatCountTable();
+        DehydratedAssignment p1 = DehydratedAssignment.makePacked(1, DehydratedAssignment.pack((short) 1, 1), 0);
+        DehydratedAssignment p2 = DehydratedAssignment.makePacked(1, DehydratedAssignment.pack((short) 1, 2), 0);
+        DehydratedAssignment c1 = DehydratedAssignment.makePacked(1, DehydratedAssignment.pack((short) 2, 1), 0);
+        DehydratedAssignment c2 = DehydratedAssignment.makePacked(1, DehydratedAssignment.pack((short) 2, 2), 0);
+        table.add(p2, c1, 1.0);
+        table.add(p1, c1, 2.0);
+        table.add(p2, c2, 3.0);
+        table.add(p2, c1, 4.0);
+        table.compact();
+        assertEquals(2, table.parentCount());
+        assertEquals(3, table.entryCount());
+        Map<DehydratedAssignment, MutableMultinomial<DehydratedAssignment>> result = Maps.newHashMap();
+        table.forEachParent(result::put);
+        assertEquals(2.0, result.get(p1).get(c1), 0.0001);
+        assertEquals(5.0, result.get(p2).get(c1), 0.0001);
+        assertEquals(3.0, result.get(p2).get(c2), 0.0001);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotReadBeforeCompacting() throws Exception {
+        FlatCountTable table = new FlatCountTable();
+        DehydratedAssignment p1 = DehydratedAssignment.makePacked(1, DehydratedAssignment.pack((short) 1, 1), 0);
+        DehydratedAssignment c1 = DehydratedAssignment.makePacked(1, DehydratedAssignment.pack((short) 2, 1), 0);
+        table.add(p1, c1, 1.0);
+        table.forEachParent((parent, dist) -> {});
+    }
+
+    @Test
+    public void shouldInternPackedAndUnpackedAssignments() throws Exception {
+        FlatCountTable.AssignmentPool pool = new FlatCountTable.AssignmentPool();
+        DehydratedAssignment empty = DehydratedAssignment.makePacked(0, 0, 0);
+        DehydratedAssignment one = DehydratedAssignment.makePacked(1, DehydratedAssignment.pack((short) 1, 7), 0);
+        DehydratedAssignment two = DehydratedAssignment.makePacked(2,
+                DehydratedAssignment.pack((short) 1, 7),
+                DehydratedAssignment.pack((short) 2, 3)
+        );
+        Short2IntOpenHashMap wide = new Short2IntOpenHashMap();
+        for (short i = 1; i <= 3; i++) {
+            wide.put(i, i * 10);
+        }
+        DehydratedAssignment unpacked = DehydratedAssignment.make(wide, null);
+        assertFalse(unpacked.isPacked());
+
+        List<DehydratedAssignment> all = Lists.newArrayList(empty, one, two, unpacked);
+        // enough distinct values to grow the index a few times
+        for (int i = 0; i < 1000; i++) {
+            all.add(DehydratedAssignment.makePacked(1, DehydratedAssignment.pack((short) 3, i), 0));
+        }
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(i, pool.intern(all.get(i)));
+        }
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(i, pool.intern(all.get(i)));
+            assertEquals(all.get(i), pool.get(i));
+        }
+        assertEquals(all.size(), pool.size());
+    }
+
+    private static void assertSameConditional(CountDag mapDag, CountDag flatDag) {
+        Map<AssignmentInstance, MutableMultinomial<Object>> mapB = mapDag.getFactorGroup("B").makeConditionalCopy();
+        Map<AssignmentInstance, MutableMultinomial<Object>> flatB = flatDag.getFactorGroup("B").makeConditionalCopy();
+        assertEquals(mapB.keySet(), flatB.keySet());
+        for (AssignmentInstance parent : mapB.keySet()) {
+            MutableMultinomial<Object> mapDist = mapB.get(parent);
+            MutableMultinomial<Object> flatDist = flatB.get(parent);
+            assertEquals(mapDist.size(), flatDist.size());
+            for (Object key : mapDist.keySet()) {
+                assertEquals(mapDist.get(key), flatDist.get(key), 0.0001);
+            }
+        }
+    }
+
+    private static CountDag makeDag(boolean flat) {
+        CountDag dag = new CountDag();
+        dag.setFlatCountStorage(flat);
+        CountFactor a = dag.newFactor("A");
+        CountFactor b = dag.newFactorWithParents("B", "A");
+        dag.countIndependant(a);
+        dag.countIndependant(b);
+        dag.freeze();
+        return dag;
+    }
+
+    private static CountAssignment makeFor(int i) {
+        HashMap<String, Object> values = Maps.newHashMap();
+        values.put("A", "a" + (i % 7));
+        values.put("B", "b" + (i % 13));
+        return CountAssignment.fromObserved(values);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.count;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import com.github.steveash.synthrec.domain.AssignmentInstance;
+import com.github.steveash.synthrec.stat.MutableMultinomial;
+import com.google.common.collect.Maps;
+
+/**
+ * @author Steve Ash
+ */
+public class ShardedCountDagTest {
+
+    @Test
+    public void shouldMatchSequentialCounts() throws Exception {
+        CountDag seqDag = makeDag();
+        CountDag parDag = makeDag();
+        IntStream.range(0, 10_000).forEach(i -> seqDag.add(makeFor(i)));
+
+        ShardedCountDag sharded = new ShardedCountDag(parDag);
+        IntStream.range(0, 10_000).parallel().forEach(i -> sharded.add(makeFor(i)));
+        sharded.mergeShards();
+
+        MutableMultinomial<DehydratedAssignment> seqB = seqDag.getFactor("B").makeJoint();
+        MutableMultinomial<DehydratedAssignment> parB = parDag.getFactor("B").makeJoint();
+        assertEquals(seqB.size(), parB.size());
+        for (int a = 0; a < 7; a++) {
+            for (int b = 0; b < 3; b++) {
+                AssignmentInstance instance = AssignmentInstance.make("A", "a" + a, "B", "b" + b);
+                assertEquals(seqB.get(seqDag.dehydrate(instance)), parB.get(parDag.dehydrate(instance)), 0.0001);
+            }
+        }
+        assertEquals(seqDag.getFactorStats("A").getValueVocab().countByValue("a3"),
+                parDag.getFactorStats("A").getValueVocab().countByValue("a3"),
+                0.0001
+        );
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotAddAfterMerge() throws Exception {
+        ShardedCountDag sharded = new ShardedCountDag(makeDag());
+        sharded.add(makeFor(1));
+        sharded.mergeShards();
+        sharded.add(makeFor(2));
+    }
+
+    private static CountDag makeDag() {
+        CountDag dag = new CountDag();
+        CountFactor a = dag.newFactor("A");
+        CountFactor b = dag.newFactorWithParents("B", "A");
+        dag.countIndependant(a);
+        dag.countIndependant(b);
+        dag.freeze();
+        return dag;
+    }
+
+    private static CountAssignment makeFor(int i) {
+        HashMap<String, Object> values = Maps.newHashMap();
+        values.put("A", "a" + (i % 7));
+        values.put("B", "b" + (i % 3));
+        return CountAssignment.fromObserved(values);
+    }
+}
@@ -19,6 +19,7 @@
 package com.github.steveash.synthrec.count;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -91,4 +92,24 @@ public class VocabHydraterTest {
         assertEquals(assignInput, rehyd1);
         assertEquals(assignInput2, rehyd2);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldPackSmallFlat() throws Exception {
+        AssignmentInstance assignInput = AssignmentInstance.make("NAME", "STEVE", "SEX", "M");
+        DehydratedAssignment dehydrate = hydrater.dehydrate(assignInput);
+        assertTrue(dehydrate.isPacked());
+        assertEquals(2, dehydrate.size());
+        assertEquals(assignInput, hydrater.hydrate(dehydrate));
+
+        // the same assignment built through the maps (in the other order) is the same packed key
+        DehydratedAssignment fromMap = DehydratedAssignment.make(dehydrate.getFlatAssigns(), null);
+        assertTrue(fromMap.isPacked());
+        assertEquals(dehydrate, fromMap);
+        assertEquals(dehydrate.hashCode(), fromMap.hashCode());
+        DehydratedAssignment merged = DehydratedAssignment.merge(
+                hydrater.dehydrate(AssignmentInstance.make("SEX", "M")),
+                hydrater.dehydrate(AssignmentInstance.make("NAME", "STEVE"))
+        );
+        assertEquals(dehydrate, merged);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.github.steveash.synthrec.domain.FeatureComputer.FeatureKey;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * @author Steve Ash
+ */
+public class RecordTest {
+
+    private static final FeatureKey<Integer> AGE = new FeatureKey<>("recordTestAge", Integer.class);
+
+    @Test
+    public void shouldKeepValuesBySlot() throws Exception {
+        Record first = new Record(1);
+        first.setInitialValue("recordTestA", "a1");
+        first.setInitialValue("recordTestB", " ");
+        // a key first seen after the record was created grows it
+        Record second = new Record(2);
+        first.setInitialValue("recordTestC", "c1");
+        second.setInitialValue("recordTestC", "c2");
+        second.setNormal("recordTestC", "C2");
+
+        assertEquals("a1", first.getField("recordTestA", null));
+        assertEquals("x", first.getField("recordTestB", "x"));
+        assertEquals("x", first.getField("recordTestMissing", "x"));
+        assertEquals("c2", second.getField("recordTestC", null));
+        assertEquals("C2", second.getNormal("recordTestC", null));
+        assertNull(first.getNormal("recordTestC", null));
+        assertEquals(ImmutableMap.of("recordTestA", "a1", "recordTestC", "c1"), first.fields());
+        assertEquals(ImmutableMap.of("recordTestC", "c2"), second.fields());
+    }
+
+    @Test
+    public void shouldKeepFeatures() throws Exception {
+        Record record = new Record(1);
+        assertEquals(-1, (int) record.getFeature(AGE, -1));
+        record.setFeature(AGE, 42);
+        assertEquals(42, (int) record.getFeature(AGE, -1));
+        assertEquals(42, (int) record.getFeatureByKey("recordTestAge", -1));
+        assertEquals(42, (int) record.getFeature(new FeatureKey<>("recordTestAge", Integer.class), -1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotReassociateFeature() throws Exception {
+        Record record = new Record(1);
+        record.setFeature(AGE, 1);
+        record.setFeature(AGE, 2);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.steveash.synthrec.collect.LazyMap;
+import com.github.steveash.synthrec.domain.AssignmentInstance;
+import com.github.steveash.synthrec.stat.BackoffSampler;
+import com.github.steveash.synthrec.stat.MappedTableFile;
+import com.github.steveash.synthrec.stat.MutableMultinomial;
+import com.github.steveash.synthrec.stat.RecordRandom;
+import com.github.steveash.synthrec.stat.Sampler;
+import com.github.steveash.synthrec.stat.SamplingTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+/**
+ * @author Steve Ash
+ */
+public class CompiledSamplersTest {
+
+    private static final int COUNT = 2_000;
+    private static final int A_VALUES = 40;
+    private static final long SEED = 0x5EED4321L;
+    private static final Set<String> PARENT = ImmutableSet.of("a");
+
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void shouldGenerateSameFromCompiledAsFromScratch() throws Exception {
+        String scratch = generate(makeDag(CompiledSamplers.none()));
+
+        CompiledSamplers compiling = CompiledSamplers.forCompiling();
+        makeDag(compiling);
+        Map<String, Object> built = compiling.getSerializableBuilt();
+        assertEquals(ImmutableSet.of("a", "b"), built.keySet());
+
+        // round trip through the model format so the tables are the memory mapped ones
+        File tablesFile = temp.newFile("model.tables");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (MappedTableFile.Writer writer = MappedTableFile.writer(tablesFile);
+             ObjectOutputStream oos = writer.objectOutput(bytes)) {
+            oos.writeObject(new HashMap<>(built));
+        }
+        Map<String, Object> read;
+        try (ObjectInputStream ois = MappedTableFile.open(tablesFile)
+                .objectInput(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read = (Map<String, Object>) ois.readObject();
+        }
+
+        CompiledSamplers loaded = CompiledSamplers.loadedFrom(read);
+        assertEquals(scratch, generate(makeDag(loaded)));
+        assertTrue(loaded.getSerializableBuilt().isEmpty());
+    }
+
+    @Test
+    public void shouldOnlyKeepSerializableSamplers() throws Exception {
+        Map<String, Object> tables = Maps.newHashMap();
+        tables.put("x", SamplingTable.createFromMultinomial(makeDist("x", 3)));
+        Map<String, Object> withLambda = Maps.newHashMap();
+        withLambda.put("y", (Supplier<String>) () -> "y");
+        assertTrue(CompiledSamplers.isSerializable(tables));
+        assertTrue(CompiledSamplers.isSerializable(ImmutableList.of(tables)));
+        assertFalse(CompiledSamplers.isSerializable(withLambda));
+        assertFalse(CompiledSamplers.isSerializable(ImmutableList.of(tables, withLambda)));
+
+        CompiledSamplers compiling = CompiledSamplers.forCompiling();
+        compiling.getOrBuild("tables", () -> tables);
+        compiling.getOrBuild("lambda", () -> withLambda);
+        // serializable by type but holds onto something that isn't
+        compiling.getOrBuild("hidden", () -> ImmutableList.of(new AtomicReference<>(new Object())));
+        assertEquals(ImmutableSet.of("tables"), compiling.getSerializableBuilt().keySet());
+        // nothing is kept unless compiling
+        CompiledSamplers none = CompiledSamplers.none();
+        none.getOrBuild("tables", () -> tables);
+        assertTrue(none.getSerializableBuilt().isEmpty());
+    }
+
+    // builds the dag the way the gen node providers do: b is a lazy distribution per value of a
+    private static GenDag makeDag(CompiledSamplers samplers) {
+        MutableMultinomial<String> aDist = makeDist("a", A_VALUES);
+        SamplingTable<String> aTable = samplers.getOrBuild("a", () -> SamplingTable.createFromMultinomial(aDist));
+        BackoffSampler<String> bSampler = samplers.getOrBuild("b", () -> {
+            LazyMap<AssignmentInstance, Sampler<String>> bByA = LazyMap.makeConcurrent(ai ->
+                    SamplingTable.createFromMultinomial(makeDist(ai.getString("a", null) + "-b", 10))
+            );
+            if (samplers.isCompiling()) {
+                for (String a : aDist.keySet()) {
+                    bByA.get(AssignmentInstance.make("a", a));
+                }
+            }
+            return new BackoffSampler<>(bByA, SamplingTable.createFromMultinomial(makeDist("backoff", 5)), PARENT);
+        });
+        return new GenDag(ImmutableList.of(
+                new UnaryNode("a", aTable),
+                new ConditionalUnaryNode("b", PARENT, bSampler)
+        ), 10);
+    }
+
+    private static MutableMultinomial<String> makeDist(String prefix, int size) {
+        MutableMultinomial<String> dist = MutableMultinomial.createUnknownMax();
+        for (int i = 0; i < size; i++) {
+            dist.add(prefix + i, 1 + ((prefix.hashCode() + i) & 0x7));
+        }
+        return dist;
+    }
+
+    private static String generate(GenDag dag) {
+        GenContext context = new GenContext(COUNT, true);
+        RecordRandom rand = new RecordRandom(SEED);
+        SlotGenAssignment workspace = dag.newAssignment();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < COUNT; i++) {
+            rand.resetTo(i);
+            GenAssignment assign = dag.generate(context, rand, workspace);
+            sb.append(assign.get("a")).append(',').append(assign.get("b")).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.steveash.synthrec.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Set;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.junit.Test;
+
+import com.github.steveash.synthrec.domain.AssignmentInstance;
+import com.github.steveash.synthrec.stat.RecordRandom;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * @author Steve Ash
+ */
+public class GenDagTest {
+
+    @Test
+    public void shouldRetryChainAndReuseWorkspace() throws Exception {
+        RejectingNode rejecting = new RejectingNode();
+        GenDag dag = new GenDag(ImmutableList.of(
+                new ConstNode("a", "A"),
+                rejecting,
+                new ConstNode("c", "C")
+        ), 10);
+        GenContext context = new GenContext(10);
+        SlotGenAssignment workspace = dag.newAssignment();
+
+        GenAssignment first = dag.generate(context, new RecordRandom(1), workspace);
+        assertSame(workspace, first);
+        assertEquals("A", first.get("a"));
+        assertEquals("B2", first.get("b"));
+        assertEquals("C", first.get("c"));
+        // the rejected attempt put an undeclared key before failing and that should be rolled back
+        assertEquals("X2", first.get("x"));
+
+        GenAssignment second = dag.generate(context, new RecordRandom(1), workspace);
+        assertEquals("B4", second.get("b"));
+        assertEquals("X4", second.get("x"));
+        assertEquals("A", second.get("a"));
+    }
+
+    @Test
+    public void shouldResetWorkspace() throws Exception {
+        SlotGenAssignment assign = new SlotGenAssignment(new GenSlots(ImmutableList.of("a", "b")));
+        assign.put("a", "A");
+        assign.put("z", "Z");
+        assign.reset();
+        assertNull(assign.tryGet("a"));
+        assertNull(assign.tryGet("z"));
+        assign.put("a", "A2");
+        assertEquals("A2", assign.getSlot(0));
+        assertEquals(AssignmentInstance.make("a", "A2"), assign.subset(ImmutableSet.of("a")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldFailDuplicateOutputs() throws Exception {
+        new GenDag(ImmutableList.of(new ConstNode("a", "A"), new ConstNode("a", "A2")), 10);
+    }
+
+    private static class ConstNode implements GenNode {
+        private final String key;
+        private final String value;
+
+        private ConstNode(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public boolean sample(RandomGenerator rand, GenAssignment assignment, GenContext context) {
+            assignment.put(key, value);
+            return true;
+        }
+
+        @Override
+        public Set<String> outputKeys() {
+            return ImmutableSet.of(key);
+        }
+    }
+
+    // rejects every other attempt after writing its output so the retry has to clear it
+    private static class RejectingNode implements GenNode {
+        private int attempt = 0;
+
+        @Override
+        public boolean sample(RandomGenerator rand, GenAssignment assignment, GenContext context) {
+            attempt += 1;
+            assignment.put("b", "B" + attempt);
+            assignment.put("x", "X" + attempt);
+            return attempt % 2 == 0;
+        }
+
+        @Override
+        public Set<String> inputKeys() {
+            return ImmutableSet.of("a");
+        }
+
+        @Override
+        public Set<String> outputKeys() {
+            return ImmutableSet.of("b");
+        }
+    }
+}
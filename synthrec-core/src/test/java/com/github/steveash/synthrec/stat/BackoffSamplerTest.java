@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.steveash.synthrec.stat;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Test;
+
+import com.github.steveash.synthrec.collect.LazyMap;
+import com.github.steveash.synthrec.domain.AssignmentInstance;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+/**
+ * @author Steve Ash
+ */
+public class BackoffSamplerTest {
+
+    private final RandomGenerator rand = new RecordRandom(42);
+
+    @Test
+    public void shouldSampleConditionalOrBackoff() throws Exception {
+        Map<AssignmentInstance, Sampler<String>> map = Maps.newHashMap();
+        map.put(AssignmentInstance.make("A", "a1", "B", "b1"), constant("X"));
+        map.put(AssignmentInstance.make("A", "a2", "B", "b1"), constant("Y"));
+        map.put(AssignmentInstance.make("A", "a2", "B", "b2"), VoidSampler.getInstance());
+        BackoffSampler<String> sampler = new BackoffSampler<>(map, constant("Z"), ImmutableSet.of("A", "B"));
+
+        assertEquals("X", sampler.sample(rand, AssignmentInstance.make("A", "a1", "B", "b1", "C", "c1")));
+        assertEquals("Y", sampler.sample(rand, AssignmentInstance.make("A", "a2", "B", "b1")));
+        assertEquals("Z", sampler.sample(rand, AssignmentInstance.make("A", "a2", "B", "b2")));
+        assertEquals("Z", sampler.sample(rand, AssignmentInstance.make("A", "a1", "B", "b2")));
+        assertEquals("Z", sampler.sample(rand, AssignmentInstance.make("A", "a9", "B", "b1")));
+        // again now that the misses are indexed
+        assertEquals("Z", sampler.sample(rand, AssignmentInstance.make("A", "a9", "B", "b1")));
+        assertEquals("X", sampler.sample(rand, AssignmentInstance.make("A", "a1", "B", "b1")));
+    }
+
+    @Test
+    public void shouldOnlyComputeLazyEntriesOnce() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        LazyMap<AssignmentInstance, Sampler<String>> map = LazyMap.make(ai -> {
+            created.incrementAndGet();
+            return constant("lazy-" + ai.getString("A", null));
+        });
+        map.put(AssignmentInstance.make("A", "a1"), constant("eager"));
+        BackoffSampler<String> sampler = new BackoffSampler<>(map, constant("Z"), ImmutableSet.of("A"));
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("eager", sampler.sample(rand, AssignmentInstance.make("A", "a1")));
+            assertEquals("lazy-a2", sampler.sample(rand, AssignmentInstance.make("A", "a2")));
+            assertEquals("lazy-a3", sampler.sample(rand, AssignmentInstance.make("A", "a3")));
+        }
+        assertEquals(2, created.get());
+    }
+
+    @Test
+    public void shouldIndexManyLazyEntriesFromManyThreads() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        LazyMap<AssignmentInstance, Sampler<String>> map = LazyMap.makeConcurrent(ai -> {
+            created.incrementAndGet();
+            return constant("lazy-" + ai.getString("A", null));
+        });
+        BackoffSampler<String> sampler = new BackoffSampler<>(map, constant("Z"), ImmutableSet.of("A"));
+
+        IntStream.range(0, 20_000).parallel().forEach(i -> {
+            String value = "a" + (i % 5_000);
+            assertEquals("lazy-" + value, sampler.sample(rand, AssignmentInstance.make("A", value)));
+        });
+        assertEquals(5_000, created.get());
+    }
+
+    @Test
+    public void shouldSerializeSnapshot() throws Exception {
+        Map<AssignmentInstance, Sampler<String>> map = LazyMap.make(ai -> VoidSampler.getInstance());
+        map.put(AssignmentInstance.make("A", "a1"), constantTable("X"));
+        BackoffSampler<String> sampler = new BackoffSampler<>(map,
+                ConditionalSampler.adaptSampler(constantTable("Z")),
+                ImmutableSet.of("A")
+        );
+        assertEquals("Z", sampler.sample(rand, AssignmentInstance.make("A", "a2")));
+
+        BackoffSampler<String> copy = SerializationUtils.roundtrip(sampler);
+        assertEquals("X", copy.sample(rand, AssignmentInstance.make("A", "a1")));
+        assertEquals("Z", copy.sample(rand, AssignmentInstance.make("A", "a2")));
+        assertEquals("Z", copy.sample(rand, AssignmentInstance.make("A", "a3")));
+    }
+
+    private static SamplingTable<String> constantTable(String value) {
+        MutableMultinomial<String> dist = MutableMultinomial.createUnknownMax();
+        dist.add(value, 1.0);
+        return SamplingTable.createFromMultinomial(dist);
+    }
+
+    private static Sampler<String> constant(String value) {
+        return r -> value;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.stat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * @author Steve Ash
+ */
+public class MappedTableFileTest {
+
+    @Test
+    public void shouldSampleSameAsHeap() throws Exception {
+        MutableMultinomial<Object> strings = new MutableMultinomial<>(-1);
+        strings.add("STEVE", 10);
+        strings.add("JOHN", 5);
+        strings.add("MARÍA", 2);
+        strings.add("X", 0.5);
+        MutableMultinomial<Object> ints = new MutableMultinomial<>(-1);
+        ints.add(1, 3);
+        ints.add(2, 1);
+        SamplingTable<Object> stringTable = SamplingTable.createFromMultinomial(strings);
+        SamplingTable<Object> intTable = SamplingTable.createFromMultinomial(ints);
+        // the same table twice should only be written once
+        ArrayList<SamplingTable<Object>> tables = Lists.newArrayList(stringTable, intTable, stringTable);
+
+        File tablesFile = File.createTempFile("mappedTables", ".tables");
+        tablesFile.deleteOnExit();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (MappedTableFile.Writer writer = MappedTableFile.writer(tablesFile);
+             ObjectOutputStream oos = writer.objectOutput(bytes)) {
+            oos.writeObject(tables);
+        }
+        List<SamplingTable<Object>> read;
+        try (ObjectInputStream ois = MappedTableFile.open(tablesFile)
+                .objectInput(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read = (List<SamplingTable<Object>>) ois.readObject();
+        }
+
+        assertTrue(read.get(0).isMapped());
+        assertFalse(read.get(1).isMapped());
+        assertTrue(read.get(0) == read.get(2));
+        assertEquals(stringTable.size(), read.get(0).size());
+
+        Well19937c heapRand = new Well19937c(0xCAFE123);
+        Well19937c mappedRand = new Well19937c(0xCAFE123);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(stringTable.sample(heapRand), read.get(0).sample(mappedRand));
+        }
+
+        // writing a mapped table without the mapped file falls back to a heap copy
+        ByteArrayOutputStream copyBytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(copyBytes)) {
+            oos.writeObject(read.get(0));
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(copyBytes.toByteArray()))) {
+            SamplingTable<Object> copy = (SamplingTable<Object>) ois.readObject();
+            assertFalse(copy.isMapped());
+            assertEquals(stringTable.size(), copy.size());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.steveash.synthrec.stat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+/**
+ * @author Steve Ash
+ */
+public class RecordRandomTest {
+
+    @Test
+    public void shouldRepeatRecordStream() throws Exception {
+        RecordRandom first = new RecordRandom(42);
+        RecordRandom second = new RecordRandom(42);
+        first.resetTo(7);
+        long a = first.nextLong();
+        double b = first.nextDouble();
+        // position the second at other records first; the stream for 7 shouldn't depend on history
+        second.resetTo(3);
+        second.nextInt(10);
+        second.resetTo(7);
+        assertEquals(a, second.nextLong());
+        assertEquals(b, second.nextDouble(), 0.0);
+    }
+
+    @Test
+    public void shouldDifferAcrossRecordsAndSeeds() throws Exception {
+        RecordRandom rand = new RecordRandom(42);
+        rand.resetTo(1);
+        long one = rand.nextLong();
+        rand.resetTo(2);
+        assertNotEquals(one, rand.nextLong());
+        RecordRandom other = new RecordRandom(43);
+        other.resetTo(1);
+        assertNotEquals(one, other.nextLong());
+    }
+
+    @Test
+    public void shouldBeRoughlyUniform() throws Exception {
+        RecordRandom rand = new RecordRandom(1234);
+        int[] buckets = new int[10];
+        for (int i = 0; i < 100_000; i++) {
+            rand.resetTo(i);
+            buckets[rand.nextInt(10)] += 1;
+        }
+        for (int bucket : buckets) {
+            assertEquals(10_000, bucket, 500);
+        }
+    }
+}
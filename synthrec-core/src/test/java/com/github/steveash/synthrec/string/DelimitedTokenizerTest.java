@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.string;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author Steve Ash
+ */
+public class DelimitedTokenizerTest {
+
+    private final DelimitedTokenizer tokenizer = new DelimitedTokenizer(",");
+
+    @Test
+    public void shouldSplitAndTrim() throws Exception {
+        assertThat(tokenizer.tokenize("a, b ,c")).containsExactly("a", "b", "c").inOrder();
+        assertThat(tokenizer.tokenize("a,,")).containsExactly("a", "", "").inOrder();
+        assertThat(tokenizer.tokenize("")).containsExactly("");
+    }
+
+    @Test
+    public void shouldHandleQuotes() throws Exception {
+        List<String> fields = tokenizer.tokenize("1, \"Ash, Steve\" ,\"say \"\"hi\"\"\",x\"y");
+        assertEquals(4, fields.size());
+        assertEquals("1", fields.get(0));
+        assertEquals("Ash, Steve", fields.get(1));
+        assertEquals("say \"hi\"", fields.get(2));
+        assertEquals("x\"y", fields.get(3));
+        assertThat(tokenizer.tokenize("\"unbalanced, still")).containsExactly("unbalanced, still");
+    }
+
+    @Test
+    public void shouldSplitMultiCharDelim() throws Exception {
+        DelimitedTokenizer pipes = new DelimitedTokenizer("||");
+        assertThat(pipes.tokenize("a||b|c||\"d||e\"")).containsExactly("a", "b|c", "d||e").inOrder();
+        DelimitedTokenizer tabs = new DelimitedTokenizer("\t");
+        assertThat(tabs.tokenize("a\t\tb ")).containsExactly("a", "", "b").inOrder();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * @author Steve Ash
+ */
+public class MemoCacheTest {
+
+    @Test
+    public void shouldMemoizeIncludingNulls() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        MemoCache<String, String> cache = new MemoCache<>("test", 100);
+        Function<String, String> upper = cache.memoize(s -> {
+            calls.incrementAndGet();
+            return s.isEmpty() ? null : s.toUpperCase();
+        });
+        for (int i = 0; i < 10; i++) {
+            assertEquals("STEVE", upper.apply("steve"));
+            assertNull(upper.apply(""));
+        }
+        assertEquals(2, calls.get());
+        assertEquals(18, cache.stats().hitCount());
+        assertEquals(2, cache.stats().missCount());
+    }
+
+    @Test
+    public void shouldComputeOnlyDistinctMissesInBatch() throws Exception {
+        AtomicInteger batches = new AtomicInteger();
+        AtomicInteger computed = new AtomicInteger();
+        MemoCache<String, String> cache = new MemoCache<>("test", 100);
+        Function<List<String>, List<String>> upper = keys -> {
+            batches.incrementAndGet();
+            computed.addAndGet(keys.size());
+            return keys.stream().map(String::toUpperCase).collect(Collectors.toList());
+        };
+        assertEquals(ImmutableList.of("A", "B", "A"), cache.getAll(ImmutableList.of("a", "b", "a"), upper));
+        assertEquals(ImmutableList.of("B", "C", "A"), cache.getAll(ImmutableList.of("b", "c", "a"), upper));
+        assertEquals(2, batches.get());
+        // a and b the first time and only c the second
+        assertEquals(3, computed.get());
+    }
+
+    @Test
+    public void shouldCallThroughWhenDisabled() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        MemoCache<String, String> cache = new MemoCache<>("test", 0);
+        for (int i = 0; i < 10; i++) {
+            cache.get("steve", s -> {
+                calls.incrementAndGet();
+                return s;
+            });
+        }
+        assertEquals(10, calls.get());
+    }
+}
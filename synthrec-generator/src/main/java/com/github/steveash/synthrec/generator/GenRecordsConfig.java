@@ -35,6 +35,9 @@ public class GenRecordsConfig {
     private int minCountAnonymity = 30;
     private int produceCount;
     private int maxRejectSamples = 1000;
+    private int workerThreads = 0; // 0 means one per core; 1 generates on the calling thread
+    private int workerBatchSize = 1024; // records per unit of work handed to a worker
+    private Long seed = null; // if set then the run is reproducible; see GenRecordService
     private double defaultPriorAlpha = 0.01;
     private double defaultPriorMinVirtual = 500;
     private boolean conditionalOnlyEmitCommonEntries = false;
@@ -50,6 +53,7 @@ public class GenRecordsConfig {
     private double addressMinVirtual = 500;
     private double nameCultureMinProb = 0.10;
     private int nameCultureMinEntries = 250; // if fewer than this then don't sample from it, just backoff
+    private boolean prewarmNameDistributions = false; // build every culture/sex name distribution up front
 
     private List<String> goldFields = Lists.newArrayList();
 
@@ -69,6 +73,30 @@ public class GenRecordsConfig {
         this.produceCount = produceCount;
     }
 
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public int getWorkerBatchSize() {
+        return workerBatchSize;
+    }
+
+    public void setWorkerBatchSize(int workerBatchSize) {
+        this.workerBatchSize = workerBatchSize;
+    }
+
+    public Long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(Long seed) {
+        this.seed = seed;
+    }
+
     public double getDefaultPriorAlpha() {
         return defaultPriorAlpha;
     }
@@ -155,6 +183,14 @@ public class GenRecordsConfig {
         this.nameCultureMinProb = nameCultureMinProb;
     }
 
+    public boolean isPrewarmNameDistributions() {
+        return prewarmNameDistributions;
+    }
+
+    public void setPrewarmNameDistributions(boolean prewarmNameDistributions) {
+        this.prewarmNameDistributions = prewarmNameDistributions;
+    }
+
     public int getNameCultureMinEntries() {
         return nameCultureMinEntries;
     }
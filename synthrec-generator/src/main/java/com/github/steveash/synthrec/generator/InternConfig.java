@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.generator;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import com.github.steveash.synthrec.canonical.InternStrategy;
+import com.github.steveash.synthrec.generator.spring.LazyComponent;
+
+/**
+ * How the shared string interner holds on to record values; see ConfigurableInterner
+ * @author Steve Ash
+ */
+@LazyComponent
+@ConfigurationProperties("synthrec.intern")
+public class InternConfig {
+
+    private InternStrategy strategy = InternStrategy.STRONG;
+    private int maxSize = 1_000_000; // only for BOUNDED
+    private int fieldMaxCardinality = 10_000; // 0 = intern every field
+    private int fieldSampleSize = 100_000;
+
+    public InternStrategy getStrategy() {
+        return strategy;
+    }
+
+    public void setStrategy(InternStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public int getFieldMaxCardinality() {
+        return fieldMaxCardinality;
+    }
+
+    public void setFieldMaxCardinality(int fieldMaxCardinality) {
+        this.fieldMaxCardinality = fieldMaxCardinality;
+    }
+
+    public int getFieldSampleSize() {
+        return fieldSampleSize;
+    }
+
+    public void setFieldSampleSize(int fieldSampleSize) {
+        this.fieldSampleSize = fieldSampleSize;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.generator;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import com.github.steveash.synthrec.generator.spring.LazyComponent;
+
+/**
+ * Memoizing of the per field normalizers and the parsing feature computers; see MemoCaches
+ * @author Steve Ash
+ */
+@LazyComponent
+@ConfigurationProperties("synthrec.memo")
+public class MemoConfig {
+
+    private boolean enabled = false;
+    private long maxSize = 200_000; // entries per memo
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.generator;
+
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import com.github.steveash.synthrec.generator.spring.LazyComponent;
+import com.google.common.collect.Maps;
+
+/**
+ * Settings for running profiling as a staged pipeline instead of one parallel stream; see StagedPipeline
+ * @author Steve Ash
+ */
+@LazyComponent
+@ConfigurationProperties("synthrec.pipeline")
+public class PipelineConfig {
+
+    private boolean enabled = false;
+    private int readerThreads = 1;
+    private int stageThreads = 0; // 0 means one per core
+    private Map<String, Integer> threads = Maps.newHashMap(); // stage name -> threads overrides
+    private int queueCapacity = 64; // batches waiting between two stages
+    private int batchSize = 256; // records handed between stages at once
+    private int reportSeconds = 30;
+
+    /**
+     * @param stage
+     * @return the number of worker threads for the named stage
+     */
+    public int threadsFor(String stage) {
+        Integer count = threads.get(stage);
+        if (count != null && count > 0) {
+            return count;
+        }
+        return stageThreads > 0 ? stageThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getReaderThreads() {
+        return readerThreads;
+    }
+
+    public void setReaderThreads(int readerThreads) {
+        this.readerThreads = readerThreads;
+    }
+
+    public int getStageThreads() {
+        return stageThreads;
+    }
+
+    public void setStageThreads(int stageThreads) {
+        this.stageThreads = stageThreads;
+    }
+
+    public Map<String, Integer> getThreads() {
+        return threads;
+    }
+
+    public void setThreads(Map<String, Integer> threads) {
+        this.threads = threads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getReportSeconds() {
+        return reportSeconds;
+    }
+
+    public void setReportSeconds(int reportSeconds) {
+        this.reportSeconds = reportSeconds;
+    }
+}
@@ -25,6 +25,9 @@ import static com.github.steveash.synthrec.generator.feature.NameStructureFeatur
 import java.io.File;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
@@ -38,6 +41,7 @@ import com.codahale.metrics.MetricRegistry;
 import com.github.steveash.synthrec.Constants;
 import com.github.steveash.synthrec.domain.FeatureComputer;
 import com.github.steveash.synthrec.domain.NullFeatureComputer;
+import com.github.steveash.synthrec.domain.Record;
 import com.github.steveash.synthrec.generator.DqConfig;
 import com.github.steveash.synthrec.generator.dq.FieldProfiler.Context;
 import com.github.steveash.synthrec.generator.enrich.FeatureService;
@@ -47,6 +51,7 @@ import com.github.steveash.synthrec.generator.load.InputFile;
 import com.github.steveash.synthrec.generator.load.InputPipeline;
 import com.github.steveash.synthrec.generator.spring.PrototypeComponent;
 import com.github.steveash.synthrec.util.StreamCounter;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -69,6 +74,10 @@ public class DataQualityService {
     private Meter profileRecord;
     private Collection<FieldProfiler> profilers = Lists.newArrayList();
     private FeatureComputer computer = NullFeatureComputer.INSTANCE;
+    // state of a fused run where the records are fed in by another pass over the input
+    private ImmutableList<FieldProfiler> fusedProfilers;
+    private Stopwatch fusedWatch;
+    private final AtomicLong fusedCount = new AtomicLong();
 
     @PostConstruct
     protected void setup() {
@@ -82,17 +91,14 @@ public class DataQualityService {
                 .size() + " fields for data quality...");
         ImmutableList<? extends FieldProfiler> profilers = ImmutableList.copyOf(this.profilers);
 
-        long count = inputPipeline.normalizedFrom(records).parallel()
-                .map(rec -> {computer.emitFeatures(rec, rec); return rec;})
-                .map(rec -> {
-                    for (FieldProfiler profiler : profilers) {
-                        profiler.onValue(rec);
-                    }
-                    profileRecord.mark();
-                    return rec;
-                })
-                .map(new StreamCounter<>("Data quality profiling"))
-                .count();
+        long count;
+        try (Stream<Record> normalized = inputPipeline.normalizedFrom(records)) {
+            count = normalized.parallel()
+                    .map(rec -> {computer.emitFeatures(rec, rec); return rec;})
+                    .map(rec -> {profileWith(profilers, rec); return rec;})
+                    .map(new StreamCounter<>("Data quality profiling"))
+                    .count();
+        }
 
         log.info("completed profiling, now outputting records...");
         outputResults();
@@ -101,6 +107,51 @@ public class DataQualityService {
         log.info("Completed all data profiling of " + count + " records in " + watch.toString());
     }
 
+    /**
+     * Starts a fused run: instead of reading the input itself, another pass over the input (i.e. count profiling)
+     * feeds its records into profile() and then calls finishFused(). Those records must be fully processed (see
+     * InputPipeline.processedFrom) since the structure features are not emitted again here; processing runs every
+     * feature of the FeatureService which includes them
+     */
+    public void startFused() {
+        makeValueProfilers();
+        Preconditions.checkState(featureService.allSatisfied().containsAll(computer.satisfies()),
+                "processed records won't have all of the structure features so data quality can't be fused",
+                computer.satisfies()
+        );
+        log.info("Starting " + moniker + " to profile " + dqConfig.getCountFields()
+                .size() + " fields for data quality in a fused pass...");
+        fusedProfilers = ImmutableList.copyOf(this.profilers);
+        fusedCount.set(0);
+        fusedWatch = Stopwatch.createStarted();
+    }
+
+    /**
+     * Profiles one processed record of a fused run; safe to call from many threads
+     * @param rec
+     */
+    public void profile(Record rec) {
+        Preconditions.checkState(fusedProfilers != null, "must call startFused() first");
+        profileWith(fusedProfilers, rec);
+        fusedCount.incrementAndGet();
+    }
+
+    public void finishFused() {
+        Preconditions.checkState(fusedProfilers != null, "must call startFused() first");
+        log.info("completed profiling, now outputting records...");
+        outputResults();
+        fusedWatch.stop();
+        log.info("Completed all data profiling of " + fusedCount.get() + " records in " + fusedWatch.toString());
+        fusedProfilers = null;
+    }
+
+    private void profileWith(List<? extends FieldProfiler> profilers, Record rec) {
+        for (FieldProfiler profiler : profilers) {
+            profiler.onValue(rec);
+        }
+        profileRecord.mark();
+    }
+
     private void outputResults() {
         new File(outputLocation).mkdirs();
         Context context = new Context(new Date(), this.moniker, outputLocation);
@@ -23,15 +23,19 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Lookup;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.util.ClassUtils;
 
 import com.github.steveash.guavate.Guavate;
 import com.github.steveash.synthrec.Constants;
+import com.github.steveash.synthrec.domain.BatchFeatureComputer;
 import com.github.steveash.synthrec.domain.CompositeFeatureComputer;
 import com.github.steveash.synthrec.domain.FeatureComputer;
 import com.github.steveash.synthrec.domain.FeatureComputer.FeatureKey;
@@ -74,8 +78,12 @@ public class FeatureService {
     @Autowired private DobParsedFeature dobParsedFeature;
     @Autowired private AgeYearsFeature ageYearsFeature;
 
+    // records per call to the features whose parsers support batches; 1 disables batching
+    @Value("${synthrec.enrich.parse-batch-size:64}") private int parseBatchSize;
+
     private volatile ImmutableList<FeatureComputer> orderedFeatures;
     private volatile ImmutableSet<FeatureKey<?>> allSatisfied;
+    private volatile boolean batching;
 
     @PostConstruct
     protected void setupFeatures() {
@@ -98,6 +106,11 @@ public class FeatureService {
         allSatisfied = features.stream()
                 .flatMap(f -> f.satisfies().stream())
                 .collect(Guavate.toImmutableSet());
+        batching = parseBatchSize > 1 && orderedFeatures.stream().anyMatch(FeatureService::isBatchFeature);
+    }
+
+    private static boolean isBatchFeature(FeatureComputer feature) {
+        return feature instanceof BatchFeatureComputer && ((BatchFeatureComputer) feature).supportsBatch();
     }
 
     @Lookup
@@ -140,6 +153,19 @@ public class FeatureService {
         return allSatisfied;
     }
 
+    /**
+     * @return the computers that run (in order) and the feature keys each one satisfies; this is what decides the
+     * features of an enriched record so it is part of the fingerprint of a spill of enriched records
+     */
+    public ImmutableList<String> describeFeatures() {
+        return orderedFeatures.stream()
+                .map(f -> ClassUtils.getUserClass(f).getName() + f.satisfies().stream()
+                        .map(FeatureKey::getKey)
+                        .sorted()
+                        .collect(Collectors.toList()))
+                .collect(Guavate.toImmutableList());
+    }
+
     public Record enrichRecord(Record rec) {
         for (FeatureComputer feature : orderedFeatures) {
             feature.emitFeatures(rec, rec);
@@ -147,6 +173,38 @@ public class FeatureService {
         return rec;
     }
 
+    /**
+     * Enriches a micro-batch of records the same as calling enrichRecord on each. The features whose parsers
+     * support batches are called with (up to parse batch size) records at a time and the rest once per record
+     * @param records
+     * @return the same records
+     */
+    public List<Record> enrichRecords(List<Record> records) {
+        for (FeatureComputer feature : orderedFeatures) {
+            if (batching && isBatchFeature(feature)) {
+                for (List<Record> batch : Lists.partition(records, parseBatchSize)) {
+                    ((BatchFeatureComputer) feature).emitFeaturesBatch(batch);
+                }
+            } else {
+                for (Record rec : records) {
+                    feature.emitFeatures(rec, rec);
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @return true if some feature parses in batches so callers should use enrichRecords with micro-batches
+     */
+    public boolean isBatching() {
+        return batching;
+    }
+
+    public int getParseBatchSize() {
+        return parseBatchSize;
+    }
+
     public CompositeFeatureComputer computersForAsComposite(Set<FeatureKey<?>> asks) {
         return new CompositeFeatureComputer(computersFor(asks));
     }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.generator.enrich;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.steveash.synthrec.generator.MemoConfig;
+import com.github.steveash.synthrec.generator.spring.LazyComponent;
+import com.github.steveash.synthrec.util.MemoCache;
+
+/**
+ * Hands out the memos that the normalizers and feature computers put in front of their expensive pure functions
+ * (when memoizing is enabled) and reports their hit rates at the end of each input pipeline run
+ * @author Steve Ash
+ */
+@LazyComponent
+public class MemoCaches {
+    private static final Logger log = LoggerFactory.getLogger(MemoCaches.class);
+
+    @Resource private MemoConfig memoConfig;
+
+    private final List<MemoCache<?, ?>> caches = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param name
+     * @param compute must be pure and return immutable values since they are shared across records
+     * @return a memoized version of compute or compute itself if memoizing is disabled
+     */
+    public <K, V> Function<K, V> memoize(String name, Function<K, V> compute) {
+        MemoCache<K, V> cache = newCache(name);
+        if (cache == null) {
+            return compute;
+        }
+        return cache.memoize(compute);
+    }
+
+    /**
+     * For callers that need more than a memoized function (i.e. batch lookups)
+     * @param name
+     * @return a new memo that is included in the stats or null if memoizing is disabled
+     */
+    @Nullable
+    public <K, V> MemoCache<K, V> newCache(String name) {
+        if (!memoConfig.isEnabled()) {
+            return null;
+        }
+        MemoCache<K, V> cache = new MemoCache<>(name, memoConfig.getMaxSize());
+        caches.add(cache);
+        return cache;
+    }
+
+    public void logStats() {
+        for (MemoCache<?, ?> cache : caches) {
+            log.info("Memo {}", cache);
+        }
+    }
+}
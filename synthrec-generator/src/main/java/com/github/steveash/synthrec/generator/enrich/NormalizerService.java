@@ -40,6 +40,7 @@ import java.util.function.Function;
 
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.util.ClassUtils;
 
 import com.github.steveash.synthrec.Constants;
 import com.github.steveash.synthrec.canonical.Normalizers;
@@ -50,9 +51,10 @@ import com.github.steveash.synthrec.name.Names;
 import com.github.steveash.synthrec.phone.PhoneParser;
 import com.github.steveash.synthrec.phone.PhoneParser.PhoneModel;
 import com.google.common.base.CharMatcher;
-import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableListMultimap.Builder;
+import com.google.common.collect.ImmutableMap;
 
 /**
  * Normalizers for input records
@@ -61,8 +63,14 @@ import com.google.common.collect.ImmutableListMultimap.Builder;
 @LazyComponent
 public class NormalizerService {
 
+    // change this whenever a normalizing function changes what it returns so records processed before are redone
+    private static final int NORMALIZATION_VERSION = 1;
+
     public static final Function<String,String> STD_FUNC = (s) -> interner().intern(rawToStandard().normalize(s));
     public static final Function<String,String> NAME_FUNC = Names::normalizeIntern; //(s) -> interner().intern(standardToName().normalize(s));
+    // record values are interned by the record itself (only for low cardinality fields) so don't intern them here
+    private static final Function<String,String> STD_FIELD_FUNC = (s) -> rawToStandard().normalize(s);
+    private static final Function<String,String> NAME_FIELD_FUNC = Names::normalize;
     public static final Function<String,String> PHONE_FUNC = (s) -> {
         PhoneModel model = new PhoneParser().parse(s);
         if (model != null) {
@@ -119,44 +127,74 @@ public class NormalizerService {
 
 
     private static ImmutableListMultimap<String,Function<String,String>> DEFAULT = ImmutableListMultimap.<String,Function<String,String>>builder()
-            .put(GIVEN_NAME, NAME_FUNC)
-            .put(MIDDLE_NAME, NAME_FUNC)
-            .put(FAMILY_NAME, NAME_FUNC)
-            .put(SUFFIX_NAME, STD_FUNC)
-            .put(ADDRESS, STD_FUNC)
-            .put(ADDRESS_CITY, STD_FUNC)
-            .put(ADDRESS_STATE, STD_FUNC)
+            .put(GIVEN_NAME, NAME_FIELD_FUNC)
+            .put(MIDDLE_NAME, NAME_FIELD_FUNC)
+            .put(FAMILY_NAME, NAME_FIELD_FUNC)
+            .put(SUFFIX_NAME, STD_FIELD_FUNC)
+            .put(ADDRESS, STD_FIELD_FUNC)
+            .put(ADDRESS_CITY, STD_FIELD_FUNC)
+            .put(ADDRESS_STATE, STD_FIELD_FUNC)
             .put(ADDRESS_ZIP, ZIP_FUNC)
             .put(SSN, SSN_FUNC)
             .put(SEX, SEX_FUNC)
-            .put(PHONE, STD_FUNC)
-            .put(RACE, STD_FUNC)
+            .put(PHONE, STD_FIELD_FUNC)
+            .put(RACE, STD_FIELD_FUNC)
             .build();
 
-    private final ImmutableListMultimap<String,Function<String,String>> normalizers;
+    // field -> all of its normalizers chained together (and memoized by raw value if enabled)
+    private final ImmutableMap<String,Function<String,String>> normalizers;
+    private final String dateParserName;
 
     @Autowired
-    public NormalizerService(DateParser dateParser) {
+    public NormalizerService(DateParser dateParser, MemoCaches memoCaches) {
         Builder<String,Function<String,String>> normalizers = ImmutableListMultimap.builder();
         normalizers.putAll(DEFAULT);
         normalizers.put(DOB, dateParser::normalizeToIsoOrEmpty);
-        this.normalizers = normalizers.build();
+        ImmutableListMultimap<String,Function<String,String>> byField = normalizers.build();
+        ImmutableMap.Builder<String,Function<String,String>> chains = ImmutableMap.builder();
+        for (String field : byField.keySet()) {
+            chains.put(field, memoCaches.memoize("normalize-" + field, chain(byField.get(field))));
+        }
+        this.normalizers = chains.build();
+        this.dateParserName = ClassUtils.getUserClass(dateParser).getName();
+    }
+
+    /**
+     * @return the version of the normalizing functions, the fields that are normalized, and the date parser; this
+     * decides the normal values of a record so it is part of the fingerprint of a spill of processed records
+     */
+    public ImmutableList<String> describeNormalizers() {
+        ImmutableList.Builder<String> builder = ImmutableList.builder();
+        builder.add("version=" + NORMALIZATION_VERSION);
+        normalizers.keySet().stream().sorted().forEach(builder::add);
+        builder.add("dates=" + dateParserName);
+        return builder.build();
+    }
+
+    private static Function<String,String> chain(ImmutableList<Function<String,String>> funcs) {
+        return (raw) -> {
+            String value = raw;
+            for (Function<String, String> func : funcs) {
+                value = func.apply(value);
+                if (value == null) {
+                    break;
+                }
+            }
+            return value;
+        };
     }
 
     public Record normalize(Record rec) {
         for (Entry<String, String> entry : rec.fields().entrySet()) {
             String key = entry.getKey();
             String value = entry.getValue();
-            rec.setNormal(key, interner().intern(value));
+            rec.setNormal(key, value);
             if (isBlank(value)) {
                 continue;
             }
-            for (Function<String, String> func : normalizers.get(key)) {
-                Preconditions.checkNotNull(func, "no normalizer registered for field ", key);
+            Function<String, String> func = normalizers.get(key);
+            if (func != null) {
                 value = func.apply(value);
-                if (value != null) {
-                    value = interner().intern(value);
-                }
             }
             rec.setNormal(key, value);
         }
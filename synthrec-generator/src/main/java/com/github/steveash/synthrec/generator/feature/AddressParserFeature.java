@@ -18,30 +18,42 @@
 
 package com.github.steveash.synthrec.generator.feature;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.github.steveash.synthrec.Constants;
 import com.github.steveash.synthrec.address.Address;
 import com.github.steveash.synthrec.address.RawAddressParser;
+import com.github.steveash.synthrec.domain.BatchFeatureComputer;
 import com.github.steveash.synthrec.domain.ReadableRecord;
+import com.github.steveash.synthrec.domain.Record;
 import com.github.steveash.synthrec.domain.SingleFeatureComputer;
 import com.github.steveash.synthrec.domain.WriteableRecord;
+import com.github.steveash.synthrec.generator.enrich.MemoCaches;
 import com.github.steveash.synthrec.generator.spring.LazyComponent;
+import com.github.steveash.synthrec.util.MemoCache;
 
 /**
  * @author Steve Ash
  */
 @LazyComponent
-public class AddressParserFeature extends SingleFeatureComputer {
+public class AddressParserFeature extends SingleFeatureComputer implements BatchFeatureComputer {
 
     public static final FeatureKey<Address> ADDRESS_PARSED_FEATURE = new FeatureKey<>(Constants.ADDRESS_PARSED, Address.class);
 
     private final RawAddressParser rawAddressParser;
+    // memoized by the normalized address when memoizing is enabled
+    @Nullable private final MemoCache<String, Address> memo;
 
     @Autowired
-    public AddressParserFeature(RawAddressParser rawAddressParser) {
+    public AddressParserFeature(RawAddressParser rawAddressParser, MemoCaches memoCaches) {
         super(ADDRESS_PARSED_FEATURE);
         this.rawAddressParser = rawAddressParser;
+        this.memo = memoCaches.newCache("addressParser");
     }
 
     @Override
@@ -50,7 +62,38 @@ public class AddressParserFeature extends SingleFeatureComputer {
         if (fullAddress == null) {
             return;
         }
-        Address address = rawAddressParser.parse(fullAddress);
+        Address address = (memo != null ? memo.get(fullAddress, rawAddressParser::parse) :
+                rawAddressParser.parse(fullAddress));
+        emitAddress(address, sink);
+    }
+
+    @Override
+    public void emitFeaturesBatch(List<Record> records) {
+        List<Record> addressed = new ArrayList<>(records.size());
+        List<String> fullAddresses = new ArrayList<>(records.size());
+        for (Record record : records) {
+            String fullAddress = record.getNormal(Constants.ADDRESS, null);
+            if (fullAddress != null) {
+                addressed.add(record);
+                fullAddresses.add(fullAddress);
+            }
+        }
+        if (fullAddresses.isEmpty()) {
+            return;
+        }
+        List<Address> addresses = (memo != null ? memo.getAll(fullAddresses, rawAddressParser::parseBatch) :
+                rawAddressParser.parseBatch(fullAddresses));
+        for (int i = 0; i < addressed.size(); i++) {
+            emitAddress(addresses.get(i), addressed.get(i));
+        }
+    }
+
+    @Override
+    public boolean supportsBatch() {
+        return rawAddressParser.supportsBatch();
+    }
+
+    private void emitAddress(Address address, WriteableRecord sink) {
         if (address.isEmpty()) {
             return;
         }
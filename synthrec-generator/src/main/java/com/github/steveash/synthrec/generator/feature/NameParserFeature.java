@@ -27,17 +27,23 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.github.steveash.synthrec.Constants;
+import com.github.steveash.synthrec.domain.BatchFeatureComputer;
 import com.github.steveash.synthrec.domain.ReadableRecord;
+import com.github.steveash.synthrec.domain.Record;
 import com.github.steveash.synthrec.domain.SingleFeatureComputer;
 import com.github.steveash.synthrec.domain.WriteableRecord;
+import com.github.steveash.synthrec.generator.enrich.MemoCaches;
 import com.github.steveash.synthrec.generator.spring.LazyComponent;
 import com.github.steveash.synthrec.name.InputField;
 import com.github.steveash.synthrec.name.NameEntryField;
 import com.github.steveash.synthrec.name.NameTagger;
 import com.github.steveash.synthrec.name.PersonalName;
+import com.github.steveash.synthrec.util.MemoCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 
@@ -46,16 +52,19 @@ import com.google.common.collect.Lists;
  * @author Steve Ash
  */
 @LazyComponent
-public class NameParserFeature extends SingleFeatureComputer {
+public class NameParserFeature extends SingleFeatureComputer implements BatchFeatureComputer {
 
     public static final FeatureKey<PersonalName> NAME_PARSED_FEATURE = new FeatureKey<>(Constants.NAME_PARSED, PersonalName.class);
 
     private final NameTagger nameTagger;
+    // the name segments repeat a lot so the parses are memoized by input when memoizing is enabled
+    @Nullable private final MemoCache<List<InputField>, PersonalName> memo;
 
     @Autowired
-    public NameParserFeature(NameTagger nameTagger) {
+    public NameParserFeature(NameTagger nameTagger, MemoCaches memoCaches) {
         super(NAME_PARSED_FEATURE);
         this.nameTagger = nameTagger;
+        this.memo = memoCaches.newCache("nameParser");
     }
 
     @Override
@@ -64,7 +73,37 @@ public class NameParserFeature extends SingleFeatureComputer {
         if (inputs.isEmpty()) {
             return;
         }
-        PersonalName parse = nameTagger.parse(inputs);
+        PersonalName parse = (memo != null ? memo.get(inputs, nameTagger::parse) : nameTagger.parse(inputs));
+        emitParse(parse, sink);
+    }
+
+    @Override
+    public void emitFeaturesBatch(List<Record> records) {
+        List<Record> named = new ArrayList<>(records.size());
+        List<List<InputField>> inputs = new ArrayList<>(records.size());
+        for (Record record : records) {
+            List<InputField> input = reconstructFullName(record);
+            if (!input.isEmpty()) {
+                named.add(record);
+                inputs.add(input);
+            }
+        }
+        if (inputs.isEmpty()) {
+            return;
+        }
+        List<PersonalName> parses = (memo != null ? memo.getAll(inputs, nameTagger::parseBatch) :
+                nameTagger.parseBatch(inputs));
+        for (int i = 0; i < named.size(); i++) {
+            emitParse(parses.get(i), named.get(i));
+        }
+    }
+
+    @Override
+    public boolean supportsBatch() {
+        return nameTagger.supportsBatch();
+    }
+
+    private void emitParse(PersonalName parse, WriteableRecord sink) {
         if (parse.getTokens().isEmpty()) {
             // couldnt parse so assume garbage and dont bother registering a feature value
             return;
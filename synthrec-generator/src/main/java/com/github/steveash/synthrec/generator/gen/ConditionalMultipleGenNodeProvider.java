@@ -25,6 +25,7 @@ import javax.annotation.Resource;
 import com.github.steveash.synthrec.Constants;
 import com.github.steveash.synthrec.count.CountDag;
 import com.github.steveash.synthrec.count.CountDag.FactorGroup;
+import com.github.steveash.synthrec.gen.CompiledSamplers;
 import com.github.steveash.synthrec.gen.ConditionalMultipleNode;
 import com.github.steveash.synthrec.gen.GenNode;
 import com.github.steveash.synthrec.gen.GenNodeProvider;
@@ -55,8 +56,7 @@ public class ConditionalMultipleGenNodeProvider implements GenNodeProvider {
     );
 
     @Override
-    public GenNode makeFor(String name, CountDag countDag
-    ) {
+    public GenNode makeFor(String name, CountDag countDag, CompiledSamplers samplers) {
         name = NAME_INPUT_TO_GROUP.getOrDefault(name, name);
 
         FactorGroup group = countDag.getFactorGroup(name);
@@ -71,7 +71,9 @@ public class ConditionalMultipleGenNodeProvider implements GenNodeProvider {
 
         return new ConditionalMultipleNode(group.getFactorNonParentsName(),
                 group.getFactorParentsNameAsSet(),
-                smoother.smoothSampler(group.makeConditionalCopy())
+                samplers.getOrBuild(group.getName(),
+                        () -> smoother.smoothSampler(group.makeConditionalCopy())
+                )
         );
     }
 
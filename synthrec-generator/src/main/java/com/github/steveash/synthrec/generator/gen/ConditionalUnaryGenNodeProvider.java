@@ -24,6 +24,7 @@ import javax.annotation.Resource;
 
 import com.github.steveash.synthrec.count.CountDag;
 import com.github.steveash.synthrec.count.CountDag.FactorGroup;
+import com.github.steveash.synthrec.gen.CompiledSamplers;
 import com.github.steveash.synthrec.gen.ConditionalUnaryNode;
 import com.github.steveash.synthrec.gen.GenNode;
 import com.github.steveash.synthrec.gen.GenNodeProvider;
@@ -43,7 +44,7 @@ public class ConditionalUnaryGenNodeProvider implements GenNodeProvider {
     @Resource private GenRecordsConfig genRecordsConfig;
 
     @Override
-    public GenNode makeFor(String name, CountDag countDag) {
+    public GenNode makeFor(String name, CountDag countDag, CompiledSamplers samplers) {
         FactorGroup group = countDag.getFactorGroup(name);
 
         BackoffSmoother<?> smoother = BackoffSmoother.startingWith(
@@ -57,7 +58,9 @@ public class ConditionalUnaryGenNodeProvider implements GenNodeProvider {
         Preconditions.checkState(group.getFactorParentsName().size() >= 1, "must be conditional");
         return new ConditionalUnaryNode(group.getFactorNonParentsName().get(0),
                 group.getFactorParentsNameAsSet(),
-                smoother.smoothSampler(group.makeConditionalCopy())
+                samplers.getOrBuild(group.getName(),
+                        () -> smoother.smoothSampler(group.makeConditionalCopy())
+                )
         );
     }
 
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.steveash.synthrec.generator.gen;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.github.steveash.synthrec.count.CountDag;
+import com.github.steveash.synthrec.count.CountDagCodec;
+import com.github.steveash.synthrec.stat.MappedTableFile;
+
+/**
+ * The compiled generation model: the (deidentified) count dag plus every sampler that could be built from it ahead
+ * of time (see CompiledSamplers); generating from this skips all of the smoothing and sampling table construction
+ * that generating from just the count dag does at startup
+ *
+ * The model is written as three files: a DAG_SUFFIX side file with the count dag in the CountDagCodec binary format;
+ * a TABLES_SUFFIX side file with all of the sampling tables (their weights and their pooled string values) that is
+ * memory mapped when the model is read (see MappedTableFile); and the model file itself which is just a small
+ * gzipped header: the format version and the java serialized samplers map, which only holds the wiring between the
+ * samplers and references into the tables file. The side files must be kept next to the model
+ * @author Steve Ash
+ */
+public class GenModel {
+
+    private static final int FORMAT_VERSION = 2;
+
+    public static final String DAG_SUFFIX = ".dag";
+    public static final String TABLES_SUFFIX = ".tables";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Writes the model and its count dag and mapped sampling tables side files
+     * @param model
+     * @param modelFile
+     */
+    public static void write(GenModel model, File modelFile) {
+        CountDagCodec.writeFile(model.getCountDag(), dagFileFor(modelFile));
+        try (MappedTableFile.Writer tables = MappedTableFile.writer(tablesFileFor(modelFile));
+             ObjectOutputStream oos = tables.objectOutput(new GZIPOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(modelFile), BUFFER_SIZE), BUFFER_SIZE))) {
+            oos.writeInt(FORMAT_VERSION);
+            oos.writeObject(model.samplers);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the model with its count dag from the side file and its sampling tables mapped from the other side file
+     * @param modelFile
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static GenModel read(File modelFile) {
+        File dagFile = dagFileFor(modelFile);
+        if (!dagFile.exists()) {
+            throw new IllegalArgumentException("The count dag of the model " + modelFile + " should be at " + dagFile +
+                    "; models compiled before the count dag was split out have to be compiled again");
+        }
+        HashMap<String, Object> samplers;
+        try {
+            MappedTableFile tables = MappedTableFile.open(tablesFileFor(modelFile));
+            GZIPInputStream input = new GZIPInputStream(
+                    new BufferedInputStream(new FileInputStream(modelFile), BUFFER_SIZE), BUFFER_SIZE);
+            try (ObjectInputStream ois = tables.objectInput(input)) {
+                int version = ois.readInt();
+                if (version != FORMAT_VERSION) {
+                    throw new IOException("unsupported model format version " + version + " can only read " +
+                            FORMAT_VERSION + "; compile the model again");
+                }
+                samplers = (HashMap<String, Object>) ois.readObject();
+            }
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new GenModel(CountDagCodec.load(dagFile.getPath()), samplers);
+    }
+
+    public static File dagFileFor(File modelFile) {
+        return new File(modelFile.getPath() + DAG_SUFFIX);
+    }
+
+    public static File tablesFileFor(File modelFile) {
+        return new File(modelFile.getPath() + TABLES_SUFFIX);
+    }
+
+    private final CountDag countDag;
+    private final HashMap<String, Object> samplers;
+
+    public GenModel(CountDag countDag, Map<String, Object> samplers) {
+        this.countDag = countDag;
+        this.samplers = new HashMap<>(samplers);
+    }
+
+    public CountDag getCountDag() {
+        return countDag;
+    }
+
+    public Map<String, Object> getSamplers() {
+        return samplers;
+    }
+}
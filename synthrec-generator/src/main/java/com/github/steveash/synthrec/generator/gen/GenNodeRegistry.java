@@ -29,6 +29,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.github.steveash.synthrec.count.CountDag;
+import com.github.steveash.synthrec.gen.CompiledSamplers;
 import com.github.steveash.synthrec.gen.GenNode;
 import com.github.steveash.synthrec.gen.GenNodeProvider;
 import com.github.steveash.synthrec.generator.GenRecordsConfig;
@@ -83,10 +84,10 @@ public class GenNodeRegistry {
         log.info("Loaded " + providersByName.size() + " providers for generators from the container");
     }
 
-    public GenNode makeNodeFor(String factorName, CountDag dag) {
+    public GenNode makeNodeFor(String factorName, CountDag dag, CompiledSamplers samplers) {
         GenNodeProvider provider = providersByName.get(factorName);
         if (provider != null) {
-            return provider.makeFor(factorName, dag);
+            return provider.makeFor(factorName, dag, samplers);
         }
         GenNode genNode = genNodesByOutputField.get(factorName);
         if (genNode == null) {
@@ -19,8 +19,14 @@
 package com.github.steveash.synthrec.generator.gen;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.annotation.Resource;
 
@@ -29,20 +35,28 @@ import org.slf4j.LoggerFactory;
 
 import com.github.steveash.synthrec.count.CountDag;
 import com.github.steveash.synthrec.count.CountDag.FactorGroup;
+import com.github.steveash.synthrec.gen.CompiledSamplers;
 import com.github.steveash.synthrec.gen.GenAssignment;
 import com.github.steveash.synthrec.gen.GenContext;
 import com.github.steveash.synthrec.gen.GenDag;
 import com.github.steveash.synthrec.gen.GenNode;
 import com.github.steveash.synthrec.gen.OutputField;
 import com.github.steveash.synthrec.gen.RecordWriter;
+import com.github.steveash.synthrec.gen.SlotGenAssignment;
 import com.github.steveash.synthrec.generator.GenRecordsConfig;
 import com.github.steveash.synthrec.generator.spring.LazyComponent;
+import com.github.steveash.synthrec.stat.RandUtil;
+import com.github.steveash.synthrec.stat.RecordRandom;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
 import com.google.common.io.CharSink;
 import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Orchestrates actually generating the records based on profiling information
@@ -56,27 +70,203 @@ public class GenRecordService {
     @Resource private GenNodeRegistry genNodeRegistry;
     @Resource private RecordWriterService recordWriterService;
 
+    /**
+     * Builds all of the gen nodes (doing all of the smoothing) once and returns the model that can be saved and
+     * passed to generate instead of the count dag
+     * @param countDag the deidentified count dag
+     * @return
+     */
+    public GenModel compile(CountDag countDag) {
+        countDag.freezeVocabs();
+        CompiledSamplers compiling = CompiledSamplers.forCompiling();
+        buildDag(recordWriterService.createFieldsForConfig(), countDag, compiling);
+        Map<String, Object> samplers = compiling.getSerializableBuilt();
+        log.info("Compiled samplers for " + samplers.keySet());
+        return new GenModel(countDag, samplers);
+    }
+
+    /**
+     * Generates from a compiled model; the same as generating from its count dag except that all of the compiled
+     * samplers are used instead of being rebuilt
+     * @see #generate(CountDag, CharSink, long, int)
+     */
+    public void generate(GenModel model, CharSink sink, long startIndex, int count) throws IOException {
+        generate(model.getCountDag(), CompiledSamplers.loadedFrom(model.getSamplers()), sink, startIndex, count);
+    }
+
     public void generate(CountDag countDag, CharSink sink) throws IOException {
-        int count = genRecordsConfig.getProduceCount();
-        GenContext context = new GenContext(count);
-        try (RecordWriter rws = recordWriterService.createWriterForConfig(sink)) {
-            GenDag genDag = buildDag(rws, countDag);
+        generate(countDag, sink, 0, genRecordsConfig.getProduceCount());
+    }
+
+    /**
+     * Generates the records [startIndex, startIndex + count) of the logical data set. Every record draws from its
+     * own random stream derived from (run seed, record index) so with a configured seed the output doesn't
+     * depend on the thread count and slices generated separately (i.e. on different machines) concatenate to
+     * exactly the same output as one big run; only the slice starting at zero writes the header
+     * @param countDag
+     * @param sink
+     * @param startIndex
+     * @param count
+     * @throws IOException
+     */
+    public void generate(CountDag countDag, CharSink sink, long startIndex, int count) throws IOException {
+        generate(countDag, CompiledSamplers.none(), sink, startIndex, count);
+    }
+
+    private void generate(CountDag countDag,
+            CompiledSamplers samplers,
+            CharSink sink,
+            long startIndex,
+            int count
+    ) throws IOException {
+        Preconditions.checkArgument(startIndex >= 0 && count >= 0, "invalid record range", startIndex, count);
+        Long configSeed = genRecordsConfig.getSeed();
+        long runSeed = configSeed != null ? configSeed : RandUtil.newRunSeed();
+        GenContext context = new GenContext(count, configSeed != null);
+        // generation only ever reads the vocabs
+        countDag.freezeVocabs();
+        try (RecordWriter rws = recordWriterService.createWriterForConfig(sink, startIndex == 0)) {
+            GenDag genDag = buildDag(rws.getFields(), countDag, samplers);
+            int threads = workerThreads();
+            log.info("Generating " + count + " synthetic records starting at " + startIndex + " on " + threads +
+                    " threads with run seed " + runSeed);
+            generateRecords(genDag, context, rws, startIndex, count, runSeed, threads,
+                    genRecordsConfig.getWorkerBatchSize()
+            );
+        }
+        log.info("Generated " + count + " records.");
+    }
+
+    /**
+     * Generates and writes the records [startIndex, startIndex + count) from the built gen dag; with more than one
+     * thread the records are generated in batches on a pool of workers but still written in record index order.
+     * Every gen node (and any sampler it builds lazily) has to be safe to use from many threads and can only draw
+     * from the record's random stream so that the output doesn't depend on the thread count
+     */
+    @VisibleForTesting
+    static void generateRecords(GenDag genDag,
+            GenContext context,
+            RecordWriter rws,
+            long startIndex,
+            int count,
+            long runSeed,
+            int threads,
+            int batchSize
+    ) {
+        if (threads <= 1) {
+            generateSerial(genDag, context, rws, startIndex, count, runSeed);
+        } else {
+            generateParallel(genDag, context, rws, startIndex, count, runSeed, threads, batchSize);
+        }
+    }
+
+    private static void generateSerial(GenDag genDag,
+            GenContext context,
+            RecordWriter rws,
+            long startIndex,
+            int count,
+            long runSeed
+    ) {
+        RateLimiter limiter = RateLimiter.create(0.5);
+        RecordRandom rand = new RecordRandom(runSeed);
+        // the workspace is reset for every record so each one has to be written before generating the next
+        SlotGenAssignment workspace = genDag.newAssignment();
+        for (int i = 0; i < count; i++) {
+            rand.resetTo(startIndex + i);
+            GenAssignment assignment = genDag.generate(context, rand, workspace);
+            rws.write(assignment);
+            if (i % 16 == 0) {
+                if (limiter.tryAcquire()) {
+                    log.info("Generated " + i + " synthetic records...");
+                }
+            }
+        }
+    }
+
+    // workers generate and render fixed size batches of records; this thread writes the batches in submission
+    // order so the output is in record index order no matter which worker finishes first
+    private static void generateParallel(GenDag genDag,
+            GenContext context,
+            RecordWriter rws,
+            long startIndex,
+            int count,
+            long runSeed,
+            int threads,
+            int workerBatchSize
+    ) {
+        int batchSize = Math.max(1, workerBatchSize);
+        // bound the batches in flight so a slow sink doesn't cause the whole output to buffer in memory
+        int maxInFlight = threads * 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("gen-worker-%d")
+                .setDaemon(true)
+                .build());
+        try {
+            ArrayDeque<Future<List<String>>> inFlight = new ArrayDeque<>(maxInFlight);
             RateLimiter limiter = RateLimiter.create(0.5);
-            log.info("Generating " + count + " synthetic ");
-            for (int i = 0; i < count; i++) {
-                GenAssignment assignment = genDag.generate(context);
-                rws.write(assignment);
-                if (i % 16 == 0) {
-                    if (limiter.tryAcquire()) {
-                        log.info("Generated " + i + " synthetic records...");
-                    }
+            int nextStart = 0;
+            int written = 0;
+            while (written < count) {
+                while (nextStart < count && inFlight.size() < maxInFlight) {
+                    long batchStart = startIndex + nextStart;
+                    int batchCount = Math.min(batchSize, count - nextStart);
+                    inFlight.addLast(executor.submit(() ->
+                            generateBatch(genDag, context, rws, batchStart, batchCount, runSeed)
+                    ));
+                    nextStart += batchCount;
+                }
+                List<String> lines = await(inFlight.removeFirst());
+                for (String line : lines) {
+                    rws.writeRendered(line);
+                }
+                written += lines.size();
+                if (limiter.tryAcquire()) {
+                    log.info("Generated " + written + " synthetic records...");
                 }
             }
+        } finally {
+            executor.shutdownNow();
         }
-        log.info("Generated " + count + " records.");
     }
 
-    private GenDag buildDag(RecordWriter rws, CountDag countDag) {
+    private static List<String> generateBatch(GenDag genDag,
+            GenContext context,
+            RecordWriter rws,
+            long batchStart,
+            int count,
+            long runSeed
+    ) {
+        RecordRandom rand = new RecordRandom(runSeed);
+        SlotGenAssignment workspace = genDag.newAssignment();
+        List<String> lines = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            rand.resetTo(batchStart + i);
+            lines.add(rws.render(genDag.generate(context, rand, workspace)));
+        }
+        return lines;
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for generated records", e);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException("Problem generating records", e.getCause());
+        }
+    }
+
+    private int workerThreads() {
+        int threads = genRecordsConfig.getWorkerThreads();
+        if (threads <= 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return threads;
+    }
+
+    private GenDag buildDag(List<OutputField> fields, CountDag countDag, CompiledSamplers samplers) {
         List<GenNode> nodes = Lists.newArrayList();
         log.info("Building generator graph...");
         Set<String> satisfied = Sets.newHashSet();
@@ -88,12 +278,12 @@ public class GenRecordService {
 //            requires.addAll(node.inputKeys());
 //            nodes.add(node);
 //        }
-        log.info("Adding {} output fields...", rws.getFields().size());
-        for (OutputField outputField : rws.getFields()) {
+        log.info("Adding {} output fields...", fields.size());
+        for (OutputField outputField : fields) {
             if (satisfied.contains(outputField.getGenAssignKey())) {
                 continue; // already being output from the count dag nodes
             }
-            GenNode node = genNodeRegistry.makeNodeFor(outputField.getGenAssignKey(), countDag);
+            GenNode node = genNodeRegistry.makeNodeFor(outputField.getGenAssignKey(), countDag, samplers);
             log.info(">> gen node for output field " + GenNode.nodeToString(node));
             satisfied.addAll(node.outputKeys());
             requires.addAll(node.inputKeys());
@@ -104,7 +294,7 @@ public class GenRecordService {
         SetView<String> missing = Sets.difference(requires, satisfied);
         while (!missing.isEmpty()) {
             String nextToGet = Iterables.getFirst(missing, null);
-            GenNode node = genNodeRegistry.makeNodeFor(nextToGet, countDag);
+            GenNode node = genNodeRegistry.makeNodeFor(nextToGet, countDag, samplers);
             log.info(">> gen node for latent field " + GenNode.nodeToString(node));
             satisfied.addAll(node.outputKeys());
             requires.addAll(node.inputKeys());
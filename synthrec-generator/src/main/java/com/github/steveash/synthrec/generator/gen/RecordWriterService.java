@@ -49,6 +49,22 @@ public class RecordWriterService {
     @Resource private GenRecordsConfig genRecordsConfig;
 
     public RecordWriter createWriterForConfig(CharSink sink) {
+        return createWriterForConfig(sink, true);
+    }
+
+    /**
+     * @param sink
+     * @param writeHeader false if this is a later slice of the output that will be appended to the first
+     * @return
+     */
+    public RecordWriter createWriterForConfig(CharSink sink, boolean writeHeader) {
+        return new RecordWriter(createFieldsForConfig(), DELIM, sink, writeHeader);
+    }
+
+    /**
+     * @return the output fields that the configured gold records have
+     */
+    public ImmutableList<OutputField> createFieldsForConfig() {
         List<String> golds = genRecordsConfig.getGoldFields();
         Preconditions.checkState(!golds.isEmpty(), "there are no gold fields to output");
 
@@ -59,7 +75,7 @@ public class RecordWriterService {
             ofb.setFormatter(DEFAULT_SINGLE);
             list.add(ofb.create());
         }
-        return new RecordWriter(list.build(), DELIM, sink);
+        return list.build();
     }
 
 //    public RecordWriter createWriterForGenFlow(GenDag flow, CharSink sink) {
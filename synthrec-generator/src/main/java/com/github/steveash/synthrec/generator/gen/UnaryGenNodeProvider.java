@@ -28,6 +28,7 @@ import java.util.Set;
 
 import com.github.steveash.synthrec.count.CountDag;
 import com.github.steveash.synthrec.count.CountDag.FactorGroup;
+import com.github.steveash.synthrec.gen.CompiledSamplers;
 import com.github.steveash.synthrec.gen.GenNode;
 import com.github.steveash.synthrec.gen.GenNodeProvider;
 import com.github.steveash.synthrec.gen.UnaryNode;
@@ -44,14 +45,13 @@ import com.google.common.collect.ImmutableSet;
 public class UnaryGenNodeProvider implements GenNodeProvider {
 
     @Override
-    public GenNode makeFor(String name, CountDag countDag
-    ) {
+    public GenNode makeFor(String name, CountDag countDag, CompiledSamplers samplers) {
         FactorGroup group = countDag.getFactorGroup(name);
         Preconditions.checkState(group.getFactorNonParentsName().size() == 1, "must be unary");
         Preconditions.checkState(group.getFactorParentsName().size() == 0, "must be unconditional");
-        return new UnaryNode(group.getName(),
-                SamplingTable.createFromMultinomial(group.makeUnconditionalUnaryCopy())
-        );
+        return new UnaryNode(group.getName(), samplers.getOrBuild(group.getName(),
+                () -> SamplingTable.createFromMultinomial(group.makeUnconditionalUnaryCopy())
+        ));
     }
 
     @Override
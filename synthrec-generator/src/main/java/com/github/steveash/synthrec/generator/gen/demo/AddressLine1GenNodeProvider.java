@@ -27,6 +27,7 @@ import com.github.steveash.synthrec.Constants;
 import com.github.steveash.synthrec.address.AddressStopWords;
 import com.github.steveash.synthrec.count.CountDag;
 import com.github.steveash.synthrec.count.FactorStats;
+import com.github.steveash.synthrec.gen.CompiledSamplers;
 import com.github.steveash.synthrec.gen.GenNode;
 import com.github.steveash.synthrec.gen.GenNodeProvider;
 import com.github.steveash.synthrec.generator.prior.AddressCounts;
@@ -48,11 +49,13 @@ public class AddressLine1GenNodeProvider implements GenNodeProvider {
     @Resource private AddressStopWords addressStopWords;
 
     @Override
-    public GenNode makeFor(String name, CountDag countDag) {
-        FactorStats stats = countDag.getFactorStats(Constants.ADDRESS_STREET_STRUCT);
-        Map<String, MutableMultinomial<Object>> map = stats.makeSubfieldUnaryCopy();
+    public GenNode makeFor(String name, CountDag countDag, CompiledSamplers samplers) {
         PatternExpander expander = new PatternExpander(3, AddressCounts.loadAllWords(addressStopWords));
-        Map<String, Sampler<?>> sampler = smoother.smooth(map);
+        Map<String, Sampler<?>> sampler = samplers.getOrBuild(name, () -> {
+            FactorStats stats = countDag.getFactorStats(Constants.ADDRESS_STREET_STRUCT);
+            Map<String, MutableMultinomial<Object>> map = stats.makeSubfieldUnaryCopy();
+            return smoother.smooth(map);
+        });
         return new FieldSketchGenNode(Constants.ADDRESS_STREET_STRUCT,
                 name,
                 sampler::get,
@@ -26,6 +26,7 @@ import javax.annotation.Resource;
 
 import com.github.steveash.synthrec.count.CountDag;
 import com.github.steveash.synthrec.count.CountDag.FactorGroup;
+import com.github.steveash.synthrec.gen.CompiledSamplers;
 import com.github.steveash.synthrec.gen.GenNode;
 import com.github.steveash.synthrec.gen.GenNodeProvider;
 import com.github.steveash.synthrec.gen.UnaryNode;
@@ -44,9 +45,11 @@ public class AddressStateGenNodeProvider implements GenNodeProvider {
     @Resource private ZipSmoother zipSmoother;
 
     @Override
-    public GenNode makeFor(String name, CountDag countDag) {
+    public GenNode makeFor(String name, CountDag countDag, CompiledSamplers samplers) {
         FactorGroup group = countDag.getFactorGroup(name);
-        return new UnaryNode(group.getName(), zipSmoother.smoothStates(group.makeUnconditionalUnaryCopy()));
+        return new UnaryNode(group.getName(), samplers.getOrBuild(group.getName(),
+                () -> zipSmoother.smoothStates(group.makeUnconditionalUnaryCopy())
+        ));
     }
 
     @Override
@@ -26,6 +26,7 @@ import javax.annotation.Resource;
 
 import com.github.steveash.synthrec.count.CountDag;
 import com.github.steveash.synthrec.count.CountDag.FactorGroup;
+import com.github.steveash.synthrec.gen.CompiledSamplers;
 import com.github.steveash.synthrec.gen.GenNode;
 import com.github.steveash.synthrec.gen.GenNodeProvider;
 import com.github.steveash.synthrec.gen.UnaryNode;
@@ -45,9 +46,11 @@ public class AgeYearsGenNodeProvider implements GenNodeProvider {
     @Resource private AgeSmoother ageSmoother;
 
     @Override
-    public GenNode makeFor(String name, CountDag countDag) {
+    public GenNode makeFor(String name, CountDag countDag, CompiledSamplers samplers) {
         FactorGroup group = countDag.getFactorGroup(name);
-        return new UnaryNode(group.getName(), ageSmoother.smoothEmpirical(group.makeUnconditionalUnaryCopy()));
+        return new UnaryNode(group.getName(), samplers.getOrBuild(group.getName(),
+                () -> ageSmoother.smoothEmpirical(group.makeUnconditionalUnaryCopy())
+        ));
     }
 
     @Override
@@ -25,6 +25,7 @@ import javax.annotation.Resource;
 import com.github.steveash.synthrec.Constants;
 import com.github.steveash.synthrec.count.CountDag;
 import com.github.steveash.synthrec.count.CountDag.FactorGroup;
+import com.github.steveash.synthrec.gen.CompiledSamplers;
 import com.github.steveash.synthrec.gen.ConditionalUnaryNode;
 import com.github.steveash.synthrec.gen.GenNode;
 import com.github.steveash.synthrec.gen.GenNodeProvider;
@@ -50,7 +51,7 @@ public abstract class BaseNameStructGenNodeProvider implements GenNodeProvider {
     }
 
     @Override
-    public GenNode makeFor(String name, CountDag countDag) {
+    public GenNode makeFor(String name, CountDag countDag, CompiledSamplers samplers) {
         FactorGroup group = countDag.getFactorGroup(name);
         Preconditions.checkState(group.getFactorNonParentsName().size() == 1, "must be unary");
         ImmutableSet<String> parents = ImmutableSet.of(cultureInputKey, Constants.SEX);
@@ -70,7 +71,9 @@ public abstract class BaseNameStructGenNodeProvider implements GenNodeProvider {
 
         return new ConditionalUnaryNode(group.getFactorNonParentsName().get(0),
                 group.getFactorParentsNameAsSet(),
-                smoother.smoothSampler(group.makeConditionalCopy())
+                samplers.getOrBuild(group.getName(),
+                        () -> smoother.smoothSampler(group.makeConditionalCopy())
+                )
         );
     }
 
@@ -25,6 +25,7 @@ import javax.annotation.Resource;
 import com.github.steveash.synthrec.Constants;
 import com.github.steveash.synthrec.count.CountDag;
 import com.github.steveash.synthrec.count.CountDag.FactorGroup;
+import com.github.steveash.synthrec.gen.CompiledSamplers;
 import com.github.steveash.synthrec.stat.BackoffSampler;
 import com.github.steveash.synthrec.gen.ConditionalUnaryNode;
 import com.github.steveash.synthrec.gen.GenNode;
@@ -43,12 +44,12 @@ public class CityBinGenNodeProvider implements GenNodeProvider {
     @Resource private ZipSmoother zipSmoother;
 
     @Override
-    public GenNode makeFor(String name, CountDag countDag) {
+    public GenNode makeFor(String name, CountDag countDag, CompiledSamplers samplers) {
         FactorGroup group = countDag.getFactorGroup(name);
-        BackoffSampler sampling = zipSmoother.smoothCity(
+        BackoffSampler sampling = samplers.getOrBuild(group.getName(), () -> zipSmoother.smoothCity(
                 group.makeConditionalCopy(),
                 group.getFactorParentsNameAsSet()
-        );
+        ));
         return new ConditionalUnaryNode(group.getName(),
                 group.getFactorParentsNameAsSet(),
                 sampling
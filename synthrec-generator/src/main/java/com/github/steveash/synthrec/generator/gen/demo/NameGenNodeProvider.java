@@ -30,6 +30,7 @@ import org.springframework.beans.factory.annotation.Lookup;
 
 import com.github.steveash.synthrec.Constants;
 import com.github.steveash.synthrec.count.CountDag;
+import com.github.steveash.synthrec.gen.CompiledSamplers;
 import com.github.steveash.synthrec.gen.GenNode;
 import com.github.steveash.synthrec.gen.GenNodeProvider;
 import com.github.steveash.synthrec.generator.GenRecordsConfig;
@@ -81,14 +82,28 @@ public class NameGenNodeProvider implements GenNodeProvider {
     }
 
     @Override
-    public GenNode makeFor(String name, CountDag countDag) {
+    public GenNode makeFor(String name, CountDag countDag, CompiledSamplers samplers) {
         log.info("NameGenNodeProvider called for " + name + " and creating name node...");
         PatternExpander expander = new PatternExpander(3, NameCounts.loadAllWords(nameStopWords, englishWords));
+        // a compiled model only has the name distributions that were built when it was compiled
+        boolean prewarm = genRecordsConfig.isPrewarmNameDistributions() || samplers.isCompiling();
         Map<NamePart, ISampler<String>> parts = Maps.newHashMap();
-        addSimpleParts(parts, countDag);
+        parts.putAll(samplers.getOrBuild(name + "-simple", () -> {
+            Map<NamePart, ISampler<String>> simple = Maps.newHashMap();
+            addSimpleParts(simple, countDag);
+            return simple;
+        }));
         addSpecialParts(parts);
-        makeGivenSmoother(countDag).emitGivenNameSamplers(parts);
-        makeFamilySmoother(countDag).emitGivenNameSamplers(parts);
+        parts.putAll(samplers.getOrBuild(name + "-given", () -> {
+            Map<NamePart, ISampler<String>> given = Maps.newHashMap();
+            makeGivenSmoother(countDag).emitGivenNameSamplers(given, prewarm);
+            return given;
+        }));
+        parts.putAll(samplers.getOrBuild(name + "-family", () -> {
+            Map<NamePart, ISampler<String>> family = Maps.newHashMap();
+            makeFamilySmoother(countDag).emitGivenNameSamplers(family, prewarm);
+            return family;
+        }));
         throwIfMissingSomeParts(parts);
         return new NameGenNode(parts, expander, r -> nonNameGenerator.phrase(r, 1).get(0));
     }
@@ -19,7 +19,6 @@
 package com.github.steveash.synthrec.generator.gen.demo;
 
 import java.time.LocalDate;
-import java.util.HashSet;
 import java.util.Set;
 
 import javax.annotation.Resource;
@@ -35,6 +34,7 @@ import com.github.steveash.synthrec.generator.demo.SsnGenerator;
 import com.github.steveash.synthrec.generator.demo.SsnGenerator.InvalidSsaState;
 import com.github.steveash.synthrec.generator.spring.LazyComponent;
 import com.github.steveash.synthrec.string.DigitReplacer;
+import com.google.common.collect.Sets;
 
 /**
  * GenNode that takes an SSN Pattern and generates a new SSN value for it
@@ -45,7 +45,9 @@ import com.github.steveash.synthrec.string.DigitReplacer;
 @LazyComponent
 public class SsnGenNode extends InOutGenNode {
 
-    private static final ContextKey<Set<String>> SSN_SEEN_KEY = new ContextKey<>(Constants.SSN + ".seen", HashSet::new);
+    private static final ContextKey<Set<String>> SSN_SEEN_KEY = new ContextKey<>(Constants.SSN + ".seen",
+            Sets::newConcurrentHashSet
+    );
     private static final int MAX_REJECT = 10;
 
     @Resource SsnGenerator ssnGenerator;
@@ -72,8 +74,9 @@ public class SsnGenNode extends InOutGenNode {
                     assignment.put(Constants.SSN, ssnVal);
                     return true;
                 }
-                // if its a nine digit ssn then we keep track of uniqueness
-                if (ssns.add(ssnVal)) {
+                // if its a nine digit ssn then we keep track of uniqueness; except in reproducible runs where
+                // the record can only depend on its own random stream
+                if (context.isReproducible() || ssns.add(ssnVal)) {
                     assignment.put(Constants.SSN, ssnVal);
                     return true;
                 }
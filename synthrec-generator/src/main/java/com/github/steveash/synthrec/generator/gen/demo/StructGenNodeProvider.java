@@ -26,6 +26,7 @@ import javax.annotation.Resource;
 
 import com.github.steveash.synthrec.count.CountDag;
 import com.github.steveash.synthrec.count.CountDag.FactorGroup;
+import com.github.steveash.synthrec.gen.CompiledSamplers;
 import com.github.steveash.synthrec.gen.ConditionalUnaryNode;
 import com.github.steveash.synthrec.gen.GenNode;
 import com.github.steveash.synthrec.gen.GenNodeProvider;
@@ -46,7 +47,7 @@ public class StructGenNodeProvider implements GenNodeProvider {
     @Resource private GenRecordsConfig genRecordsConfig;
 
     @Override
-    public GenNode makeFor(String name, CountDag countDag) {
+    public GenNode makeFor(String name, CountDag countDag, CompiledSamplers samplers) {
         FactorGroup group = countDag.getFactorGroup(name);
         Preconditions.checkState(group.getFactorNonParentsName().size() == 1, "must be unary");
         Preconditions.checkState(group.getFactorParentsName().size() >= 1, "must be conditional");
@@ -58,7 +59,9 @@ public class StructGenNodeProvider implements GenNodeProvider {
                 .build();
         return new ConditionalUnaryNode(group.getFactorNonParentsName().get(0),
                 group.getFactorParentsNameAsSet(),
-                smoother.smoothSampler(group.makeConditionalCopy())
+                samplers.getOrBuild(group.getName(),
+                        () -> smoother.smoothSampler(group.makeConditionalCopy())
+                )
         );
     }
 
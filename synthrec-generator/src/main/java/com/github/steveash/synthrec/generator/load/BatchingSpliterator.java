@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.generator.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Groups the elements of a source spliterator into micro-batches of up to batchSize elements; splits of the source
+ * are batched separately so parallel (and split-parallel) sources stay parallel
+ * @author Steve Ash
+ */
+class BatchingSpliterator<T> implements Spliterator<List<T>> {
+
+    private final Spliterator<T> source;
+    private final int batchSize;
+
+    BatchingSpliterator(Spliterator<T> source, int batchSize) {
+        this.source = source;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super List<T>> action) {
+        List<T> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize && source.tryAdvance(batch::add)) {
+            // keep filling
+        }
+        if (batch.isEmpty()) {
+            return false;
+        }
+        action.accept(batch);
+        return true;
+    }
+
+    @Override
+    public Spliterator<List<T>> trySplit() {
+        Spliterator<T> prefix = source.trySplit();
+        if (prefix == null) {
+            return null;
+        }
+        return new BatchingSpliterator<>(prefix, batchSize);
+    }
+
+    @Override
+    public long estimateSize() {
+        long size = source.estimateSize();
+        if (size == Long.MAX_VALUE) {
+            return size;
+        }
+        return (size + batchSize - 1) / batchSize;
+    }
+
+    @Override
+    public int characteristics() {
+        // the batch count isn't exact so not sized
+        return source.characteristics() & (ORDERED | NONNULL | IMMUTABLE);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.generator.load;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Wraps a source spliterator to tell whether the whole source was read (every split ran to its end) and how many
+ * elements were handed out; streams don't otherwise say whether they were short circuited or failed part way
+ * @author Steve Ash
+ */
+class CompletionTrackingSpliterator<T> implements Spliterator<T> {
+
+    private final Spliterator<T> delegate;
+    private final AtomicInteger openSplits;
+    private final AtomicLong emitted;
+    private boolean ended = false;
+
+    CompletionTrackingSpliterator(Spliterator<T> delegate) {
+        this(delegate, new AtomicInteger(1), new AtomicLong());
+    }
+
+    private CompletionTrackingSpliterator(Spliterator<T> delegate, AtomicInteger openSplits, AtomicLong emitted) {
+        this.delegate = delegate;
+        this.openSplits = openSplits;
+        this.emitted = emitted;
+    }
+
+    /**
+     * @return true if every split of the source was read to its end
+     */
+    boolean isComplete() {
+        return openSplits.get() == 0;
+    }
+
+    /**
+     * @return the number of elements handed out to the stream
+     */
+    long getEmitted() {
+        return emitted.get();
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        boolean advanced = delegate.tryAdvance(t -> {
+            emitted.incrementAndGet();
+            action.accept(t);
+        });
+        if (!advanced) {
+            end();
+        }
+        return advanced;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        delegate.forEachRemaining(t -> {
+            emitted.incrementAndGet();
+            action.accept(t);
+        });
+        end();
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        Spliterator<T> split = delegate.trySplit();
+        if (split == null) {
+            return null;
+        }
+        openSplits.incrementAndGet();
+        return new CompletionTrackingSpliterator<>(split, openSplits, emitted);
+    }
+
+    private void end() {
+        if (!ended) {
+            ended = true;
+            openSplits.decrementAndGet();
+        }
+    }
+
+    @Override
+    public long estimateSize() {
+        return delegate.estimateSize();
+    }
+
+    @Override
+    public long getExactSizeIfKnown() {
+        return delegate.getExactSizeIfKnown();
+    }
+
+    @Override
+    public int characteristics() {
+        return delegate.characteristics();
+    }
+
+    @Override
+    public Comparator<? super T> getComparator() {
+        return delegate.getComparator();
+    }
+}
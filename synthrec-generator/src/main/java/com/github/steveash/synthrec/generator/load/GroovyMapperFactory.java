@@ -33,8 +33,8 @@ import com.github.steveash.synthrec.dsl.DslFactory;
 import com.github.steveash.synthrec.generator.spring.LazyComponent;
 import com.github.steveash.synthrec.mapping.MappingAction;
 import com.github.steveash.synthrec.mapping.MappingSpec;
+import com.github.steveash.synthrec.string.DelimitedTokenizer;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.CharSource;
 
@@ -48,8 +48,10 @@ public class GroovyMapperFactory implements MapperFactory {
 
     @Override
     public BiFunction<String, Integer, Record> mapperFor(InputConfig config, String headerLine) {
-        Splitter splitter = Splitter.on(StringUtils.defaultIfBlank(config.getDelimiter(), DEFAULT_DELIM)).trimResults();
-        List<String> headers = splitter.splitToList(headerLine);
+        // delimiters like tab are blank so only fall back to the default when there isn't one at all
+        String delimiter = StringUtils.defaultIfEmpty(config.getDelimiter(), DEFAULT_DELIM);
+        DelimitedTokenizer tokenizer = new DelimitedTokenizer(delimiter);
+        List<String> headers = ImmutableList.copyOf(tokenizer.tokenize(headerLine));
         Map<String,Integer> headerToIndex = IntStream.range(0, headers.size())
                 .boxed()
                 .collect(Collectors.toMap(headers::get, i -> i));
@@ -59,7 +61,8 @@ public class GroovyMapperFactory implements MapperFactory {
         DslFactory.evaluate(mappingConfig, config.getMapping(), spec);
         ImmutableList<MappingAction> actions = ImmutableList.copyOf(spec.getActions());
         return (line, lineNo) -> {
-            List<String> fields = splitter.splitToList(line);
+            // only the columns that the actions ask for are turned into strings
+            List<String> fields = tokenizer.tokenize(line);
             Record record = new Record(lineNo);
             for (MappingAction action : actions) {
                 action.execute(headerToIndex, fields, record);
@@ -33,6 +33,10 @@ public class InputConfig {
     private String resource;
     private String delimiter;
     private String mapping;
+    // read a local input file as line aligned, memory mapped byte ranges that split across threads
+    private boolean splitParallel = false;
+    // if set then processed records are spilled here and later runs read them back; see RecordSpillFile
+    private String spillFile;
 
     public String getResource() {
         return resource;
@@ -57,4 +61,20 @@ public class InputConfig {
     public void setMapping(String mapping) {
         this.mapping = mapping;
     }
+
+    public boolean isSplitParallel() {
+        return splitParallel;
+    }
+
+    public void setSplitParallel(boolean splitParallel) {
+        this.splitParallel = splitParallel;
+    }
+
+    public String getSpillFile() {
+        return spillFile;
+    }
+
+    public void setSpillFile(String spillFile) {
+        this.spillFile = spillFile;
+    }
 }
@@ -21,11 +21,15 @@ package com.github.steveash.synthrec.generator.load;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.Spliterator;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -38,9 +42,13 @@ import com.google.common.io.CharSource;
 import com.google.common.io.Closeables;
 
 /**
+ * The input records; if the config says to split parallel and the resource is a local file then the spliterator
+ * reads line aligned ranges of the file in parallel (see LineRangeSpliterator) otherwise its all read by one
+ * reader
  * @author Steve Ash
  */
 public class InputFile implements Iterable<Record> {
+    private static final Logger log = LoggerFactory.getLogger(InputFile.class);
 
     private final MapperFactory factory;
     private final InputConfig config;
@@ -89,4 +97,21 @@ public class InputFile implements Iterable<Record> {
             throw new InvalidDataException("Problem with data input file " + config.getResource(), e);
         }
     }
+
+    @Override
+    public Spliterator<Record> spliterator() {
+        if (!config.isSplitParallel()) {
+            return Iterable.super.spliterator();
+        }
+        File file = ReadWrite.findLocalFile(config.getResource());
+        if (file == null) {
+            log.warn("Input " + config.getResource() + " isn't a local file so it can't be split; reading serially");
+            return Iterable.super.spliterator();
+        }
+        try {
+            return LineRangeSpliterator.open(file, headerLine -> factory.mapperFor(config, headerLine));
+        } catch (IOException e) {
+            throw new InvalidDataException("Problem with data input file " + config.getResource(), e);
+        }
+    }
 }
@@ -18,36 +18,215 @@
 
 package com.github.steveash.synthrec.generator.load;
 
+import static com.google.common.base.Strings.nullToEmpty;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Spliterator;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Lazy;
 
+import com.github.steveash.synthrec.canonical.ConfigurableInterner;
+import com.github.steveash.synthrec.canonical.ConfigurableInterner.Scope;
+import com.github.steveash.synthrec.canonical.Normalizers;
+import com.github.steveash.synthrec.data.ReadWrite;
 import com.github.steveash.synthrec.domain.Record;
+import com.github.steveash.synthrec.generator.InternConfig;
+import com.github.steveash.synthrec.generator.PipelineConfig;
 import com.github.steveash.synthrec.generator.enrich.FeatureService;
+import com.github.steveash.synthrec.generator.enrich.MemoCaches;
 import com.github.steveash.synthrec.generator.enrich.NormalizerService;
 import com.github.steveash.synthrec.generator.spring.LazyComponent;
 import com.google.common.collect.Streams;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 /**
+ * Builds the streams of records for a run over an input file. Each stream holds an intern scope open until it is
+ * closed so callers should close the stream when the run is finished (see ConfigurableInterner)
  * @author Steve Ash
  */
 @LazyComponent
 public class InputPipeline {
+    private static final Logger log = LoggerFactory.getLogger(InputPipeline.class);
 
     @Lazy @Resource private NormalizerService normalizerService;
     @Lazy @Resource private FeatureService featureService;
+    @Resource private InternConfig internConfig;
+    @Lazy @Resource private MemoCaches memoCaches;
+
+    @PostConstruct
+    protected void setup() {
+        ConfigurableInterner interner = Normalizers.interner();
+        interner.configure(internConfig.getStrategy(), internConfig.getMaxSize());
+        interner.configureFields(internConfig.getFieldMaxCardinality(), internConfig.getFieldSampleSize());
+        log.info("Interning record values with the {} strategy", internConfig.getStrategy());
+    }
 
     public Stream<Record> rawFrom(InputFile file) {
-        return Streams.stream(file);
+        return scoped(Streams.stream(file));
     }
 
     public Stream<Record> normalizedFrom(InputFile file) {
         return rawFrom(file).map(normalizerService::normalize);
     }
 
+    /**
+     * The normalized and enriched records of the input; if the input has a spill file configured then the records
+     * are streamed back from it if it exists or spilled into it as they are processed if it doesn't
+     * @param file
+     * @return
+     */
     public Stream<Record> processedFrom(InputFile file) {
-        return normalizedFrom(file).map(featureService::enrichRecord);
+        String spill = file.getConfig().getSpillFile();
+        if (isBlank(spill)) {
+            return processed(file.spliterator());
+        }
+        File spillFile = new File(spill);
+        RecordSpillFile.Source source = spillSourceOf(file.getConfig());
+        if (RecordSpillFile.isSpillOf(spillFile, source)) {
+            log.info("Reading processed records from spill file " + spillFile);
+            return scoped(RecordSpillFile.stream(spillFile));
+        }
+        log.info("Spilling processed records to " + spillFile + " as they are read");
+        return spilledFrom(file, spillFile, source);
+    }
+
+    /**
+     * The same records as processedFrom but as a staged pipeline with separate reader, normalize, and enrich
+     * stages that the caller adds its own stages to and then runs (see StagedPipeline). The intern scope is held
+     * until the pipeline finishes running
+     * @param file
+     * @param config
+     * @return
+     */
+    public StagedPipeline<Record> stagedProcessedFrom(InputFile file, PipelineConfig config) {
+        String spill = file.getConfig().getSpillFile();
+        if (isBlank(spill)) {
+            return stagedScoped(StagedPipeline.readFrom("input", file.spliterator(), config))
+                    .then("normalize", normalizerService::normalize)
+                    .thenBatch("enrich", featureService::enrichRecords);
+        }
+        File spillFile = new File(spill);
+        RecordSpillFile.Source source = spillSourceOf(file.getConfig());
+        if (RecordSpillFile.isSpillOf(spillFile, source)) {
+            log.info("Reading processed records from spill file " + spillFile);
+            Stream<Record> spilled = RecordSpillFile.stream(spillFile);
+            return stagedScoped(StagedPipeline.readFrom("spill", spilled.spliterator(), config))
+                    .onClose(spilled::close);
+        }
+        log.info("Spilling processed records to " + spillFile + " as they are read");
+        RecordSpillFile.Writer writer = RecordSpillFile.create(spillFile, source);
+        // the pipeline only succeeds if every record read made it through every stage
+        return stagedScoped(StagedPipeline.readFrom("input", file.spliterator(), config))
+                .then("normalize", normalizerService::normalize)
+                .thenBatch("enrich", batch -> {
+                    List<Record> enriched = featureService.enrichRecords(batch);
+                    enriched.forEach(writer::write);
+                    return enriched;
+                })
+                .onSuccess(() -> {
+                    try {
+                        writer.commit();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .onClose(writer::close);
+    }
+
+    // the spill is only committed if every record of the input made it into it
+    private Stream<Record> spilledFrom(InputFile file, File spillFile, RecordSpillFile.Source spillSource) {
+        CompletionTrackingSpliterator<Record> source = new CompletionTrackingSpliterator<>(file.spliterator());
+        RecordSpillFile.Writer writer = RecordSpillFile.create(spillFile, spillSource);
+        return processed(source)
+                .map(rec -> {writer.write(rec); return rec;})
+                .onClose(() -> {
+                    if (source.isComplete() && source.getEmitted() == writer.getWritten()) {
+                        try {
+                            writer.commit();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    } else {
+                        log.warn("Not all of the input was processed so the spill to " + spillFile + " is discarded");
+                        writer.close();
+                    }
+                });
+    }
+
+    // a local input is identified by its length and modification time; one that is only on the classpath can't
+    // change without the code changing but its contents are hashed into the fingerprint anyway. The fingerprint
+    // covers the delimiter, the mapping script, the normalizers, and the features that enrich the records
+    private RecordSpillFile.Source spillSourceOf(InputConfig config) {
+        String resource = config.getResource();
+        Hasher fingerprint = Hashing.murmur3_128().newHasher();
+        try {
+            long length = -1;
+            long lastModified = -1;
+            File input = ReadWrite.findLocalFile(resource);
+            if (input != null) {
+                length = input.length();
+                lastModified = input.lastModified();
+            } else {
+                fingerprint.putBytes(ReadWrite.findByteResource(resource).hash(Hashing.murmur3_128()).asBytes());
+            }
+            fingerprint.putString(nullToEmpty(config.getDelimiter()), UTF_8).putByte((byte) 0);
+            if (!isBlank(config.getMapping())) {
+                fingerprint.putBytes(ReadWrite.findByteResource(config.getMapping())
+                        .hash(Hashing.murmur3_128())
+                        .asBytes());
+            }
+            for (String normalizer : normalizerService.describeNormalizers()) {
+                fingerprint.putString(normalizer, UTF_8).putByte((byte) 0);
+            }
+            fingerprint.putByte((byte) 1);
+            for (String feature : featureService.describeFeatures()) {
+                fingerprint.putString(feature, UTF_8).putByte((byte) 0);
+            }
+            return new RecordSpillFile.Source(resource, length, lastModified, fingerprint.hash().toString());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // micro-batches the records through enrichment when some feature parses in batches
+    private Stream<Record> processed(Spliterator<Record> source) {
+        if (!featureService.isBatching()) {
+            return scoped(StreamSupport.stream(source, false))
+                    .map(normalizerService::normalize)
+                    .map(featureService::enrichRecord);
+        }
+        BatchingSpliterator<Record> batches = new BatchingSpliterator<>(source, featureService.getParseBatchSize());
+        return scoped(StreamSupport.stream(batches, false))
+                .flatMap(batch -> {
+                    batch.replaceAll(normalizerService::normalize);
+                    return featureService.enrichRecords(batch).stream();
+                });
+    }
+
+    private StagedPipeline<Record> stagedScoped(StagedPipeline<Record> pipeline) {
+        Scope scope = Normalizers.interner().openScope();
+        return pipeline
+                .onClose(scope::close)
+                .onClose(() -> memoCaches.logStats());
+    }
+
+    private <T> Stream<T> scoped(Stream<T> records) {
+        Scope scope = Normalizers.interner().openScope();
+        return records
+                .onClose(scope::close)
+                .onClose(() -> memoCaches.logStats());
     }
 }
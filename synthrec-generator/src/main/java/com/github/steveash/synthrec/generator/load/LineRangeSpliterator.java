@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.generator.load;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.steveash.synthrec.domain.Record;
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * Splits a local delimited file into byte ranges that start and end on line boundaries and memory maps each one so
+ * that a parallel stream reads, decodes, and maps the lines of each range on its own thread instead of feeding
+ * everything through one reader. The ranges split evenly (by halves of the range list) and a pre-pass counts the
+ * lines in each range (in parallel) so that every record still gets its line number as its record id and the
+ * estimated size is the number of remaining lines.
+ *
+ * The mappings are made up front so nothing needs to be closed when the stream is done; the pages are released
+ * when the spliterators are collected
+ * @author Steve Ash
+ */
+class LineRangeSpliterator implements Spliterator<Record> {
+    private static final Logger log = LoggerFactory.getLogger(LineRangeSpliterator.class);
+
+    private static final long MIN_RANGE_BYTES = 64 * 1024;
+    private static final long MAX_RANGE_BYTES = 64 * 1024 * 1024;
+    private static final int RANGES_PER_CORE = 8;
+
+    /**
+     * Opens the file, reads the header line, and maps the rest of it into line aligned ranges
+     * @param file
+     * @param mapperForHeader creates the line mapper given the header line
+     * @return
+     * @throws IOException
+     */
+    static LineRangeSpliterator open(File file,
+            Function<String, BiFunction<String, Integer, Record>> mapperForHeader
+    ) throws IOException {
+        return open(file, mapperForHeader, MIN_RANGE_BYTES);
+    }
+
+    // visible for testing so that small files still split into many ranges
+    static LineRangeSpliterator open(File file,
+            Function<String, BiFunction<String, Integer, Record>> mapperForHeader,
+            long minRangeBytes
+    ) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            long dataStart = nextLineStart(channel, 0, size);
+            String headerLine = decode(readBytes(channel, 0, dataStart));
+            long rangeBytes = Math.max(minRangeBytes, Math.min(MAX_RANGE_BYTES,
+                    size / (Runtime.getRuntime().availableProcessors() * RANGES_PER_CORE)
+            ));
+            LongArrayList starts = new LongArrayList();
+            long start = dataStart;
+            while (start < size) {
+                starts.add(start);
+                start = nextLineStart(channel, Math.min(size, start + rangeBytes), size);
+            }
+            starts.add(size);
+            MappedByteBuffer[] ranges = new MappedByteBuffer[starts.size() - 1];
+            for (int i = 0; i < ranges.length; i++) {
+                long rangeSize = starts.getLong(i + 1) - starts.getLong(i);
+                Preconditions.checkState(rangeSize <= Integer.MAX_VALUE, "line range is too big to map", rangeSize);
+                ranges[i] = channel.map(MapMode.READ_ONLY, starts.getLong(i), rangeSize);
+            }
+            int[] firstLineNo = countLines(ranges);
+            log.info("Split {} into {} line ranges of about {} bytes", file, ranges.length, rangeBytes);
+            return new LineRangeSpliterator(ranges, firstLineNo, mapperForHeader.apply(headerLine), 0, ranges.length);
+        }
+    }
+
+    private final MappedByteBuffer[] ranges;
+    // line number of the first line in each range; one extra entry at the end is one past the last line
+    private final int[] firstLineNo;
+    private final BiFunction<String, Integer, Record> mapper;
+    // ranges [from, to) belong to this spliterator
+    private int from;
+    private int to;
+    // the range at from that is being read (null until we start it) and the position/line in it
+    private ByteBuffer current = null;
+    private int lineNo;
+
+    private LineRangeSpliterator(MappedByteBuffer[] ranges,
+            int[] firstLineNo,
+            BiFunction<String, Integer, Record> mapper,
+            int from,
+            int to
+    ) {
+        this.ranges = ranges;
+        this.firstLineNo = firstLineNo;
+        this.mapper = mapper;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Record> action) {
+        while (from < to) {
+            if (current == null) {
+                current = ranges[from].duplicate();
+                lineNo = firstLineNo[from];
+            }
+            while (current.hasRemaining()) {
+                String line = nextLine(current);
+                int thisLineNo = lineNo;
+                lineNo += 1;
+                if (!isBlank(line)) {
+                    action.accept(mapper.apply(line, thisLineNo));
+                    return true;
+                }
+            }
+            current = null;
+            from += 1;
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<Record> trySplit() {
+        // the range we are in the middle of stays with us
+        int splitFrom = current == null ? from : from + 1;
+        if (to - splitFrom < 2) {
+            return null;
+        }
+        int mid = (splitFrom + to) >>> 1;
+        LineRangeSpliterator suffix = new LineRangeSpliterator(ranges, firstLineNo, mapper, mid, to);
+        this.to = mid;
+        return suffix;
+    }
+
+    @Override
+    public long estimateSize() {
+        if (from >= to) {
+            return 0;
+        }
+        return firstLineNo[to] - (current == null ? firstLineNo[from] : lineNo);
+    }
+
+    @Override
+    public int characteristics() {
+        // not SIZED since blank lines are skipped so the estimate is an upper bound
+        return NONNULL | IMMUTABLE;
+    }
+
+    private static String nextLine(ByteBuffer buffer) {
+        int start = buffer.position();
+        int end = start;
+        int limit = buffer.limit();
+        while (end < limit && buffer.get(end) != '\n') {
+            end += 1;
+        }
+        buffer.position(Math.min(limit, end + 1));
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end -= 1;
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return decode(bytes);
+    }
+
+    private static String decode(byte[] bytes) {
+        int length = bytes.length;
+        while (length > 0 && (bytes[length - 1] == '\n' || bytes[length - 1] == '\r')) {
+            length -= 1;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // the first line number of each range (data lines are numbered from 1) plus one past the end
+    private static int[] countLines(MappedByteBuffer[] ranges) {
+        int[] counts = IntStream.range(0, ranges.length).parallel().map(i -> {
+            ByteBuffer range = ranges[i];
+            int limit = range.limit();
+            int count = 0;
+            for (int j = 0; j < limit; j++) {
+                if (range.get(j) == '\n') {
+                    count += 1;
+                }
+            }
+            if (limit > 0 && range.get(limit - 1) != '\n') {
+                count += 1; // last line without a newline
+            }
+            return count;
+        }).toArray();
+        int[] firstLineNo = new int[ranges.length + 1];
+        firstLineNo[0] = 1;
+        for (int i = 0; i < ranges.length; i++) {
+            firstLineNo[i + 1] = Ints.checkedCast((long) firstLineNo[i] + counts[i]);
+        }
+        return firstLineNo;
+    }
+
+    // the position just after the next newline at or after position (or size if there isn't one)
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static byte[] readBytes(FileChannel channel, long position, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Ints.checkedCast(end - position));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,669 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.generator.load;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.steveash.synthrec.address.Address;
+import com.github.steveash.synthrec.address.AddressSegment;
+import com.github.steveash.synthrec.address.AddressTag;
+import com.github.steveash.synthrec.address.SimpleAddress;
+import com.github.steveash.synthrec.data.BinaryValues;
+import com.github.steveash.synthrec.domain.FeatureComputer.FeatureKey;
+import com.github.steveash.synthrec.domain.FieldSketch;
+import com.github.steveash.synthrec.domain.MultivalueString;
+import com.github.steveash.synthrec.domain.Record;
+import com.github.steveash.synthrec.name.NameEntryField;
+import com.github.steveash.synthrec.name.NamePart;
+import com.github.steveash.synthrec.name.NameToken;
+import com.github.steveash.synthrec.name.PersonalName;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Streams;
+import com.google.common.io.Files;
+
+import it.unimi.dsi.fastutil.objects.AbstractObject2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+/**
+ * A binary spill file of processed (normalized and feature enriched) records so that later runs over the same
+ * input can stream the records back instead of normalizing and computing the features all over again.
+ *
+ * The file is a header (magic, version, and the Source it was made from) and then each record: its id, the
+ * raw fields, the normal fields, and the feature values. Keys and other low cardinality strings (cultures, enum
+ * names, sketch placeholders) are written once and then referred to by index; lengths and counts are varints. The
+ * feature value types that the feature computers emit (parsed names, addresses, sketches, dates, etc.) have their
+ * own compact encodings; anything else must be serializable.
+ *
+ * The writer writes to a .partial file that is only moved into place by commit() so a spill file that exists is
+ * always complete. The Source records the input's length and modification time and a fingerprint of the mapping,
+ * normalization, and feature configuration so a spill is only reused while all of them are the same
+ * @author Steve Ash
+ */
+public class RecordSpillFile {
+    private static final Logger log = LoggerFactory.getLogger(RecordSpillFile.class);
+
+    private static final int MAGIC = 0x53525350; // SRSP
+    private static final int VERSION = 2;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final byte END = 0;
+    private static final byte RECORD = 1;
+
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_INT = 2;
+    private static final byte TAG_LOCAL_DATE = 3;
+    private static final byte TAG_ENUM = 4;
+    private static final byte TAG_MULTIVALUE = 5;
+    private static final byte TAG_SKETCH = 6;
+    private static final byte TAG_NAME = 7;
+    private static final byte TAG_ADDRESS = 8;
+    private static final byte TAG_OTHER = 9;
+
+    /**
+     * @param file
+     * @param source
+     * @return true if the file is a spill of the given input source
+     */
+    public static boolean isSpillOf(File file, Source source) {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            Source spilled = readHeader(in);
+            if (!spilled.resource.equals(source.resource)) {
+                log.warn("Spill file {} is of {} not {} so it will be replaced", file, spilled.resource, source.resource);
+                return false;
+            }
+            if (spilled.length != source.length || spilled.lastModified != source.lastModified) {
+                log.warn("Input {} changed since spill file {} was made so it will be replaced", source.resource, file);
+                return false;
+            }
+            if (!spilled.configFingerprint.equals(source.configFingerprint)) {
+                log.warn("Mapping or feature configuration changed since spill file {} was made so it will be replaced",
+                        file
+                );
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            log.warn("Spill file " + file + " can't be read so it will be replaced", e);
+            return false;
+        }
+    }
+
+    /**
+     * Starts writing a new spill of the input source; nothing replaces the file until the writer is committed
+     * @param file
+     * @param source
+     * @return
+     */
+    public static Writer create(File file, Source source) {
+        try {
+            return new Writer(file, source);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param file
+     * @return the (sequential) stream of records in the spill; close the stream to close the file
+     */
+    public static Stream<Record> stream(File file) {
+        Reader reader;
+        try {
+            reader = new Reader(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Streams.stream(reader).onClose(reader::close);
+    }
+
+    private static Source readHeader(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a record spill file");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported record spill version " + version);
+        }
+        return new Source(readString(in), in.readLong(), in.readLong(), readString(in));
+    }
+
+    /**
+     * What a spill was made from: the input resource, its length and modification time (-1 when the input isn't a
+     * local file) and a fingerprint of the configuration that maps, normalizes, and enriches its records
+     */
+    public static class Source {
+
+        private final String resource;
+        private final long length;
+        private final long lastModified;
+        private final String configFingerprint;
+
+        public Source(String resource, long length, long lastModified, String configFingerprint) {
+            this.resource = Preconditions.checkNotNull(resource, "resource");
+            this.length = length;
+            this.lastModified = lastModified;
+            this.configFingerprint = Preconditions.checkNotNull(configFingerprint, "configFingerprint");
+        }
+
+        public String getResource() {
+            return resource;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getConfigFingerprint() {
+            return configFingerprint;
+        }
+
+        @Override
+        public String toString() {
+            return "Source{" +
+                    "resource='" + resource + '\'' +
+                    ", length=" + length +
+                    ", lastModified=" + lastModified +
+                    ", configFingerprint='" + configFingerprint + '\'' +
+                    '}';
+        }
+    }
+
+    /**
+     * Appends records to the spill; writes are synchronized so the records of a parallel stream can be written as
+     * they go by (in whatever order they come)
+     */
+    public static class Writer implements Closeable {
+
+        private final File target;
+        private final File partial;
+        private final DataOutputStream out;
+        private final Object2IntOpenHashMap<String> symbols = new Object2IntOpenHashMap<>();
+        private final ObjectArrayList<Object> scratch = new ObjectArrayList<>();
+        private long written = 0;
+        private boolean open = true;
+
+        private Writer(File target, Source source) throws IOException {
+            this.target = target;
+            this.partial = new File(target.getPath() + ".partial");
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partial), BUFFER_SIZE));
+            symbols.defaultReturnValue(-1);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, source.resource);
+            out.writeLong(source.length);
+            out.writeLong(source.lastModified);
+            writeString(out, source.configFingerprint);
+        }
+
+        public synchronized void write(Record rec) {
+            try {
+                out.writeByte(RECORD);
+                writeVarInt(out, rec.getRecordId());
+                Map<String, String> fields = rec.fields();
+                writeVarInt(out, fields.size());
+                for (Map.Entry<String, String> entry : fields.entrySet()) {
+                    writeSymbol(entry.getKey());
+                    writeString(out, entry.getValue());
+                }
+                scratch.clear();
+                rec.forEachNormal((key, value) -> {scratch.add(key); scratch.add(value);});
+                writeVarInt(out, scratch.size() / 2);
+                for (int i = 0; i < scratch.size(); i += 2) {
+                    writeSymbol((String) scratch.get(i));
+                    writeString(out, (String) scratch.get(i + 1));
+                }
+                scratch.clear();
+                rec.forEachFeature((key, value) -> {scratch.add(key); scratch.add(value);});
+                writeVarInt(out, scratch.size() / 2);
+                for (int i = 0; i < scratch.size(); i += 2) {
+                    writeSymbol((String) scratch.get(i));
+                    writeValue(scratch.get(i + 1));
+                }
+                scratch.clear();
+                written += 1;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public synchronized long getWritten() {
+            return written;
+        }
+
+        /**
+         * Finishes the spill and moves it into place
+         * @throws IOException
+         */
+        public synchronized void commit() throws IOException {
+            if (!open) {
+                throw new IOException("spill writer is already closed");
+            }
+            open = false;
+            out.writeByte(END);
+            out.close();
+            Files.move(partial, target);
+            log.info("Spilled {} processed records to {}", written, target);
+        }
+
+        /**
+         * Abandons the spill if it wasn't committed
+         */
+        @Override
+        public synchronized void close() {
+            if (!open) {
+                return;
+            }
+            open = false;
+            try {
+                out.close();
+            } catch (IOException e) {
+                log.warn("Problem closing abandoned spill file " + partial, e);
+            }
+            if (!partial.delete()) {
+                log.warn("Couldn't delete abandoned spill file " + partial);
+            }
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value instanceof String) {
+                out.writeByte(TAG_STRING);
+                writeString(out, (String) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(TAG_INT);
+                out.writeInt((Integer) value);
+            } else if (value instanceof LocalDate) {
+                out.writeByte(TAG_LOCAL_DATE);
+                out.writeLong(((LocalDate) value).toEpochDay());
+            } else if (value instanceof Enum) {
+                out.writeByte(TAG_ENUM);
+                writeSymbol(((Enum<?>) value).getDeclaringClass().getName());
+                writeSymbol(((Enum<?>) value).name());
+            } else if (value instanceof MultivalueString) {
+                out.writeByte(TAG_MULTIVALUE);
+                List<String> values = ((MultivalueString) value).getValueBag();
+                writeVarInt(out, values.size());
+                for (String item : values) {
+                    writeString(out, item);
+                }
+            } else if (value instanceof FieldSketch) {
+                out.writeByte(TAG_SKETCH);
+                writeSketch((FieldSketch) value);
+            } else if (value instanceof PersonalName) {
+                out.writeByte(TAG_NAME);
+                writeName((PersonalName) value);
+            } else if (value instanceof Address) {
+                out.writeByte(TAG_ADDRESS);
+                Address address = (Address) value;
+                writeVarInt(out, address.size());
+                for (AddressSegment segment : address) {
+                    writeString(out, segment.word);
+                    writeSymbol(segment.semanticTag != null ? segment.semanticTag.name() : null);
+                }
+            } else {
+                out.writeByte(TAG_OTHER);
+                BinaryValues.writeValue(out, value);
+            }
+        }
+
+        private void writeSketch(FieldSketch sketch) throws IOException {
+            writeVarInt(out, sketch.size());
+            for (int i = 0; i < sketch.size(); i++) {
+                out.writeBoolean(sketch.isLiteralValue(i));
+                writeSymbol(sketch.getSketchField(i));
+                Object literal = sketch.getLiteralField(i);
+                out.writeBoolean(literal != null);
+                if (literal != null) {
+                    writeValue(literal);
+                }
+            }
+        }
+
+        private void writeName(PersonalName name) throws IOException {
+            writeNullableString(out, name.getInput());
+            out.writeDouble(name.getScore());
+            out.writeDouble(name.getRerankScore());
+            writeSymbol(name.getCulture());
+            writeSymbol(name.getGivenNameCulture());
+            writeSymbol(name.getFamilyNameCulture());
+            writeVarInt(out, name.size());
+            for (NameToken token : name.getTokens()) {
+                writeNullableString(out, token.getOriginal());
+                writeNullableString(out, token.getNormalWithPunc());
+                writeNullableString(out, token.getNormalNoPunc());
+                writeNullableString(out, token.getDictNormal());
+                Set<String> encodings = token.getPhoneticEncoded();
+                writeVarInt(out, encodings == null ? 0 : encodings.size() + 1);
+                if (encodings != null) {
+                    for (String encoding : encodings) {
+                        writeString(out, encoding);
+                    }
+                }
+                writeSymbol(token.getPart() != null ? token.getPart().name() : null);
+                writeSymbol(token.getEntryField() != null ? token.getEntryField().name() : null);
+                List<Object2DoubleMap.Entry<String>> cultures = token.getCultures();
+                writeVarInt(out, cultures == null ? 0 : cultures.size() + 1);
+                if (cultures != null) {
+                    for (Object2DoubleMap.Entry<String> culture : cultures) {
+                        writeSymbol(culture.getKey());
+                        out.writeDouble(culture.getDoubleValue());
+                    }
+                }
+            }
+        }
+
+        // 0 = null, 1 = a new symbol follows, n = the symbol with index n - 2
+        private void writeSymbol(@Nullable String symbol) throws IOException {
+            if (symbol == null) {
+                writeVarInt(out, 0);
+                return;
+            }
+            int index = symbols.getInt(symbol);
+            if (index >= 0) {
+                writeVarInt(out, index + 2);
+                return;
+            }
+            writeVarInt(out, 1);
+            writeString(out, symbol);
+            symbols.put(symbol, symbols.size());
+        }
+    }
+
+    private static class Reader extends AbstractIterator<Record> {
+
+        private final File file;
+        private final DataInputStream in;
+        private final List<String> symbols = Lists.newArrayList();
+        private final Map<String, FeatureKey<Object>> featureKeys = Maps.newHashMap();
+        private final Map<String, Class<?>> enumClasses = Maps.newHashMap();
+
+        private Reader(File file) throws IOException {
+            this.file = file;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            try {
+                readHeader(in);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        @Override
+        protected Record computeNext() {
+            try {
+                byte marker = in.readByte();
+                if (marker == END) {
+                    close();
+                    return endOfData();
+                }
+                if (marker != RECORD) {
+                    throw new IOException("corrupt spill file " + file + " unknown marker " + marker);
+                }
+                return readRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private Record readRecord() throws IOException {
+            Record rec = new Record(readVarInt(in));
+            int fieldCount = readVarInt(in);
+            for (int i = 0; i < fieldCount; i++) {
+                String key = readSymbol();
+                rec.setInitialValue(key, readString(in));
+            }
+            int normalCount = readVarInt(in);
+            for (int i = 0; i < normalCount; i++) {
+                String key = readSymbol();
+                rec.setNormal(key, readString(in));
+            }
+            int featureCount = readVarInt(in);
+            for (int i = 0; i < featureCount; i++) {
+                FeatureKey<Object> key = featureKeys.computeIfAbsent(readSymbol(), k -> new FeatureKey<>(k, Object.class));
+                rec.setFeature(key, readValue());
+            }
+            return rec;
+        }
+
+        private Object readValue() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case TAG_STRING:
+                    return readString(in);
+                case TAG_INT:
+                    return in.readInt();
+                case TAG_LOCAL_DATE:
+                    return LocalDate.ofEpochDay(in.readLong());
+                case TAG_ENUM:
+                    return readEnum(readSymbol(), readSymbol());
+                case TAG_MULTIVALUE:
+                    int count = readVarInt(in);
+                    List<String> values = Lists.newArrayListWithCapacity(count);
+                    for (int i = 0; i < count; i++) {
+                        values.add(readString(in));
+                    }
+                    return new MultivalueString(values);
+                case TAG_SKETCH:
+                    return readSketch();
+                case TAG_NAME:
+                    return readName();
+                case TAG_ADDRESS:
+                    int size = readVarInt(in);
+                    List<AddressSegment> segments = Lists.newArrayListWithCapacity(size);
+                    for (int i = 0; i < size; i++) {
+                        String word = readString(in);
+                        String tagName = readSymbol();
+                        segments.add(new AddressSegment(word, tagName != null ? AddressTag.valueOf(tagName) : null));
+                    }
+                    return new SimpleAddress(segments);
+                case TAG_OTHER:
+                    return BinaryValues.readValue(in);
+                default:
+                    throw new IOException("corrupt spill file " + file + " unknown value tag " + tag);
+            }
+        }
+
+        private Object readEnum(String className, String name) throws IOException {
+            Class<?> enumClass = enumClasses.get(className);
+            if (enumClass == null) {
+                try {
+                    enumClass = Class.forName(className);
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("unknown enum type in spill " + className, e);
+                }
+                enumClasses.put(className, enumClass);
+            }
+            return Enum.valueOf((Class) enumClass, name);
+        }
+
+        private FieldSketch readSketch() throws IOException {
+            int size = readVarInt(in);
+            FieldSketch.Builder builder = FieldSketch.builder();
+            for (int i = 0; i < size; i++) {
+                boolean isLiteral = in.readBoolean();
+                String sketchField = readSymbol();
+                Object literal = in.readBoolean() ? readValue() : null;
+                if (isLiteral) {
+                    builder.addLiteral(sketchField, literal);
+                } else {
+                    builder.addPlaceholder(sketchField, literal);
+                }
+            }
+            return builder.build();
+        }
+
+        private PersonalName readName() throws IOException {
+            String input = readNullableString(in);
+            double score = in.readDouble();
+            double rerankScore = in.readDouble();
+            String culture = readSymbol();
+            String givenCulture = readSymbol();
+            String familyCulture = readSymbol();
+            int tokenCount = readVarInt(in);
+            List<NameToken> tokens = Lists.newArrayListWithCapacity(tokenCount);
+            for (int i = 0; i < tokenCount; i++) {
+                String original = readNullableString(in);
+                String normalWithPunc = readNullableString(in);
+                String normalNoPunc = readNullableString(in);
+                String dictNormal = readNullableString(in);
+                Set<String> encodings = null;
+                int encodingCount = readVarInt(in);
+                if (encodingCount > 0) {
+                    ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+                    for (int j = 0; j < encodingCount - 1; j++) {
+                        builder.add(readString(in));
+                    }
+                    encodings = builder.build();
+                }
+                String part = readSymbol();
+                String entryField = readSymbol();
+                List<Object2DoubleMap.Entry<String>> cultures = null;
+                int cultureCount = readVarInt(in);
+                if (cultureCount > 0) {
+                    ImmutableList.Builder<Object2DoubleMap.Entry<String>> builder = ImmutableList.builder();
+                    for (int j = 0; j < cultureCount - 1; j++) {
+                        builder.add(new AbstractObject2DoubleMap.BasicEntry<>(readSymbol(), in.readDouble()));
+                    }
+                    cultures = builder.build();
+                }
+                NameToken token = NameToken.make(original, normalWithPunc, normalNoPunc, dictNormal, encodings,
+                        entryField != null ? NameEntryField.valueOf(entryField) : null
+                );
+                tokens.add(token.withPart(part != null ? NamePart.valueOf(part) : null).withCultures(cultures));
+            }
+            return PersonalName.make(input, tokens, score)
+                    .withCulture(culture, givenCulture, familyCulture)
+                    .withRerankScore(rerankScore);
+        }
+
+        private String readSymbol() throws IOException {
+            int code = readVarInt(in);
+            if (code == 0) {
+                return null;
+            }
+            if (code == 1) {
+                String symbol = readString(in);
+                symbols.add(symbol);
+                return symbol;
+            }
+            int index = code - 2;
+            if (index >= symbols.size()) {
+                throw new IOException("corrupt spill file " + file + " unknown symbol " + index);
+            }
+            return symbols.get(index);
+        }
+
+        private void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.warn("Problem closing spill file " + file, e);
+            }
+        }
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("corrupt varint");
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // length + 1 so that zero can mean null
+    private static void writeNullableString(DataOutput out, @Nullable String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    @Nullable
+    private static String readNullableString(DataInput in) throws IOException {
+        int length = readVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
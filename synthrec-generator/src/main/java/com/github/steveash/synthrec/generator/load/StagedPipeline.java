@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.generator.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.steveash.synthrec.generator.PipelineConfig;
+import com.github.steveash.synthrec.util.ProducerCountDownLatch;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Runs items through a fixed sequence of stages where the source is read by dedicated reader threads and each stage
+ * has its own pool of worker threads. Stages hand batches of items to the next stage through bounded queues so a
+ * slow stage blocks the stages in front of it (back pressure) instead of piling up records in memory. Every
+ * report interval the per stage throughput, busy time, and input queue depth are logged; the bottleneck is the
+ * stage with a full input queue and busy threads.
+ *
+ * Each batch that a reader produces flows through every stage as a unit (stages may drop items by returning
+ * null) so the ProducerCountDownLatch counts batches: readers produce them and the last stage consumes them. A
+ * failure in any thread fails the latch and the whole run.
+ *
+ * Multiple reader threads only help when the source can split itself (i.e. a split-parallel InputFile)
+ * @author Steve Ash
+ */
+public class StagedPipeline<T> {
+    private static final Logger log = LoggerFactory.getLogger(StagedPipeline.class);
+
+    private final String label;
+    private final Spliterator<?> source;
+    private final PipelineConfig config;
+    private final ImmutableList<StageDef> stages;
+    private final ImmutableList<Runnable> onSuccess;
+    private final ImmutableList<Runnable> onClose;
+
+    /**
+     * @param label the name of the pipeline in the progress reports and thread names
+     * @param source
+     * @param config
+     * @param <T>
+     * @return a pipeline that has no stages yet
+     */
+    public static <T> StagedPipeline<T> readFrom(String label, Spliterator<T> source, PipelineConfig config) {
+        return new StagedPipeline<>(label, source, config, ImmutableList.of(), ImmutableList.of(), ImmutableList.of());
+    }
+
+    private StagedPipeline(String label,
+            Spliterator<?> source,
+            PipelineConfig config,
+            ImmutableList<StageDef> stages,
+            ImmutableList<Runnable> onSuccess,
+            ImmutableList<Runnable> onClose
+    ) {
+        this.label = label;
+        this.source = source;
+        this.config = config;
+        this.stages = stages;
+        this.onSuccess = onSuccess;
+        this.onClose = onClose;
+    }
+
+    /**
+     * Adds a stage that maps each item; items that map to null are dropped. The stage gets the number of threads
+     * that the config has for the stage's name
+     * @param name
+     * @param fn
+     * @param <R>
+     * @return
+     */
+    public <R> StagedPipeline<R> then(String name, Function<? super T, ? extends R> fn) {
+        return thenBatch(name, batch -> {
+            List<R> results = new ArrayList<>(batch.size());
+            for (T item : batch) {
+                R result = fn.apply(item);
+                if (result != null) {
+                    results.add(result);
+                }
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Adds a stage that maps each whole batch of items at once (i.e. to amortize work across the batch); the
+     * batches are at most the configured batch size
+     * @param name
+     * @param fn is given a mutable batch and returns the mapped items
+     * @param <R>
+     * @return
+     */
+    public <R> StagedPipeline<R> thenBatch(String name, Function<List<T>, ? extends List<? extends R>> fn) {
+        @SuppressWarnings("unchecked")
+        Function<List<Object>, List<?>> stageFn = batch -> fn.apply((List<T>) batch);
+        StageDef def = new StageDef(name, config.threadsFor(name), stageFn);
+        ImmutableList<StageDef> newStages = ImmutableList.<StageDef>builder().addAll(stages).add(def).build();
+        return new StagedPipeline<>(label, source, config, newStages, onSuccess, onClose);
+    }
+
+    /**
+     * @param action run after every item made it through every stage
+     * @return
+     */
+    public StagedPipeline<T> onSuccess(Runnable action) {
+        ImmutableList<Runnable> actions = ImmutableList.<Runnable>builder().addAll(onSuccess).add(action).build();
+        return new StagedPipeline<>(label, source, config, stages, actions, onClose);
+    }
+
+    /**
+     * @param action run after the pipeline is finished whether it succeeded or not (after any onSuccess actions)
+     * @return
+     */
+    public StagedPipeline<T> onClose(Runnable action) {
+        ImmutableList<Runnable> actions = ImmutableList.<Runnable>builder().addAll(onClose).add(action).build();
+        return new StagedPipeline<>(label, source, config, stages, onSuccess, actions);
+    }
+
+    /**
+     * Adds the final stage which consumes the items and runs the whole pipeline blocking until it is finished
+     * @param name
+     * @param sink
+     * @return the number of items that were read from the source
+     */
+    public long runInto(String name, Consumer<? super T> sink) {
+        return then(name, item -> {sink.accept(item); return null;}).run();
+    }
+
+    private long run() {
+        Preconditions.checkState(!stages.isEmpty(), "the pipeline needs at least one stage");
+        Stopwatch watch = Stopwatch.createStarted();
+        Run run = new Run();
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(threadsFor("report"));
+        boolean succeeded = false;
+        try {
+            run.start();
+            reporter.scheduleAtFixedRate(() -> log.info(run.report(watch)),
+                    config.getReportSeconds(),
+                    config.getReportSeconds(),
+                    TimeUnit.SECONDS
+            );
+            run.await();
+            succeeded = true;
+            for (Runnable action : onSuccess) {
+                action.run();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted waiting for the pipeline " + label, e);
+        } finally {
+            reporter.shutdownNow();
+            run.stop();
+            if (!succeeded) {
+                log.warn("Pipeline {} failed after {}", label, watch);
+            }
+            for (Runnable action : onClose) {
+                action.run();
+            }
+        }
+        log.info("Pipeline {} finished in {}: {}", label, watch, run.report(watch));
+        return run.read.items.get();
+    }
+
+    private ThreadFactory threadsFor(String stage) {
+        return new ThreadFactoryBuilder().setNameFormat(label + "-" + stage + "-%d").setDaemon(true).build();
+    }
+
+    private static class StageDef {
+        private final String name;
+        private final int threads;
+        private final Function<List<Object>, List<?>> fn;
+
+        private StageDef(String name, int threads, Function<List<Object>, List<?>> fn) {
+            Preconditions.checkArgument(threads > 0, "stage %s needs at least one thread", name);
+            this.name = name;
+            this.threads = threads;
+            this.fn = fn;
+        }
+    }
+
+    private static class StageStats {
+        private final String name;
+        private final int threads;
+        private final BlockingQueue<List<Object>> input; // null for the readers
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+
+        private StageStats(String name, int threads, BlockingQueue<List<Object>> input) {
+            this.name = name;
+            this.threads = threads;
+            this.input = input;
+        }
+
+        private void record(int count, long nanos) {
+            items.addAndGet(count);
+            busyNanos.addAndGet(nanos);
+        }
+
+        private String report(long elapsedNanos) {
+            long count = items.get();
+            double perSec = count / Math.max(elapsedNanos / 1e9, 0.001);
+            double busy = busyNanos.get() * 100.0 / Math.max((double) elapsedNanos * threads, 1.0);
+            String result = String.format("%s %d (%.0f/s, %d threads %.0f%% busy", name, count, perSec, threads, busy);
+            if (input != null) {
+                result += String.format(", queue %d/%d", input.size(), input.size() + input.remainingCapacity());
+            }
+            return result + ")";
+        }
+    }
+
+    // the state of one execution of the pipeline
+    private class Run {
+        private final ProducerCountDownLatch latch = new ProducerCountDownLatch();
+        private final List<ExecutorService> pools = Lists.newArrayList();
+        private final List<Spliterator<?>> splits;
+        private final StageStats read;
+        private final List<StageStats> stats = Lists.newArrayList();
+        private final List<BlockingQueue<List<Object>>> queues = Lists.newArrayList();
+        // a batch that failed never reaches the end so the latch can't tell us; we stop on the first failure
+        private volatile Throwable failure = null;
+
+        private Run() {
+            for (StageDef ignored : stages) {
+                queues.add(new ArrayBlockingQueue<>(config.getQueueCapacity()));
+            }
+            for (int i = 0; i < stages.size(); i++) {
+                stats.add(new StageStats(stages.get(i).name, stages.get(i).threads, queues.get(i)));
+            }
+            this.splits = split(source, config.getReaderThreads());
+            this.read = new StageStats("read", splits.size(), null);
+        }
+
+        private void start() {
+            AtomicInteger readersLeft = new AtomicInteger(splits.size());
+            ExecutorService readers = Executors.newFixedThreadPool(splits.size(), threadsFor("read"));
+            pools.add(readers);
+            for (Spliterator<?> split : splits) {
+                readers.execute(() -> runReader(split, readersLeft));
+            }
+            for (int i = 0; i < stages.size(); i++) {
+                StageDef def = stages.get(i);
+                ExecutorService pool = Executors.newFixedThreadPool(def.threads, threadsFor(def.name));
+                pools.add(pool);
+                BlockingQueue<List<Object>> output = (i + 1 < stages.size() ? queues.get(i + 1) : null);
+                for (int j = 0; j < def.threads; j++) {
+                    StageStats stageStats = stats.get(i);
+                    BlockingQueue<List<Object>> input = queues.get(i);
+                    pool.execute(() -> runWorker(def, stageStats, input, output));
+                }
+            }
+        }
+
+        private void await() throws InterruptedException {
+            while (!latch.await(100, TimeUnit.MILLISECONDS)) {
+                if (failure != null) {
+                    throw new UncheckedExecutionException(failure);
+                }
+            }
+        }
+
+        private void fail(Throwable t) {
+            if (failure == null) {
+                failure = t;
+            }
+            latch.failure(t);
+        }
+
+        private void stop() {
+            // workers block on their queues forever so interrupting them is how they exit
+            for (ExecutorService pool : pools) {
+                pool.shutdownNow();
+            }
+        }
+
+        private void runReader(Spliterator<?> split, AtomicInteger readersLeft) {
+            try {
+                List<Object> batch = new ArrayList<>(config.getBatchSize());
+                long start = System.nanoTime();
+                while (split.tryAdvance(batch::add)) {
+                    if (batch.size() >= config.getBatchSize()) {
+                        read.record(batch.size(), System.nanoTime() - start);
+                        emit(batch);
+                        batch = new ArrayList<>(config.getBatchSize());
+                        start = System.nanoTime();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    read.record(batch.size(), System.nanoTime() - start);
+                    emit(batch);
+                }
+            } catch (InterruptedException e) {
+                // stopping
+            } catch (Throwable t) {
+                fail(t);
+            } finally {
+                if (readersLeft.decrementAndGet() == 0) {
+                    latch.producerComplete();
+                }
+            }
+        }
+
+        private void emit(List<Object> batch) throws InterruptedException {
+            latch.produceOne();
+            queues.get(0).put(batch);
+        }
+
+        private void runWorker(StageDef def,
+                StageStats stageStats,
+                BlockingQueue<List<Object>> input,
+                BlockingQueue<List<Object>> output
+        ) {
+            try {
+                while (true) {
+                    List<Object> batch = input.take();
+                    long start = System.nanoTime();
+                    List<Object> results = new ArrayList<>(def.fn.apply(batch));
+                    stageStats.record(batch.size(), System.nanoTime() - start);
+                    if (output != null) {
+                        // empty batches still go downstream so that the last stage can count them off the latch
+                        output.put(results);
+                    } else {
+                        latch.consumeOne();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stopping
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
+
+        private String report(Stopwatch watch) {
+            long elapsed = watch.elapsed(TimeUnit.NANOSECONDS);
+            return read.report(elapsed) + " | " + stats.stream()
+                    .map(s -> s.report(elapsed))
+                    .collect(Collectors.joining(" | "));
+        }
+    }
+
+    // splits the source up to the desired count of pieces; unsplittable sources are read by a single thread
+    private static List<Spliterator<?>> split(Spliterator<?> source, int desired) {
+        List<Spliterator<?>> splits = Lists.newArrayList(source);
+        boolean splitAny = true;
+        while (splits.size() < desired && splitAny) {
+            splitAny = false;
+            for (Spliterator<?> split : ImmutableList.copyOf(splits)) {
+                if (splits.size() >= desired) {
+                    break;
+                }
+                Spliterator<?> prefix = split.trySplit();
+                if (prefix != null) {
+                    splits.add(prefix);
+                    splitAny = true;
+                }
+            }
+        }
+        return splits;
+    }
+}
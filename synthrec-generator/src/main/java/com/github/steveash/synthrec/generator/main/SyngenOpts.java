@@ -25,6 +25,7 @@ import java.util.List;
 
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.spi.StringArrayOptionHandler;
 
 /**
  * Command line options for running syngen
@@ -35,12 +36,25 @@ public class SyngenOpts {
     @Option(name = "--mapSample")
     public boolean runMappingTest = false;
 
-    @Option(name = "--qualityStats", usage = "Generates the quality stats output for the activated profile")
+    @Option(name = "--qualityStats", usage = "Generates the quality stats output for the activated profile; with " +
+            "--profile both are computed in one pass over the input")
     public boolean runDqStats = false;
 
     @Option(name ="--profile", usage = "Runs the count profiling")
     public boolean runProfile = false;
 
+    @Option(name = "--appendTo", usage = "The path to an existing (not deidentified) count dag to fold the " +
+            "profile of the input into instead of profiling from scratch; the result is written to --countDag")
+    public String appendToCountDagFile;
+
+    @Option(name = "--profilePartition", usage = "The input is only one partition of the data; skips the factor " +
+            "reduction so that the resulting count dag can be merged with the others via --mergeCountDags")
+    public boolean profilePartition = false;
+
+    @Option(name = "--mergeCountDags", handler = StringArrayOptionHandler.class, usage = "Merges the count dags " +
+            "profiled from partitions of the input into the count dag at --countDag")
+    public String[] mergeCountDagFiles;
+
     @Option(name = "--profileReport", usage ="The file name of the output profiling report to create")
     public String profileReport;
 
@@ -50,9 +64,28 @@ public class SyngenOpts {
     @Option(name = "--deidentReport", usage = "The base file name of the output deident reports")
     public String deidentReport;
 
+    @Option(name = "--compileModel", usage = "Builds all of the generation samplers from the (deidentified) count " +
+            "dag once and writes them with the count dag to --genModel so that genRecords can start from that")
+    public boolean runCompileModel = false;
+
+    @Option(name = "--genModel", usage = "The path to the compiled generation model; written by compileModel and " +
+            "if given then genRecords reads it instead of the count dag")
+    public String genModelFile;
+
     @Option(name ="--genRecords", usage = "Runs gold record generation from profile/deident output")
     public boolean runGenRecords = false;
 
+    @Option(name = "--seed", usage = "The run seed for generating records; with the same seed and count dag the " +
+            "same records are generated regardless of the number of threads (overrides synthrec.gen.records.seed)")
+    public Long seed;
+
+    @Option(name = "--startIndex", usage = "The index of the first record to generate; use with --count and " +
+            "--seed to generate disjoint slices of the same records on different machines")
+    public long startIndex = 0;
+
+    @Option(name = "--count", usage = "The number of records to generate (defaults to synthrec.gen.records.produce-count)")
+    public Integer count;
+
     @Option(name ="--goldRecords", usage = "The location to write generated gold records or to read in pair generation")
     public String goldRecordsFile;
 
@@ -27,11 +27,14 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.annotation.Resource;
 
@@ -46,10 +49,12 @@ import org.springframework.context.annotation.Lazy;
 import org.springframework.context.annotation.Profile;
 
 import com.github.steveash.synthrec.count.CountDag;
-import com.github.steveash.synthrec.data.ReadWrite;
+import com.github.steveash.synthrec.count.CountDagCodec;
 import com.github.steveash.synthrec.deident.DeidentRecordService;
 import com.github.steveash.synthrec.domain.Record;
+import com.github.steveash.synthrec.generator.GenRecordsConfig;
 import com.github.steveash.synthrec.generator.dq.DataQualityService;
+import com.github.steveash.synthrec.generator.gen.GenModel;
 import com.github.steveash.synthrec.generator.gen.GenRecordService;
 import com.github.steveash.synthrec.generator.load.InputFile;
 import com.github.steveash.synthrec.generator.load.InputFileFactory;
@@ -58,6 +63,7 @@ import com.github.steveash.synthrec.generator.profiling.count.RecordProfilingSer
 import com.github.steveash.synthrec.generator.spring.LazyComponent;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.Ordering;
 import com.google.common.io.CharSink;
@@ -79,12 +85,14 @@ public class SyngenRunner implements CommandLineRunner {
     @Lazy @Resource private DeidentRecordService deidentRecordService;
     @Lazy @Resource private GenRecordService genRecordService;
     @Lazy @Resource private DataQualityService dataQualityService;
+    @Lazy @Resource private GenRecordsConfig genRecordsConfig;
 
     @Value("${synthrec.output-folder}") private String outputLocation;
     @Value("${synthrec.input.moniker}") private String moniker;
 
     private SyngenOpts opts;
     private CountDag countDag;
+    private GenModel genModel;
 
     @Override
     public void run(String... args) throws Exception {
@@ -115,7 +123,9 @@ public class SyngenRunner implements CommandLineRunner {
             writeSampleRecords();
         }
 
-        if (opts.runDqStats) {
+        // when both are asked for the data quality profilers ride along on the count profiling pass
+        boolean fuseDqStats = opts.runDqStats && opts.runProfile;
+        if (opts.runDqStats && !fuseDqStats) {
             log.info("Run data quality profiling analysis");
             InputFile records = inputFileFactory.makeDefault();
             newDataQualityService().execute(records);
@@ -125,8 +135,32 @@ public class SyngenRunner implements CommandLineRunner {
             log.info("Profiling records ...");
             InputFile records = inputFileFactory.makeDefault();
             log.info("Reading from input file " + records.getConfig().getResource());
+            DataQualityService dqService = null;
+            Consumer<Record> visitor = rec -> {};
+            if (fuseDqStats) {
+                log.info("Running data quality profiling analysis in the same pass");
+                dqService = newDataQualityService();
+                dqService.startFused();
+                visitor = dqService::profile;
+            }
+
+            if (isNotBlank(opts.appendToCountDagFile)) {
+                log.info("Appending to existing countdag " + opts.appendToCountDagFile);
+                CountDag existing = CountDagCodec.load(opts.appendToCountDagFile);
+                countDag = recordProfilingService.executeAppend(existing, records, !opts.profilePartition, visitor);
+            } else {
+                countDag = recordProfilingService.execute(records, !opts.profilePartition, visitor);
+            }
+            if (dqService != null) {
+                dqService.finishFused();
+            }
+            writeProfileReport(countDag);
+            writeCountDag(countDag);
+        }
 
-            countDag = recordProfilingService.execute(records);
+        if (opts.mergeCountDagFiles != null && opts.mergeCountDagFiles.length > 0) {
+            log.info("Merging count dag partitions ...");
+            countDag = recordProfilingService.mergePartitions(Arrays.asList(opts.mergeCountDagFiles));
             writeProfileReport(countDag);
             writeCountDag(countDag);
         }
@@ -138,12 +172,30 @@ public class SyngenRunner implements CommandLineRunner {
             writeCountDag(countDag);
         }
 
+        if (opts.runCompileModel) {
+            log.info("Compiling generation model...");
+            Preconditions.checkArgument(isNotBlank(opts.genModelFile), "must pass --genModel to compile to");
+            loadCountDag();
+            genModel = genRecordService.compile(countDag);
+            log.info("Writing generation model out to " + opts.genModelFile + " ...");
+            GenModel.write(genModel, new File(opts.genModelFile));
+        }
+
         if (opts.runGenRecords) {
             log.info("Generating gold records...");
-            loadCountDag();
             log.info("Writing gold records to: " + opts.goldRecordsFile);
             CharSink charSink = Files.asCharSink(outputFile(opts.goldRecordsFile), Charsets.UTF_8);
-            genRecordService.generate(countDag, charSink);
+            if (opts.seed != null) {
+                genRecordsConfig.setSeed(opts.seed);
+            }
+            int count = opts.count != null ? opts.count : genRecordsConfig.getProduceCount();
+            if (isNotBlank(opts.genModelFile)) {
+                loadGenModel();
+                genRecordService.generate(genModel, charSink, opts.startIndex, count);
+            } else {
+                loadCountDag();
+                genRecordService.generate(countDag, charSink, opts.startIndex, count);
+            }
         }
         log.info("Syngen has completed all tasks");
     }
@@ -154,9 +206,10 @@ public class SyngenRunner implements CommandLineRunner {
         File norm = new File(outputLocation, moniker + ".sample.normal.txt");
         Joiner joiner = Joiner.on('|');
         try (PrintWriter origPw = new PrintWriter(orig);
-             PrintWriter normPw = new PrintWriter(norm)) {
+             PrintWriter normPw = new PrintWriter(norm);
+             Stream<Record> normalized = inputPipeline.normalizedFrom(records)) {
 
-            List<Record> recs = inputPipeline.normalizedFrom(records).limit(100).collect(Collectors.toList());
+            List<Record> recs = normalized.limit(100).collect(Collectors.toList());
             List<String> headers = recs.stream().flatMap(r -> r.fields().keySet().stream()).distinct().sorted().collect(Collectors.toList());
             origPw.println(joiner.join(headers));
             normPw.println(joiner.join(headers));
@@ -174,14 +227,21 @@ public class SyngenRunner implements CommandLineRunner {
     private void loadCountDag() {
         if (countDag == null) {
             log.info("Reading countdag from " + opts.countDagFile);
-            countDag = ReadWrite.objectFromGzip(opts.countDagFile, CountDag.class);
+            countDag = CountDagCodec.load(opts.countDagFile);
+        }
+    }
+
+    private void loadGenModel() {
+        if (genModel == null) {
+            log.info("Reading generation model from " + opts.genModelFile);
+            genModel = GenModel.read(new File(opts.genModelFile));
         }
     }
 
     private void writeCountDag(CountDag countDag) {
         if (isNotBlank(opts.countDagFile)) {
             log.info("Writing CoutDag out to " + opts.countDagFile + " ...");
-            ReadWrite.objectToGzip(countDag, new File(opts.countDagFile));
+            CountDagCodec.writeFile(countDag, new File(opts.countDagFile));
         }
     }
 
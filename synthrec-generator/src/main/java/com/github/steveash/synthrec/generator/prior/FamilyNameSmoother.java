@@ -20,8 +20,10 @@ package com.github.steveash.synthrec.generator.prior;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
@@ -56,6 +58,7 @@ import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
@@ -118,7 +121,12 @@ public class FamilyNameSmoother {
         );
     }
 
-    public void emitGivenNameSamplers(Map<NamePart, ISampler<String>> sink) {
+    /**
+     * @param sink
+     * @param prewarm if true every culture distribution is built now instead of lazily on first use
+     * @see GivenNameSmoother#emitGivenNameSamplers(Map, boolean)
+     */
+    public void emitGivenNameSamplers(Map<NamePart, ISampler<String>> sink, boolean prewarm) {
         createNamePriors();
 
         empNameGivenCulture = familyNameishGroup.makeConditionalCopy();
@@ -129,9 +137,13 @@ public class FamilyNameSmoother {
             String culture = checkNotNull(ai.getString(Constants.FAMILY_NAME_CULTURE, null));
             return Iterables.getOnlyElement(makeForCultures(ImmutableSet.of(culture)).values());
         };
-        LazyMap<AssignmentInstance, Sampler<String>> map = LazyMap.make(familyFactory);
-        // preload the cultures that we are likely to see since we can just run the culture tagger once that way
-        map.putAll(makeForCultures(empiricalCultures));
+        LazyMap<AssignmentInstance, Sampler<String>> map = LazyMap.makeConcurrent(familyFactory);
+        if (prewarm) {
+            map.putAll(makeForCultures(Sets.union(empiricalCultures, DEFAULT_CULTURE_EXP_SIZE.keySet())));
+        } else {
+            // preload the cultures that we are likely to see since we can just run the culture tagger once that way
+            map.putAll(makeForCultures(empiricalCultures));
+        }
 
         ConditionalSampler<String> sampler = new BackoffSampler<>(map, backoff, CULTURE_ONLY);
         emitForApplicable(sink, sampler);
@@ -141,20 +153,22 @@ public class FamilyNameSmoother {
         log.info("Creating sampler for family names for cultures " + cultures + "...");
         Stopwatch watch = Stopwatch.createStarted();
         Map<String, MutableMultinomial<String>> targets = makeEmptyOutsFor(cultures);
-        // collect all of the priors (on the fly)
-        priorFamilyName.entries().parallelStream().forEach(next -> {
-
-            Multinomial<String> cultureDist = cultureDetector.detectSingleToken(next.getKey());
+        // collect all of the priors (on the fly); the cultures are detected in parallel but added to the targets
+        // in a fixed order since the sampling table order follows the order that names were added
+        List<String> names = Lists.newArrayList(priorFamilyName.keySet());
+        List<Multinomial<String>> cultureDists = names.parallelStream()
+                .map(cultureDetector::detectSingleToken)
+                .collect(Collectors.toList());
+        for (int i = 0; i < names.size(); i++) {
+            String next = names.get(i);
+            Multinomial<String> cultureDist = cultureDists.get(i);
             for (String culture : cultures) {
                 double probCult = cultureDist.get(culture);
                 if (probCult > genRecordsConfig.getNameCultureMinProb()) {
-                    MutableMultinomial<String> target = targets.get(culture);
-                    synchronized (target) {
-                        target.add(next.getKey(), next.getDoubleValue() * probCult);
-                    }
+                    targets.get(culture).add(next, priorFamilyName.get(next) * probCult);
                 }
             }
-        });
+        }
         // now smooth with the empirical
         Map<AssignmentInstance, Sampler<String>> results = Maps.newHashMapWithExpectedSize(cultures.size());
         for (String culture : cultures) {
@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
@@ -82,7 +83,9 @@ import com.google.common.collect.Sets;
  * 5- if there aren't enough values in the smoothed joint then we backoff to P(name | sex) and if the sex
  * is not M or F (e.g. U or other) then we backoff just P(name)
  * 6- the P(name | cutlure, sex) distributions are lazyily built to avoid enumerated the whole joint
- * when we dont need to
+ * when we dont need to; they are built once even when many generator threads ask for the same one at the same
+ * time, and can be built for every culture up front (prewarmNameDistributions) so that generation never smooths
+ * inline
  * @author Steve Ash
  */
 @PrototypeComponent
@@ -148,7 +151,12 @@ public class GivenNameSmoother {
         );
     }
 
-    public void emitGivenNameSamplers(Map<NamePart, ISampler<String>> sink) {
+    /**
+     * @param sink
+     * @param prewarm if true every culture/sex distribution is built now instead of lazily on first use (i.e.
+     * when compiling a model, which can only carry the distributions that exist when it is compiled)
+     */
+    public void emitGivenNameSamplers(Map<NamePart, ISampler<String>> sink, boolean prewarm) {
         createNameSexPriors();
 
         empNameGivenCultureSex = givenNameishGroup.makeConditionalCopy();
@@ -172,9 +180,14 @@ public class GivenNameSmoother {
             return tryForCultureSex(culture, ai);
         };
 
-        LazyMap<AssignmentInstance, Sampler<String>> map = LazyMap.make(givenFactory);
-        // preload the entries for the cultures we are likley to see
-        map.putAll(tryForMany(empiricalCultures));
+        LazyMap<AssignmentInstance, Sampler<String>> map = LazyMap.makeConcurrent(givenFactory);
+        if (prewarm) {
+            // all of the cultures at once; tryForMany runs the culture detector over the names in parallel
+            map.putAll(tryForMany(Sets.union(empiricalCultures, DEFAULT_CULTURE_EXP_SIZE.keySet())));
+        } else {
+            // preload the entries for the cultures we are likley to see
+            map.putAll(tryForMany(empiricalCultures));
+        }
 
         ConditionalSampler<String> sampler = new BackoffSampler<>(map, backoff, CULTURE_AND_SEX);
         emitForApplicable(sink, sampler);
@@ -191,8 +204,18 @@ public class GivenNameSmoother {
         Map<String, MutableMultinomial<String>> targetsMale = makeEmptyOutsFor(cultures);
         Map<String, MutableMultinomial<String>> targetsFemale = makeEmptyOutsFor(cultures);
 
-        Sets.union(priorNameGivenSexMale.keySet(), priorNameGivenSexFemale.keySet()).parallelStream().forEach(next -> {
-            Multinomial<String> cultureDist = cultureDetector.detectSingleToken(next);
+        // detect the cultures in parallel but add to the targets in a fixed order; the order of the sampling table
+        // follows the order that names were added so this keeps the samples for a seed the same no matter which
+        // (or how many) threads built the distribution
+        List<String> names = Lists.newArrayList(Sets.union(priorNameGivenSexMale.keySet(),
+                priorNameGivenSexFemale.keySet()
+        ));
+        List<Multinomial<String>> cultureDists = names.parallelStream()
+                .map(cultureDetector::detectSingleToken)
+                .collect(Collectors.toList());
+        for (int i = 0; i < names.size(); i++) {
+            String next = names.get(i);
+            Multinomial<String> cultureDist = cultureDists.get(i);
             for (String culture : cultures) {
                 double probCult = cultureDist.get(culture);
                 if (probCult > genRecordsConfig.getNameCultureMinProb()) {
@@ -200,7 +223,7 @@ public class GivenNameSmoother {
                     emitCultSex(targetsFemale, next, culture, probCult, priorNameGivenSexFemale);
                 }
             }
-        });
+        }
         Map<AssignmentInstance, Sampler<String>> results = Maps.newHashMapWithExpectedSize(cultures.size() * 2);
         for (String culture : cultures) {
             emitSmoothed(results, targetsMale, culture, SEX_MALE);
@@ -238,10 +261,7 @@ public class GivenNameSmoother {
     ) {
         double priorProb = prior.get(name);
         if (priorProb > 0) {
-            MutableMultinomial<String> target = targets.get(culture);
-            synchronized (target) {
-                target.add(name, priorProb * probCult);
-            }
+            targets.get(culture).add(name, priorProb * probCult);
         }
     }
 
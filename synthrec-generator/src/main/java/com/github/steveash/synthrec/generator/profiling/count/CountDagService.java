@@ -36,6 +36,8 @@ import static com.github.steveash.synthrec.Constants.SSN_PATTERN;
 
 import java.util.Set;
 
+import org.springframework.beans.factory.annotation.Value;
+
 import com.github.steveash.synthrec.count.CountAssignment;
 import com.github.steveash.synthrec.count.CountAssignment.Builder;
 import com.github.steveash.synthrec.count.CountDag;
@@ -55,8 +57,12 @@ public class CountDagService {
     // the smallest normalized entropy to consider using for a distribution rather than just taking the best
     private static final double MIN_NORM_ENTROPY = 0.25;
 
+    // keep conditional counts in flat primitive tables instead of a multinomial per parent (less heap)
+    @Value("${synthrec.profile.flat-count-tables:false}") private boolean flatCountTables;
+
     public CountDag makeCountDag() {
         CountDag dag = new CountDag();
+        dag.setFlatCountStorage(flatCountTables);
         CountFactor race = dag.newFactor(ORIGIN_CULTURE);
         CountFactor sex = dag.newFactor(SEX);
         CountFactor age = dag.newFactor(AGE_YEARS);
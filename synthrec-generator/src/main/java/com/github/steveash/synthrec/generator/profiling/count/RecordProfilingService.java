@@ -18,19 +18,30 @@
 
 package com.github.steveash.synthrec.generator.profiling.count;
 
+import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
+import javax.annotation.Nullable;
 import javax.annotation.Resource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.github.steveash.synthrec.collect.VocabCounter;
 import com.github.steveash.synthrec.collect.Vocabulary;
+import com.github.steveash.synthrec.count.CountAssignment;
 import com.github.steveash.synthrec.count.CountDag;
+import com.github.steveash.synthrec.count.CountDagMerger;
 import com.github.steveash.synthrec.count.FactorStats;
+import com.github.steveash.synthrec.count.ShardedCountDag;
+import com.github.steveash.synthrec.domain.Record;
+import com.github.steveash.synthrec.generator.PipelineConfig;
 import com.github.steveash.synthrec.generator.load.InputFile;
 import com.github.steveash.synthrec.generator.load.InputPipeline;
 import com.github.steveash.synthrec.generator.profiling.count.CountDagService.DagAssigner;
@@ -38,9 +49,12 @@ import com.github.steveash.synthrec.generator.spring.LazyComponent;
 import com.github.steveash.synthrec.reducer.ValueReducer;
 import com.github.steveash.synthrec.reducer.ValueReducerRegistry;
 import com.github.steveash.synthrec.util.StreamCounter;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 
+import it.unimi.dsi.fastutil.ints.IntIterator;
+
 /**
  * Actually orchestrates all of the counting and outputting for profiling
  * @author Steve Ash
@@ -48,75 +62,229 @@ import com.google.common.base.Stopwatch;
 @LazyComponent
 public class RecordProfilingService {
     private static final Logger log = LoggerFactory.getLogger(RecordProfilingService.class);
+    private static final Consumer<Record> NO_VISITOR = rec -> {};
 
     @Resource private CountDagService countDagService;
     @Resource private InputPipeline inputPipeline;
     @Resource private ValueReducerRegistry valueReducerRegistry;
     @Resource private MetricRegistry registry;
+    @Resource private PipelineConfig pipelineConfig;
+
+    // each worker thread counts into its own shard of the dag which are merged at the end
+    @Value("${synthrec.profile.sharded-counting:true}") private boolean shardedCounting;
 
     public CountDag execute(InputFile inputFile) {
+        return execute(inputFile, true);
+    }
+
+    /**
+     * Profiles the input file into a new count dag
+     * @param inputFile
+     * @param reduceFactors false if this is just one partition of the input that will be merged with others later
+     * in which case the reduction happens on the merged result
+     * @return
+     */
+    public CountDag execute(InputFile inputFile, boolean reduceFactors) {
+        return execute(inputFile, reduceFactors, NO_VISITOR);
+    }
+
+    /**
+     * Profiles the input file into a new count dag and also hands every processed record to the visitor (from
+     * many threads); this lets other record level profiling (i.e. data quality) share the same pass over the input
+     * @param inputFile
+     * @param reduceFactors
+     * @param visitor
+     * @return
+     */
+    public CountDag execute(InputFile inputFile, boolean reduceFactors, Consumer<Record> visitor) {
         Stopwatch watch = Stopwatch.createStarted();
         log.info("Profiling records...");
         CountDag dag = countDagService.makeCountDag();
+        long totalRecords = countInto(dag, inputFile, visitor);
+        if (reduceFactors) {
+            reduceMarkedFactors(dag, null);
+        }
+
+        watch.stop();
+        log.info("Counted {} records in {}", totalRecords, watch.toString());
+        return dag;
+    }
+
+    /**
+     * Profiles the input file and folds its counts into an existing (not yet deidentified) count dag. The new
+     * records are counted into an empty delta of the existing dag which is then merged in; the factor reduction
+     * is only re-run for the values whose counts the delta changed. If the existing dag was reduced in this run its
+     * vocabs still remember the original of every reduced value in memory so new counts of it land on the same index
+     * and the reduction is decided again with the merged count (and undone if the value isn't rare anymore); the
+     * result is the same as profiling all of the input. The originals are never written with a dag so the
+     * reductions of a dag that was read from a file are final. The originals are dropped once the merge finishes
+     * @param existing the count dag to append to; this is mutated and returned
+     * @param inputFile
+     * @param reduceFactors false if the existing dag is an unreduced partition (see execute)
+     * @return
+     */
+    public CountDag executeAppend(CountDag existing, InputFile inputFile, boolean reduceFactors) {
+        return executeAppend(existing, inputFile, reduceFactors, NO_VISITOR);
+    }
+
+    /**
+     * Like executeAppend but also hands every processed record to the visitor; see execute
+     */
+    public CountDag executeAppend(CountDag existing,
+            InputFile inputFile,
+            boolean reduceFactors,
+            Consumer<Record> visitor
+    ) {
+        Stopwatch watch = Stopwatch.createStarted();
+        log.info("Profiling records to append to existing count dag...");
+        CountDag delta = existing.newShard();
+        long totalRecords = countInto(delta, inputFile, visitor);
+        existing.mergeFrom(delta);
+        existing.compactCounts();
+        if (reduceFactors) {
+            reduceMarkedFactors(existing, delta);
+        }
+        existing.clearReducedOriginals();
+
+        watch.stop();
+        log.info("Counted and appended {} records in {}", totalRecords, watch.toString());
+        return existing;
+    }
+
+    private long countInto(CountDag dag, InputFile inputFile, Consumer<Record> visitor) {
         DagAssigner assigner = countDagService.makeAssigner(dag);
         Meter meter = registry.meter("profilingInputs");
+        ShardedCountDag sharded = new ShardedCountDag(dag);
+        Function<CountAssignment, CountAssignment> counter = shardedCounting ? sharded::add : dag::add;
 
-        long totalRecords = inputPipeline.processedFrom(inputFile)
-                .parallel()
-                .map(assigner::makeAssignmentFor)
-                .map(dag::add)
-                .map(new StreamCounter<>("Input record profiling"))
-                .map(e -> {meter.mark(); return e;})
-                .count();
+        long totalRecords;
+        if (pipelineConfig.isEnabled()) {
+            totalRecords = inputPipeline.stagedProcessedFrom(inputFile, pipelineConfig)
+                    .then("assign", rec -> {visitor.accept(rec); return assigner.makeAssignmentFor(rec);})
+                    .runInto("count", assign -> {counter.apply(assign); meter.mark();});
+        } else {
+            try (Stream<Record> records = inputPipeline.processedFrom(inputFile)) {
+                totalRecords = records.parallel()
+                        .map(rec -> {visitor.accept(rec); return rec;})
+                        .map(assigner::makeAssignmentFor)
+                        .map(counter)
+                        .map(new StreamCounter<>("Input record profiling"))
+                        .map(e -> {meter.mark(); return e;})
+                        .count();
+            }
+        }
 
-        reduceMarkedFactors(dag);
+        if (shardedCounting) {
+            log.info("Merging {} count shards...", sharded.shardCount());
+            sharded.mergeShards();
+        }
+        // counting is done so shrink any flat count tables to their read form
+        dag.compactCounts();
+        return totalRecords;
+    }
 
+    /**
+     * Merges the count dags that were profiled from partitions of the input and then reduces the merged result
+     * @param countDagFiles
+     * @return
+     */
+    public CountDag mergePartitions(List<String> countDagFiles) {
+        Stopwatch watch = Stopwatch.createStarted();
+        log.info("Merging {} count dag partitions...", countDagFiles.size());
+        CountDag dag = CountDagMerger.mergeFiles(countDagFiles);
+        reduceMarkedFactors(dag, null);
         watch.stop();
-        log.info("Counted {} records in {}", totalRecords, watch.toString());
+        log.info("Merged partitions in {}", watch.toString());
         return dag;
     }
 
-    private void reduceMarkedFactors(CountDag dag) {
+    // if there is a delta then only the values that the delta counted are reduced
+    private void reduceMarkedFactors(CountDag dag, @Nullable CountDag delta) {
+        reduceMarkedFactors(dag, delta, valueReducerRegistry);
+    }
+
+    @VisibleForTesting
+    static void reduceMarkedFactors(CountDag dag, @Nullable CountDag delta, ValueReducerRegistry reducers) {
         for (String factor : dag.getReduceFactors()) {
-            ValueReducer reducer = valueReducerRegistry.reducerFor(factor);
+            ValueReducer reducer = reducers.reducerFor(factor);
             FactorStats stats = dag.getFactorStats(factor);
+            FactorStats deltaStats = (delta != null ? delta.getFactorStats(factor) : null);
             if (stats.isSketches()) {
-                reduceSubfields(reducer, stats);
+                reduceSubfields(reducer, stats, deltaStats);
             } else {
                 VocabCounter<Object> vocabCounter = stats.getValueVocab();
-                int count = reduceVocab(vocabCounter, reducer);
+                VocabCounter<Object> changed = (deltaStats != null ? deltaStats.getValueVocab() : null);
+                int count = reduceVocab(vocabCounter, changed, reducer);
                 log.debug("Reducing factor {} updated {} items", factor, count);
             }
         }
     }
 
-    private void reduceSubfields(ValueReducer reducer, FactorStats stats) {
+    private static void reduceSubfields(ValueReducer reducer, FactorStats stats, @Nullable FactorStats deltaStats) {
         Set<String> subFieldNames = stats.getSubFieldNames();
         for (String subFieldName : subFieldNames) {
             VocabCounter<Object> vocabCounter = stats.getSubFieldVocab(subFieldName);
-            int count = reduceVocab(vocabCounter, reducer);
+            VocabCounter<Object> changed = (deltaStats != null ? deltaStats.getSubFieldVocab(subFieldName) : null);
+            int count = reduceVocab(vocabCounter, changed, reducer);
             log.debug("Reducing subfield {} updated {} items", subFieldName, count);
         }
     }
 
-    private int reduceVocab(VocabCounter<Object> vocabCounter, ValueReducer reducer) {
+    private static int reduceVocab(VocabCounter<Object> vocabCounter,
+            @Nullable VocabCounter<Object> changed,
+            ValueReducer reducer
+    ) {
         Vocabulary<Object> vocab = vocabCounter.getVocab();
         int count = 0;
 
-        for (int i = 1; i < vocab.size(); i++) {
-            Object maybe = vocab.getForIndex(i);
-            if (maybe == null || !(maybe instanceof String)) {
-                continue;
+        if (changed != null) {
+            IntIterator iter = changed.indexIterator();
+            while (iter.hasNext()) {
+                if (reduceIndex(vocabCounter, iter.nextInt(), reducer)) {
+                    count += 1;
+                }
             }
+            return count;
+        }
 
-            String input = (String) maybe;
-            String reduced = reducer.reduceIfNecessary(input, vocabCounter.countByIndex(i));
-            Preconditions.checkNotNull(reduced);
-            if (!reduced.equals(input)) {
-                vocab.updateIndexValue(i, reduced);
+        // the limit is read once; reducing only ever appends when it undoes a reduction which this doesn't do
+        int limit = vocab.nextIndex();
+        for (int i = 1; i < limit; i++) {
+            if (reduceIndex(vocabCounter, i, reducer)) {
                 count += 1;
             }
         }
         return count;
     }
+
+    // decides the reduction of the raw value counted at this index; the counts stay with the raw value's index
+    // even after it is reduced so the count is always that of the raw value
+    private static boolean reduceIndex(VocabCounter<Object> vocabCounter, int i, ValueReducer reducer) {
+        Vocabulary<Object> vocab = vocabCounter.getVocab();
+        Object original = vocab.getOriginalForIndex(i);
+        Object maybe = (original != null ? original : vocab.getForIndexNoResolve(i));
+        if (!(maybe instanceof String)) {
+            return false; // not a string or merged into another index by something other than reducing
+        }
+
+        String input = (String) maybe;
+        String reduced = reducer.reduceIfNecessary(input, vocabCounter.countByIndex(i));
+        Preconditions.checkNotNull(reduced);
+        if (original == null) {
+            if (reduced.equals(input)) {
+                return false;
+            }
+            vocab.reduceIndexValue(i, reduced);
+            return true;
+        }
+        // reduced before; with the appended counts it might not be anymore
+        if (reduced.equals(vocab.getForIndex(i))) {
+            return false;
+        }
+        vocab.restoreOriginal(i);
+        if (!reduced.equals(input)) {
+            vocab.reduceIndexValue(i, reduced);
+        }
+        return true;
+    }
 }
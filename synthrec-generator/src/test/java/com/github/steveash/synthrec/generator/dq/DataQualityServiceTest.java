@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.generator.dq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Resource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.github.steveash.synthrec.generator.GenTestFixture;
+import com.github.steveash.synthrec.generator.load.InputFileFactory;
+import com.github.steveash.synthrec.generator.profiling.count.RecordProfilingService;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+/**
+ * @author Steve Ash
+ */
+public class DataQualityServiceTest extends GenTestFixture {
+
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    @Resource private ApplicationContext context;
+    @Resource private InputFileFactory inputFileFactory;
+    @Resource private RecordProfilingService recordProfilingService;
+
+    @Test
+    public void shouldProfileSameFusedAsSeparate() throws Exception {
+        File separateDir = temp.newFolder("separate");
+        DataQualityService separate = makeService(separateDir);
+        separate.execute(inputFileFactory.makeDefault());
+
+        // the fused records are the processed records of count profiling which already have the structure features
+        File fusedDir = temp.newFolder("fused");
+        DataQualityService fused = makeService(fusedDir);
+        fused.startFused();
+        recordProfilingService.execute(inputFileFactory.makeDefault(), true, fused::profile);
+        fused.finishFused();
+
+        Map<String, List<String>> expected = readOutputs(separateDir);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected.keySet(), readOutputs(fusedDir).keySet());
+        assertEquals(expected, readOutputs(fusedDir));
+    }
+
+    private DataQualityService makeService(File outputDir) {
+        DataQualityService service = context.getBean(DataQualityService.class);
+        ReflectionTestUtils.setField(service, "outputLocation", outputDir.getPath());
+        return service;
+    }
+
+    // the lines of every output file in a stable order with the run timestamps masked
+    private static Map<String, List<String>> readOutputs(File dir) throws Exception {
+        Map<String, List<String>> result = Maps.newTreeMap();
+        for (File file : dir.listFiles()) {
+            List<String> lines = Files.readLines(file, StandardCharsets.UTF_8);
+            lines.replaceAll(line -> line.replaceAll("\\b1\\d{12}\\b", "<time>"));
+            lines.sort(null);
+            result.put(file.getName(), lines);
+        }
+        return result;
+    }
+}
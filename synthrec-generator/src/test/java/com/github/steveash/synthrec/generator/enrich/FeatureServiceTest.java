@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.generator.enrich;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Resource;
+
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.github.steveash.synthrec.Constants;
+import com.github.steveash.synthrec.address.Address;
+import com.github.steveash.synthrec.domain.Record;
+import com.github.steveash.synthrec.generator.GenTestFixture;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * @author Steve Ash
+ */
+public class FeatureServiceTest extends GenTestFixture {
+
+    @Resource private FeatureService featureService;
+    @Resource private NormalizerService normalizerService;
+
+    @Test
+    public void shouldEnrichBatchSameAsEachRecord() {
+        assertTrue(featureService.isBatching());
+        List<Record> each = makeRecords();
+        List<Record> batched = makeRecords();
+        for (Record rec : each) {
+            featureService.enrichRecord(rec);
+        }
+        // a small batch size so the records span several batches with a partial one at the end
+        int oldBatchSize = featureService.getParseBatchSize();
+        ReflectionTestUtils.setField(featureService, "parseBatchSize", 3);
+        try {
+            featureService.enrichRecords(batched);
+        } finally {
+            ReflectionTestUtils.setField(featureService, "parseBatchSize", oldBatchSize);
+        }
+
+        assertEquals(each.size(), batched.size());
+        for (int i = 0; i < each.size(); i++) {
+            Map<String, String> expected = featuresOf(each.get(i));
+            assertFalse(expected.isEmpty());
+            assertEquals("record " + i, expected, featuresOf(batched.get(i)));
+        }
+    }
+
+    private List<Record> makeRecords() {
+        List<Record> records = Lists.newArrayList();
+        records.add(makeRecord(records.size(), "Steve", "Michael", "Ash", "123 Main St Apt 4, Springfield, IL 62704"));
+        records.add(makeRecord(records.size(), "Mary", null, "O'Connor", null));
+        records.add(makeRecord(records.size(), null, null, null, "400 N Elm Avenue, Austin, TX 78701"));
+        records.add(makeRecord(records.size(), "Juan", "Carlos", "de la Cruz", "PO Box 77, Miami, FL 33101"));
+        records.add(makeRecord(records.size(), "Wei", null, null, null));
+        records.add(makeRecord(records.size(), null, null, "Nguyen", "9 Oak Ct, Portland, OR"));
+        records.add(makeRecord(records.size(), "Anne-Marie", "J", "Smith-Jones", "1600 Pennsylvania Ave NW, Washington, DC 20500"));
+        records.get(0).setInitialValue(Constants.DOB, "1980-04-12");
+        records.get(4).setInitialValue(Constants.SEX, "F");
+        for (Record rec : records) {
+            normalizerService.normalize(rec);
+        }
+        return records;
+    }
+
+    private static Record makeRecord(int id, String given, String middle, String family, String address) {
+        Record rec = new Record(id);
+        setIfPresent(rec, Constants.GIVEN_NAME, given);
+        setIfPresent(rec, Constants.MIDDLE_NAME, middle);
+        setIfPresent(rec, Constants.FAMILY_NAME, family);
+        setIfPresent(rec, Constants.ADDRESS, address);
+        return rec;
+    }
+
+    private static void setIfPresent(Record rec, String field, String value) {
+        if (value != null) {
+            rec.setInitialValue(field, value);
+        }
+    }
+
+    // addresses don't have value equality so compare them by their segments; everything else by its string form
+    private static Map<String, String> featuresOf(Record rec) {
+        Map<String, String> features = Maps.newTreeMap();
+        rec.forEachFeature((key, value) -> {
+            if (value instanceof Address) {
+                features.put(key, Lists.newArrayList((Address) value).toString());
+            } else {
+                features.put(key, String.valueOf(value));
+            }
+        });
+        return features;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.generator.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Map;
+
+import org.apache.commons.math3.random.Well19937c;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.steveash.synthrec.count.CountAssignment;
+import com.github.steveash.synthrec.count.CountDag;
+import com.github.steveash.synthrec.count.CountFactor;
+import com.github.steveash.synthrec.stat.MutableMultinomial;
+import com.github.steveash.synthrec.stat.SamplingTable;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * @author Steve Ash
+ */
+public class GenModelTest {
+
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void shouldRoundtripModel() throws Exception {
+        MutableMultinomial<String> dist = MutableMultinomial.createUnknownMax();
+        for (int i = 0; i < 100; i++) {
+            dist.add("v" + i, 1 + (i % 9));
+        }
+        SamplingTable<String> table = SamplingTable.createFromMultinomial(dist);
+        CountDag dag = makeDag();
+        File modelFile = new File(temp.getRoot(), "test.model");
+        GenModel.write(new GenModel(dag, ImmutableMap.of("A", table)), modelFile);
+        assertTrue(GenModel.dagFileFor(modelFile).exists());
+        assertTrue(GenModel.tablesFileFor(modelFile).exists());
+
+        GenModel read = GenModel.read(modelFile);
+        assertEquals(dag.factorNames(), read.getCountDag().factorNames());
+        MutableMultinomial<String> dagA = dag.getFactorGroup("A").makeUnconditionalUnaryCopy();
+        MutableMultinomial<String> readA = read.getCountDag().getFactorGroup("A").makeUnconditionalUnaryCopy();
+        assertEquals(dagA.size(), readA.size());
+        for (String key : dagA.keySet()) {
+            assertEquals(dagA.get(key), readA.get(key), 0.0001);
+        }
+        SamplingTable<String> readTable = (SamplingTable<String>) read.getSamplers().get("A");
+        assertEquals(table.size(), readTable.size());
+        Well19937c heapRand = new Well19937c(0xCAFE123);
+        Well19937c mappedRand = new Well19937c(0xCAFE123);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(table.sample(heapRand), readTable.sample(mappedRand));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailWithoutDag() throws Exception {
+        File modelFile = new File(temp.getRoot(), "test.model");
+        GenModel.write(new GenModel(makeDag(), ImmutableMap.of()), modelFile);
+        assertTrue(GenModel.dagFileFor(modelFile).delete());
+        GenModel.read(modelFile);
+    }
+
+    private static CountDag makeDag() {
+        CountDag dag = new CountDag();
+        CountFactor a = dag.newFactor("A");
+        CountFactor b = dag.newFactorWithParents("B", "A");
+        dag.countIndependant(a);
+        dag.countIndependant(b);
+        dag.freeze();
+        for (int i = 0; i < 500; i++) {
+            Map<String, Object> values = Maps.newHashMap();
+            values.put("A", "a" + (i % 7));
+            values.put("B", "b" + (i % 3));
+            dag.add(CountAssignment.fromObserved(values));
+        }
+        dag.compactCounts();
+        return dag;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.generator.gen;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.github.steveash.synthrec.collect.LazyMap;
+import com.github.steveash.synthrec.domain.AssignmentInstance;
+import com.github.steveash.synthrec.gen.ConditionalUnaryNode;
+import com.github.steveash.synthrec.gen.GenContext;
+import com.github.steveash.synthrec.gen.GenDag;
+import com.github.steveash.synthrec.gen.OutputField;
+import com.github.steveash.synthrec.gen.OutputFieldBuilder;
+import com.github.steveash.synthrec.gen.RecordWriter;
+import com.github.steveash.synthrec.gen.UnaryNode;
+import com.github.steveash.synthrec.stat.BackoffSampler;
+import com.github.steveash.synthrec.stat.MutableMultinomial;
+import com.github.steveash.synthrec.stat.Sampler;
+import com.github.steveash.synthrec.stat.SamplingTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.CharSink;
+
+/**
+ * @author Steve Ash
+ */
+public class GenRecordServiceTest {
+
+    private static final int COUNT = 5_000;
+    private static final long SEED = 0x5EED1234L;
+    private static final Set<String> PARENT = ImmutableSet.of("a");
+
+    @Test
+    public void shouldGenerateSameInParallelAsSerial() throws Exception {
+        String serial = generate(1);
+        assertEquals(COUNT + 1, serial.split("\n").length);
+        // a fresh dag each time so the parallel run builds the lazy samplers on many threads at once
+        assertEquals(serial, generate(4));
+        assertEquals(serial, generate(7));
+    }
+
+    private static String generate(int threads) throws IOException {
+        StringWriter out = new StringWriter();
+        CharSink sink = new CharSink() {
+            @Override
+            public Writer openStream() throws IOException {
+                return out;
+            }
+        };
+        ImmutableList<OutputField> fields = ImmutableList.of(
+                new OutputFieldBuilder().setGenAssignKey("a").create(),
+                new OutputFieldBuilder().setGenAssignKey("b").create()
+        );
+        try (RecordWriter rws = new RecordWriter(fields, ',', sink)) {
+            GenRecordService.generateRecords(makeDag(), new GenContext(COUNT, true), rws, 0, COUNT, SEED, threads, 13);
+        }
+        return out.toString();
+    }
+
+    private static GenDag makeDag() {
+        MutableMultinomial<String> aDist = MutableMultinomial.createUnknownMax();
+        for (int i = 0; i < 50; i++) {
+            aDist.add("a" + i, 1 + (i % 7));
+        }
+        // b is built lazily per value of a like the name smoothers do
+        LazyMap<AssignmentInstance, Sampler<String>> bByA = LazyMap.makeConcurrent(ai -> {
+            String a = ai.getString("a", null);
+            MutableMultinomial<String> bDist = MutableMultinomial.createUnknownMax();
+            for (int i = 0; i < 20; i++) {
+                bDist.add(a + "-b" + i, 1 + ((a.hashCode() + i) & 0xF));
+            }
+            return SamplingTable.createFromMultinomial(bDist);
+        });
+        SamplingTable<String> backoff = SamplingTable.createFromMultinomial(aDist);
+        return new GenDag(ImmutableList.of(
+                new UnaryNode("a", SamplingTable.createFromMultinomial(aDist)),
+                new ConditionalUnaryNode("b", PARENT, new BackoffSampler<>(bByA, backoff, PARENT))
+        ), 10);
+    }
+}
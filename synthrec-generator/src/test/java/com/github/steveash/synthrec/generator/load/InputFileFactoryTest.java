@@ -22,13 +22,19 @@ import static org.junit.Assert.*;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
 
+import static java.util.stream.Collectors.toMap;
+
+import java.util.Map;
+
 import javax.annotation.Resource;
 
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.github.steveash.synthrec.generator.GenTestFixture;
+import com.github.steveash.synthrec.domain.Record;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Streams;
 
 /**
  * @author Steve Ash
@@ -42,4 +48,23 @@ public class InputFileFactoryTest extends GenTestFixture {
         InputFile inputFile = inputFileFactory.makeDefault();
         assertEquals(50, Iterables.size(inputFile));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldSplitSameAsSerial() throws Exception {
+        InputFile serial = inputFileFactory.makeDefault();
+        InputConfig splitConfig = new InputConfig();
+        splitConfig.setResource(serial.getConfig().getResource());
+        splitConfig.setDelimiter(serial.getConfig().getDelimiter());
+        splitConfig.setMapping(serial.getConfig().getMapping());
+        splitConfig.setSplitParallel(true);
+        InputFile split = inputFileFactory.make(splitConfig);
+
+        Map<Integer, Record> serialRecords = Streams.stream(serial).collect(toMap(Record::getRecordId, r -> r));
+        Map<Integer, Record> splitRecords = Streams.stream(split).parallel()
+                .collect(toMap(Record::getRecordId, r -> r));
+        assertEquals(serialRecords.keySet(), splitRecords.keySet());
+        for (Integer recordId : serialRecords.keySet()) {
+            assertEquals(serialRecords.get(recordId).fields(), splitRecords.get(recordId).fields());
+        }
+    }
+}
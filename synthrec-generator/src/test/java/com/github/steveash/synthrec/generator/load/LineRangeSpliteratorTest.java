@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.generator.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.steveash.synthrec.domain.Record;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * @author Steve Ash
+ */
+public class LineRangeSpliteratorTest {
+
+    private static final String HEADER = "id,value\n";
+    private static final int MIN_RANGE = 128;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void shouldSplitSameAsSerial() throws Exception {
+        String content = makeContent();
+        // the first range ends in the middle of a line so that line has to go to the first range only
+        assertNotEquals('\n', content.charAt(HEADER.length() + MIN_RANGE - 1));
+        File file = temp.newFile("input.csv");
+        Files.asCharSink(file, StandardCharsets.UTF_8).write(content);
+
+        InputConfig config = new InputConfig();
+        config.setResource(file.getAbsolutePath());
+        List<Record> serial = Lists.newArrayList(new InputFile((c, header) -> MAPPER, config));
+
+        LineRangeSpliterator source = LineRangeSpliterator.open(file, header -> MAPPER, MIN_RANGE);
+        List<Spliterator<Record>> splits = splitAll(source);
+        assertTrue("should have split into many ranges", splits.size() > 4);
+        List<Record> split = Lists.newArrayList();
+        for (Spliterator<Record> spliterator : splits) {
+            spliterator.forEachRemaining(split::add);
+        }
+
+        assertEquals(serial.size(), split.size());
+        for (int i = 0; i < serial.size(); i++) {
+            assertEquals(serial.get(i).getRecordId(), split.get(i).getRecordId());
+            assertEquals(serial.get(i).getField("line", null), split.get(i).getField("line", null));
+        }
+    }
+
+    private static final BiFunction<String, Integer, Record> MAPPER = (line, lineNo) -> {
+        Record record = new Record(lineNo);
+        record.setInitialValue("line", line);
+        return record;
+    };
+
+    // recursively splits in order so the concatenation of the splits is the whole file
+    private static List<Spliterator<Record>> splitAll(Spliterator<Record> source) {
+        List<Spliterator<Record>> result = Lists.newArrayList();
+        Spliterator<Record> suffix = source.trySplit();
+        if (suffix == null) {
+            result.add(source);
+            return result;
+        }
+        result.addAll(splitAll(source));
+        result.addAll(splitAll(suffix));
+        return result;
+    }
+
+    // lines of different lengths with some blank lines, a CRLF line, and no newline at the end
+    private static String makeContent() {
+        StringBuilder sb = new StringBuilder(HEADER);
+        for (int i = 1; i <= 300; i++) {
+            if (i % 17 == 0) {
+                sb.append("\n");
+                continue;
+            }
+            sb.append(i).append(',').append(Strings.repeat("x", i % 37));
+            sb.append(i == 100 ? "\r\n" : "\n");
+        }
+        sb.append("301,last");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.generator.load;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import com.github.steveash.synthrec.address.Address;
+import com.github.steveash.synthrec.address.AddressSegment;
+import com.github.steveash.synthrec.address.AddressTag;
+import com.github.steveash.synthrec.address.SimpleAddress;
+import com.github.steveash.synthrec.domain.FeatureComputer.FeatureKey;
+import com.github.steveash.synthrec.domain.FieldSketch;
+import com.github.steveash.synthrec.domain.MultivalueString;
+import com.github.steveash.synthrec.domain.Record;
+import com.github.steveash.synthrec.generator.feature.CityBinFeature.CityBin;
+import com.github.steveash.synthrec.name.NameEntryField;
+import com.github.steveash.synthrec.name.NamePart;
+import com.github.steveash.synthrec.name.NameToken;
+import com.github.steveash.synthrec.name.PersonalName;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import it.unimi.dsi.fastutil.objects.AbstractObject2DoubleMap.BasicEntry;
+
+/**
+ * @author Steve Ash
+ */
+public class RecordSpillFileTest {
+
+    private static final FeatureKey<PersonalName> NAME = new FeatureKey<>("spillTestName", PersonalName.class);
+    private static final FeatureKey<Address> ADDRESS = new FeatureKey<>("spillTestAddress", Address.class);
+    private static final FeatureKey<FieldSketch> SKETCH = new FeatureKey<>("spillTestSketch", FieldSketch.class);
+    private static final FeatureKey<LocalDate> DOB = new FeatureKey<>("spillTestDob", LocalDate.class);
+    private static final FeatureKey<CityBin> BIN = new FeatureKey<>("spillTestBin", CityBin.class);
+    private static final FeatureKey<Integer> AGE = new FeatureKey<>("spillTestAge", Integer.class);
+    private static final FeatureKey<MultivalueString> NAMEISH = new FeatureKey<>("spillTestNameish", MultivalueString.class);
+    private static final RecordSpillFile.Source SOURCE = new RecordSpillFile.Source("input.csv", 1234, 5678, "abc");
+
+    @Test
+    public void shouldRoundTripProcessedRecords() throws Exception {
+        File file = File.createTempFile("records", ".spill");
+        file.deleteOnExit();
+        try (RecordSpillFile.Writer writer = RecordSpillFile.create(file, SOURCE)) {
+            for (int i = 1; i <= 3; i++) {
+                writer.write(makeRecord(i));
+            }
+            writer.commit();
+        }
+        assertTrue(RecordSpillFile.isSpillOf(file, SOURCE));
+
+        List<Record> records;
+        try (Stream<Record> stream = RecordSpillFile.stream(file)) {
+            records = stream.collect(toList());
+        }
+        assertEquals(3, records.size());
+        Record rec = records.get(1);
+        assertEquals(2, rec.getRecordId());
+        assertEquals(makeRecord(2).fields(), rec.fields());
+        assertEquals("STEVE2", rec.getNormal("spillTestGiven", null));
+
+        PersonalName name = rec.getFeature(NAME, null);
+        assertEquals("steve2 ash", name.getInput());
+        assertEquals(0.5, name.getScore(), 0.0);
+        assertEquals("ENGLISH", name.getCulture());
+        assertEquals(2, name.size());
+        assertEquals(NamePart.Surname, name.get(1).getPart());
+        assertEquals(NameEntryField.LastName, name.get(1).getEntryField());
+        assertEquals(ImmutableSet.of("AX"), name.get(1).getPhoneticEncoded());
+        assertEquals(0.75, name.get(1).getCultures().get(0).getDoubleValue(), 0.0);
+
+        Address address = rec.getFeature(ADDRESS, null);
+        assertEquals(2, address.size());
+        assertEquals("MAIN", address.get(1).word);
+        assertEquals(AddressTag.StreetName, address.get(1).semanticTag);
+
+        assertEquals(makeSketch(2), rec.getFeature(SKETCH, null));
+        assertEquals(LocalDate.of(1980, 1, 2), rec.getFeature(DOB, null));
+        assertEquals(CityBin.Large, rec.getFeature(BIN, null));
+        assertEquals(42, (int) rec.getFeature(AGE, null));
+        assertEquals(ImmutableList.of("STEVE", "STEPHEN"), rec.getFeature(NAMEISH, null).getValueBag());
+    }
+
+    @Test
+    public void shouldReplaceSpillWhenInputOrConfigChanges() throws Exception {
+        File file = File.createTempFile("records", ".spill");
+        file.deleteOnExit();
+        try (RecordSpillFile.Writer writer = RecordSpillFile.create(file, SOURCE)) {
+            writer.write(makeRecord(1));
+            writer.commit();
+        }
+        assertTrue(RecordSpillFile.isSpillOf(file, new RecordSpillFile.Source("input.csv", 1234, 5678, "abc")));
+        assertFalse(RecordSpillFile.isSpillOf(file, new RecordSpillFile.Source("other.csv", 1234, 5678, "abc")));
+        assertFalse(RecordSpillFile.isSpillOf(file, new RecordSpillFile.Source("input.csv", 1235, 5678, "abc")));
+        assertFalse(RecordSpillFile.isSpillOf(file, new RecordSpillFile.Source("input.csv", 1234, 5679, "abc")));
+        assertFalse(RecordSpillFile.isSpillOf(file, new RecordSpillFile.Source("input.csv", 1234, 5678, "abd")));
+    }
+
+    @Test
+    public void shouldDiscardUncommittedSpill() throws Exception {
+        File file = File.createTempFile("records", ".spill");
+        assertTrue(file.delete());
+        try (RecordSpillFile.Writer writer = RecordSpillFile.create(file, SOURCE)) {
+            writer.write(makeRecord(1));
+        }
+        assertFalse(file.exists());
+        assertFalse(new File(file.getPath() + ".partial").exists());
+    }
+
+    private static Record makeRecord(int id) {
+        Record rec = new Record(id);
+        rec.setInitialValue("spillTestGiven", "steve" + id);
+        rec.setInitialValue("spillTestFamily", "ash");
+        rec.setNormal("spillTestGiven", "STEVE" + id);
+        NameToken given = NameToken.make("steve" + id, "STEVE", "STEVE", "STEVE", ImmutableSet.of("STF"),
+                NameEntryField.FirstName).withPart(NamePart.GivenName);
+        NameToken family = NameToken.make("ash", "ASH", "ASH", "ASH", ImmutableSet.of("AX"),
+                NameEntryField.LastName)
+                .withPart(NamePart.Surname)
+                .withCultures(ImmutableList.of(new BasicEntry<>("ENGLISH", 0.75)));
+        rec.setFeature(NAME, PersonalName.make("steve" + id + " ash", ImmutableList.of(given, family), 0.5)
+                .withCulture("ENGLISH", "ENGLISH", "ENGLISH"));
+        rec.setFeature(ADDRESS, new SimpleAddress(ImmutableList.of(
+                new AddressSegment("123", AddressTag.StreetNumber),
+                new AddressSegment("MAIN", AddressTag.StreetName)
+        )));
+        rec.setFeature(SKETCH, makeSketch(id));
+        rec.setFeature(DOB, LocalDate.of(1980, 1, 2));
+        rec.setFeature(BIN, CityBin.Large);
+        rec.setFeature(AGE, 42);
+        rec.setFeature(NAMEISH, new MultivalueString("STEVE", "STEPHEN"));
+        return rec;
+    }
+
+    private static FieldSketch makeSketch(int id) {
+        return FieldSketch.builder()
+                .addPlaceholder("GIVEN", "STEVE" + id)
+                .addLiteral("SUFFIX", "JR")
+                .build();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.generator.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import com.github.steveash.synthrec.generator.PipelineConfig;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * @author Steve Ash
+ */
+public class StagedPipelineTest {
+
+    @Rule
+    public Timeout timeout = new Timeout(15, TimeUnit.SECONDS);
+
+    @Test
+    public void shouldRunEveryItemThroughEveryStage() throws Exception {
+        AtomicLong sum = new AtomicLong();
+        AtomicLong sunk = new AtomicLong();
+        AtomicBoolean succeeded = new AtomicBoolean();
+        AtomicBoolean closed = new AtomicBoolean();
+        long read = StagedPipeline.readFrom("test", IntStream.range(0, 10_000).boxed().spliterator(), makeConfig())
+                .then("double", i -> i * 2)
+                .then("evens", i -> (i % 4 == 0 ? i : null))
+                .onSuccess(() -> succeeded.set(true))
+                .onClose(() -> closed.set(true))
+                .runInto("sum", i -> {sum.addAndGet(i); sunk.incrementAndGet();});
+
+        assertEquals(10_000, read);
+        assertEquals(5_000, sunk.get());
+        // 4 * (0 + 1 + ... + 4999)
+        assertEquals(4L * 4999 * 5000 / 2, sum.get());
+        assertTrue(succeeded.get());
+        assertTrue(closed.get());
+    }
+
+    @Test
+    public void shouldFailWhenAStageFails() throws Exception {
+        AtomicBoolean succeeded = new AtomicBoolean();
+        AtomicBoolean closed = new AtomicBoolean();
+        try {
+            StagedPipeline.readFrom("test", IntStream.range(0, 10_000).boxed().spliterator(), makeConfig())
+                    .then("boom", i -> {
+                        if (i == 5_000) {
+                            throw new IllegalArgumentException("bad record");
+                        }
+                        return i;
+                    })
+                    .onSuccess(() -> succeeded.set(true))
+                    .onClose(() -> closed.set(true))
+                    .runInto("sink", i -> {});
+            fail("shouldve failed");
+        } catch (UncheckedExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertTrue(!succeeded.get());
+        assertTrue(closed.get());
+    }
+
+    private static PipelineConfig makeConfig() {
+        PipelineConfig config = new PipelineConfig();
+        config.setReaderThreads(2);
+        config.setStageThreads(3);
+        config.setQueueCapacity(2);
+        config.setBatchSize(16);
+        return config;
+    }
+}
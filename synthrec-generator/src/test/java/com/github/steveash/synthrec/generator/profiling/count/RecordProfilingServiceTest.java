@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2017, Steve Ash
+ *
+ * This file is part of Syngen.
+ * Syngen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syngen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Syngen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.steveash.synthrec.generator.profiling.count;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.github.steveash.synthrec.count.CountAssignment;
+import com.github.steveash.synthrec.count.CountDag;
+import com.github.steveash.synthrec.count.CountDagCodec;
+import com.github.steveash.synthrec.count.CountFactor;
+import com.github.steveash.synthrec.generator.reducer.SimpleTokenReducer;
+import com.github.steveash.synthrec.reducer.ValueReducerRegistry;
+import com.github.steveash.synthrec.stat.MutableMultinomial;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * @author Steve Ash
+ */
+public class RecordProfilingServiceTest {
+
+    // short values with a count of 5 or less are reduced to their pattern
+    private static final ValueReducerRegistry REDUCERS = field -> new SimpleTokenReducer(5);
+
+    @Test
+    public void shouldAppendSameAsProfilingAll() throws Exception {
+        List<CountAssignment> first = Lists.newArrayList();
+        addTimes(first, "ab", 3); // reduced in the first but not once the second is appended
+        addTimes(first, "zz", 2); // reduced in both
+        addTimes(first, "x12", 1); // always reduced
+        addTimes(first, "qq", 6);
+        addTimes(first, "hello", 10);
+        List<CountAssignment> second = Lists.newArrayList();
+        addTimes(second, "ab", 4);
+        addTimes(second, "zz", 1);
+        addTimes(second, "cd", 2); // only in the second
+        addTimes(second, "hello", 3);
+
+        CountDag all = makeDag();
+        first.forEach(all::add);
+        second.forEach(all::add);
+        all.compactCounts();
+        RecordProfilingService.reduceMarkedFactors(all, null, REDUCERS);
+
+        CountDag existing = makeDag();
+        first.forEach(existing::add);
+        existing.compactCounts();
+        RecordProfilingService.reduceMarkedFactors(existing, null, REDUCERS);
+        CountDag delta = existing.newShard();
+        second.forEach(delta::add);
+        delta.compactCounts();
+        existing.mergeFrom(delta);
+        existing.compactCounts();
+        RecordProfilingService.reduceMarkedFactors(existing, delta, REDUCERS);
+
+        MutableMultinomial<Object> expected = all.getFactorGroup("T").makeUnconditionalUnaryCopy();
+        MutableMultinomial<Object> actual = existing.getFactorGroup("T").makeUnconditionalUnaryCopy();
+        assertEquals(7.0, expected.get("ab"), 0.0001);
+        assertFalse(expected.keySet().contains("zz"));
+        assertSameDist(expected, actual);
+        assertSameDist(all.getFactorGroup("A").makeUnconditionalUnaryCopy(),
+                existing.getFactorGroup("A").makeUnconditionalUnaryCopy());
+        assertSameDist(all.getFactorStats("T").getValueVocab().convertToMultinomial(),
+                existing.getFactorStats("T").getValueVocab().convertToMultinomial());
+    }
+
+    @Test
+    public void shouldNotWriteOriginals() throws Exception {
+        CountDag dag = makeDag();
+        List<CountAssignment> records = Lists.newArrayList();
+        addTimes(records, "ab", 2);
+        records.forEach(dag::add);
+        dag.compactCounts();
+        RecordProfilingService.reduceMarkedFactors(dag, null, REDUCERS);
+
+        dag = roundtrip(dag);
+        assertFalse(dag.getFactorStats("T").getValueVocab().getVocab().contains("ab"));
+        // without the original the next "ab" is just a new value
+        CountDag delta = dag.newShard();
+        List<CountAssignment> more = Lists.newArrayList();
+        addTimes(more, "ab", 4);
+        more.forEach(delta::add);
+        assertTrue(delta.getFactorStats("T").getValueVocab().getVocab().contains("ab"));
+    }
+
+    private static void assertSameDist(MutableMultinomial<Object> expected, MutableMultinomial<Object> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Object key : expected.keySet()) {
+            assertEquals("for " + key, expected.get(key), actual.get(key), 0.0001);
+        }
+    }
+
+    private static CountDag roundtrip(CountDag dag) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CountDagCodec.write(dag, bytes);
+        return CountDagCodec.read(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    private static CountDag makeDag() {
+        CountDag dag = new CountDag();
+        CountFactor a = dag.newFactor("A");
+        CountFactor t = dag.newFactor("T");
+        dag.countIndependant(a);
+        dag.countIndependant(t);
+        dag.markFactorReduced(t);
+        dag.freeze();
+        return dag;
+    }
+
+    private static void addTimes(List<CountAssignment> sink, String token, int times) {
+        for (int i = 0; i < times; i++) {
+            Map<String, Object> values = Maps.newHashMap();
+            values.put("A", "a" + (sink.size() % 3));
+            values.put("T", token);
+            sink.add(CountAssignment.fromObserved(values));
+        }
+    }
+}